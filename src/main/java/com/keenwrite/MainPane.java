@@ -16,10 +16,12 @@ import com.keenwrite.io.MediaType;
 import com.keenwrite.io.MediaTypeExtension;
 import com.keenwrite.preferences.Workspace;
 import com.keenwrite.preview.HtmlPreview;
+import com.keenwrite.processors.ExecutorProcessor;
 import com.keenwrite.processors.HtmlPreviewProcessor;
 import com.keenwrite.processors.Processor;
 import com.keenwrite.processors.ProcessorContext;
 import com.keenwrite.processors.ProcessorFactory;
+import com.keenwrite.processors.RenderScheduler;
 import com.keenwrite.processors.r.Engine;
 import com.keenwrite.processors.r.RBootstrapController;
 import com.keenwrite.service.events.Notifier;
@@ -37,7 +39,6 @@ import com.panemu.tiwulfx.control.dock.DetachableTabPane;
 import javafx.application.Platform;
 import javafx.beans.property.*;
 import javafx.collections.ListChangeListener;
-import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.Event;
 import javafx.event.EventHandler;
@@ -57,7 +58,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -80,7 +81,6 @@ import static com.keenwrite.processors.ProcessorContext.Mutator;
 import static com.keenwrite.processors.ProcessorContext.builder;
 import static com.keenwrite.processors.ProcessorFactory.createProcessors;
 import static java.awt.Desktop.getDesktop;
-import static java.util.concurrent.Executors.newFixedThreadPool;
 import static java.util.concurrent.Executors.newScheduledThreadPool;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.groupingBy;
@@ -103,7 +103,12 @@ import static org.fxmisc.wellbehaved.event.EventPattern.keyPressed;
  */
 public final class MainPane extends SplitPane {
 
-  private static final ExecutorService sExecutor = newFixedThreadPool( 1 );
+  /**
+   * Coalesces rapid-fire processing requests (e.g., fast typing) so that at
+   * most one render is pending per editor.
+   */
+  private static final RenderScheduler<TextEditor> sScheduler =
+    new RenderScheduler<>();
   private static final Notifier sNotifier = Services.load( Notifier.class );
 
   /**
@@ -233,7 +238,7 @@ public final class MainPane extends SplitPane {
    * Called when spellchecking can be run. This will reload the dictionary
    * into memory once, and then re-use it for all the existing text editors.
    *
-   * @param event The event to process, having a populated word-frequency map.
+   * @param event The event to process, having a compiled lexicon.
    */
   @Subscribe
   public void handle( final LexiconLoadedEvent event ) {
@@ -880,37 +885,38 @@ public final class MainPane extends SplitPane {
   private void process( final TextEditor editor ) {
     // Ensure processing does not run on the JavaFX thread, which frees the
     // text editor immediately for caret movement. The preview will have a
-    // slight delay when catching up to the caret position.
-    final var task = new Task<Void>() {
-      @Override
-      public Void call() {
-        try {
-          final var p = mProcessors.getOrDefault( editor, IDENTITY );
-          p.apply( editor == null ? "" : editor.getText() );
-        } catch( final Exception ex ) {
-          clue( ex );
-        }
+    // slight delay when catching up to the caret position. Only the latest
+    // snapshot of the text is rendered; stale requests are dropped.
+    final var text = editor == null ? "" : editor.getText();
 
-        return null;
-      }
-    };
+    sScheduler.submit( editor, cancelled -> {
+      try {
+        final var p = mProcessors.getOrDefault( editor, IDENTITY );
 
-    // TODO: Each time the editor successfully runs the processor the task is
-    //   considered successful. Due to the rapid-fire nature of processing
-    //   (e.g., keyboard navigation, fast typing), it isn't necessary to
-    //   scroll each time.
-    //   The algorithm:
-    //   1. Peek at the oldest time.
-    //   2. If the difference between the oldest time and current time exceeds
-    //      250 milliseconds, then invoke the scrolling.
-    //   3. Insert the current time into the circular queue.
-    task.setOnSucceeded(
-      e -> invokeLater( () -> mPreview.scrollTo( CARET_ID ) )
-    );
+        if( p instanceof ExecutorProcessor<String> executor ) {
+          executor.apply( text, cancelled );
+        }
+        else {
+          p.apply( text );
+        }
 
-    // Prevents multiple process requests from executing simultaneously (due
-    // to having a restricted queue size).
-    sExecutor.execute( task );
+        // TODO: Each time the editor successfully runs the processor the
+        //   preview is scrolled. Due to the rapid-fire nature of processing
+        //   (e.g., keyboard navigation, fast typing), it isn't necessary to
+        //   scroll each time.
+        //   The algorithm:
+        //   1. Peek at the oldest time.
+        //   2. If the difference between the oldest time and current time
+        //      exceeds 250 milliseconds, then invoke the scrolling.
+        //   3. Insert the current time into the circular queue.
+        invokeLater( () -> mPreview.scrollTo( CARET_ID ) );
+      } catch( final CancellationException ex ) {
+        // Superseded by a newer request; let the scheduler count it.
+        throw ex;
+      } catch( final Exception ex ) {
+        clue( ex );
+      }
+    } );
   }
 
   /**
@@ -1051,6 +1057,7 @@ public final class MainPane extends SplitPane {
 
     return builder()
       .with( Mutator::setDefinitions, this::getDefinitions )
+      .with( Mutator::setDefinitionsVersion, this::getDefinitionsVersion )
       .with( Mutator::setLocale, w::getLocale )
       .with( Mutator::setMetadata, w::getMetadata )
       .with( Mutator::setThemesDir, w::getThemesPath )
@@ -1336,6 +1343,16 @@ public final class MainPane extends SplitPane {
     return getTextDefinition().getDefinitions();
   }
 
+  /**
+   * Returns a value that changes whenever the active variable definitions
+   * change, including when a different definition file is opened.
+   *
+   * @return The version of the active definitions.
+   */
+  private long getDefinitionsVersion() {
+    return getTextDefinition().getVersion();
+  }
+
   public Window getWindow() {
     return getScene().getWindow();
   }
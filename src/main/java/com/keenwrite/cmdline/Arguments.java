@@ -248,6 +248,7 @@ public final class Arguments implements Callable<Integer> {
       .with( Mutator::setFontsDir, () -> mFontDir )
       .with( Mutator::setExportFormat, format )
       .with( Mutator::setDefinitions, () -> definitions )
+      .with( Mutator::setDefinitionsVersion, () -> 0 )
       .with( Mutator::setMetadata, () -> mMetadata )
       .with( Mutator::setLocale, () -> locale )
       .with( Mutator::setConcatenate, () -> mConcatenate )
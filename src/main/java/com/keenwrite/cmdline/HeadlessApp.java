@@ -2,6 +2,7 @@ package com.keenwrite.cmdline;
 
 import com.keenwrite.AppCommands;
 import com.keenwrite.events.StatusEvent;
+import com.keenwrite.events.TypesetEvent;
 import org.greenrobot.eventbus.Subscribe;
 
 import static com.keenwrite.events.Bus.register;
@@ -43,6 +44,19 @@ public class HeadlessApp {
     }
   }
 
+  /**
+   * When the typesetting engine reports progress, write it to the console,
+   * if not in quiet mode.
+   *
+   * @param event The event published when typesetting progresses.
+   */
+  @Subscribe
+  public void handle( final TypesetEvent event ) {
+    if( !mArgs.quiet() ) {
+      System.out.println( event );
+    }
+  }
+
   /**
    * Entry point for running the application in headless mode.
    *
@@ -3,28 +3,517 @@ package com.keenwrite.collections;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 /**
- * A map that removes the oldest entry once its capacity (cache size) has
- * been reached.
+ * A thread-safe cache that removes the least recently used entries once the
+ * total weight of its entries exceeds its capacity. By default, every entry
+ * weighs one unit, making the capacity a maximum number of entries; a
+ * weigher allows large values (e.g., images) to count for more than small
+ * values (e.g., short strings).
+ * <p>
+ * Entries are spread across independently locked shards so that threads
+ * accessing different keys rarely contend. Each shard orders its entries by
+ * access; eviction removes whichever shard's least recently used entry was
+ * accessed longest ago, which is the least recently used entry overall.
+ * </p>
+ * <p>
+ * When admission is enabled, a new entry that would cause an eviction is
+ * only retained if its key has been requested more often, recently, than
+ * the key of the entry that would be evicted (TinyLFU). This keeps a burst
+ * of one-off lookups from flushing frequently used entries.
+ * </p>
  *
  * @param <K> The type of key mapped to a value.
  * @param <V> The type of value mapped to a key.
  */
-public final class BoundedCache<K, V> extends LinkedHashMap<K, V> {
-  private final int mCacheSize;
+public final class BoundedCache<K, V> {
+  private static final int MAX_SHARDS = 16;
+
+  private final Shard<K, V>[] mShards;
+  private final long mCapacity;
+  private final ToLongBiFunction<? super K, ? super V> mWeigher;
+  private final boolean mAdmission;
+
+  /**
+   * Sum of the weights of all entries in all shards.
+   */
+  private final AtomicLong mWeight = new AtomicLong();
 
   /**
-   * Constructs a new instance having a finite size.
+   * Orders accesses across shards.
+   */
+  private final AtomicLong mTick = new AtomicLong();
+
+  private final LongAdder mHits = new LongAdder();
+  private final LongAdder mMisses = new LongAdder();
+  private final LongAdder mEvictions = new LongAdder();
+  private final LongAdder mRejections = new LongAdder();
+
+  /**
+   * Constructs a new instance having a finite number of entries.
    *
    * @param cacheSize The maximum number of entries.
    */
   public BoundedCache( final int cacheSize ) {
-    mCacheSize = cacheSize;
+    this( cacheSize, ( k, v ) -> 1 );
+  }
+
+  /**
+   * Constructs a new instance having a finite total weight.
+   *
+   * @param capacity The maximum total weight of all entries.
+   * @param weigher  Computes the weight of an entry, which must not change
+   *                 while the entry is cached.
+   */
+  public BoundedCache(
+    final long capacity,
+    final ToLongBiFunction<? super K, ? super V> weigher ) {
+    this( capacity, weigher, false );
+  }
+
+  /**
+   * Constructs a new instance having a finite total weight.
+   *
+   * @param capacity  The maximum total weight of all entries.
+   * @param weigher   Computes the weight of an entry, which must not change
+   *                  while the entry is cached.
+   * @param admission Set {@code true} to retain new entries that would cause
+   *                  an eviction only if they are used more frequently than
+   *                  the entry that would be evicted.
+   */
+  @SuppressWarnings( "unchecked" )
+  public BoundedCache(
+    final long capacity,
+    final ToLongBiFunction<? super K, ? super V> weigher,
+    final boolean admission ) {
+    assert capacity > 0;
+    assert weigher != null;
+
+    final var cpus = Runtime.getRuntime().availableProcessors();
+    final var shards = min( MAX_SHARDS, Integer.highestOneBit( cpus ) );
+
+    mShards = new Shard[ shards ];
+    mCapacity = capacity;
+    mWeigher = weigher;
+    mAdmission = admission;
+
+    for( var i = 0; i < shards; i++ ) {
+      mShards[ i ] = new Shard<>( admission );
+    }
+  }
+
+  /**
+   * Returns the value associated with the given key.
+   *
+   * @param key The key to look up.
+   * @return The cached value, or {@code null} if not cached.
+   */
+  public V get( final K key ) {
+    assert key != null;
+
+    final var shard = shard( key );
+    final V value;
+
+    synchronized( shard ) {
+      shard.record( key );
+
+      final var node = shard.mEntries.get( key );
+
+      if( node == null ) {
+        value = null;
+      }
+      else {
+        node.mTick = mTick.incrementAndGet();
+        value = node.mValue;
+      }
+    }
+
+    (value == null ? mMisses : mHits).increment();
+
+    return value;
+  }
+
+  /**
+   * Returns the value associated with the given key, computing the value
+   * if it is not cached. The function is called without holding any locks,
+   * so it may be called more than once when different threads request the
+   * same missing key concurrently; the first value cached is returned.
+   *
+   * @param key      The key to look up.
+   * @param function Computes a value for the key, which may return
+   *                 {@code null} to indicate that nothing is to be cached.
+   * @return The cached or computed value, possibly {@code null}.
+   */
+  public V computeIfAbsent(
+    final K key, final Function<? super K, ? extends V> function ) {
+    assert function != null;
+
+    final var cached = get( key );
+
+    if( cached != null ) {
+      return cached;
+    }
+
+    final V value = function.apply( key );
+
+    return value == null ? null : insert( key, value, false );
+  }
+
+  /**
+   * Associates the given value with the given key, replacing any value that
+   * was previously cached for the key.
+   *
+   * @param key   The key to associate with the value.
+   * @param value The value to cache.
+   */
+  public void put( final K key, final V value ) {
+    assert key != null;
+    assert value != null;
+
+    insert( key, value, true );
+  }
+
+  /**
+   * Removes the value associated with the given key.
+   *
+   * @param key The key to remove.
+   */
+  public void remove( final K key ) {
+    assert key != null;
+
+    final var shard = shard( key );
+
+    synchronized( shard ) {
+      final var node = shard.mEntries.remove( key );
+
+      if( node != null ) {
+        mWeight.addAndGet( -node.mWeight );
+      }
+    }
+  }
+
+  /**
+   * Removes all entries; the counters are retained.
+   */
+  public void clear() {
+    for( final var shard : mShards ) {
+      synchronized( shard ) {
+        for( final var node : shard.mEntries.values() ) {
+          mWeight.addAndGet( -node.mWeight );
+        }
+
+        shard.mEntries.clear();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of cached entries.
+   *
+   * @return The number of entries across all shards.
+   */
+  public int size() {
+    var size = 0;
+
+    for( final var shard : mShards ) {
+      synchronized( shard ) {
+        size += shard.mEntries.size();
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * Returns the total weight of all cached entries.
+   *
+   * @return A value no greater than the capacity, once insertions settle.
+   */
+  public long getWeight() {
+    return mWeight.get();
+  }
+
+  /**
+   * Returns the maximum total weight of all cached entries.
+   *
+   * @return The capacity given at construction time.
+   */
+  public long getCapacity() {
+    return mCapacity;
+  }
+
+  /**
+   * Returns the number of lookups that found a cached value.
+   *
+   * @return The number of cache hits.
+   */
+  public long getHitCount() {
+    return mHits.sum();
+  }
+
+  /**
+   * Returns the number of lookups that did not find a cached value.
+   *
+   * @return The number of cache misses.
+   */
+  public long getMissCount() {
+    return mMisses.sum();
+  }
+
+  /**
+   * Returns the number of entries removed to stay within capacity.
+   *
+   * @return The number of evictions.
+   */
+  public long getEvictionCount() {
+    return mEvictions.sum();
+  }
+
+  /**
+   * Returns the number of values that were not cached, either because they
+   * weighed more than the capacity or because they were refused admission.
+   *
+   * @return The number of values not cached.
+   */
+  public long getRejectionCount() {
+    return mRejections.sum();
   }
 
   @Override
-  protected boolean removeEldestEntry( final Map.Entry<K, V> eldest ) {
-    return size() > mCacheSize;
+  public String toString() {
+    return String.format(
+      "size=%d, weight=%d/%d, hits=%d, misses=%d, evictions=%d, rejected=%d",
+      size(),
+      getWeight(),
+      getCapacity(),
+      getHitCount(),
+      getMissCount(),
+      getEvictionCount(),
+      getRejectionCount()
+    );
+  }
+
+  /**
+   * Caches the given value, then evicts entries until the total weight no
+   * longer exceeds the capacity.
+   *
+   * @param key     The key to associate with the value.
+   * @param value   The value to cache.
+   * @param replace Set {@code false} to retain a value that was cached by
+   *                another thread since the key was found to be missing.
+   * @return The value associated with the key.
+   */
+  private V insert( final K key, final V value, final boolean replace ) {
+    final var weight = mWeigher.applyAsLong( key, value );
+
+    if( weight > mCapacity ) {
+      remove( key );
+      mRejections.increment();
+      return value;
+    }
+
+    final var shard = shard( key );
+    final var node = new Node<>( value, weight, mTick.incrementAndGet() );
+    final boolean added;
+
+    synchronized( shard ) {
+      final var existing = shard.mEntries.get( key );
+
+      if( existing != null && !replace ) {
+        return existing.mValue;
+      }
+
+      shard.mEntries.put( key, node );
+      added = existing == null;
+      final var delta = existing == null ? weight : weight - existing.mWeight;
+      mWeight.addAndGet( delta );
+    }
+
+    evict( key, node, added && mAdmission );
+
+    return value;
+  }
+
+  /**
+   * Removes least recently used entries until the total weight no longer
+   * exceeds the capacity.
+   *
+   * @param key   The key of the entry that was inserted.
+   * @param node  The entry that was inserted, which is not a candidate for
+   *              eviction unless it is refused admission.
+   * @param admit Set {@code true} to refuse admission to the inserted entry
+   *              if it is used less frequently than the eviction victim.
+   */
+  private void evict( final K key, final Node<V> node, final boolean admit ) {
+    while( mWeight.get() > mCapacity ) {
+      Shard<K, V> victimShard = null;
+      Map.Entry<K, Node<V>> victim = null;
+
+      for( final var shard : mShards ) {
+        synchronized( shard ) {
+          for( final var entry : shard.mEntries.entrySet() ) {
+            if( entry.getValue() == node ) {
+              continue;
+            }
+
+            if( victim == null ||
+                entry.getValue().mTick < victim.getValue().mTick ) {
+              victimShard = shard;
+              victim = entry;
+            }
+
+            // Shards are ordered by access, so only the first entry that is
+            // not the inserted entry could be least recently used.
+            break;
+          }
+        }
+      }
+
+      if( victim == null ) {
+        return;
+      }
+
+      if( admit && frequency( key ) < frequency( victim.getKey() ) ) {
+        final var shard = shard( key );
+
+        synchronized( shard ) {
+          if( shard.mEntries.remove( key, node ) ) {
+            mWeight.addAndGet( -node.mWeight );
+            mRejections.increment();
+          }
+        }
+
+        return;
+      }
+
+      synchronized( victimShard ) {
+        final var victimNode = victim.getValue();
+
+        if( victimShard.mEntries.remove( victim.getKey(), victimNode ) ) {
+          mWeight.addAndGet( -victimNode.mWeight );
+          mEvictions.increment();
+        }
+      }
+    }
+  }
+
+  private int frequency( final K key ) {
+    final var shard = shard( key );
+
+    synchronized( shard ) {
+      return shard.frequency( key );
+    }
+  }
+
+  private Shard<K, V> shard( final K key ) {
+    return mShards[ spread( key.hashCode() ) & (mShards.length - 1) ];
+  }
+
+  /**
+   * Spreads the bits of the given hash code so that keys having similar
+   * hash codes are distributed across shards and sketch counters.
+   */
+  private static int spread( final int hash ) {
+    final var h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * A cached value along with its weight and when it was last accessed.
+   */
+  private static final class Node<V> {
+    private final V mValue;
+    private final long mWeight;
+    private long mTick;
+
+    private Node( final V value, final long weight, final long tick ) {
+      mValue = value;
+      mWeight = weight;
+      mTick = tick;
+    }
+  }
+
+  /**
+   * Entries ordered from least to most recently accessed, along with an
+   * approximate count of how often each key was requested. Callers must
+   * synchronize on the shard.
+   */
+  private static final class Shard<K, V> {
+    private static final int SKETCH_ROWS = 4;
+    private static final int SKETCH_WIDTH = 1 << 10;
+    private static final int SKETCH_MAXIMUM = 15;
+
+    /**
+     * Counters are halved after this many increments, so that frequencies
+     * reflect recent usage.
+     */
+    private static final int SKETCH_PERIOD = SKETCH_WIDTH * 10;
+
+    private final Map<K, Node<V>> mEntries =
+      new LinkedHashMap<>( 16, 0.75f, true );
+
+    /**
+     * Count-min sketch of key frequencies, or {@code null} when admission
+     * is disabled.
+     */
+    private final byte[][] mSketch;
+    private int mIncrements;
+
+    private Shard( final boolean admission ) {
+      mSketch = admission ? new byte[ SKETCH_ROWS ][ SKETCH_WIDTH ] : null;
+    }
+
+    private void record( final K key ) {
+      if( mSketch == null ) {
+        return;
+      }
+
+      final var hash = key.hashCode();
+
+      for( var row = 0; row < SKETCH_ROWS; row++ ) {
+        final var counters = mSketch[ row ];
+        final var i = index( hash, row );
+
+        if( counters[ i ] < SKETCH_MAXIMUM ) {
+          counters[ i ]++;
+        }
+      }
+
+      if( ++mIncrements >= SKETCH_PERIOD ) {
+        for( final var counters : mSketch ) {
+          for( var i = 0; i < counters.length; i++ ) {
+            counters[ i ] >>= 1;
+          }
+        }
+
+        mIncrements = 0;
+      }
+    }
+
+    private int frequency( final K key ) {
+      if( mSketch == null ) {
+        return 0;
+      }
+
+      final var hash = key.hashCode();
+      var frequency = Integer.MAX_VALUE;
+
+      for( var row = 0; row < SKETCH_ROWS; row++ ) {
+        frequency = min( frequency, mSketch[ row ][ index( hash, row ) ] );
+      }
+
+      return max( 0, frequency );
+    }
+
+    private static int index( final int hash, final int row ) {
+      return spread( hash + row * 0x61C88647 ) & (SKETCH_WIDTH - 1);
+    }
   }
 }
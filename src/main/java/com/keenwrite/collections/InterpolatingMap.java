@@ -52,14 +52,15 @@ public class InterpolatingMap extends ConcurrentHashMap<String, String> {
   /**
    * Interpolates all values in the map that reference other values by way
    * of key names. Performs a non-greedy match of key names delimited by
-   * definition tokens. This operation modifies the map directly.
+   * definition tokens. This operation modifies the map directly. Each value
+   * is resolved once, regardless of how many values reference it; values
+   * that reference each other in a cycle are left unexpanded.
    *
    * @return {@code this}
+   * @see Interpolator
    */
   public InterpolatingMap interpolate() {
-    for( final var k : keySet() ) {
-      replace( k, interpolate( get( k ) ) );
-    }
+    putAll( new Interpolator().interpolate( mOperator, this ) );
 
     return this;
   }
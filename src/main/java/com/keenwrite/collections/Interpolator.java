@@ -0,0 +1,321 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.collections;
+
+import com.keenwrite.sigils.SigilKeyOperator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static java.lang.Math.min;
+
+/**
+ * Responsible for interpolating definitions incrementally. The key names
+ * referenced by each value form a dependency graph that is retained between
+ * calls, along with every resolved value. When the definitions change, only
+ * the changed keys and the keys that depend on them, directly or
+ * transitively, are resolved again.
+ * <p>
+ * References to keys that lie on a cycle are left unexpanded, whichever
+ * key of the cycle is resolved first, as are references to keys that are
+ * not defined.
+ * </p>
+ */
+public final class Interpolator {
+  private static final int GROUP_DELIMITED = 1;
+
+  /**
+   * Marks where key names begin and end within values.
+   */
+  private SigilKeyOperator mOperator;
+
+  /**
+   * Values as they were given, before interpolation.
+   */
+  private final Map<String, String> mDefinitions = new HashMap<>();
+
+  /**
+   * Values with all resolvable references interpolated.
+   */
+  private final Map<String, String> mResolved = new HashMap<>();
+
+  /**
+   * Maps keys to the key names that their values reference.
+   */
+  private final Map<String, Set<String>> mReferences = new HashMap<>();
+
+  /**
+   * Maps key names to the keys having values that reference them. A key
+   * name need not be defined to have dependents.
+   */
+  private final Map<String, Set<String>> mDependents = new HashMap<>();
+
+  /**
+   * Keys that reference themselves, directly or transitively. References
+   * to these keys are never expanded, so that the result does not depend
+   * on which key of a cycle happens to be resolved first.
+   */
+  private final Set<String> mCyclic = new HashSet<>();
+
+  /**
+   * Default (empty) constructor.
+   */
+  public Interpolator() { }
+
+  /**
+   * Interpolates the given definitions, resolving only the values affected
+   * by changes since the previous call.
+   *
+   * @param operator    Contains the opening and closing sigils that mark
+   *                    where variable names begin and end.
+   * @param definitions The definitions to interpolate, which are not
+   *                    modified.
+   * @return A new map containing the interpolated definitions.
+   */
+  public synchronized InterpolatingMap interpolate(
+    final SigilKeyOperator operator, final Map<String, String> definitions ) {
+    assert operator != null;
+    assert definitions != null;
+
+    if( !operator.equals( mOperator ) ) {
+      mOperator = operator;
+      mDefinitions.clear();
+      mResolved.clear();
+      mReferences.clear();
+      mDependents.clear();
+      mCyclic.clear();
+    }
+
+    final var changed = diff( definitions );
+
+    if( !changed.isEmpty() ) {
+      final var stale = dependents( changed );
+
+      for( final var key : changed ) {
+        unlink( key );
+
+        final var value = definitions.get( key );
+
+        if( value == null ) {
+          mDefinitions.remove( key );
+        }
+        else {
+          mDefinitions.put( key, value );
+          link( key, value );
+        }
+      }
+
+      mResolved.keySet().removeAll( stale );
+      mCyclic.removeAll( stale );
+      mCyclic.addAll( new CycleFinder( stale ).find() );
+
+      for( final var key : stale ) {
+        resolve( key );
+      }
+    }
+
+    return new InterpolatingMap( operator, mResolved );
+  }
+
+  /**
+   * Returns the keys that were added, removed, or given new values.
+   *
+   * @param definitions The definitions to compare against the previous call.
+   * @return The keys having values that differ from the previous call.
+   */
+  private Set<String> diff( final Map<String, String> definitions ) {
+    final var changed = new HashSet<String>();
+
+    definitions.forEach( ( k, v ) -> {
+      if( !v.equals( mDefinitions.get( k ) ) ) {
+        changed.add( k );
+      }
+    } );
+
+    for( final var key : mDefinitions.keySet() ) {
+      if( !definitions.containsKey( key ) ) {
+        changed.add( key );
+      }
+    }
+
+    return changed;
+  }
+
+  /**
+   * Returns the given keys along with every key that depends on them.
+   *
+   * @param keys The keys that have changed.
+   * @return The keys that must be resolved again.
+   */
+  private Set<String> dependents( final Set<String> keys ) {
+    final var result = new HashSet<>( keys );
+    final var pending = new ArrayDeque<>( keys );
+
+    while( !pending.isEmpty() ) {
+      final var dependents = mDependents.get( pending.pop() );
+
+      if( dependents != null ) {
+        for( final var dependent : dependents ) {
+          if( result.add( dependent ) ) {
+            pending.push( dependent );
+          }
+        }
+      }
+    }
+
+    return result;
+  }
+
+  private void link( final String key, final String value ) {
+    final var references = new HashSet<String>();
+    final var matcher = mOperator.match( value );
+
+    while( matcher.find() ) {
+      final var name = matcher.group( GROUP_DELIMITED );
+
+      references.add( name );
+      mDependents.computeIfAbsent( name, k -> new HashSet<>() ).add( key );
+    }
+
+    mReferences.put( key, references );
+  }
+
+  private void unlink( final String key ) {
+    final var references = mReferences.remove( key );
+
+    if( references != null ) {
+      for( final var name : references ) {
+        final var dependents = mDependents.get( name );
+
+        dependents.remove( key );
+
+        if( dependents.isEmpty() ) {
+          mDependents.remove( name );
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the interpolated value for the given key, resolving the values
+   * it references first. References to keys on a cycle are left as they
+   * are, which also prevents endless recursion.
+   *
+   * @param key The key having a value to resolve.
+   * @return The interpolated value, or {@code null} if the key is undefined.
+   */
+  private String resolve( final String key ) {
+    final var resolved = mResolved.get( key );
+
+    if( resolved != null ) {
+      return resolved;
+    }
+
+    final var value = mDefinitions.get( key );
+
+    if( value == null ) {
+      return null;
+    }
+
+    final var matcher = mOperator.match( value );
+    StringBuilder sb = null;
+    var index = 0;
+
+    while( matcher.find() ) {
+      final var name = matcher.group( GROUP_DELIMITED );
+      final var reference = mCyclic.contains( name ) ? null : resolve( name );
+
+      if( reference != null ) {
+        if( sb == null ) {
+          sb = new StringBuilder( value.length() + reference.length() );
+        }
+
+        sb.append( value, index, matcher.start() ).append( reference );
+        index = matcher.end();
+      }
+    }
+
+    final var result = sb == null
+      ? value
+      : sb.append( value, index, value.length() ).toString();
+
+    mResolved.put( key, result );
+
+    return result;
+  }
+
+  /**
+   * Responsible for finding the keys that lie on a cycle of references,
+   * using Tarjan's strongly connected components algorithm. Only the keys
+   * being resolved again are searched: no other key depends on them, so
+   * no other key can be on a cycle with them.
+   */
+  private final class CycleFinder {
+    private final Set<String> mKeys;
+    private final Map<String, Integer> mIndexes = new HashMap<>();
+    private final Map<String, Integer> mLowLinks = new HashMap<>();
+    private final Deque<String> mStack = new ArrayDeque<>();
+    private final Set<String> mStacked = new HashSet<>();
+    private final Set<String> mCycles = new HashSet<>();
+
+    private CycleFinder( final Set<String> keys ) {
+      mKeys = keys;
+    }
+
+    private Set<String> find() {
+      for( final var key : mKeys ) {
+        if( !mIndexes.containsKey( key ) ) {
+          visit( key );
+        }
+      }
+
+      return mCycles;
+    }
+
+    private void visit( final String key ) {
+      final var index = mIndexes.size();
+      final var references = mReferences.getOrDefault( key, Set.of() );
+
+      mIndexes.put( key, index );
+      mLowLinks.put( key, index );
+      mStack.push( key );
+      mStacked.add( key );
+
+      for( final var name : references ) {
+        if( !mKeys.contains( name ) ) {
+          continue;
+        }
+
+        if( !mIndexes.containsKey( name ) ) {
+          visit( name );
+          lower( key, mLowLinks.get( name ) );
+        }
+        else if( mStacked.contains( name ) ) {
+          lower( key, mIndexes.get( name ) );
+        }
+      }
+
+      if( mLowLinks.get( key ) == index ) {
+        final var component = new HashSet<String>();
+        String name;
+
+        do {
+          name = mStack.pop();
+          mStacked.remove( name );
+          component.add( name );
+        } while( !name.equals( key ) );
+
+        if( component.size() > 1 || references.contains( key ) ) {
+          mCycles.addAll( component );
+        }
+      }
+    }
+
+    private void lower( final String key, final int link ) {
+      mLowLinks.put( key, min( mLowLinks.get( key ), link ) );
+    }
+  }
+}
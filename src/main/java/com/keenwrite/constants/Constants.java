@@ -14,6 +14,8 @@ import static com.keenwrite.Bootstrap.APP_TITLE_LOWERCASE;
 import static com.keenwrite.Bootstrap.USER_DATA_DIR;
 import static com.keenwrite.preferences.LocaleScripts.withScript;
 import static java.io.File.separator;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.lang.String.format;
 import static java.lang.System.getProperty;
 import static org.apache.commons.lang3.SystemUtils.*;
@@ -100,6 +102,13 @@ public final class Constants {
   public static final String PERSIST_IMAGES_DEFAULT =
     get( "file.ext.image.order" );
 
+  /**
+   * Default number of threads that download, decode, and rasterize preview
+   * images.
+   */
+  public static final int IMAGES_THREADS_DEFAULT =
+    max( 2, min( 4, Runtime.getRuntime().availableProcessors() / 2 ) );
+
   /**
    * Default working directory to use for R startup script.
    */
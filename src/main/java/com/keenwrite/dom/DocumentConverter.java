@@ -102,4 +102,25 @@ public final class DocumentConverter extends W3CDom {
 
     return document;
   }
+
+  /**
+   * Creates a new document having the head of the given document and a body
+   * parsed from the given HTML fragment. This avoids parsing the same head
+   * (e.g., stylesheets) for every document that shares it.
+   *
+   * @param template The document having the head to copy, which is not
+   *                 modified.
+   * @param body     The HTML fragment to place inside the body element.
+   * @return The converted document as an object model.
+   */
+  public static org.jsoup.nodes.Document parse(
+    final org.jsoup.nodes.Document template, final String body ) {
+    assert template != null;
+    assert body != null;
+
+    final var document = template.clone();
+    document.body().html( body );
+
+    return document;
+  }
 }
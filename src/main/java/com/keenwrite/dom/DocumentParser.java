@@ -17,8 +17,8 @@ import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.*;
 import java.nio.file.Path;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 import static com.keenwrite.events.StatusEvent.clue;
@@ -29,7 +29,8 @@ import static javax.xml.transform.OutputKeys.*;
 import static javax.xml.xpath.XPathConstants.NODESET;
 
 /**
- * Responsible for initializing an XML parser.
+ * Responsible for initializing an XML parser. All methods may be called from
+ * multiple threads at once.
  */
 public class DocumentParser {
   private static final String LOAD_EXTERNAL_DTD =
@@ -37,20 +38,26 @@ public class DocumentParser {
   private static final String INDENT_AMOUNT =
     "{http://xml.apache.org/xslt}indent-amount";
 
-  private static final ByteArrayOutputStream sWriter =
-    new ByteArrayOutputStream( 65536 );
-  private static final OutputStreamWriter sOutput =
-    new OutputStreamWriter( sWriter, UTF_8 );
+  private static final DocumentBuilderFactory sDocumentFactory;
+  private static final XPathFactory sXpathFactory = XPathFactory.newInstance();
 
   /**
-   * Caches {@link XPathExpression}s to avoid re-compiling.
+   * Builders, transformers, and compiled {@link XPath} expressions are not
+   * thread-safe, so each thread uses its own instances. This allows the
+   * preview and exports to process documents at the same time.
    */
-  private static final Map<String, XPathExpression> sXpaths = new HashMap<>();
+  private static final ThreadLocal<DocumentBuilder> sDocumentBuilder =
+    ThreadLocal.withInitial( DocumentParser::createDocumentBuilder );
+  private static final ThreadLocal<Transformer> sTransformer =
+    ThreadLocal.withInitial( DocumentParser::createTransformer );
+  private static final ThreadLocal<XPath> sXpath =
+    ThreadLocal.withInitial( DocumentParser::createXPath );
 
-  private static final DocumentBuilderFactory sDocumentFactory;
-  private static DocumentBuilder sDocumentBuilder;
-  private static Transformer sTransformer;
-  private static final XPath sXpath = XPathFactory.newInstance().newXPath();
+  /**
+   * Caches {@link XPathExpression}s to avoid re-compiling, per thread.
+   */
+  private static final Map<String, ThreadLocal<XPathExpression>> sXpaths =
+    new ConcurrentHashMap<>();
 
   public static final DOMImplementation sDomImplementation;
 
@@ -63,29 +70,47 @@ public class DocumentParser {
     sDocumentFactory.setIgnoringComments( true );
     sDocumentFactory.setIgnoringElementContentWhitespace( true );
 
-    DOMImplementation domImplementation;
+    sDomImplementation = sDocumentBuilder.get().getDOMImplementation();
+  }
+
+  private static DocumentBuilder createDocumentBuilder() {
+    try {
+      // Factories are not thread-safe, even when only creating builders.
+      synchronized( sDocumentFactory ) {
+        return sDocumentFactory.newDocumentBuilder();
+      }
+    } catch( final Exception ex ) {
+      throw new IllegalStateException( ex );
+    }
+  }
 
+  private static Transformer createTransformer() {
     try {
-      sDocumentBuilder = sDocumentFactory.newDocumentBuilder();
-      domImplementation = sDocumentBuilder.getDOMImplementation();
-      sTransformer = TransformerFactory.newInstance().newTransformer();
+      final var transformer =
+        TransformerFactory.newInstance().newTransformer();
 
       // Ensure Unicode characters (emojis) are encoded correctly.
-      sTransformer.setOutputProperty( ENCODING, UTF_16.toString() );
-      sTransformer.setOutputProperty( OMIT_XML_DECLARATION, "yes" );
-      sTransformer.setOutputProperty( METHOD, "xml" );
-      sTransformer.setOutputProperty( INDENT, "no" );
-      sTransformer.setOutputProperty( INDENT_AMOUNT, "2" );
+      transformer.setOutputProperty( ENCODING, UTF_16.toString() );
+      transformer.setOutputProperty( OMIT_XML_DECLARATION, "yes" );
+      transformer.setOutputProperty( METHOD, "xml" );
+      transformer.setOutputProperty( INDENT, "no" );
+      transformer.setOutputProperty( INDENT_AMOUNT, "2" );
+
+      return transformer;
     } catch( final Exception ex ) {
-      clue( ex );
-      domImplementation = sDocumentBuilder.getDOMImplementation();
+      throw new IllegalStateException( ex );
     }
+  }
 
-    sDomImplementation = domImplementation;
+  private static XPath createXPath() {
+    // Factories are not thread-safe, even when only creating instances.
+    synchronized( sXpathFactory ) {
+      return sXpathFactory.newXPath();
+    }
   }
 
   public static Document newDocument() {
-    return sDocumentBuilder.newDocument();
+    return sDocumentBuilder.get().newDocument();
   }
 
   /**
@@ -105,11 +130,11 @@ public class DocumentParser {
       input.setEncoding( UTF_8.toString() );
       input.setCharacterStream( reader );
 
-      return sDocumentBuilder.parse( input );
+      return sDocumentBuilder.get().parse( input );
     } catch( final Throwable t ) {
       clue( t );
 
-      return sDocumentBuilder.newDocument();
+      return newDocument();
     }
   }
 
@@ -143,7 +168,7 @@ public class DocumentParser {
     throws IOException, SAXException {
     assert doc != null;
 
-    return sDocumentBuilder.parse( doc );
+    return sDocumentBuilder.get().parse( doc );
   }
 
   /**
@@ -239,15 +264,14 @@ public class DocumentParser {
   public static void sanitize( final Path path ) throws Exception {
     assert path != null;
 
-    // Preprocessing the SVG image is a single-threaded operation, no matter
-    // how many SVG images are in the document to typeset.
-    sWriter.reset();
+    final var buffer = new ByteArrayOutputStream( 65536 );
+    final var source = sDocumentBuilder.get().parse( path.toFile() );
 
-    final var target = new StreamResult( sOutput );
-    final var source = sDocumentBuilder.parse( path.toFile() );
+    try( final var output = new OutputStreamWriter( buffer, UTF_8 ) ) {
+      transform( source, new StreamResult( output ) );
+    }
 
-    transform( source, target );
-    write( path, sWriter.toByteArray() );
+    write( path, buffer.toByteArray() );
   }
 
   /**
@@ -262,14 +286,16 @@ public class DocumentParser {
 
     final var xpath = cs.toString();
 
-    return sXpaths.computeIfAbsent( xpath, k -> {
-      try {
-        return sXpath.compile( xpath );
-      } catch( final XPathExpressionException ex ) {
-        clue( ex );
-        return null;
-      }
-    } );
+    return sXpaths.computeIfAbsent(
+      xpath, k -> ThreadLocal.withInitial( () -> {
+        try {
+          return sXpath.get().compile( xpath );
+        } catch( final XPathExpressionException ex ) {
+          clue( ex );
+          return null;
+        }
+      } )
+    ).get();
   }
 
   /**
@@ -281,7 +307,7 @@ public class DocumentParser {
    */
   private static void transform( final Document src, final StreamResult dst )
     throws TransformerException {
-    sTransformer.transform( new DOMSource( src ), dst );
+    sTransformer.get().transform( new DOMSource( src ), dst );
   }
 
   /**
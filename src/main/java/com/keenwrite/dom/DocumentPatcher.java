@@ -0,0 +1,195 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.dom;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Responsible for updating an HTML document in place to match another
+ * document, so that a renderer can retain what it computed for the parts
+ * of the document that did not change. Only the body is patched: the
+ * unchanged children at the start and end of the body are kept, and the
+ * children between them are replaced. When a single element changed, its
+ * children are patched instead, so that a document wrapped in a single
+ * element is still patched block by block.
+ */
+public final class DocumentPatcher {
+  private static final String HTML_HEAD = "head";
+  private static final String HTML_BODY = "body";
+
+  /**
+   * Indicates how the target document was updated.
+   */
+  public enum Result {
+    /**
+     * The documents were already equal.
+     */
+    UNCHANGED,
+
+    /**
+     * Parts of the body were replaced.
+     */
+    PATCHED,
+
+    /**
+     * The documents differ outside their bodies (e.g., stylesheets), so the
+     * target document was not modified and must be replaced.
+     */
+    INCOMPATIBLE
+  }
+
+  private DocumentPatcher() { }
+
+  /**
+   * Modifies the target document to match the source document.
+   *
+   * @param target      The document to update.
+   * @param source      The document to match, which is not modified.
+   * @param invalidated Receives each element removed from the target, as
+   *                    well as the element following replaced elements,
+   *                    whose style may depend on its preceding siblings
+   *                    (e.g., {@code h1+p}).
+   * @return How the target document was updated.
+   */
+  public static Result patch(
+    final Document target,
+    final Document source,
+    final Consumer<Element> invalidated ) {
+    final var targetRoot = target.getDocumentElement();
+    final var sourceRoot = source.getDocumentElement();
+
+    if( targetRoot == null || sourceRoot == null ||
+        !isSameElement( targetRoot, sourceRoot ) ) {
+      return Result.INCOMPATIBLE;
+    }
+
+    final var targetHead = child( targetRoot, HTML_HEAD );
+    final var sourceHead = child( sourceRoot, HTML_HEAD );
+
+    if( targetHead == null
+      ? sourceHead != null
+      : !targetHead.isEqualNode( sourceHead ) ) {
+      return Result.INCOMPATIBLE;
+    }
+
+    final var targetBody = child( targetRoot, HTML_BODY );
+    final var sourceBody = child( sourceRoot, HTML_BODY );
+
+    if( targetBody == null || sourceBody == null ||
+        !isSameElement( targetBody, sourceBody ) ) {
+      return Result.INCOMPATIBLE;
+    }
+
+    return patchChildren( targetBody, sourceBody, invalidated )
+      ? Result.PATCHED
+      : Result.UNCHANGED;
+  }
+
+  /**
+   * Replaces the children of the target that differ from the children of
+   * the source.
+   *
+   * @return {@code true} if any children were replaced.
+   */
+  private static boolean patchChildren(
+    final Node target,
+    final Node source,
+    final Consumer<Element> invalidated ) {
+    final var targets = children( target );
+    final var sources = children( source );
+    final var min = Math.min( targets.size(), sources.size() );
+
+    int prefix = 0;
+
+    while( prefix < min &&
+      targets.get( prefix ).isEqualNode( sources.get( prefix ) ) ) {
+      prefix++;
+    }
+
+    if( prefix == targets.size() && prefix == sources.size() ) {
+      return false;
+    }
+
+    int suffix = 0;
+
+    while( suffix < min - prefix &&
+      targets.get( targets.size() - 1 - suffix ).isEqualNode(
+        sources.get( sources.size() - 1 - suffix ) ) ) {
+      suffix++;
+    }
+
+    final var removed = targets.subList( prefix, targets.size() - suffix );
+    final var added = sources.subList( prefix, sources.size() - suffix );
+
+    // Descend into a lone changed element to replace less of the document.
+    if( removed.size() == 1 && added.size() == 1 &&
+        removed.get( 0 ) instanceof final Element t &&
+        added.get( 0 ) instanceof final Element s &&
+        isSameElement( t, s ) ) {
+      return patchChildren( t, s, invalidated );
+    }
+
+    final var following = suffix > 0
+      ? targets.get( targets.size() - suffix )
+      : null;
+    final var document = target.getOwnerDocument();
+
+    for( final var node : removed ) {
+      target.removeChild( node );
+
+      if( node instanceof final Element element ) {
+        invalidated.accept( element );
+      }
+    }
+
+    for( final var node : added ) {
+      target.insertBefore( document.importNode( node, true ), following );
+    }
+
+    for( var node = following; node != null; node = node.getNextSibling() ) {
+      if( node instanceof final Element element ) {
+        invalidated.accept( element );
+        break;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Answers whether the given elements have the same name and attributes,
+   * disregarding their children.
+   */
+  private static boolean isSameElement( final Element a, final Element b ) {
+    return a.cloneNode( false ).isEqualNode( b.cloneNode( false ) );
+  }
+
+  private static Element child( final Element parent, final String name ) {
+    for( var node = parent.getFirstChild();
+         node != null; node = node.getNextSibling() ) {
+      if( node instanceof final Element element &&
+          name.equalsIgnoreCase( element.getNodeName() ) ) {
+        return element;
+      }
+    }
+
+    return null;
+  }
+
+  private static List<Node> children( final Node parent ) {
+    final var nodes = parent.getChildNodes();
+    final var length = nodes.getLength();
+    final var children = new ArrayList<Node>( length );
+
+    for( int i = 0; i < length; i++ ) {
+      children.add( nodes.item( i ) );
+    }
+
+    return children;
+  }
+}
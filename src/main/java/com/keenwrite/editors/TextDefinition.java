@@ -21,6 +21,14 @@ public interface TextDefinition extends TextResource {
    */
   Map<String, String> getDefinitions();
 
+  /**
+   * Returns a value that changes whenever the definitions change, which
+   * allows callers to cache values derived from the definitions.
+   *
+   * @return A non-negative number unique to the current definitions.
+   */
+  long getVersion();
+
   /**
    * Requests that the visual representation be expanded to the given node.
    *
@@ -25,6 +25,7 @@ import javafx.scene.layout.HBox;
 import java.io.File;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.keenwrite.Messages.get;
 import static com.keenwrite.constants.Constants.*;
@@ -67,8 +68,19 @@ public final class DefinitionEditor extends BorderPane
   private final Set<EventHandler<? super KeyEvent>> mKeyEventHandlers
     = new HashSet<>();
 
+  /**
+   * Issues definition versions across all editors, so that switching between
+   * definition files is also seen as a change to the definitions.
+   */
+  private static final AtomicLong sVersions = new AtomicLong();
+
   private final Map<String, String> mDefinitions = new HashMap<>();
 
+  /**
+   * Changes whenever {@link #mDefinitions} is updated.
+   */
+  private volatile long mVersion;
+
   /**
    * Opened file's character encoding, or {@link Constants#DEFAULT_CHARSET} if
    * either no encoding could be determined or this is a new (empty) file.
@@ -152,6 +164,7 @@ public final class DefinitionEditor extends BorderPane
     final TreeItem<String> root ) {
     definitions.clear();
     definitions.putAll( TreeItemMapper.convert( root ) );
+    mVersion = sVersions.incrementAndGet();
     Engine.clear();
   }
 
@@ -165,6 +178,11 @@ public final class DefinitionEditor extends BorderPane
     return mDefinitions;
   }
 
+  @Override
+  public long getVersion() {
+    return mVersion;
+  }
+
   @Override
   public void setText( final String document ) {
     final var foster = mTreeTransformer.transform( document );
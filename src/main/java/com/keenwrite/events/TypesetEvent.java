@@ -0,0 +1,166 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.events;
+
+import java.time.Duration;
+
+import static com.keenwrite.Messages.get;
+import static com.keenwrite.util.Time.toElapsedTime;
+
+/**
+ * Collates information about the progress of typesetting a document, as
+ * reported by the typesetting engine.
+ */
+public final class TypesetEvent implements AppEvent {
+  /**
+   * Indicates what the typesetting engine reported.
+   */
+  public enum Type {
+    /**
+     * The engine started another pass over the document.
+     */
+    PASS_BEGAN( "Main.status.typeset.pass.began" ),
+
+    /**
+     * The engine finished a pass over the document.
+     */
+    PASS_ENDED( "Main.status.typeset.pass.ended" ),
+
+    /**
+     * The engine finished typesetting a page.
+     */
+    PAGE( "Main.status.typeset.page" ),
+
+    /**
+     * Content does not fit within a line or page.
+     */
+    OVERFULL_BOX( "Main.status.typeset.overfull" ),
+
+    /**
+     * A font requested by the theme or document is not installed.
+     */
+    MISSING_FONT( "Main.status.typeset.font.missing" );
+
+    private final String mKey;
+
+    Type( final String key ) {
+      mKey = key;
+    }
+  }
+
+  private final Type mType;
+  private final int mPass;
+  private final int mPage;
+  private final int mPages;
+  private final Duration mElapsed;
+  private final String mDetail;
+
+  private TypesetEvent(
+    final Type type,
+    final int pass,
+    final int page,
+    final int pages,
+    final Duration elapsed,
+    final String detail ) {
+    assert type != null;
+    assert elapsed != null;
+    assert detail != null;
+
+    mType = type;
+    mPass = pass;
+    mPage = page;
+    mPages = pages;
+    mElapsed = elapsed;
+    mDetail = detail;
+  }
+
+  /**
+   * Publishes an event that indicates a pass over the document has started.
+   *
+   * @param pass The pass number, starting at 1.
+   */
+  public static void firePassBegan( final int pass ) {
+    new TypesetEvent( Type.PASS_BEGAN, pass, 0, 0, Duration.ZERO, "" )
+      .publish();
+  }
+
+  /**
+   * Publishes an event that indicates a pass over the document has finished.
+   *
+   * @param pass    The pass number, starting at 1.
+   * @param pages   Number of pages typeset during the pass.
+   * @param elapsed Time taken to complete the pass.
+   */
+  public static void firePassEnded(
+    final int pass, final int pages, final Duration elapsed ) {
+    new TypesetEvent( Type.PASS_ENDED, pass, pages, pages, elapsed, "" )
+      .publish();
+  }
+
+  /**
+   * Publishes an event that indicates a page has been typeset.
+   *
+   * @param pass  The pass number, starting at 1.
+   * @param page  The page number, starting at 1.
+   * @param pages Number of pages from the previous pass, or 0 if unknown.
+   */
+  public static void firePage(
+    final int pass, final int page, final int pages ) {
+    new TypesetEvent( Type.PAGE, pass, page, pages, Duration.ZERO, "" )
+      .publish();
+  }
+
+  /**
+   * Publishes an event that indicates a problem within the document.
+   *
+   * @param type   Either {@link Type#OVERFULL_BOX} or
+   *               {@link Type#MISSING_FONT}.
+   * @param pass   The pass number, starting at 1.
+   * @param page   The most recently typeset page number, or 0 if none.
+   * @param detail The engine's description of the problem.
+   */
+  public static void fireWarning(
+    final Type type, final int pass, final int page, final String detail ) {
+    new TypesetEvent( type, pass, page, 0, Duration.ZERO, detail ).publish();
+  }
+
+  public Type getType() {
+    return mType;
+  }
+
+  public int getPass() {
+    return mPass;
+  }
+
+  public int getPage() {
+    return mPage;
+  }
+
+  /**
+   * Returns the number of pages in the document, which is known after the
+   * first pass.
+   *
+   * @return The number of pages, or 0 if not known.
+   */
+  public int getPages() {
+    return mPages;
+  }
+
+  public Duration getElapsed() {
+    return mElapsed;
+  }
+
+  public String getDetail() {
+    return mDetail;
+  }
+
+  @Override
+  public String toString() {
+    return switch( mType ) {
+      case PASS_BEGAN -> get( mType.mKey, mPass );
+      case PASS_ENDED ->
+        get( mType.mKey, mPass, mPages, toElapsedTime( mElapsed ) );
+      case PAGE -> get( mType.mKey, mPage, mPages < 1 ? "?" : mPages, mPass );
+      case OVERFULL_BOX, MISSING_FONT -> get( mType.mKey, mDetail );
+    };
+  }
+}
@@ -1,7 +1,7 @@
 /* Copyright 2022 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.events.spelling;
 
-import java.util.Map;
+import com.keenwrite.spelling.impl.CompiledLexicon;
 
 /**
  * Collates information about the lexicon. Fired when the lexicon has been
@@ -9,22 +9,22 @@ import java.util.Map;
  */
 public class LexiconLoadedEvent extends LexiconEvent {
 
-  private final Map<String, Long> mLexicon;
+  private final CompiledLexicon mLexicon;
 
-  private LexiconLoadedEvent( final Map<String, Long> lexicon ) {
+  private LexiconLoadedEvent( final CompiledLexicon lexicon ) {
     mLexicon = lexicon;
   }
 
-  public static void fire( final Map<String, Long> lexicon ) {
+  public static void fire( final CompiledLexicon lexicon ) {
     new LexiconLoadedEvent( lexicon ).publish();
   }
 
   /**
-   * Returns a word-frequency map used by the spell checking library.
+   * Returns the words, frequencies, and deletes used for spell checking.
    *
    * @return The lexicon that was loaded.
    */
-  public Map<String, Long> getLexicon() {
+  public CompiledLexicon getLexicon() {
     return mLexicon;
   }
 }
@@ -0,0 +1,258 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.io;
+
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.util.Locale.ROOT;
+
+/**
+ * Responsible for answering whether files exist without asking the file
+ * system every time. Each directory is listed once, then watched for
+ * changes; a change to any of its files discards its listing. This avoids
+ * repeatedly probing for files that do not exist (e.g., trying every image
+ * file name extension), which is slow on network file systems.
+ * <p>
+ * Callers may also cache what they computed from the index, such as where
+ * an image was found, see {@link #resolve(Object, Supplier)}. These results
+ * are discarded whenever any watched directory changes.
+ * </p>
+ */
+public final class FileIndex implements FileModifiedListener {
+  /**
+   * Maximum number of results to retain before discarding them all, which
+   * bounds memory use when many different lookups are made.
+   */
+  private static final int MAX_RESULTS = 4096;
+
+  private final FileWatchService mWatcher;
+
+  /**
+   * Maps directories to the lower case names of their files. Names are
+   * lower case so that file systems that ignore case are supported; a match
+   * is confirmed by the file system.
+   */
+  private final Map<Path, Set<String>> mListings = new ConcurrentHashMap<>();
+
+  private final Map<Object, Object> mResults = new ConcurrentHashMap<>();
+
+  /**
+   * Incremented when any watched directory changes, which prevents caching
+   * results that were computed while a change was being processed.
+   */
+  private final AtomicLong mVersion = new AtomicLong();
+
+  /**
+   * Incremented when a directory cannot be watched, which prevents caching
+   * results that no event would discard (e.g., when the operating system's
+   * limit on watched directories is reached).
+   */
+  private final AtomicLong mUnwatched = new AtomicLong();
+
+  /**
+   * Creates an index that is refreshed by events from the given service.
+   *
+   * @param watcher Watches the directories that have been listed.
+   */
+  public FileIndex( final FileWatchService watcher ) {
+    assert watcher != null;
+
+    mWatcher = watcher;
+    mWatcher.addListener( this );
+  }
+
+  /**
+   * Returns the index that is shared throughout the application, which has
+   * its own thread to watch for changes to the file system.
+   *
+   * @return The shared index.
+   */
+  public static FileIndex getDefault() {
+    return Shared.INDEX;
+  }
+
+  /**
+   * Answers whether the given file is a regular file that can be read.
+   *
+   * @param file The file to check, which is resolved against the working
+   *             directory if relative.
+   * @return {@code true} if the file can be read.
+   */
+  public boolean isReadable( final Path file ) {
+    final var path = file.toAbsolutePath().normalize();
+    final var parent = path.getParent();
+    final var name = path.getFileName();
+
+    if( parent == null || name == null ) {
+      return false;
+    }
+
+    final var listing = list( parent );
+
+    if( listing != null &&
+      !listing.contains( name.toString().toLowerCase( ROOT ) ) ) {
+      return false;
+    }
+
+    return Files.isRegularFile( path ) && Files.isReadable( path );
+  }
+
+  /**
+   * Answers whether the given file is a regular file that can be read.
+   *
+   * @param file The name of the file, which is resolved against the working
+   *             directory if relative.
+   * @return {@code true} if the file can be read, {@code false} if it cannot
+   * be read or the name is not a valid path.
+   */
+  public boolean isReadable( final String file ) {
+    try {
+      return isReadable( Path.of( file ) );
+    } catch( final InvalidPathException ex ) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the result previously computed for the given key, computing
+   * the result if the files changed since it was computed. Keys must
+   * include every value that influences the result, such as directories.
+   * A result is not cached if any directory consulted while computing it
+   * could not be watched, because it would never be discarded.
+   *
+   * @param key      Identifies the result, typically a record.
+   * @param resolver Computes the result using this index, not {@code null}.
+   * @param <V>      The type of result.
+   * @return The result for the given key.
+   */
+  @SuppressWarnings( "unchecked" )
+  public <V> V resolve( final Object key, final Supplier<V> resolver ) {
+    final var cached = mResults.get( key );
+
+    if( cached != null ) {
+      return (V) cached;
+    }
+
+    final var version = mVersion.get();
+    final var unwatched = mUnwatched.get();
+    final var result = resolver.get();
+
+    assert result != null;
+
+    if( unwatched != mUnwatched.get() ) {
+      return result;
+    }
+
+    if( mResults.size() >= MAX_RESULTS ) {
+      mResults.clear();
+    }
+
+    mResults.put( key, result );
+
+    // Discard results computed while a directory was changing.
+    if( version != mVersion.get() ) {
+      mResults.clear();
+    }
+
+    return result;
+  }
+
+  /**
+   * Discards the listing of the directory containing the changed file, as
+   * well as the listing of the changed file itself, which may be a
+   * directory that was created or deleted.
+   *
+   * @param event Indicates the file that changed.
+   */
+  @Override
+  public void accept( final FileEvent event ) {
+    final var path = event.getFile().toPath();
+
+    mVersion.incrementAndGet();
+    mListings.remove( path );
+
+    if( path.getParent() != null ) {
+      mListings.remove( path.getParent() );
+    }
+
+    mResults.clear();
+  }
+
+  /**
+   * Returns the lower case names of the files in the given directory,
+   * listing and watching the directory if it has not been listed since it
+   * last changed.
+   *
+   * @param dir The directory to list.
+   * @return The names of files in the directory, or {@code null} if the
+   * directory cannot be watched, in which case the file system is consulted
+   * and {@link #resolve(Object, Supplier)} does not cache its result.
+   */
+  private Set<String> list( final Path dir ) {
+    final var listing = mListings.get( dir );
+
+    if( listing != null ) {
+      return listing;
+    }
+
+    final var version = mVersion.get();
+    final var names = new HashSet<String>();
+
+    try {
+      if( Files.isDirectory( dir ) ) {
+        mWatcher.watch( dir );
+
+        try( final var paths = Files.newDirectoryStream( dir ) ) {
+          for( final var path : paths ) {
+            names.add( path.getFileName().toString().toLowerCase( ROOT ) );
+          }
+        }
+      }
+      else {
+        // A missing directory is empty until its parent reports it exists.
+        final var parent = dir.getParent();
+
+        if( parent == null || !Files.isDirectory( parent ) ) {
+          mUnwatched.incrementAndGet();
+          return null;
+        }
+
+        mWatcher.watch( parent );
+      }
+    } catch( final Exception ex ) {
+      // Without events, the listing could become stale, so do not cache it.
+      mUnwatched.incrementAndGet();
+      return null;
+    }
+
+    if( version == mVersion.get() ) {
+      mListings.put( dir, names );
+    }
+
+    return names;
+  }
+
+  /**
+   * Lazily creates the shared index and its watch thread.
+   */
+  private static final class Shared {
+    private static final FileIndex INDEX;
+
+    static {
+      final var watcher = new FileWatchService();
+      final var thread = new Thread( watcher, "file-index" );
+
+      thread.setDaemon( true );
+      thread.start();
+
+      INDEX = new FileIndex( watcher );
+    }
+  }
+}
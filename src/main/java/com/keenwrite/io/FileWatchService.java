@@ -7,19 +7,31 @@ import org.renjin.repackaged.guava.collect.HashBiMap;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static java.nio.file.FileSystems.getDefault;
-import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.*;
 import static java.util.Collections.newSetFromMap;
 
 /**
- * Responsible for watching when a file has been changed.
+ * Responsible for watching when a file has been changed. Listeners are
+ * notified when a registered file is modified, or when any file within a
+ * registered directory is created, deleted, or modified.
  */
 public class FileWatchService implements Runnable {
+  /**
+   * Events requested for every watched directory. A directory registered
+   * again replaces its events, so files and directories request the same.
+   */
+  private static final WatchEvent.Kind<?>[] EVENTS = {
+    ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY
+  };
+
   /**
    * Set to {@code false} when {@link #stop()} is called.
    */
@@ -33,6 +45,11 @@ public class FileWatchService implements Runnable {
   private final WatchService mWatchService;
   private final BiMap<File, WatchKey> mWatched = HashBiMap.create();
 
+  /**
+   * Directories whose files are all watched, see {@link #watch(Path)}.
+   */
+  private final Map<Path, WatchKey> mDirectories = new ConcurrentHashMap<>();
+
   /**
    * Creates a new file system watch service with the given files to watch.
    *
@@ -68,21 +85,28 @@ public class FileWatchService implements Runnable {
     try {
       final var watchKey = mWatchService.take();
 
+      final var watchable = (Path) watchKey.watchable();
+      final var directory = mDirectories.containsKey( watchable );
+
       for( final var pollEvent : watchKey.pollEvents() ) {
-        final var watchable = (Path) watchKey.watchable();
-        final var context = (Path) pollEvent.context();
-        final var file = watchable.resolve( context ).toFile();
+        final var kind = pollEvent.kind();
 
-        if( mWatched.containsKey( file ) ) {
-          final var fileEvent = new FileEvent( file );
+        // Lost events may have changed any file in the directory.
+        final var file = kind == OVERFLOW
+          ? watchable.toFile()
+          : watchable.resolve( (Path) pollEvent.context() ).toFile();
 
-          for( final var listener : mListeners ) {
-            listener.accept( fileEvent );
-          }
+        if( directory ||
+          kind == ENTRY_MODIFY && mWatched.containsKey( file ) ) {
+          notify( file );
         }
       }
 
       if( !watchKey.reset() ) {
+        if( mDirectories.remove( watchable ) != null ) {
+          notify( watchable.toFile() );
+        }
+
         unregister( watchKey );
       }
     } catch( final Exception ex ) {
@@ -110,11 +134,30 @@ public class FileWatchService implements Runnable {
     }
 
     final var path = getParentDirectory( file );
-    final var watchKey = path.register( mWatchService, ENTRY_MODIFY );
+    final var watchKey = path.register( mWatchService, EVENTS );
 
     return mWatched.put( file, watchKey );
   }
 
+  /**
+   * Adds the given directory to the watch list, so that listeners are
+   * notified when any of its files are created, deleted, or modified. When
+   * the directory itself can no longer be watched (e.g., it was deleted),
+   * listeners are notified with the directory.
+   * <p>
+   * This method is idempotent.
+   * </p>
+   *
+   * @param directory The directory to watch for changes to its files.
+   * @throws IOException Could not register the directory.
+   */
+  public void watch( final Path directory ) throws IOException {
+    if( !mDirectories.containsKey( directory ) ) {
+      mDirectories.put(
+        directory, directory.register( mWatchService, EVENTS ) );
+    }
+  }
+
   /**
    * Removes the given {@link File}'s containing directory from the watch list.
    * <p>
@@ -129,6 +172,14 @@ public class FileWatchService implements Runnable {
     mWatched.remove( file );
   }
 
+  private void notify( final File file ) {
+    final var fileEvent = new FileEvent( file );
+
+    for( final var listener : mListeners ) {
+      listener.accept( fileEvent );
+    }
+  }
+
   /**
    * Cancels watching the given file for file system changes.
    *
@@ -183,7 +234,12 @@ public class FileWatchService implements Runnable {
       cancel( file );
     }
 
+    for( final var watchKey : mDirectories.values() ) {
+      watchKey.cancel();
+    }
+
     mWatched.clear();
+    mDirectories.clear();
     mListeners.clear();
     mWatchService.close();
   }
@@ -15,7 +15,6 @@ import java.util.zip.GZIPInputStream;
 import static java.lang.Math.toIntExact;
 import static java.lang.String.format;
 import static java.lang.System.getProperty;
-import static java.lang.System.setProperty;
 import static java.net.HttpURLConnection.HTTP_OK;
 import static java.net.HttpURLConnection.setFollowRedirects;
 
@@ -26,7 +25,6 @@ import static java.net.HttpURLConnection.setFollowRedirects;
  */
 public final class DownloadManager {
   static {
-    setProperty( "http.keepAlive", "false" );
     setFollowRedirects( true );
   }
 
@@ -132,11 +130,16 @@ public final class DownloadManager {
       };
     }
 
+    /**
+     * Closes the stream without disconnecting, which returns the connection
+     * to the pool of persistent connections for reuse by later requests to
+     * the same server. The connection is dropped if the response could not
+     * be read completely.
+     */
     public void close() {
       try {
         getInputStream().close();
       } catch( final Exception ignored ) {
-      } finally {
         mConn.disconnect();
       }
     }
@@ -253,7 +256,6 @@ public final class DownloadManager {
       conn.setRequestProperty( "User-Agent", getProperty( "http.agent" ) );
       conn.setRequestMethod( "GET" );
       conn.setConnectTimeout( toIntExact( TIMEOUT.toMillis() ) );
-      conn.setRequestProperty( "connection", "close" );
       conn.connect();
 
       final var code = conn.getResponseCode();
@@ -0,0 +1,196 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.io.downloads;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+import static java.lang.System.getProperty;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+
+/**
+ * Responsible for downloading files that are kept on disk, asking the server
+ * whether a previously downloaded file changed rather than downloading it
+ * again. The entity tag of a downloaded file is stored next to the file,
+ * and the file's modification time is sent as the date it was last fetched.
+ * <p>
+ * A single HTTP/2 client is shared by all callers. The client keeps its
+ * connections alive and multiplexes concurrent requests to the same server.
+ * </p>
+ */
+public final class HttpCache {
+  private static final String VALIDATOR = ".etag";
+
+  /**
+   * HTTP request timeout.
+   */
+  private static final Duration TIMEOUT = Duration.ofSeconds( 30 );
+
+  private static final ExecutorService sExecutor =
+    newCachedThreadPool( runnable -> {
+      final var thread = new Thread( runnable, "http-cache" );
+      thread.setDaemon( true );
+      return thread;
+    } );
+
+  private static final HttpClient sClient = HttpClient
+    .newBuilder()
+    .version( HttpClient.Version.HTTP_2 )
+    .followRedirects( HttpClient.Redirect.NORMAL )
+    .connectTimeout( TIMEOUT )
+    .executor( sExecutor )
+    .build();
+
+  private HttpCache() { }
+
+  /**
+   * Requests the given resource, conditionally if a previously downloaded
+   * copy is given. A response status of 304 (not modified) means that the
+   * cached file is current; otherwise, call {@link #store(Path, HttpResponse)}
+   * to keep the response body.
+   *
+   * @param url    The resource to download.
+   * @param cached The file downloaded previously, or {@code null}.
+   * @return The server's response, which includes the response body.
+   */
+  public static CompletableFuture<HttpResponse<byte[]>> requestAsync(
+    final String url, final Path cached ) {
+    final var builder = HttpRequest
+      .newBuilder( URI.create( url ) )
+      .timeout( TIMEOUT )
+      .GET();
+    final var agent = getProperty( "http.agent" );
+
+    if( agent != null ) {
+      builder.header( "User-Agent", agent );
+    }
+
+    if( cached != null && Files.isRegularFile( cached ) ) {
+      final var etag = readValidator( cached );
+
+      if( etag != null ) {
+        builder.header( "If-None-Match", etag );
+      }
+
+      try {
+        final var modified = Files.getLastModifiedTime( cached ).toInstant();
+        builder.header( "If-Modified-Since", RFC_1123_DATE_TIME.format(
+          modified.atOffset( ZoneOffset.UTC ) ) );
+      } catch( final IOException ignored ) {
+        // Without a date, the server may only compare the entity tag.
+      }
+    }
+
+    return sClient.sendAsync(
+      builder.build(), HttpResponse.BodyHandlers.ofByteArray() );
+  }
+
+  /**
+   * Requests the given resource, waiting for the response.
+   *
+   * @param url    The resource to download.
+   * @param cached The file downloaded previously, or {@code null}.
+   * @return The server's response, which includes the response body.
+   * @throws IOException The server could not be reached.
+   * @see #requestAsync(String, Path)
+   */
+  public static HttpResponse<byte[]> request(
+    final String url, final Path cached ) throws IOException {
+    try {
+      return requestAsync( url, cached ).join();
+    } catch( final CompletionException ex ) {
+      if( ex.getCause() instanceof IOException cause ) {
+        throw cause;
+      }
+
+      throw new IOException( ex.getCause() );
+    }
+  }
+
+  /**
+   * Writes the response body to the given file, replacing it atomically,
+   * then stores the response's entity tag for revalidating the file.
+   *
+   * @param file     The file to write.
+   * @param response A successful response.
+   * @throws IOException Could not write the file.
+   */
+  public static void store(
+    final Path file, final HttpResponse<byte[]> response )
+    throws IOException {
+    final var dir = file.getParent();
+    Files.createDirectories( dir );
+
+    final var temp = Files.createTempFile( dir, "download", ".tmp" );
+
+    try {
+      Files.write( temp, response.body() );
+      Files.move( temp, file, ATOMIC_MOVE, REPLACE_EXISTING );
+    } finally {
+      Files.deleteIfExists( temp );
+    }
+
+    final var validator = getValidator( file );
+    final var etag = response.headers().firstValue( "ETag" ).orElse( "" );
+
+    if( etag.isBlank() ) {
+      Files.deleteIfExists( validator );
+    }
+    else {
+      Files.writeString( validator, etag, UTF_8 );
+    }
+  }
+
+  /**
+   * Marks the given file as having been revalidated, so that its
+   * modification time reflects when it was last known to be current.
+   *
+   * @param file The file that the server reported as not modified.
+   * @throws IOException Could not update the modification time.
+   */
+  public static void touch( final Path file ) throws IOException {
+    Files.setLastModifiedTime( file, FileTime.from( Instant.now() ) );
+  }
+
+  /**
+   * Returns the file that holds the entity tag for the given file, which
+   * has the same name without its extension.
+   *
+   * @param file A file written by {@link #store(Path, HttpResponse)}.
+   * @return The file containing the entity tag, which may not exist.
+   */
+  public static Path getValidator( final Path file ) {
+    final var name = file.getFileName().toString();
+    final var dot = name.lastIndexOf( '.' );
+    final var base = dot > 0 ? name.substring( 0, dot ) : name;
+
+    return file.resolveSibling( base + VALIDATOR );
+  }
+
+  private static String readValidator( final Path file ) {
+    try {
+      final var validator = getValidator( file );
+
+      return Files.isRegularFile( validator )
+        ? Files.readString( validator, UTF_8 ).strip()
+        : null;
+    } catch( final IOException ex ) {
+      return null;
+    }
+  }
+}
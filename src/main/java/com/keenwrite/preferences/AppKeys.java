@@ -35,6 +35,9 @@ public final class AppKeys {
   public static final Key KEY_IMAGES_ORDER = key( KEY_IMAGES, "order" );
   public static final Key KEY_IMAGES_RESIZE = key( KEY_IMAGES, "resize" );
   public static final Key KEY_IMAGES_SERVER = key( KEY_IMAGES, "server" );
+  public static final Key KEY_IMAGES_LAZY = key( KEY_IMAGES, "lazy" );
+  public static final Key KEY_IMAGES_MARGIN = key( KEY_IMAGES, "margin" );
+  public static final Key KEY_IMAGES_THREADS = key( KEY_IMAGES, "threads" );
 
   public static final Key KEY_DEF = key( KEY_ROOT, "definition" );
   public static final Key KEY_DEF_PATH = key( KEY_DEF, "path" );
@@ -214,6 +214,21 @@ public final class PreferencesController {
           Setting.of( label( KEY_IMAGES_SERVER ) ),
           Setting.of( title( KEY_IMAGES_SERVER ),
                       stringProperty( KEY_IMAGES_SERVER ) )
+        ),
+        Group.of(
+          get( KEY_IMAGES_LAZY ),
+          Setting.of( label( KEY_IMAGES_LAZY ) ),
+          Setting.of( title( KEY_IMAGES_LAZY ),
+                      booleanProperty( KEY_IMAGES_LAZY ) ),
+          Setting.of( label( KEY_IMAGES_MARGIN ) ),
+          Setting.of( title( KEY_IMAGES_MARGIN ),
+                      integerProperty( KEY_IMAGES_MARGIN ) )
+        ),
+        Group.of(
+          get( KEY_IMAGES_THREADS ),
+          Setting.of( label( KEY_IMAGES_THREADS ) ),
+          Setting.of( title( KEY_IMAGES_THREADS ),
+                      integerProperty( KEY_IMAGES_THREADS ) )
         )
       ),
       Category.of(
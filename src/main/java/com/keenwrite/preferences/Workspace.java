@@ -75,6 +75,9 @@ public final class Workspace {
     entry( KEY_IMAGES_ORDER, asStringProperty( PERSIST_IMAGES_DEFAULT ) ),
     entry( KEY_IMAGES_RESIZE, asBooleanProperty( true ) ),
     entry( KEY_IMAGES_SERVER, asStringProperty( DIAGRAM_SERVER_NAME ) ),
+    entry( KEY_IMAGES_LAZY, asBooleanProperty( true ) ),
+    entry( KEY_IMAGES_MARGIN, asIntegerProperty( 1000 ) ),
+    entry( KEY_IMAGES_THREADS, asIntegerProperty( IMAGES_THREADS_DEFAULT ) ),
 
     entry( KEY_DEF_PATH, asFileProperty( DEFINITION_DEFAULT ) ),
     entry( KEY_DEF_DELIM_BEGAN, asStringProperty( DEF_DELIM_BEGAN_DEFAULT ) ),
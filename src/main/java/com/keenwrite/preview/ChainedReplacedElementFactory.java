@@ -11,13 +11,17 @@ import org.xhtmlrenderer.layout.LayoutContext;
 import org.xhtmlrenderer.render.BlockBox;
 import org.xhtmlrenderer.swing.ImageReplacedElement;
 
+import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.LinkedHashSet;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 import static com.keenwrite.preview.ImageReplacedElementFactory.HTML_IMAGE;
 import static com.keenwrite.preview.ImageReplacedElementFactory.HTML_IMAGE_SRC;
 import static com.keenwrite.processors.markdown.extensions.tex.TexNode.HTML_TEX;
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.util.Arrays.asList;
 
@@ -34,16 +38,57 @@ public final class ChainedReplacedElementFactory
   private final Set<ReplacedElementFactory> mFactories = new LinkedHashSet<>();
 
   /**
-   * A bounded cache that removes the oldest image if the maximum number of
-   * cached images has been reached. This constrains the number of images
-   * loaded into memory.
+   * Maximum number of bytes of image data to retain in memory.
    */
-  private final Map<String, ReplacedElement> mCache = new BoundedCache<>( 150 );
+  private static final long CACHE_BYTES = 192L * 1024 * 1024;
 
+  /**
+   * Nominal weight of elements that are not backed by an image.
+   */
+  private static final long ELEMENT_BYTES = 1024;
+
+  /**
+   * A bounded cache that removes the least recently used images once the
+   * cached images have consumed their memory allotment. Images are weighed
+   * by their size in memory so that a few large images displace many small
+   * ones, rather than counting the same as them.
+   */
+  private final BoundedCache<String, ReplacedElement> mCache =
+    new BoundedCache<>( CACHE_BYTES, ( k, v ) -> weigh( v ) );
+
+  /**
+   * Incremented when the cache is cleared, so that images which finish
+   * loading afterwards (e.g., at a previous panel width) are not cached.
+   */
+  private final AtomicLong mGeneration = new AtomicLong();
+
+  /**
+   * Notified when an image that was loading in the background is ready to
+   * replace its placeholder.
+   */
+  private final BiConsumer<PlaceholderReplacedElement, ReplacedElement>
+    mListener;
+
+  public ChainedReplacedElementFactory(
+    final ReplacedElementFactory... factories ) {
+    this( ( placeholder, element ) -> {}, factories );
+  }
+
+  /**
+   * Creates a factory that notifies the given listener when an image loaded
+   * in the background is ready to replace its placeholder. The listener is
+   * called on the thread that loaded the image.
+   *
+   * @param listener  Receives the placeholder and its replacement.
+   * @param factories The factories to run, in order.
+   */
   public ChainedReplacedElementFactory(
+    final BiConsumer<PlaceholderReplacedElement, ReplacedElement> listener,
     final ReplacedElementFactory... factories ) {
+    assert listener != null;
     assert factories != null;
     assert factories.length > 0;
+    mListener = listener;
     mFactories.addAll( asList( factories ) );
   }
 
@@ -76,13 +121,26 @@ public final class ChainedReplacedElementFactory
         break;
       }
 
-      final var replaced = mCache.computeIfAbsent( source, k -> {
+      var replaced = mCache.get( source );
+
+      if( replaced == null ) {
         final var r = f.createReplacedElement( c, box, uac, width, height );
 
-        return r instanceof final ImageReplacedElement ire
-          ? createImageElement( box, ire )
+        // Cache the image once it has loaded, not its placeholder.
+        if( r instanceof final PlaceholderReplacedElement placeholder ) {
+          observe( source, placeholder, box.getWidth() );
+          return placeholder;
+        }
+
+        replaced = r instanceof final ImageReplacedElement ire
+          ? createImageElement(
+          box.getWidth(), ire.getImage(), ire.getIntrinsicWidth() )
           : r;
-      } );
+
+        if( replaced != null ) {
+          mCache.put( source, replaced );
+        }
+      }
 
       if( replaced != null ) {
         return replaced;
@@ -107,20 +165,68 @@ public final class ChainedReplacedElementFactory
   }
 
   public void clearCache() {
+    mGeneration.incrementAndGet();
     mCache.clear();
   }
 
+  /**
+   * Caches the image that replaces the given placeholder once it has loaded,
+   * then notifies the listener.
+   *
+   * @param source      The image source, used as the cache key.
+   * @param placeholder The element standing in for the image.
+   * @param width       The width of the box that will contain the image.
+   */
+  private void observe(
+    final String source,
+    final PlaceholderReplacedElement placeholder,
+    final int width ) {
+    if( placeholder.observe() ) {
+      final var generation = mGeneration.get();
+
+      placeholder.getRaster().thenAccept( raster -> {
+        final var element =
+          createImageElement( width, raster, raster.getWidth() );
+
+        if( generation == mGeneration.get() ) {
+          mCache.put( source, element );
+        }
+
+        mListener.accept( placeholder, element );
+      } );
+    }
+  }
+
+  /**
+   * Returns the approximate number of bytes used by the given element.
+   *
+   * @param element The element to weigh.
+   * @return The number of bytes used by the element's image, if any.
+   */
+  private static long weigh( final ReplacedElement element ) {
+    if( element instanceof final ImageReplacedElement ire &&
+        ire.getImage() instanceof final BufferedImage image ) {
+      final var bits = image.getColorModel().getPixelSize();
+      final var pixels = (long) image.getWidth() * image.getHeight();
+
+      return max( ELEMENT_BYTES, pixels * max( 8, bits ) / 8 );
+    }
+
+    return ELEMENT_BYTES;
+  }
+
   /**
    * Creates a new image that maintains its aspect ratio while fitting into
-   * the given {@link BlockBox}. If the image is too big, it is scaled down.
+   * the given width. If the image is too big, it is scaled down.
    *
-   * @param box The bounding region the image must fit into.
-   * @param ire The image to resize.
+   * @param width      The width of the region the image must fit into.
+   * @param image      The image to resize.
+   * @param imageWidth The width of the image to resize.
    * @return An image that is scaled down to fit, but only if necessary.
    */
   private SmoothImageReplacedElement createImageElement(
-    final BlockBox box, final ImageReplacedElement ire ) {
+    final int width, final Image image, final int imageWidth ) {
     return new SmoothImageReplacedElement(
-      ire.getImage(), min( ire.getIntrinsicWidth(), box.getWidth() ), -1 );
+      image, min( imageWidth, width ), -1 );
   }
 }
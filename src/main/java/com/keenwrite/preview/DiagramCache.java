@@ -0,0 +1,257 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import com.keenwrite.io.downloads.HttpCache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static com.keenwrite.events.StatusEvent.clue;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * Responsible for fetching diagrams rendered by a diagram server (e.g.,
+ * Kroki) and keeping them on disk, so that unchanged diagrams are not
+ * requested again, even after restarting the application.
+ * <p>
+ * Only URLs that {@link DiagramUrlGenerator} creates for the configured
+ * diagram server are diagrams: the server URL followed by the diagram type,
+ * the output format, and the compressed diagram text. Other images, even
+ * those having a similar path, are not cached here. Files are named after
+ * the diagram type and a digest of the whole URL, so that diagrams from
+ * different servers are kept apart. Files older than
+ * {@link #REVALIDATE_AFTER} are revalidated using a conditional request;
+ * if the server cannot be reached, the stale file is used.
+ * </p>
+ * <p>
+ * Requests are made using {@link HttpCache}, which keeps connections alive
+ * and multiplexes concurrent requests to the same server, see
+ * {@link #fetchAll(Collection)}.
+ * </p>
+ */
+public final class DiagramCache {
+  private static final String DIRECTORY = "diagrams";
+  private static final String EXTENSION = ".svg";
+
+  /**
+   * Matches the path that {@link DiagramUrlGenerator} appends to the server
+   * URL, capturing the diagram type.
+   */
+  private static final Pattern DIAGRAM_PATH = Pattern.compile(
+    "^([\\w-]+)/svg/[\\w=-]+$"
+  );
+
+  /**
+   * Duration that a diagram is used without asking the server whether it
+   * changed. Diagrams are identified by their text, so they change only
+   * when the server's renderer changes.
+   */
+  private static final Duration REVALIDATE_AFTER = Duration.ofDays( 30 );
+
+  private final Supplier<Path> mCachesDir;
+  private final Supplier<String> mServer;
+
+  /**
+   * Diagrams being fetched, which prevents requesting the same diagram more
+   * than once when it is needed again before its response arrives.
+   */
+  private final Map<Path, CompletableFuture<Path>> mPending =
+    new ConcurrentHashMap<>();
+
+  /**
+   * Creates a cache that stores diagrams in a subdirectory of the given
+   * directory.
+   *
+   * @param cachesDir Provides the directory for cached files, which may
+   *                  change while the application runs.
+   * @param server    Provides the diagram server name, as given to
+   *                  {@link DiagramUrlGenerator#toUrl(String, String, String)},
+   *                  which may change while the application runs.
+   */
+  public DiagramCache(
+    final Supplier<Path> cachesDir, final Supplier<String> server ) {
+    assert cachesDir != null;
+    assert server != null;
+
+    mCachesDir = cachesDir;
+    mServer = server;
+  }
+
+  /**
+   * Answers whether the given URL refers to a diagram rendered by the
+   * configured diagram server, as opposed to an arbitrary remote image.
+   *
+   * @param url The image URL to check.
+   * @return {@code true} if the URL can be passed to {@link #fetch(String)}.
+   */
+  public boolean isDiagram( final String url ) {
+    return getDiagramType( url ) != null;
+  }
+
+  /**
+   * Returns the diagram type from a URL for the configured diagram server.
+   *
+   * @return The diagram type, or {@code null} if the URL is not a diagram.
+   */
+  private String getDiagramType( final String url ) {
+    final var server = mServer.get();
+
+    if( url == null || server == null || server.isBlank() ) {
+      return null;
+    }
+
+    final var prefix = DiagramUrlGenerator.toServerUrl( server ) + '/';
+
+    if( !url.startsWith( prefix ) ) {
+      return null;
+    }
+
+    final var matcher = DIAGRAM_PATH.matcher(
+      url.substring( prefix.length() ) );
+
+    return matcher.matches() ? matcher.group( 1 ) : null;
+  }
+
+  /**
+   * Returns the file containing the diagram for the given URL, downloading
+   * it if it is not cached or revalidating it if it is stale.
+   *
+   * @param url A URL for which {@link #isDiagram(String)} is {@code true}.
+   * @return The file containing the SVG diagram.
+   * @throws IOException The diagram could not be fetched or stored.
+   */
+  public Path fetch( final String url ) throws IOException {
+    try {
+      return fetchAsync( url ).join();
+    } catch( final CompletionException ex ) {
+      final var cause = ex.getCause();
+
+      if( cause instanceof UncheckedIOException uio ) {
+        throw uio.getCause();
+      }
+
+      if( cause instanceof IOException io ) {
+        throw io;
+      }
+
+      throw ex;
+    }
+  }
+
+  /**
+   * Fetches the given diagrams concurrently, so that documents having many
+   * diagrams need not wait for each request in turn. Call this with every
+   * diagram in a document before rendering it; URLs that are not diagrams
+   * are ignored.
+   *
+   * @param urls The image URLs in a document.
+   * @return Completes when every diagram has been fetched or has failed.
+   */
+  public CompletableFuture<Void> fetchAll( final Collection<String> urls ) {
+    return allOf(
+      urls
+        .stream()
+        .filter( this::isDiagram )
+        .distinct()
+        .map( url -> fetchAsync( url ).exceptionally( ex -> null ) )
+        .toArray( CompletableFuture[]::new )
+    );
+  }
+
+  private CompletableFuture<Path> fetchAsync( final String url ) {
+    final var type = getDiagramType( url );
+
+    if( type == null ) {
+      throw new IllegalArgumentException( url );
+    }
+
+    final var key = RasterCache.key( url.getBytes( UTF_8 ), type );
+    final var file = mCachesDir
+      .get()
+      .resolve( DIRECTORY )
+      .resolve( type + '-' + key + EXTENSION );
+
+    if( isFresh( file ) ) {
+      return completedFuture( file );
+    }
+
+    return mPending.computeIfAbsent( file, f -> {
+      final var future = request( url, f );
+      future.whenComplete( ( path, ex ) -> mPending.remove( f, future ) );
+      return future;
+    } );
+  }
+
+  /**
+   * Requests the diagram, conditionally if a stale file exists, then stores
+   * the response body in the given file.
+   */
+  private CompletableFuture<Path> request( final String url, final Path file ) {
+    final var stale = Files.isRegularFile( file );
+
+    return HttpCache
+      .requestAsync( url, stale ? file : null )
+      .thenApply( response -> store( url, file, response ) )
+      .exceptionally( ex -> {
+        if( stale ) {
+          // Work offline using the diagram fetched previously.
+          clue( ex );
+          return file;
+        }
+
+        throw ex instanceof CompletionException ce
+          ? ce
+          : new CompletionException( ex );
+      } );
+  }
+
+  private Path store(
+    final String url,
+    final Path file,
+    final HttpResponse<byte[]> response ) {
+    final var status = response.statusCode();
+
+    try {
+      if( status == HTTP_NOT_MODIFIED ) {
+        HttpCache.touch( file );
+      }
+      else if( status == HTTP_OK ) {
+        HttpCache.store( file, response );
+        clue( "Main.status.image.request.fetch", url );
+      }
+      else {
+        throw new IOException( "%s [HTTP %d]".formatted( url, status ) );
+      }
+    } catch( final IOException ex ) {
+      throw new UncheckedIOException( ex );
+    }
+
+    return file;
+  }
+
+  private static boolean isFresh( final Path file ) {
+    try {
+      final var modified = Files.getLastModifiedTime( file ).toInstant();
+
+      return modified.plus( REVALIDATE_AFTER ).isAfter( Instant.now() );
+    } catch( final IOException ex ) {
+      return false;
+    }
+  }
+}
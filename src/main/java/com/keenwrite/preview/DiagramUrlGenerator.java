@@ -1,10 +1,19 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.preview;
 
-import java.nio.charset.StandardCharsets;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
+import static java.lang.Math.max;
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Base64.getUrlEncoder;
 
 /**
@@ -12,6 +21,18 @@ import static java.util.Base64.getUrlEncoder;
  * that the HTML renderer can embed as SVG images.
  */
 public class DiagramUrlGenerator {
+  /**
+   * Number of bytes the compressor writes to the encoder at a time.
+   */
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Idle compressors, which are reused to avoid allocating native memory
+   * for every diagram.
+   */
+  private static final BlockingQueue<Deflater> sDeflaters =
+    new ArrayBlockingQueue<>( 4 );
+
   private DiagramUrlGenerator() {
   }
 
@@ -19,48 +40,78 @@ public class DiagramUrlGenerator {
    * Returns a URL that can be embedded as the {@code src} attribute to an HTML
    * {@code img} tag.
    *
-   * @param server  Name of server to use for diagram conversion.
+   * @param server  Name of server to use for diagram conversion, which is
+   *                contacted using HTTPS unless a scheme is given (e.g.,
+   *                {@code http://localhost:8000} for a local server).
    * @param diagram Diagram type (e.g., Graphviz, Block, PlantUML).
    * @param text    Diagram text that conforms to the diagram type.
-   * @return A secure URL string to use as an image {@code src} attribute.
+   * @return A URL string to use as an image {@code src} attribute.
    */
   public static String toUrl(
     final String server, final String diagram, final String text ) {
     return format(
-      "https://%s/%s/svg/%s", server, diagram, encode( text )
+      "%s/%s/svg/%s", toServerUrl( server ), diagram, encode( text )
     );
   }
 
+  /**
+   * Prefixes the server name with a secure scheme, unless it has a scheme.
+   *
+   * @param server The server name, optionally having a scheme and path.
+   * @return The server URL, without a trailing slash.
+   */
+  static String toServerUrl( final String server ) {
+    final var url = server.contains( "://" ) ? server : "https://" + server;
+
+    return url.endsWith( "/" ) ? url.substring( 0, url.length() - 1 ) : url;
+  }
+
   /**
    * Convert the plain-text version of the diagram into a URL-encoded value
-   * suitable for passing to a web server using an HTTP GET request.
+   * suitable for passing to a web server using an HTTP GET request. The text
+   * is compressed and encoded as it is written, so that only the encoded
+   * result is buffered, regardless of the diagram's size.
    *
    * @param text The diagram text to encode.
    * @return The URL-encoded (and compressed) version of the text.
    */
   private static String encode( final String text ) {
-    return getUrlEncoder().encodeToString(
-      compress( text.getBytes( StandardCharsets.UTF_8 ) )
-    );
+    final var size = max( 64, text.length() / 2 );
+    final var buffer = new ByteArrayOutputStream( size );
+    final var deflater = acquire();
+
+    try( final var writer = new OutputStreamWriter(
+      new DeflaterOutputStream(
+        getUrlEncoder().wrap( buffer ), deflater, BUFFER_SIZE ), UTF_8 ) ) {
+      writer.write( text );
+    } catch( final IOException ex ) {
+      // Only thrown by the underlying stream, which is in memory.
+      throw new UncheckedIOException( ex );
+    } finally {
+      release( deflater );
+    }
+
+    return buffer.toString( US_ASCII );
   }
 
   /**
-   * Compresses a sequence of bytes using ZLIB format.
-   *
-   * @param source The data to compress.
-   * @return A lossless, compressed sequence of bytes.
+   * Returns an idle compressor, creating one if none are idle.
    */
-  private static byte[] compress( byte[] source ) {
-    final var deflater = new Deflater();
-    deflater.setInput( source );
-    deflater.finish();
+  private static Deflater acquire() {
+    final var deflater = sDeflaters.poll();
 
-    final var compressed = new byte[ Short.MAX_VALUE ];
-    final var size = deflater.deflate( compressed );
-    final var result = new byte[ size ];
+    return deflater == null ? new Deflater() : deflater;
+  }
 
-    System.arraycopy( compressed, 0, result, 0, size );
+  /**
+   * Returns the given compressor to the pool, or frees its native memory
+   * if the pool is full.
+   */
+  private static void release( final Deflater deflater ) {
+    deflater.reset();
 
-    return result;
+    if( !sDeflaters.offer( deflater ) ) {
+      deflater.end();
+    }
   }
 }
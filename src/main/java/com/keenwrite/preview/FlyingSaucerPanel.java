@@ -1,12 +1,14 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.preview;
 
+import com.keenwrite.dom.DocumentPatcher;
 import com.keenwrite.events.FileOpenEvent;
 import com.keenwrite.events.HyperlinkOpenEvent;
 import com.keenwrite.ui.adapters.DocumentAdapter;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import org.w3c.dom.Document;
+import org.xhtmlrenderer.extend.ReplacedElement;
 import org.xhtmlrenderer.layout.SharedContext;
 import org.xhtmlrenderer.render.Box;
 import org.xhtmlrenderer.simple.XHTMLPanel;
@@ -18,13 +20,21 @@ import java.awt.*;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.net.URI;
+import java.nio.file.Path;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
 
+import static com.keenwrite.constants.Constants.IMAGES_THREADS_DEFAULT;
 import static com.keenwrite.events.StatusEvent.clue;
 import static com.keenwrite.util.ProtocolScheme.getProtocol;
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
 import static java.lang.Math.max;
 import static java.lang.Thread.sleep;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static javax.swing.SwingUtilities.invokeLater;
 
 /**
@@ -85,15 +95,87 @@ public final class FlyingSaucerPanel extends XHTMLPanel
   }
 
   private static final XhtmlNamespaceHandler XNH = new XhtmlNamespaceHandler();
+
   private final ChainedReplacedElementFactory mFactory;
+  private final ImageReplacedElementFactory mImageFactory;
+
+  /**
+   * Answers whether images are loaded only when scrolled near.
+   */
+  private final BooleanSupplier mLazy;
+
+  /**
+   * Distance (px) beyond the visible area within which images are loaded.
+   */
+  private final IntSupplier mMargin;
+
+  /**
+   * Number of threads that download, decode, and rasterize images.
+   */
+  private final IntSupplier mThreads;
+
+  /**
+   * Loads images off the layout thread so that documents with many images
+   * are displayed before all their images have loaded. Images are
+   * rasterized concurrently, one per thread.
+   */
+  private final ThreadPoolExecutor mImageLoader = new ThreadPoolExecutor(
+    IMAGES_THREADS_DEFAULT, IMAGES_THREADS_DEFAULT,
+    0L, MILLISECONDS, new LinkedBlockingQueue<>(),
+    runnable -> {
+      final var thread = new Thread( runnable, "preview-images" );
+      thread.setDaemon( true );
+      return thread;
+    }
+  );
+
+  /**
+   * The base URI of the displayed document, or {@code null} to set the next
+   * document rendered instead of patching the displayed document.
+   */
+  private volatile String mBaseUri;
+
+  /**
+   * Set while a layout is pending to show images that have finished
+   * loading, so that many images finishing together cause one layout.
+   */
+  private boolean mRelayoutPending;
+
+  /**
+   * Creates a panel that caches rasterized images within the given
+   * directory.
+   *
+   * @param cachesDir Provides the directory for persisted images.
+   * @param diagrams  Persists diagrams fetched from the diagram server.
+   * @param lazy      Answers whether to defer loading images until they are
+   *                  scrolled near the visible area.
+   * @param margin    Provides the distance (px) beyond the visible area
+   *                  within which deferred images are loaded.
+   * @param threads   Provides the number of images to load at once.
+   */
+  FlyingSaucerPanel(
+    final Supplier<Path> cachesDir,
+    final DiagramCache diagrams,
+    final BooleanSupplier lazy,
+    final IntSupplier margin,
+    final IntSupplier threads ) {
+    mLazy = lazy;
+    mMargin = margin;
+    mThreads = threads;
+    mImageFactory = new ImageReplacedElementFactory(
+      this::loadImage,
+      new RasterCache( cachesDir, mImageLoader ),
+      diagrams,
+      lazy
+    );
 
-  FlyingSaucerPanel() {
     // The order is important: SwingReplacedElementFactory replaces SVG images
     // with a blank image, which will cause the chained factory to cache the
     // image and exit. Instead, the SVG must execute first to rasterize the
     // content. Consequently, the chained factory must maintain insertion order.
     mFactory = new ChainedReplacedElementFactory(
-      new ImageReplacedElementFactory(),
+      this::imageLoaded,
+      mImageFactory,
       new SwingReplacedElementFactory()
     );
 
@@ -111,18 +193,46 @@ public final class FlyingSaucerPanel extends XHTMLPanel
   /**
    * Updates the document model displayed by the renderer. Effectively, this
    * updates the HTML document to provide new content.
+   * <p>
+   * When only the body changed, the displayed document is patched to match
+   * the given document, then laid out again. This keeps the stylesheets,
+   * the styles computed for unchanged elements, and the scroll position,
+   * which is much faster than setting a new document on every keystroke.
+   * </p>
    *
    * @param doc     A complete HTML5 document, including doctype.
    * @param baseUri URI to use for finding relative files, such as images.
    */
   @Override
   public void render( final Document doc, final String baseUri ) {
+    final var current = getDocument();
+
+    if( current != null && baseUri != null && baseUri.equals( mBaseUri ) ) {
+      final var result = DocumentPatcher.patch(
+        current, doc, getSharedContext()::removeElementReferences );
+
+      switch( result ) {
+        case UNCHANGED -> { return; }
+        case PATCHED -> {
+          relayout();
+          return;
+        }
+        default -> { }
+      }
+    }
+
+    mBaseUri = baseUri;
     setDocument( doc, baseUri, XNH );
   }
 
+  /**
+   * Clears the cached images, then ensures that the next document rendered
+   * is set anew, so that all its images are loaded again.
+   */
   @Override
   public void clearCache() {
     mFactory.clearCache();
+    mBaseUri = null;
   }
 
   @Override
@@ -199,6 +309,102 @@ public final class FlyingSaucerPanel extends XHTMLPanel
     return getSharedContext().getBoxById( id );
   }
 
+  /**
+   * Shows an image that was loaded in the background. If the image is the
+   * same size as its placeholder, only the areas of the boxes containing the
+   * placeholder are repainted, because elements having the same image share
+   * a placeholder; otherwise, the document is laid out again.
+   *
+   * @param placeholder The element that reserved space for the image.
+   * @param element     The element having the loaded image.
+   */
+  private void imageLoaded(
+    final PlaceholderReplacedElement placeholder,
+    final ReplacedElement element ) {
+    invokeLater( () -> {
+      if( placeholder.replace( element ) ) {
+        final var boxes = placeholder.getBoxes( getRootBox() );
+
+        if( boxes.isEmpty() ) {
+          repaint();
+        }
+
+        for( final var box : boxes ) {
+          repaint( box.getAbsX(), box.getAbsY(), box.getWidth(),
+                   box.getHeight() );
+        }
+      }
+      else if( !mRelayoutPending ) {
+        mRelayoutPending = true;
+
+        invokeLater( () -> {
+          mRelayoutPending = false;
+          relayout();
+        } );
+      }
+    } );
+  }
+
+  /**
+   * Paints the document, then starts loading deferred images that the
+   * visible area (plus margin) now reaches. Scrolling and layout both
+   * repaint, so images are loaded as they approach the visible area.
+   *
+   * @param g The graphics context to paint upon.
+   */
+  @Override
+  public void paintComponent( final Graphics g ) {
+    super.paintComponent( g );
+    loadNearbyImages();
+  }
+
+  /**
+   * Starts loading the deferred images that are within the margin of the
+   * visible area, or all of them if lazy loading has been disabled.
+   */
+  private void loadNearbyImages() {
+    final var deferred = mImageFactory.getDeferred();
+
+    if( deferred.isEmpty() ) {
+      return;
+    }
+
+    final var lazy = mLazy.getAsBoolean();
+    final var visible = getVisibleRect();
+    final var margin = max( 0, mMargin.getAsInt() );
+    final var top = visible.y - margin;
+    final var bottom = visible.y + visible.height + margin;
+    final var root = getRootBox();
+
+    for( final var placeholder : deferred ) {
+      if( !lazy || placeholder.isWithin( root, top, bottom ) ) {
+        placeholder.load();
+      }
+    }
+  }
+
+  /**
+   * Queues a task that loads an image, first applying any change to the
+   * number of threads that load images. Tasks already queued are unaffected.
+   *
+   * @param task Downloads, decodes, or rasterizes an image.
+   */
+  private synchronized void loadImage( final Runnable task ) {
+    final var threads = max( 1, mThreads.getAsInt() );
+
+    // The core size may never exceed the maximum size.
+    if( threads > mImageLoader.getMaximumPoolSize() ) {
+      mImageLoader.setMaximumPoolSize( threads );
+      mImageLoader.setCorePoolSize( threads );
+    }
+    else if( threads < mImageLoader.getMaximumPoolSize() ) {
+      mImageLoader.setCorePoolSize( threads );
+      mImageLoader.setMaximumPoolSize( threads );
+    }
+
+    mImageLoader.execute( task );
+  }
+
   /**
    * Suppress scrolling to the top on updates.
    */
@@ -10,6 +10,8 @@ import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.StringProperty;
 import javafx.embed.swing.SwingNode;
 import org.greenrobot.eventbus.Subscribe;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 
 import javax.swing.*;
 import java.awt.*;
@@ -24,6 +26,9 @@ import static com.keenwrite.events.Bus.register;
 import static com.keenwrite.events.ScrollLockEvent.fireScrollLockEvent;
 import static com.keenwrite.events.StatusEvent.clue;
 import static com.keenwrite.preferences.AppKeys.*;
+import static com.keenwrite.preview.ImageReplacedElementFactory.HTML_IMAGE;
+import static com.keenwrite.preview.ImageReplacedElementFactory.HTML_IMAGE_SRC;
+import static com.keenwrite.processors.markdown.extensions.tex.TexNode.HTML_TEX;
 import static com.keenwrite.ui.fonts.IconFactory.getIconFont;
 import static java.awt.BorderLayout.*;
 import static java.awt.event.KeyEvent.*;
@@ -79,18 +84,25 @@ public final class HtmlPreview extends SwingNode implements ComponentListener {
   private static final URL HTML_STYLE_PREVIEW = toUrl( STYLESHEET_PREVIEW );
 
   /**
-   * Reusing this buffer prevents repetitious memory re-allocations.
+   * The most recently rendered HTML body, retained for re-rendering when
+   * settings that affect the HTML head change.
    */
-  private final StringBuilder mDocument = new StringBuilder( 65536 );
+  private volatile String mDocument = "";
 
   private HtmlRenderer mPreview;
   private JScrollPane mScrollPane;
   private String mBaseUriPath = "";
-  private String mHead;
+
+  /**
+   * An empty document having a populated HTML head, parsed once per change
+   * to the settings, and copied for every render.
+   */
+  private volatile Document mHead;
 
   private volatile boolean mScrollLocked;
   private final JButton mScrollLockButton = new JButton();
   private final Workspace mWorkspace;
+  private final DiagramCache mDiagrams;
 
   /**
    * Creates a new preview pane that can scroll to the caret position within the
@@ -100,13 +112,21 @@ public final class HtmlPreview extends SwingNode implements ComponentListener {
    */
   public HtmlPreview( final Workspace workspace ) {
     mWorkspace = workspace;
+    mDiagrams = new DiagramCache(
+      this::getCachesDir, () -> mWorkspace.getString( KEY_IMAGES_SERVER ) );
     mHead = generateHead();
 
     // Attempts to prevent a flash of black un-styled content upon load.
     setStyle( "-fx-background-color: white;" );
 
     invokeLater( () -> {
-      mPreview = new FlyingSaucerPanel();
+      mPreview = new FlyingSaucerPanel(
+        this::getCachesDir,
+        mDiagrams,
+        () -> mWorkspace.getBoolean( KEY_IMAGES_LAZY ),
+        () -> mWorkspace.getInteger( KEY_IMAGES_MARGIN ),
+        () -> mWorkspace.getInteger( KEY_IMAGES_THREADS )
+      );
       mScrollPane = new JScrollPane( (Component) mPreview );
       final var verticalBar = mScrollPane.getVerticalScrollBar();
       final var verticalPanel = new JPanel( new BorderLayout() );
@@ -156,7 +176,21 @@ public final class HtmlPreview extends SwingNode implements ComponentListener {
    * @param html The new HTML document to display.
    */
   public void render( final String html ) {
-    final var jsoupDoc = DocumentConverter.parse( decorate( html ) );
+    mDocument = html;
+
+    // Only the body is parsed; the head is copied from a parsed template.
+    final var jsoupDoc = DocumentConverter.parse( mHead, html );
+
+    // Typeset all formulas in the background before the layout needs them.
+    MathRenderer.typesetAll(
+      jsoupDoc.select( HTML_TEX ).stream().map( Element::wholeText ).toList()
+    );
+
+    // Request all uncached diagrams concurrently, rather than one at a time.
+    mDiagrams.fetchAll(
+      jsoupDoc.select( HTML_IMAGE ).eachAttr( HTML_IMAGE_SRC )
+    );
+
     final var doc = CONVERTER.fromJsoup( jsoupDoc );
     final var uri = getBaseUri();
 
@@ -178,22 +212,7 @@ public final class HtmlPreview extends SwingNode implements ComponentListener {
    */
   private void rerender() {
     mHead = generateHead();
-    render( mDocument.toString() );
-  }
-
-  /**
-   * Attaches the HTML head prefix and HTML tail suffix to the given HTML
-   * string.
-   *
-   * @param html The HTML to adorn with opening and closing tags.
-   * @return A complete HTML document, ready for rendering.
-   */
-  private String decorate( final String html ) {
-    mDocument.setLength( 0 );
-    mDocument.append( html );
-
-    // Head and tail must be separate from document due to re-rendering.
-    return mHead + mDocument + HTML_TAIL;
+    render( mDocument );
   }
 
   /**
@@ -201,15 +220,16 @@ public final class HtmlPreview extends SwingNode implements ComponentListener {
    * This is a minor performance optimization to avoid generating the head
    * each time that the document itself changes.
    *
-   * @return A new doctype and HTML {@code head} element.
+   * @return A new document having a doctype, an HTML {@code head} element,
+   * and an empty {@code body} element.
    */
-  private String generateHead() {
+  private Document generateHead() {
     final var locale = getLocale();
     final var base = getBaseUri();
     final var custom = getCustomStylesheetUrl();
 
     // Point sizes are converted to pixels because of a rendering bug.
-    return format(
+    final var head = format(
       HTML_HEAD,
       locale.getLanguage(),
       toStylesheetString( HTML_STYLE_PREVIEW ),
@@ -219,6 +239,8 @@ public final class HtmlPreview extends SwingNode implements ComponentListener {
       toPixels( getFontSize() ),
       base.isBlank() ? "" : format( HTML_BASE, base )
     );
+
+    return DocumentConverter.parse( head + HTML_TAIL );
   }
 
   /**
@@ -320,6 +342,10 @@ public final class HtmlPreview extends SwingNode implements ComponentListener {
     return Character.toString( (locked ? LOCK : UNLOCK_ALT).getChar() );
   }
 
+  private Path getCachesDir() {
+    return mWorkspace.getFile( KEY_CACHES_DIR ).toPath();
+  }
+
   private URL getCustomStylesheetUrl() {
     try {
       return mWorkspace.getFile( KEY_UI_PREVIEW_STYLESHEET ).toURI().toURL();
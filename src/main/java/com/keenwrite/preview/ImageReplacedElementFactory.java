@@ -3,7 +3,6 @@ package com.keenwrite.preview;
 
 import com.keenwrite.io.MediaType;
 import com.keenwrite.ui.adapters.ReplacedElementAdapter;
-import io.sf.carte.echosvg.transcoder.TranscoderException;
 import org.w3c.dom.Element;
 import org.xhtmlrenderer.extend.ReplacedElement;
 import org.xhtmlrenderer.extend.UserAgentCallback;
@@ -13,12 +12,16 @@ import org.xhtmlrenderer.swing.ImageReplacedElement;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.text.ParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
 
 import static com.keenwrite.events.StatusEvent.clue;
 import static com.keenwrite.io.downloads.DownloadManager.open;
@@ -26,20 +29,111 @@ import static com.keenwrite.preview.SvgRasterizer.BROKEN_IMAGE_PLACEHOLDER;
 import static com.keenwrite.preview.SvgRasterizer.rasterize;
 import static com.keenwrite.processors.markdown.extensions.tex.TexNode.HTML_TEX;
 import static com.keenwrite.util.ProtocolScheme.getProtocol;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Responsible for running {@link SvgRasterizer} on SVG images detected within
  * a document to transform them into rasterized versions. This will fall back
  * to loading rasterized images from a file if not detected as SVG.
+ * <p>
+ * When given an {@link Executor}, images are downloaded, decoded, and
+ * rasterized in the background. In that case, a
+ * {@link PlaceholderReplacedElement} is returned immediately, which
+ * completes once its image has loaded. Loading may also be deferred until
+ * the placeholder is near the visible area, see {@link #getDeferred()}.
+ * </p>
  */
 public final class ImageReplacedElementFactory extends ReplacedElementAdapter {
 
   public static final String HTML_IMAGE = "img";
   public static final String HTML_IMAGE_SRC = "src";
 
+  /**
+   * Placeholder height relative to its width when the image height is not
+   * known, which corresponds to a 4:3 aspect ratio.
+   */
+  private static final float PLACEHOLDER_ASPECT = 0.75f;
+
+  /**
+   * Maximum estimated placeholder height, which limits how far content jumps
+   * when the real image replaces its placeholder.
+   */
+  private static final int PLACEHOLDER_HEIGHT = 480;
+
   private static final ImageReplacedElement BROKEN_IMAGE =
     createElement( BROKEN_IMAGE_PLACEHOLDER );
 
+  /**
+   * Resolution at which vector graphics are rasterized, which is part of
+   * the {@link RasterCache} key.
+   */
+  private static final int DPI = 96;
+
+  /**
+   * Runs background image loading, or {@code null} to load images on the
+   * calling thread.
+   */
+  private final Executor mExecutor;
+
+  /**
+   * Persists rasterized vector graphics and formulas, or {@code null} to
+   * rasterize them every time.
+   */
+  private final RasterCache mRasterCache;
+
+  /**
+   * Persists diagrams fetched from the diagram server, or {@code null} to
+   * download them every time.
+   */
+  private final DiagramCache mDiagramCache;
+
+  /**
+   * Answers whether to defer loading images until they are requested.
+   */
+  private final BooleanSupplier mLazy;
+
+  /**
+   * Images being loaded in the background, or whose loading is deferred,
+   * which prevents loading the same image more than once when the document
+   * is laid out again.
+   */
+  private final Map<String, PlaceholderReplacedElement> mPending =
+    new ConcurrentHashMap<>();
+
+  /**
+   * Creates a factory that loads images on the calling thread.
+   */
+  public ImageReplacedElementFactory() {
+    this( null, null, null, () -> false );
+  }
+
+  /**
+   * Creates a factory that loads images using the given {@link Executor}.
+   *
+   * @param executor     Runs the tasks that download, decode, and rasterize
+   *                     images, or {@code null} to load on the calling thread.
+   * @param rasterCache  Persists rasterized images, or {@code null} to
+   *                     rasterize vector graphics every time they are loaded.
+   * @param diagramCache Persists diagrams, or {@code null} to download
+   *                     diagrams every time they are loaded.
+   * @param lazy         Answers whether background loading waits until
+   *                     {@link PlaceholderReplacedElement#load()} is called.
+   */
+  ImageReplacedElementFactory(
+    final Executor executor,
+    final RasterCache rasterCache,
+    final DiagramCache diagramCache,
+    final BooleanSupplier lazy ) {
+    assert lazy != null;
+
+    mExecutor = executor;
+    mRasterCache = rasterCache;
+    mDiagramCache = diagramCache;
+    mLazy = lazy;
+  }
+
   @Override
   public ReplacedElement createReplacedElement(
     final LayoutContext c,
@@ -50,14 +144,18 @@ public final class ImageReplacedElementFactory extends ReplacedElementAdapter {
     final var e = box.getElement();
 
     try {
-      final BufferedImage raster =
-        switch( e.getNodeName() ) {
-          case HTML_IMAGE -> createHtmlImage( box, e, uac );
-          case HTML_TEX -> createTexImage( e );
-          default -> null;
-        };
-
-      return createElement( raster );
+      final var source = capture( box, e, uac );
+
+      if( mExecutor == null || source == null ) {
+        return createElement( source == null ? null : source.load() );
+      }
+
+      final var placeholder = mPending.computeIfAbsent(
+        source.key(), k -> submit( source, box, cssWidth, cssHeight )
+      );
+
+      placeholder.addBox( box );
+      return placeholder;
     } catch( final Exception ex ) {
       clue( ex );
     }
@@ -66,44 +164,165 @@ public final class ImageReplacedElementFactory extends ReplacedElementAdapter {
   }
 
   /**
-   * Convert an HTML element to a raster graphic.
+   * Starts loading an image in the background, or prepares to do so when
+   * loading is deferred.
+   *
+   * @param source    The image to load.
+   * @param box       The box that will contain the image.
+   * @param cssWidth  The image width from the document, if known.
+   * @param cssHeight The image height from the document, if known.
+   * @return A placeholder for the image, which has the known image
+   * dimensions, or an estimate thereof.
    */
-  private static BufferedImage createHtmlImage(
+  private PlaceholderReplacedElement submit(
+    final Source source,
+    final BlockBox box,
+    final int cssWidth,
+    final int cssHeight ) {
+    final var raster = new CompletableFuture<BufferedImage>();
+    final var w = cssWidth > 0 ? cssWidth : max( 1, box.getContentWidth() );
+    final var h = cssHeight > 0
+      ? cssHeight
+      : source.isTex()
+      ? 1
+      : min( PLACEHOLDER_HEIGHT, max( 1, (int) (w * PLACEHOLDER_ASPECT) ) );
+    final Runnable loader = () -> mExecutor.execute( () -> {
+      BufferedImage image = null;
+
+      try {
+        image = source.load();
+      } catch( final Exception ex ) {
+        clue( ex );
+      }
+
+      raster.complete( image == null ? BROKEN_IMAGE_PLACEHOLDER : image );
+      mPending.computeIfPresent(
+        source.key(), ( k, v ) -> v.getRaster() == raster ? null : v
+      );
+    } );
+
+    final var placeholder =
+      new PlaceholderReplacedElement( raster, loader, w, h );
+
+    if( !mLazy.getAsBoolean() ) {
+      placeholder.load();
+    }
+
+    return placeholder;
+  }
+
+  /**
+   * Returns the placeholders whose images have not started loading.
+   *
+   * @return Placeholders waiting for a call to
+   * {@link PlaceholderReplacedElement#load()}.
+   */
+  List<PlaceholderReplacedElement> getDeferred() {
+    return mPending
+      .values()
+      .stream()
+      .filter( placeholder -> !placeholder.isLoading() )
+      .toList();
+  }
+
+  /**
+   * Forgets the images that have not started loading when a new document is
+   * set, which may no longer contain them.
+   */
+  @Override
+  public void reset() {
+    mPending.values().removeIf( placeholder -> !placeholder.isLoading() );
+  }
+
+  /**
+   * Forgets the images of the given element that have not started loading,
+   * because the element was removed from the document.
+   *
+   * @param element The element removed from the document.
+   */
+  @Override
+  public void remove( final Element element ) {
+    mPending.values().removeIf(
+      placeholder -> !placeholder.isLoading() &&
+        placeholder.removeBoxes( element )
+    );
+  }
+
+  /**
+   * Captures everything needed from the document to load an image, so that
+   * the image can be loaded without accessing the document again.
+   *
+   * @return The image to load, or {@code null} if the element is not an
+   * image.
+   */
+  private Source capture(
     final BlockBox box,
     final Element e,
-    final UserAgentCallback uac )
-    throws TranscoderException, URISyntaxException, IOException {
-    final var source = e.getAttribute( HTML_IMAGE_SRC );
+    final UserAgentCallback uac ) {
+    return switch( e.getNodeName() ) {
+      case HTML_IMAGE -> {
+        final var source = e.getAttribute( HTML_IMAGE_SRC );
+        final var baseUrl = uac.getBaseURL();
+        final var baseUri = e.getBaseURI();
+        final var w = box.getContentWidth();
+
+        yield new Source(
+          source + '@' + w,
+          false,
+          () -> createHtmlImage( source, baseUrl, baseUri, w )
+        );
+      }
+      case HTML_TEX -> {
+        final var tex = e.getTextContent();
+
+        yield new Source( tex, true, () -> createTexImage( tex ) );
+      }
+      default -> null;
+    };
+  }
+
+  /**
+   * Convert an HTML element to a raster graphic.
+   */
+  private BufferedImage createHtmlImage(
+    final String source,
+    final String baseUrl,
+    final String baseUri,
+    final int w ) throws Exception {
     final var mediaType = MediaType.fromFilename( source );
 
     URI uri = null;
     BufferedImage raster = null;
 
-    final var w = box.getContentWidth();
-
-    if( getProtocol( source ).isRemote() ) {
+    if( mDiagramCache != null && mDiagramCache.isDiagram( source ) ) {
+      uri = mDiagramCache.fetch( source ).toUri();
+    }
+    else if( getProtocol( source ).isRemote() ) {
       try( final var response = open( source );
            final var stream = response.getInputStream() ) {
 
         // Rasterize SVG from URL resource.
-        raster = response.isSvg()
-          ? rasterize( stream, w )
-          : ImageIO.read( stream );
+        if( response.isSvg() ) {
+          raster = rasterize( stream, w );
+        }
+        else {
+          raster = ImageIO.read( stream );
+        }
 
         clue( "Main.status.image.request.fetch", source );
       }
     }
     else if( mediaType.isSvg() ) {
-      uri = resolve( source, uac, e );
+      uri = resolve( source, baseUrl, baseUri );
     }
 
     if( uri != null && w > 0 ) {
-      raster = rasterize( uri, w );
+      raster = createSvgImage( uri, w );
     }
 
     // Not an SVG, attempt to read a local rasterized image.
     if( raster == null && mediaType.isImage() ) {
-      uri = resolve( source, uac, e );
+      uri = resolve( source, baseUrl, baseUri );
       final var path = Path.of( uri.getPath() );
 
       try( final var stream = Files.newInputStream( path ) ) {
@@ -116,28 +335,70 @@ public final class ImageReplacedElementFactory extends ReplacedElementAdapter {
 
   private static URI resolve(
     final String source,
-    final UserAgentCallback uac,
-    final Element e )
+    final String baseUrl,
+    final String baseUri )
     throws URISyntaxException {
     // Attempt to rasterize based on file name.
-    final var baseUri = new URI( uac.getBaseURL() );
-    final var path = baseUri.resolve( source ).normalize();
+    final var path = new URI( baseUrl ).resolve( source ).normalize();
 
     if( path.isAbsolute() ) {
       return path;
     }
     else {
-      final var base = new URI( e.getBaseURI() ).getPath();
+      final var base = new URI( baseUri ).getPath();
       return Path.of( base, source ).toUri();
     }
   }
 
+  /**
+   * Rasterizes a local vector graphic, reusing a previously rasterized image
+   * of the same file content at the same width.
+   */
+  private BufferedImage createSvgImage( final URI uri, final int w )
+    throws Exception {
+    if( mRasterCache == null || !"file".equals( uri.getScheme() ) ) {
+      return rasterize( uri, w );
+    }
+
+    final var bytes = Files.readAllBytes( Path.of( uri ) );
+    final var key = RasterCache.key( bytes, "svg", w, DPI );
+
+    return rasterizeCached( key, () -> rasterize( uri, w ) );
+  }
+
   /**
    * Convert the TeX element to a raster graphic.
    */
-  private BufferedImage createTexImage( final Element e )
-    throws TranscoderException, ParseException {
-    return rasterize( MathRenderer.toString( e.getTextContent() ) );
+  private BufferedImage createTexImage( final String tex ) throws Exception {
+    final Loader loader = () -> rasterize( MathRenderer.toDocument( tex ) );
+
+    if( mRasterCache == null ) {
+      return loader.load();
+    }
+
+    final var size = MathRenderer.getSize();
+    final var key = RasterCache.key( tex.getBytes( UTF_8 ), "tex", size, DPI );
+
+    return rasterizeCached( key, loader );
+  }
+
+  /**
+   * Returns the image from the {@link RasterCache}, rasterizing and caching
+   * the image if it is not found.
+   */
+  private BufferedImage rasterizeCached( final String key, final Loader loader )
+    throws Exception {
+    var raster = mRasterCache.get( key );
+
+    if( raster == null ) {
+      raster = loader.load();
+
+      if( raster != null && raster != BROKEN_IMAGE_PLACEHOLDER ) {
+        mRasterCache.put( key, raster );
+      }
+    }
+
+    return raster;
   }
 
   private static ImageReplacedElement createElement( final BufferedImage bi ) {
@@ -145,4 +406,25 @@ public final class ImageReplacedElementFactory extends ReplacedElementAdapter {
       ? BROKEN_IMAGE
       : new ImageReplacedElement( bi, bi.getWidth(), bi.getHeight() );
   }
+
+  /**
+   * Loads an image without accessing the document.
+   */
+  @FunctionalInterface
+  private interface Loader {
+    BufferedImage load() throws Exception;
+  }
+
+  /**
+   * An image to load.
+   *
+   * @param key    Identifies the image and the size it is loaded at.
+   * @param isTex  Indicates whether the image is a typeset formula.
+   * @param loader Downloads, decodes, or rasterizes the image.
+   */
+  private record Source( String key, boolean isTex, Loader loader ) {
+    BufferedImage load() throws Exception {
+      return loader.load();
+    }
+  }
 }
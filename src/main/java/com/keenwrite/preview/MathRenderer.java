@@ -1,28 +1,77 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.preview;
 
+import com.keenwrite.collections.BoundedCache;
 import com.keenwrite.dom.DocumentParser;
 import com.whitemagicsoftware.keentype.lib.KeenType;
+import io.sf.carte.echosvg.anim.dom.SVGDOMImplementation;
+import io.sf.carte.echosvg.dom.util.DOMUtilities;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import org.w3c.dom.Document;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+
 import static com.keenwrite.events.StatusEvent.clue;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
 
 /**
  * Responsible for rendering formulas as scalable vector graphics (SVG).
+ * Typeset formulas are cached by their equation and size, so that documents
+ * having many formulas do not typeset every formula on every render. A
+ * formula is typeset by one thread at a time; other threads that need the
+ * same formula wait for that thread to finish, rather than typesetting it
+ * again.
  */
 public final class MathRenderer {
 
+  /**
+   * Maximum number of characters of equations and SVG markup to cache.
+   */
+  private static final long CACHE_CHARS = 16L * 1024 * 1024;
+
+  /**
+   * Guards the typesetter, which is not thread-safe. Only one typesetter
+   * may be created, because creating it registers classes globally.
+   */
+  private static final Object sTypesetterLock = new Object();
+
   private static KeenType sTypesetter;
 
-  static {
-    try {
-      sTypesetter = new KeenType( false );
-    } catch( final Exception e ) {
-      clue( e );
-    }
-  }
+  private static final BoundedCache<Formula, Typeset> sCache =
+    new BoundedCache<>(
+      CACHE_CHARS, ( k, v ) -> k.equation().length() + v.getSvg().length()
+    );
+
+  /**
+   * Formulas being typeset, which lets threads needing the same formula
+   * (e.g., a batch and the preview's image loaders) share the result.
+   */
+  private static final Map<Formula, CompletableFuture<Typeset>> sPending =
+    new ConcurrentHashMap<>();
+
+  /**
+   * Number of formulas typeset since the application started.
+   */
+  private static final LongAdder sTypesetCount = new LongAdder();
+
+  /**
+   * Typesets batches on one thread, because the typesetter is locked.
+   */
+  private static final ExecutorService sExecutor =
+    newSingleThreadExecutor( runnable -> {
+      final var thread = new Thread( runnable, "typeset-formulas" );
+      thread.setDaemon( true );
+      return thread;
+    } );
 
   private static final DoubleProperty sSize = new SimpleDoubleProperty( 2 );
 
@@ -33,13 +82,25 @@ public final class MathRenderer {
   }
 
   /**
-   * Converts a TeX-based equation into an SVG document.
+   * Returns the scaling factor applied to formulas, which affects the size
+   * of the resulting SVG document.
+   *
+   * @return The formula size.
+   */
+  public static double getSize() {
+    return sSize.doubleValue();
+  }
+
+  /**
+   * Converts a TeX-based equation into an SVG document. The formula is
+   * parsed once; each call returns a copy, because rasterizing modifies
+   * the document.
    *
    * @param equation A mathematical expression to render, without sigils.
    * @return The given string with all formulas transformed into SVG format.
    */
   public static Document toDocument( final String equation ) {
-    return DocumentParser.parse( toString( equation ) );
+    return typeset( equation ).copyDocument();
   }
 
   /**
@@ -49,6 +110,181 @@ public final class MathRenderer {
    * @return The given string with all formulas transformed into SVG format.
    */
   public static String toString( final String equation ) {
-    return sTypesetter.toSvg( "$" + equation + "$", sSize.doubleValue() );
+    return typeset( equation ).getSvg();
+  }
+
+  /**
+   * Converts a TeX-based equation into an SVG element that can be embedded
+   * within an HTML document.
+   *
+   * @param equation A mathematical expression to render, without sigils.
+   * @return The SVG element, without an XML declaration.
+   */
+  public static String toElement( final String equation ) {
+    return typeset( equation ).getElement();
+  }
+
+  /**
+   * Typesets the given equations in the background, caching the results so
+   * that subsequent calls to convert any of the equations return
+   * immediately, or wait for the equation being typeset. Call this with
+   * every formula in a document before rendering it.
+   * <p>
+   * Batching is serial: the equations are typeset one at a time on a single
+   * background thread, which runs ahead of layout. There is only one
+   * typesetter, so typesetting formulas in parallel would gain nothing.
+   * </p>
+   *
+   * @param equations Mathematical expressions to render, without sigils.
+   * @return Completes when every equation has been typeset.
+   */
+  public static CompletableFuture<Void> typesetAll(
+    final Collection<String> equations ) {
+    final var size = getSize();
+
+    return allOf(
+      equations
+        .stream()
+        .distinct()
+        .map( equation -> new Formula( equation, size ) )
+        .map( formula -> runAsync( () -> typeset( formula ), sExecutor ) )
+        .toArray( CompletableFuture[]::new )
+    );
+  }
+
+  private static Typeset typeset( final String equation ) {
+    return typeset( new Formula( equation, getSize() ) );
+  }
+
+  /**
+   * Returns the cached formula, waiting for another thread that is already
+   * typesetting it, or typesetting it on the calling thread.
+   */
+  private static Typeset typeset( final Formula formula ) {
+    final var cached = sCache.get( formula );
+
+    if( cached != null ) {
+      return cached;
+    }
+
+    final var future = new CompletableFuture<Typeset>();
+    final var pending = sPending.putIfAbsent( formula, future );
+
+    if( pending != null ) {
+      return join( pending );
+    }
+
+    try {
+      // The formula may have been cached after the first lookup.
+      final var typeset =
+        sCache.computeIfAbsent( formula, MathRenderer::create );
+
+      future.complete( typeset );
+      return typeset;
+    } catch( final RuntimeException ex ) {
+      future.completeExceptionally( ex );
+      throw ex;
+    } finally {
+      sPending.remove( formula, future );
+    }
+  }
+
+  private static Typeset join( final CompletableFuture<Typeset> pending ) {
+    try {
+      return pending.join();
+    } catch( final CompletionException ex ) {
+      throw ex.getCause() instanceof RuntimeException cause ? cause : ex;
+    }
+  }
+
+  /**
+   * Returns the number of formulas typeset, as opposed to found in the
+   * cache or shared with another thread. Used by tests.
+   *
+   * @return The number of times the typesetter was run.
+   */
+  static long getTypesetCount() {
+    return sTypesetCount.sum();
+  }
+
+  private static Typeset create( final Formula formula ) {
+    final String svg;
+
+    synchronized( sTypesetterLock ) {
+      sTypesetCount.increment();
+      svg = getTypesetter().toSvg(
+        "$" + formula.equation() + "$", formula.size()
+      );
+    }
+
+    return new Typeset( svg );
+  }
+
+  /**
+   * Returns the typesetter, creating it when first needed. Call while
+   * holding {@link #sTypesetterLock}.
+   */
+  private static KeenType getTypesetter() {
+    if( sTypesetter == null ) {
+      try {
+        sTypesetter = new KeenType( false );
+      } catch( final Exception ex ) {
+        clue( ex );
+        throw new IllegalStateException( ex );
+      }
+    }
+
+    return sTypesetter;
+  }
+
+  /**
+   * Identifies a typeset formula.
+   *
+   * @param equation The mathematical expression, without sigils.
+   * @param size     The scaling factor applied when typesetting.
+   */
+  private record Formula( String equation, double size ) {}
+
+  /**
+   * Retains a typeset formula in the forms that callers need, deriving the
+   * parsed forms only when first requested.
+   */
+  private static final class Typeset {
+    private final String mSvg;
+    private Document mDocument;
+    private String mElement;
+
+    private Typeset( final String svg ) {
+      mSvg = svg;
+    }
+
+    private String getSvg() {
+      return mSvg;
+    }
+
+    private synchronized Document getDocument() {
+      if( mDocument == null ) {
+        mDocument = DocumentParser.parse( mSvg );
+      }
+
+      return mDocument;
+    }
+
+    /**
+     * Copies the parsed document into the SVG object model, which the
+     * rasterizer would otherwise do while transcoding.
+     */
+    private synchronized Document copyDocument() {
+      return DOMUtilities.deepCloneDocument(
+        getDocument(), SVGDOMImplementation.getDOMImplementation() );
+    }
+
+    private synchronized String getElement() {
+      if( mElement == null ) {
+        mElement = SvgRasterizer.toSvg( getDocument().getDocumentElement() );
+      }
+
+      return mElement;
+    }
   }
 }
@@ -0,0 +1,208 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import org.w3c.dom.Element;
+import org.xhtmlrenderer.extend.ReplacedElement;
+import org.xhtmlrenderer.render.Box;
+import org.xhtmlrenderer.swing.ImageReplacedElement;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.util.Collections.newSetFromMap;
+import static java.util.Collections.synchronizedSet;
+
+/**
+ * Responsible for reserving space in the layout for an image that is being
+ * loaded in the background. The placeholder is transparent; once the image
+ * is available, it is either painted in place of the placeholder (when the
+ * sizes match) or the document is laid out again.
+ * <p>
+ * Loading may be deferred until the placeholder is scrolled near the
+ * visible area, in which case the placeholder remembers the boxes that
+ * contain it so that its positions can be determined after layout. A
+ * placeholder is shared by every element having the same image, so it may
+ * be laid out in several boxes.
+ * </p>
+ */
+final class PlaceholderReplacedElement extends ImageReplacedElement {
+  /**
+   * Painted until the image loads; the placeholder's size is reported
+   * separately so that placeholders need not allocate full-size images.
+   */
+  private static final BufferedImage TRANSPARENT =
+    new BufferedImage( 1, 1, TYPE_INT_ARGB );
+
+  private final CompletableFuture<BufferedImage> mRaster;
+  private final int mWidth;
+  private final int mHeight;
+  private final AtomicBoolean mObserved = new AtomicBoolean();
+  private final AtomicBoolean mLoaded = new AtomicBoolean();
+  private final Runnable mLoader;
+
+  /**
+   * Boxes laid out for this placeholder. Boxes from layouts that have been
+   * discarded are forgotten once they are no longer referenced.
+   */
+  private final Set<Box> mBoxes =
+    synchronizedSet( newSetFromMap( new WeakHashMap<>() ) );
+
+  /**
+   * Creates a placeholder of the given size.
+   *
+   * @param raster Completes with the image once it has been loaded.
+   * @param loader Starts loading the image when first run.
+   * @param width  The known or estimated image width (px).
+   * @param height The known or estimated image height (px).
+   */
+  PlaceholderReplacedElement(
+    final CompletableFuture<BufferedImage> raster,
+    final Runnable loader,
+    final int width,
+    final int height ) {
+    _image = TRANSPARENT;
+    mRaster = raster;
+    mLoader = loader;
+    mWidth = width;
+    mHeight = height;
+  }
+
+  @Override
+  public int getIntrinsicWidth() {
+    return mWidth;
+  }
+
+  @Override
+  public int getIntrinsicHeight() {
+    return mHeight;
+  }
+
+  /**
+   * Starts loading the image, unless it is already loading.
+   */
+  void load() {
+    if( mLoaded.compareAndSet( false, true ) ) {
+      mLoader.run();
+    }
+  }
+
+  /**
+   * Answers whether {@link #load()} has been called.
+   *
+   * @return {@code false} if loading the image is deferred.
+   */
+  boolean isLoading() {
+    return mLoaded.get();
+  }
+
+  /**
+   * Adds a box that contains this placeholder.
+   *
+   * @param box A box laid out for one of the placeholder's elements.
+   */
+  void addBox( final Box box ) {
+    mBoxes.add( box );
+  }
+
+  /**
+   * Returns the boxes that contain this placeholder within the given layout,
+   * forgetting boxes from other layouts.
+   *
+   * @param root The root box of the current layout, or {@code null} to
+   *             return every box.
+   * @return The boxes, which is empty if the placeholder was not laid out.
+   */
+  List<Box> getBoxes( final Box root ) {
+    synchronized( mBoxes ) {
+      if( root != null ) {
+        mBoxes.removeIf( box -> getRoot( box ) != root );
+      }
+
+      return List.copyOf( mBoxes );
+    }
+  }
+
+  /**
+   * Answers whether any box containing this placeholder is between the given
+   * vertical positions. Placeholders that have not been laid out are
+   * considered to be within, so that their images are loaded to be safe.
+   *
+   * @param root   The root box of the current layout.
+   * @param top    The top of the area (px).
+   * @param bottom The bottom of the area (px).
+   * @return {@code true} if the placeholder's image is to be loaded.
+   */
+  boolean isWithin( final Box root, final int top, final int bottom ) {
+    final var boxes = getBoxes( root );
+
+    return boxes.isEmpty() || boxes.stream().anyMatch(
+      box -> box.getAbsY() + box.getHeight() >= top && box.getAbsY() <= bottom
+    );
+  }
+
+  /**
+   * Forgets the boxes laid out for the given element.
+   *
+   * @param element The element removed from the document.
+   * @return {@code true} if boxes were forgotten and none remain.
+   */
+  boolean removeBoxes( final Element element ) {
+    synchronized( mBoxes ) {
+      return mBoxes.removeIf( box -> box.getElement() == element ) &&
+        mBoxes.isEmpty();
+    }
+  }
+
+  /**
+   * Returns the image that this placeholder stands in for.
+   *
+   * @return The image being loaded.
+   */
+  CompletableFuture<BufferedImage> getRaster() {
+    return mRaster;
+  }
+
+  /**
+   * Answers whether this is the first call, which allows only one caller to
+   * act on the loaded image.
+   *
+   * @return {@code true} the first time this method is called.
+   */
+  boolean observe() {
+    return mObserved.compareAndSet( false, true );
+  }
+
+  private static Box getRoot( final Box box ) {
+    var root = box;
+
+    while( root.getParent() != null ) {
+      root = root.getParent();
+    }
+
+    return root;
+  }
+
+  /**
+   * Paints the given element's image in place of the placeholder, provided
+   * that doing so would not change the layout. This must be called on the
+   * thread that paints the document.
+   *
+   * @param element The element having the loaded image.
+   * @return {@code true} if the placeholder now shows the image.
+   */
+  boolean replace( final ReplacedElement element ) {
+    if( element instanceof final ImageReplacedElement ire &&
+        ire.getIntrinsicWidth() == getIntrinsicWidth() &&
+        ire.getIntrinsicHeight() == getIntrinsicHeight() ) {
+      _image = ire.getImage();
+      return true;
+    }
+
+    return false;
+  }
+}
@@ -0,0 +1,436 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import com.keenwrite.collections.BoundedCache;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import static com.keenwrite.events.StatusEvent.clue;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Comparator.comparing;
+
+/**
+ * Responsible for persisting rasterized images so that vector graphics and
+ * formulas need not be rasterized again after restarting the application or
+ * clearing the preview's image cache. Images are stored as PNG files named
+ * after a digest of everything that affects the raster (e.g., the SVG bytes
+ * and target width), so changing any of these misses the cache instead of
+ * returning a stale image.
+ * <p>
+ * The total size of the files is capped; the least recently used files are
+ * deleted first. When the cache directory is first used, its files are
+ * indexed and the most recently used images are decoded in the background.
+ * </p>
+ * <p>
+ * Recency is kept on disk as each file's modification time, so that it
+ * survives restarts. Images found in memory do not access the disk: their
+ * files are marked as used in batches, in the background.
+ * </p>
+ */
+final class RasterCache {
+  private static final String DIRECTORY = "rasters";
+  private static final String EXTENSION = ".png";
+
+  /**
+   * Maximum number of bytes of PNG files to keep on disk.
+   */
+  private static final long DISK_BYTES = 256L * 1024 * 1024;
+
+  /**
+   * Maximum number of bytes of decoded images to keep in memory.
+   */
+  private static final long MEMORY_BYTES = 32L * 1024 * 1024;
+
+  /**
+   * Maximum number of recently used images to decode in the background.
+   */
+  private static final int WARM_COUNT = 64;
+
+  /**
+   * Number of images used from memory before their files are marked as
+   * recently used.
+   */
+  private static final int TOUCH_BATCH = 32;
+
+  private final Supplier<Path> mCachesDir;
+  private final Executor mExecutor;
+
+  /**
+   * Recently decoded images, which includes those decoded in the background.
+   */
+  private final BoundedCache<String, BufferedImage> mImages =
+    new BoundedCache<>(
+      MEMORY_BYTES, ( k, v ) -> (long) v.getWidth() * v.getHeight() * 4
+    );
+
+  /**
+   * Maps file names (without extension) to their sizes, ordered from least
+   * to most recently used. Guarded by {@code this}.
+   */
+  private final Map<String, Long> mIndex =
+    new LinkedHashMap<>( 256, 0.75f, true );
+
+  /**
+   * Sum of the sizes in the index. Guarded by {@code this}.
+   */
+  private long mBytes;
+
+  /**
+   * The directory that the index describes. Guarded by {@code this}.
+   */
+  private Path mDir;
+
+  /**
+   * Keys of images used from memory whose files have not yet been marked
+   * as recently used. Guarded by {@code this}.
+   */
+  private final Set<String> mUsed = new HashSet<>();
+
+  /**
+   * Creates a cache that stores images in a subdirectory of the given
+   * directory.
+   *
+   * @param cachesDir Provides the directory for cached files, which may
+   *                  change while the application runs.
+   * @param executor  Runs the task that indexes and pre-loads the cache.
+   */
+  RasterCache( final Supplier<Path> cachesDir, final Executor executor ) {
+    assert cachesDir != null;
+    assert executor != null;
+
+    mCachesDir = cachesDir;
+    mExecutor = executor;
+  }
+
+  /**
+   * Creates a key that identifies a rasterized image by its source content
+   * and every parameter that influences how it is rasterized.
+   *
+   * @param content    The vector graphic or formula being rasterized.
+   * @param parameters Values such as the target width and resolution.
+   * @return A name suitable for use as a file name.
+   */
+  static String key( final byte[] content, final Object... parameters ) {
+    try {
+      final var digest = MessageDigest.getInstance( "SHA-256" );
+
+      digest.update( content );
+
+      for( final var parameter : parameters ) {
+        digest.update( (byte) 0 );
+        digest.update( String.valueOf( parameter ).getBytes( UTF_8 ) );
+      }
+
+      return HexFormat.of().formatHex( digest.digest() );
+    } catch( final NoSuchAlgorithmException ex ) {
+      throw new IllegalStateException( ex );
+    }
+  }
+
+  /**
+   * Returns the image cached for the given key.
+   *
+   * @param key The value returned from {@link #key(byte[], Object...)}.
+   * @return The cached image, or {@code null} if not cached.
+   */
+  BufferedImage get( final String key ) {
+    final var dir = directory();
+    final var cached = mImages.get( key );
+
+    if( cached != null || dir == null ) {
+      used( dir, key );
+      return cached;
+    }
+
+    final var file = dir.resolve( key + EXTENSION );
+
+    if( !Files.isRegularFile( file ) ) {
+      return null;
+    }
+
+    try {
+      final var image = ImageIO.read( file.toFile() );
+
+      if( image != null ) {
+        mImages.put( key, image );
+
+        synchronized( this ) {
+          mIndex.get( key );
+        }
+
+        touch( dir, List.of( key ) );
+      }
+
+      return image;
+    } catch( final IOException ex ) {
+      clue( ex );
+    }
+
+    return null;
+  }
+
+  /**
+   * Stores the given image, then deletes the least recently used images
+   * until the cache is within its size limit.
+   *
+   * @param key   The value returned from {@link #key(byte[], Object...)}.
+   * @param image The rasterized image to cache.
+   */
+  void put( final String key, final BufferedImage image ) {
+    final var dir = directory();
+
+    mImages.put( key, image );
+
+    if( dir == null ) {
+      return;
+    }
+
+    try {
+      final var file = dir.resolve( key + EXTENSION );
+      final var temp = Files.createTempFile( dir, key, ".tmp" );
+
+      try {
+        ImageIO.write( image, "png", temp.toFile() );
+        Files.move( temp, file, ATOMIC_MOVE, REPLACE_EXISTING );
+      } finally {
+        Files.deleteIfExists( temp );
+      }
+
+      final var size = Files.size( file );
+      final List<String> evicted;
+      final List<String> used;
+
+      synchronized( this ) {
+        if( !dir.equals( mDir ) ) {
+          return;
+        }
+
+        final var previous = mIndex.put( key, size );
+        mBytes += size - (previous == null ? 0 : previous);
+        evicted = evict();
+
+        // Writing the file marked it as used.
+        mUsed.remove( key );
+        used = drainUsed();
+      }
+
+      delete( dir, evicted );
+
+      if( !used.isEmpty() ) {
+        mExecutor.execute( () -> touch( dir, used ) );
+      }
+    } catch( final IOException ex ) {
+      clue( ex );
+    }
+  }
+
+  /**
+   * Returns the directory for cached images, creating it if necessary.
+   * When the directory differs from the previous call, it is indexed in
+   * the background.
+   *
+   * @return The cache directory, or {@code null} if it cannot be created.
+   */
+  private synchronized Path directory() {
+    final var dir = mCachesDir.get().resolve( DIRECTORY );
+
+    if( !dir.equals( mDir ) ) {
+      try {
+        Files.createDirectories( dir );
+      } catch( final IOException ex ) {
+        clue( ex );
+        return null;
+      }
+
+      mDir = dir;
+      mIndex.clear();
+      mUsed.clear();
+      mBytes = 0;
+      mImages.clear();
+      mExecutor.execute( () -> warm( dir ) );
+    }
+
+    return mDir;
+  }
+
+  /**
+   * Indexes the files in the given directory by when they were last used,
+   * then decodes the most recently used images.
+   *
+   * @param dir The directory to index.
+   */
+  private void warm( final Path dir ) {
+    final var files = new ArrayList<CachedFile>();
+
+    try( final var paths = Files.list( dir ) ) {
+      for( final var path : (Iterable<Path>) paths::iterator ) {
+        final var name = path.getFileName().toString();
+
+        if( name.endsWith( EXTENSION ) ) {
+          files.add( new CachedFile(
+            name.substring( 0, name.length() - EXTENSION.length() ),
+            Files.size( path ),
+            Files.getLastModifiedTime( path )
+          ) );
+        }
+      }
+    } catch( final IOException ex ) {
+      clue( ex );
+      return;
+    }
+
+    files.sort( comparing( CachedFile::modified ) );
+
+    final List<String> evicted;
+
+    synchronized( this ) {
+      if( !dir.equals( mDir ) ) {
+        return;
+      }
+
+      // Files used since indexing began are more recent than those found.
+      final var recent = new LinkedHashMap<>( mIndex );
+      mIndex.clear();
+
+      for( final var file : files ) {
+        mIndex.put( file.key(), file.size() );
+      }
+
+      mIndex.putAll( recent );
+      mBytes = mIndex.values().stream().mapToLong( Long::longValue ).sum();
+      evicted = evict();
+    }
+
+    delete( dir, evicted );
+
+    final var count = files.size();
+
+    for( var i = count - 1; i >= Math.max( 0, count - WARM_COUNT ); i-- ) {
+      final var key = files.get( i ).key();
+
+      if( evicted.contains( key ) || mImages.get( key ) != null ) {
+        continue;
+      }
+
+      try {
+        final var file = dir.resolve( key + EXTENSION );
+        final var image = ImageIO.read( file.toFile() );
+
+        if( image != null ) {
+          mImages.put( key, image );
+        }
+      } catch( final IOException ex ) {
+        clue( ex );
+      }
+
+      if( mImages.getWeight() >= MEMORY_BYTES ) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Removes the least recently used entries from the index until the
+   * total size is within the limit. The caller must hold the lock.
+   *
+   * @return The keys of files to delete.
+   */
+  private List<String> evict() {
+    final var evicted = new ArrayList<String>();
+    final var iterator = mIndex.entrySet().iterator();
+
+    while( mBytes > DISK_BYTES && iterator.hasNext() ) {
+      final var entry = iterator.next();
+
+      mBytes -= entry.getValue();
+      evicted.add( entry.getKey() );
+      iterator.remove();
+    }
+
+    return evicted;
+  }
+
+  private void delete( final Path dir, final List<String> keys ) {
+    for( final var key : keys ) {
+      mImages.remove( key );
+
+      try {
+        Files.deleteIfExists( dir.resolve( key + EXTENSION ) );
+      } catch( final IOException ex ) {
+        clue( ex );
+      }
+    }
+  }
+
+  /**
+   * Marks the given image as recently used in the index, without accessing
+   * the disk. Once enough images have been used, their files are marked as
+   * recently used in the background.
+   */
+  private void used( final Path dir, final String key ) {
+    if( dir == null ) {
+      return;
+    }
+
+    final List<String> used;
+
+    synchronized( this ) {
+      mIndex.get( key );
+
+      if( !mUsed.add( key ) || mUsed.size() < TOUCH_BATCH ) {
+        return;
+      }
+
+      used = drainUsed();
+    }
+
+    mExecutor.execute( () -> touch( dir, used ) );
+  }
+
+  /**
+   * Returns the keys of images used from memory, then forgets them. The
+   * caller must hold the lock.
+   */
+  private List<String> drainUsed() {
+    final var used = List.copyOf( mUsed );
+    mUsed.clear();
+    return used;
+  }
+
+  /**
+   * Marks the given files as recently used on disk, so that recency survives
+   * restarts.
+   */
+  private static void touch( final Path dir, final List<String> keys ) {
+    final var now = FileTime.from( Instant.now() );
+
+    for( final var key : keys ) {
+      try {
+        Files.setLastModifiedTime( dir.resolve( key + EXTENSION ), now );
+      } catch( final IOException ignored ) {
+        // The file may have been evicted; recency is only a hint.
+      }
+    }
+  }
+
+  private record CachedFile( String key, long size, FileTime modified ) {}
+}
@@ -21,8 +21,12 @@ import java.net.URI;
 import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.text.ParseException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static com.keenwrite.dom.DocumentParser.transform;
 import static com.keenwrite.events.StatusEvent.clue;
@@ -36,10 +40,13 @@ import static io.sf.carte.echosvg.transcoder.image.ImageTranscoder.KEY_PIXEL_UNI
 import static io.sf.carte.echosvg.util.SVGConstants.SVG_HEIGHT_ATTRIBUTE;
 import static io.sf.carte.echosvg.util.SVGConstants.SVG_WIDTH_ATTRIBUTE;
 import static java.awt.image.BufferedImage.TYPE_INT_RGB;
-import static java.text.NumberFormat.getIntegerInstance;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
 
 /**
- * Responsible for converting SVG images into rasterized PNG images.
+ * Responsible for converting SVG images into rasterized PNG images. Images
+ * may be rasterized concurrently from any number of threads; callers decide
+ * how many, such as the preview's image loader, whose size is set by the
+ * images parallelism preference.
  */
 public final class SvgRasterizer {
 
@@ -63,16 +70,24 @@ public final class SvgRasterizer {
     }
   }
 
-  private static final UserAgent USER_AGENT = new UserAgentAdapter();
-  private static final BridgeContext BRIDGE_CONTEXT = new BridgeContext(
-    USER_AGENT, new DocumentLoader( USER_AGENT )
-  );
-  private static final ErrorHandler sErrorHandler = new SvgErrorHandler();
+  /*
+   * The bridge context, document factory, and number format are not
+   * thread-safe, so each thread that rasterizes has its own instances.
+   * Transcoders are created for every image.
+   */
+  private static final ThreadLocal<BridgeContext> BRIDGE_CONTEXT =
+    ThreadLocal.withInitial( () -> {
+      final var userAgent = new UserAgentAdapter();
+      return new BridgeContext( userAgent, new DocumentLoader( userAgent ) );
+    } );
 
-  private static final SAXSVGDocumentFactory FACTORY_DOM =
-    new SAXSVGDocumentFactory();
+  private static final ThreadLocal<SAXSVGDocumentFactory> FACTORY_DOM =
+    ThreadLocal.withInitial( SAXSVGDocumentFactory::new );
 
-  private static final NumberFormat INT_FORMAT = getIntegerInstance();
+  private static final ThreadLocal<NumberFormat> INT_FORMAT =
+    ThreadLocal.withInitial( NumberFormat::getIntegerInstance );
+
+  private static final ErrorHandler sErrorHandler = new SvgErrorHandler();
 
   public static final BufferedImage BROKEN_IMAGE_PLACEHOLDER;
 
@@ -250,7 +265,7 @@ public final class SvgRasterizer {
     final var root = document.getDocumentElement();
     final var width = root.getAttribute( SVG_WIDTH_ATTRIBUTE );
 
-    return rasterize( document, INT_FORMAT.parse( width ).intValue() );
+    return rasterize( document, parseInt( width ) );
   }
 
   /**
@@ -292,7 +307,8 @@ public final class SvgRasterizer {
    */
   public static BufferedImage rasterize( final URI uri, final int width ) {
     try {
-      return rasterize( FACTORY_DOM.createDocument( uri.toString() ), width );
+      return rasterize(
+        FACTORY_DOM.get().createDocument( uri.toString() ), width );
     } catch( final Exception ex ) {
       clue( ex );
     }
@@ -315,8 +331,8 @@ public final class SvgRasterizer {
     final var root = document.getDocumentElement();
     final var width = root.getAttribute( SVG_WIDTH_ATTRIBUTE );
     final var height = root.getAttribute( SVG_HEIGHT_ATTRIBUTE );
-    final var w = INT_FORMAT.parse( width ).intValue() * scale;
-    final var h = INT_FORMAT.parse( height ).intValue() * scale;
+    final var w = parseInt( width ) * scale;
+    final var h = parseInt( height ) * scale;
 
     return rasterize( svg, w, h );
   }
@@ -335,6 +351,35 @@ public final class SvgRasterizer {
     return rasterize( toDocument( svg ), w );
   }
 
+  /**
+   * Rasterizes the vector graphic files at the given URIs in parallel. If
+   * any exception happens, a broken image icon is returned for that file.
+   *
+   * @param uris     The URIs to vector graphic files, which must include the
+   *                 protocol scheme.
+   * @param width    Scale the images to the given width (px); aspect ratio
+   *                 is maintained.
+   * @param executor Runs the rasterization tasks, which determines how many
+   *                 images are rasterized at once.
+   * @return The rasterized images, keyed and ordered by the given URIs.
+   */
+  public static Map<URI, BufferedImage> rasterizeAll(
+    final Collection<URI> uris, final int width, final Executor executor ) {
+    final var futures =
+      new LinkedHashMap<URI, CompletableFuture<BufferedImage>>();
+
+    for( final var uri : uris ) {
+      futures.computeIfAbsent(
+        uri, u -> supplyAsync( () -> rasterize( u, width ), executor )
+      );
+    }
+
+    final var images = new LinkedHashMap<URI, BufferedImage>();
+    futures.forEach( ( uri, future ) -> images.put( uri, future.join() ) );
+
+    return images;
+  }
+
   /**
    * Given a document object model (DOM) {@link Element}, this will convert that
    * element to a string.
@@ -360,7 +405,7 @@ public final class SvgRasterizer {
    */
   private static Document toDocument( final String xml ) {
     try( final var reader = new StringReader( xml ) ) {
-      return FACTORY_DOM.createSVGDocument(
+      return FACTORY_DOM.get().createSVGDocument(
         "http://www.w3.org/2000/svg", reader );
     } catch( final Exception ex ) {
       throw new IllegalArgumentException( ex );
@@ -410,6 +455,10 @@ public final class SvgRasterizer {
     return transcoder.getImage();
   }
 
+  private static int parseInt( final String number ) throws ParseException {
+    return INT_FORMAT.get().parse( number ).intValue();
+  }
+
   /**
    * Returns either the given element's SVG document width, or the display
    * width, whichever is smaller.
@@ -439,7 +488,7 @@ public final class SvgRasterizer {
   private static float fit(
     final Element root, final String w, final int width ) {
     final var usWidth = svgHorizontalLengthToUserSpace(
-      w, SVG_WIDTH_ATTRIBUTE, createContext( BRIDGE_CONTEXT, root )
+      w, SVG_WIDTH_ATTRIBUTE, createContext( BRIDGE_CONTEXT.get(), root )
     );
 
     // If the image is too small, scale it to 1/4 the canvas width.
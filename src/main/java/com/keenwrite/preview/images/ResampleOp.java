@@ -7,39 +7,53 @@
 package com.keenwrite.preview.images;
 
 import java.awt.image.BufferedImage;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 import static com.keenwrite.preview.images.ConstrainedDimension.*;
 import static java.awt.image.BufferedImage.*;
 import static java.awt.image.DataBuffer.TYPE_USHORT;
-import static java.lang.Runtime.getRuntime;
 import static java.lang.String.format;
-import static java.lang.Thread.currentThread;
 
 /**
  * Based on <a href="http://schmidt.devlib.org/jiu/">Java Image Util</a>.
  * <p>
- * Note that the filter method is not thread-safe.
+ * The image is resampled in two passes: horizontally from the source into
+ * an intermediate image, then vertically into the destination. Each pass
+ * divides its rows into bands that run in parallel on the common
+ * fork/join pool. The filter method is thread-safe.
  * </p>
  *
  * @author Morten Nobel-Joergensen
  * @author Heinz Doerr
  */
 public class ResampleOp extends AdvancedResizeOp {
-  private static final int MAX_CHANNEL_VALUE = 255;
+  private static final float MAX_CHANNEL_VALUE = 255;
 
-  private int nrChannels;
-  private int srcWidth;
-  private int srcHeight;
-  private int dstWidth;
-  private int dstHeight;
+  /**
+   * Number of rows that a single task resamples, which keeps the rows that
+   * a task reads and writes close together in memory.
+   */
+  private static final int BAND_ROWS = 32;
+
+  /**
+   * Images having fewer destination pixels are resampled on the calling
+   * thread, because splitting the work would cost more than it saves.
+   */
+  private static final int PARALLEL_PIXELS = 128 * 128;
+
+  /**
+   * Row buffers reused by each thread across invocations.
+   */
+  private static final ThreadLocal<Buffers> BUFFERS =
+    ThreadLocal.withInitial( Buffers::new );
 
   static class SubSamplingData {
     // individual - per row or per column - nr of contributions
     private final int[] arrN;
-    // 2Dim: [wid or hei][contrib]
+    // 2Dim: [wid or hei][contrib]; unused cells refer to pixel 0
     private final int[] arrPixel;
-    // 2Dim: [wid or hei][contrib]
+    // 2Dim: [wid or hei][contrib]; unused cells have no weight
     private final float[] arrWeight;
     // the primary index length for the 2Dim arrays : arrPixel and arrWeight
     private final int numContributors;
@@ -57,11 +71,6 @@ public class ResampleOp extends AdvancedResizeOp {
     }
   }
 
-  private SubSamplingData horizontalSubsamplingData;
-  private SubSamplingData verticalSubsamplingData;
-
-  private final int threadCount = getRuntime().availableProcessors();
-  private final AtomicInteger multipleInvocationLock = new AtomicInteger();
   private final ResampleFilter mFilter;
 
   public ResampleOp(
@@ -79,16 +88,10 @@ public class ResampleOp extends AdvancedResizeOp {
 
   public BufferedImage doFilter(
     BufferedImage srcImg, BufferedImage dst, int dstWidth, int dstHeight ) {
-    this.dstWidth = dstWidth;
-    this.dstHeight = dstHeight;
-
     if( dstWidth < 3 || dstHeight < 3 ) {
       throw new IllegalArgumentException( "Target must be at least 3x3." );
     }
 
-    assert multipleInvocationLock.incrementAndGet() == 1 :
-      "Multiple concurrent invocations detected";
-
     final var srcType = srcImg.getType();
 
     if( srcType == TYPE_BYTE_BINARY ||
@@ -99,51 +102,22 @@ public class ResampleOp extends AdvancedResizeOp {
         srcImg.getColorModel().hasAlpha() ? TYPE_4BYTE_ABGR : TYPE_3BYTE_BGR );
     }
 
-    this.nrChannels = ImageUtils.nrChannels( srcImg );
+    final var nrChannels = ImageUtils.nrChannels( srcImg );
     assert nrChannels > 0;
-    this.srcWidth = srcImg.getWidth();
-    this.srcHeight = srcImg.getHeight();
-
-    byte[][] workPixels = new byte[ srcHeight ][ dstWidth * nrChannels ];
-
-    // Pre-calculate  sub-sampling
-    horizontalSubsamplingData = createSubSampling(
-      mFilter, srcWidth, dstWidth );
-    verticalSubsamplingData = createSubSampling(
-      mFilter, srcHeight, dstHeight );
-
-    final BufferedImage scrImgCopy = srcImg;
-    final byte[][] workPixelsCopy = workPixels;
-    final Thread[] threads = new Thread[ threadCount - 1 ];
-
-    for( int i = 1; i < threadCount; i++ ) {
-      final int finalI = i;
-      threads[ i - 1 ] = new Thread( () -> horizontallyFromSrcToWork(
-        scrImgCopy, workPixelsCopy, finalI, threadCount ) );
-      threads[ i - 1 ].start();
-    }
 
-    horizontallyFromSrcToWork( scrImgCopy, workPixelsCopy, 0, threadCount );
-    waitForAllThreads( threads );
+    final var pass = new Pass(
+      srcImg,
+      nrChannels,
+      dstWidth,
+      dstHeight,
+      createSubSampling( mFilter, srcImg.getWidth(), dstWidth ),
+      createSubSampling( mFilter, srcImg.getHeight(), dstHeight )
+    );
 
-    byte[] outPixels = new byte[ dstWidth * dstHeight * nrChannels ];
+    final var parallel = (long) dstWidth * dstHeight >= PARALLEL_PIXELS;
 
-    // --------------------------------------------------
-    // Apply filter to sample vertically from Work to Dst
-    // --------------------------------------------------
-    final byte[] outPixelsCopy = outPixels;
-    for( int i = 1; i < threadCount; i++ ) {
-      final int finalI = i;
-      threads[ i - 1 ] = new Thread( () -> verticalFromWorkToDst(
-        workPixelsCopy, outPixelsCopy, finalI, threadCount ) );
-      threads[ i - 1 ].start();
-    }
-    verticalFromWorkToDst( workPixelsCopy, outPixelsCopy, 0, threadCount );
-    waitForAllThreads( threads );
-
-    // free memory
-    // noinspection UnusedAssignment
-    workPixels = null;
+    bands( srcImg.getHeight(), parallel ).forEach( pass::horizontal );
+    bands( dstHeight, parallel ).forEach( pass::vertical );
 
     final BufferedImage out;
 
@@ -162,26 +136,24 @@ public class ResampleOp extends AdvancedResizeOp {
     }
     else {
       out = new BufferedImage(
-        dstWidth, dstHeight, getResultBufferedImageType( srcImg ) );
+        dstWidth, dstHeight, getResultBufferedImageType( srcImg, nrChannels ) );
     }
 
-    ImageUtils.setBGRPixels( outPixels, out, 0, 0, dstWidth, dstHeight );
-
-    assert multipleInvocationLock.decrementAndGet() == 0 : "Multiple " +
-      "concurrent invocations detected";
+    ImageUtils.setBGRPixels( pass.mOut, out, 0, 0, dstWidth, dstHeight );
 
     return out;
   }
 
-  private void waitForAllThreads( final Thread[] threads ) {
-    try {
-      for( final Thread thread : threads ) {
-        thread.join( Long.MAX_VALUE );
-      }
-    } catch( final InterruptedException e ) {
-      currentThread().interrupt();
-      throw new RuntimeException( e );
-    }
+  /**
+   * Returns the indexes of bands of rows, in parallel when requested.
+   *
+   * @param rows     The number of rows to divide into bands.
+   * @param parallel Whether to resample the bands concurrently.
+   * @return The band indexes, each covering {@link #BAND_ROWS} rows.
+   */
+  private static IntStream bands( final int rows, final boolean parallel ) {
+    final var bands = IntStream.range( 0, (rows + BAND_ROWS - 1) / BAND_ROWS );
+    return parallel ? bands.parallel() : bands;
   }
 
   static SubSamplingData createSubSampling(
@@ -232,6 +204,7 @@ public class ResampleOp extends AdvancedResizeOp {
           arrN[ i ]++;
           if( n < 0 || n >= srcSize ) {
             weight = 0.0f;// Flag that cell should not be used
+            n = 0;
           }
           arrPixel[ subindex + k ] = n;
           arrWeight[ subindex + k ] = weight;
@@ -277,6 +250,7 @@ public class ResampleOp extends AdvancedResizeOp {
           arrN[ i ]++;
           if( n < 0 || n >= srcSize ) {
             weight = 0.0f;// Flag that cell should not be used
+            n = 0;
           }
           arrPixel[ subindex + k ] = n;
           arrWeight[ subindex + k ] = weight;
@@ -293,167 +267,231 @@ public class ResampleOp extends AdvancedResizeOp {
     return new SubSamplingData( arrN, arrPixel, arrWeight, numContributors );
   }
 
-  private void verticalFromWorkToDst( byte[][] workPixels, byte[] outPixels,
-                                      int start, int delta ) {
-    if( nrChannels == 1 ) {
-      verticalFromWorkToDstGray(
-        workPixels, outPixels, start, threadCount );
-      return;
+  /**
+   * Holds the state of resampling one image, so that concurrent calls to
+   * the filter method do not share any state. The intermediate and output
+   * images are stored contiguously, one row after another.
+   */
+  private static final class Pass {
+    private final BufferedImage mSrc;
+    private final int mChannels;
+    private final int mSrcWidth;
+    private final int mSrcHeight;
+    private final int mDstHeight;
+    private final int mRowLength;
+    private final SubSamplingData mHorizontal;
+    private final SubSamplingData mVertical;
+
+    /**
+     * Offsets into a source row for each horizontal contributor, having
+     * the number of channels factored in.
+     */
+    private final int[] mOffsets;
+    private final byte[] mWork;
+    private final byte[] mOut;
+
+    private Pass(
+      final BufferedImage src,
+      final int channels,
+      final int dstWidth,
+      final int dstHeight,
+      final SubSamplingData horizontal,
+      final SubSamplingData vertical ) {
+      mSrc = src;
+      mChannels = channels;
+      mSrcWidth = src.getWidth();
+      mSrcHeight = src.getHeight();
+      mDstHeight = dstHeight;
+      mRowLength = dstWidth * channels;
+      mHorizontal = horizontal;
+      mVertical = vertical;
+      mOffsets = new int[ horizontal.arrPixel.length ];
+      mWork = new byte[ mSrcHeight * mRowLength ];
+      mOut = new byte[ dstHeight * mRowLength ];
+
+      for( int i = 0; i < mOffsets.length; i++ ) {
+        mOffsets[ i ] = horizontal.arrPixel[ i ] * channels;
+      }
     }
-    boolean useChannel3 = nrChannels > 3;
-    for( int x = start; x < dstWidth; x += delta ) {
-      final int xLoc = x * nrChannels;
-      for( int y = dstHeight - 1; y >= 0; y-- ) {
-        final int yTimesNumContributors =
-          y * verticalSubsamplingData.numContributors;
-        final int max = verticalSubsamplingData.arrN[ y ];
-        final int sampleLocation = (y * dstWidth + x) * nrChannels;
-
-        float sample0 = 0.0f;
-        float sample1 = 0.0f;
-        float sample2 = 0.0f;
-        float sample3 = 0.0f;
-        int index = yTimesNumContributors;
-        for( int j = max - 1; j >= 0; j-- ) {
-          int valueLoc = verticalSubsamplingData.arrPixel[ index ];
-          float arrWeight = verticalSubsamplingData.arrWeight[ index ];
-          sample0 += (workPixels[ valueLoc ][ xLoc ] & 0xff) * arrWeight;
-          sample1 += (workPixels[ valueLoc ][ xLoc + 1 ] & 0xff) * arrWeight;
-          sample2 += (workPixels[ valueLoc ][ xLoc + 2 ] & 0xff) * arrWeight;
-          if( useChannel3 ) {
-            sample3 += (workPixels[ valueLoc ][ xLoc + 3 ] & 0xff) * arrWeight;
-          }
 
-          index++;
+    /**
+     * Apply filter to sample horizontally from Src to Work.
+     *
+     * @param band Index of the band of source rows to resample.
+     */
+    private void horizontal( final int band ) {
+      final var buffers = BUFFERS.get();
+      final int[] tempPixels = buffers.ints( mSrcWidth );
+      final byte[] srcPixels = buffers.bytes( mSrcWidth * mChannels );
+      final int end = Math.min( mSrcHeight, (band + 1) * BAND_ROWS );
+
+      for( int y = band * BAND_ROWS; y < end; y++ ) {
+        ImageUtils.getPixelsBGR( mSrc, y, mSrcWidth, srcPixels, tempPixels );
+
+        // Dispatching once per row keeps the channel count out of the
+        // innermost loops.
+        switch( mChannels ) {
+          case 1 -> horizontal1( srcPixels, y * mRowLength );
+          case 3 -> horizontal3( srcPixels, y * mRowLength );
+          default -> horizontal4( srcPixels, y * mRowLength );
         }
+      }
+    }
 
-        outPixels[ sampleLocation ] = toByte( sample0 );
-        outPixels[ sampleLocation + 1 ] = toByte( sample1 );
-        outPixels[ sampleLocation + 2 ] = toByte( sample2 );
+    private void horizontal1( final byte[] srcPixels, final int row ) {
+      final int contributors = mHorizontal.numContributors;
+      final float[] weights = mHorizontal.arrWeight;
+      final int[] offsets = mOffsets;
+
+      for( int i = 0, index = 0; i < mRowLength; i++ ) {
+        float sample0 = 0.0f;
 
-        if( useChannel3 ) {
-          outPixels[ sampleLocation + 3 ] = toByte( sample3 );
+        for( int j = 0; j < contributors; j++, index++ ) {
+          sample0 += (srcPixels[ offsets[ index ] ] & 0xff) * weights[ index ];
         }
+
+        mWork[ row + i ] = toByte( sample0 );
       }
     }
-  }
 
-  private void verticalFromWorkToDstGray(
-    byte[][] workPixels, byte[] outPixels, int start, int delta ) {
-    for( int x = start; x < dstWidth; x += delta ) {
-      for( int y = dstHeight - 1; y >= 0; y-- ) {
-        final int yTimesNumContributors =
-          y * verticalSubsamplingData.numContributors;
-        final int max = verticalSubsamplingData.arrN[ y ];
-        final int sampleLocation = y * dstWidth + x;
+    private void horizontal3( final byte[] srcPixels, final int row ) {
+      final int contributors = mHorizontal.numContributors;
+      final float[] weights = mHorizontal.arrWeight;
+      final int[] offsets = mOffsets;
+
+      for( int i = 0, index = 0; i < mRowLength; i += 3 ) {
         float sample0 = 0.0f;
-        int index = yTimesNumContributors;
+        float sample1 = 0.0f;
+        float sample2 = 0.0f;
 
-        for( int j = max - 1; j >= 0; j-- ) {
-          int valueLocation = verticalSubsamplingData.arrPixel[ index ];
-          float arrWeight = verticalSubsamplingData.arrWeight[ index ];
-          sample0 += (workPixels[ valueLocation ][ x ] & 0xff) * arrWeight;
+        for( int j = 0; j < contributors; j++, index++ ) {
+          final int offset = offsets[ index ];
+          final float weight = weights[ index ];
 
-          index++;
+          sample0 += (srcPixels[ offset ] & 0xff) * weight;
+          sample1 += (srcPixels[ offset + 1 ] & 0xff) * weight;
+          sample2 += (srcPixels[ offset + 2 ] & 0xff) * weight;
         }
 
-        outPixels[ sampleLocation ] = toByte( sample0 );
+        mWork[ row + i ] = toByte( sample0 );
+        mWork[ row + i + 1 ] = toByte( sample1 );
+        mWork[ row + i + 2 ] = toByte( sample2 );
       }
     }
-  }
-
-  /**
-   * Apply filter to sample horizontally from Src to Work
-   */
-  private void horizontallyFromSrcToWork(
-    BufferedImage srcImg, byte[][] workPixels, int start, int delta ) {
-    if( nrChannels == 1 ) {
-      horizontallyFromSrcToWorkGray( srcImg, workPixels, start, delta );
-      return;
-    }
-
-    // Used if we work on int based bitmaps, later used to keep channel values
-    final int[] tempPixels = new int[ srcWidth ];
-    // create reusable row to minimize memory overhead
-    final byte[] srcPixels = new byte[ srcWidth * nrChannels ];
-    final boolean useChannel3 = nrChannels > 3;
-
-    for( int k = start; k < srcHeight; k = k + delta ) {
-      ImageUtils.getPixelsBGR( srcImg, k, srcWidth, srcPixels, tempPixels );
 
-      for( int i = dstWidth - 1; i >= 0; i-- ) {
-        int sampleLocation = i * nrChannels;
-        final int max = horizontalSubsamplingData.arrN[ i ];
+    private void horizontal4( final byte[] srcPixels, final int row ) {
+      final int contributors = mHorizontal.numContributors;
+      final float[] weights = mHorizontal.arrWeight;
+      final int[] offsets = mOffsets;
 
+      for( int i = 0, index = 0; i < mRowLength; i += 4 ) {
         float sample0 = 0.0f;
         float sample1 = 0.0f;
         float sample2 = 0.0f;
         float sample3 = 0.0f;
-        int index = i * horizontalSubsamplingData.numContributors;
-        for( int j = max - 1; j >= 0; j-- ) {
-          float arrWeight = horizontalSubsamplingData.arrWeight[ index ];
-          int pixelIndex =
-            horizontalSubsamplingData.arrPixel[ index ] * nrChannels;
-
-          sample0 += (srcPixels[ pixelIndex ] & 0xff) * arrWeight;
-          sample1 += (srcPixels[ pixelIndex + 1 ] & 0xff) * arrWeight;
-          sample2 += (srcPixels[ pixelIndex + 2 ] & 0xff) * arrWeight;
-          if( useChannel3 ) {
-            sample3 += (srcPixels[ pixelIndex + 3 ] & 0xff) * arrWeight;
+
+        for( int j = 0; j < contributors; j++, index++ ) {
+          final int offset = offsets[ index ];
+          final float weight = weights[ index ];
+
+          sample0 += (srcPixels[ offset ] & 0xff) * weight;
+          sample1 += (srcPixels[ offset + 1 ] & 0xff) * weight;
+          sample2 += (srcPixels[ offset + 2 ] & 0xff) * weight;
+          sample3 += (srcPixels[ offset + 3 ] & 0xff) * weight;
+        }
+
+        mWork[ row + i ] = toByte( sample0 );
+        mWork[ row + i + 1 ] = toByte( sample1 );
+        mWork[ row + i + 2 ] = toByte( sample2 );
+        mWork[ row + i + 3 ] = toByte( sample3 );
+      }
+    }
+
+    /**
+     * Apply filter to sample vertically from Work to Dst. Each destination
+     * row is the weighted sum of whole intermediate rows, which the JIT
+     * compiler can vectorize.
+     *
+     * @param band Index of the band of destination rows to resample.
+     */
+    private void vertical( final int band ) {
+      final int length = mRowLength;
+      final float[] samples = BUFFERS.get().floats( length );
+      final int contributors = mVertical.numContributors;
+      final int end = Math.min( mDstHeight, (band + 1) * BAND_ROWS );
+
+      for( int y = band * BAND_ROWS; y < end; y++ ) {
+        final int first = y * contributors;
+        final int last = first + contributors;
+
+        Arrays.fill( samples, 0, length, 0.0f );
+
+        for( int k = first; k < last; k++ ) {
+          final float weight = mVertical.arrWeight[ k ];
+
+          if( weight != 0.0f ) {
+            final int row = mVertical.arrPixel[ k ] * length;
+
+            for( int i = 0; i < length; i++ ) {
+              samples[ i ] += (mWork[ row + i ] & 0xff) * weight;
+            }
           }
-          index++;
         }
 
-        workPixels[ k ][ sampleLocation ] = toByte( sample0 );
-        workPixels[ k ][ sampleLocation + 1 ] = toByte( sample1 );
-        workPixels[ k ][ sampleLocation + 2 ] = toByte( sample2 );
-        if( useChannel3 ) {
-          workPixels[ k ][ sampleLocation + 3 ] = toByte( sample3 );
+        final int row = y * length;
+
+        for( int i = 0; i < length; i++ ) {
+          mOut[ row + i ] = toByte( samples[ i ] );
         }
       }
     }
   }
 
   /**
-   * Apply filter to sample horizontally from Src to Work
+   * Retains the arrays that a thread resamples with. Row buffers must match
+   * the source width exactly, so they are replaced when the width changes;
+   * the sample buffer only grows.
    */
-  private void horizontallyFromSrcToWorkGray(
-    BufferedImage srcImg, byte[][] workPixels, int start, int delta ) {
-    // Used if we work on int based bitmaps, later used to keep channel values
-    final int[] tempPixels = new int[ srcWidth ];
-    // create reusable row to minimize memory overhead
-    final byte[] srcPixels = new byte[ srcWidth ];
-
-    for( int k = start; k < srcHeight; k = k + delta ) {
-      ImageUtils.getPixelsBGR( srcImg, k, srcWidth, srcPixels, tempPixels );
+  private static final class Buffers {
+    private int[] mInts = new int[ 0 ];
+    private byte[] mBytes = new byte[ 0 ];
+    private float[] mFloats = new float[ 0 ];
+
+    private int[] ints( final int length ) {
+      if( mInts.length != length ) {
+        mInts = new int[ length ];
+      }
 
-      for( int i = dstWidth - 1; i >= 0; i-- ) {
-        final int max = horizontalSubsamplingData.arrN[ i ];
+      return mInts;
+    }
 
-        float sample0 = 0.0f;
-        int index = i * horizontalSubsamplingData.numContributors;
-        for( int j = max - 1; j >= 0; j-- ) {
-          float arrWeight = horizontalSubsamplingData.arrWeight[ index ];
-          int pixelIndex = horizontalSubsamplingData.arrPixel[ index ];
+    private byte[] bytes( final int length ) {
+      if( mBytes.length != length ) {
+        mBytes = new byte[ length ];
+      }
 
-          sample0 += (srcPixels[ pixelIndex ] & 0xff) * arrWeight;
-          index++;
-        }
+      return mBytes;
+    }
 
-        workPixels[ k ][ i ] = toByte( sample0 );
+    private float[] floats( final int length ) {
+      if( mFloats.length < length ) {
+        mFloats = new float[ length ];
       }
+
+      return mFloats;
     }
   }
 
+  /**
+   * Rounds and clamps the given sample to a channel value without
+   * branching.
+   */
   private static byte toByte( final float f ) {
-    if( f < 0 ) {
-      return 0;
-    }
-
-    return (byte) (f > MAX_CHANNEL_VALUE ? MAX_CHANNEL_VALUE : f + 0.5f);
+    return (byte) (int) Math.min( Math.max( f + 0.5f, 0f ), MAX_CHANNEL_VALUE );
   }
 
-  protected int getResultBufferedImageType( BufferedImage srcImg ) {
+  protected int getResultBufferedImageType(
+    final BufferedImage srcImg, final int nrChannels ) {
     return nrChannels == 3
       ? TYPE_3BYTE_BGR
       : nrChannels == 4
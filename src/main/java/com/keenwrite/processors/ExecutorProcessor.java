@@ -2,7 +2,9 @@
 package com.keenwrite.processors;
 
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 /**
  * Responsible for transforming data through a variety of chained handlers.
@@ -37,11 +39,30 @@ public class ExecutorProcessor<T> implements Processor<T> {
    */
   @Override
   public T apply( final T data ) {
+    return apply( data, () -> false );
+  }
+
+  /**
+   * Calls every link in the chain to process the given data, checking
+   * before each link whether the result is still wanted. This allows a
+   * render that has been superseded by newer content to be abandoned
+   * without running the remaining (potentially expensive) links.
+   *
+   * @param data      The data to transform.
+   * @param cancelled Returns {@code true} to stop processing.
+   * @return The data after processing by every link in the chain.
+   * @throws CancellationException The chain was stopped before completion.
+   */
+  public T apply( final T data, final BooleanSupplier cancelled ) {
     // Start processing using the first processor after the executor.
     Optional<Processor<T>> handler = next();
     final var result = new MutableReference( data );
 
     while( handler.isPresent() ) {
+      if( cancelled.getAsBoolean() ) {
+        throw new CancellationException();
+      }
+
       handler = handler.flatMap( p -> {
         result.set( p.apply( result.get() ) );
         return p.next();
@@ -0,0 +1,235 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors;
+
+import com.keenwrite.io.FileIndex;
+import com.keenwrite.io.MediaType;
+import com.keenwrite.io.MediaTypeExtension;
+import com.keenwrite.io.MediaTypeSniffer;
+import com.keenwrite.io.downloads.HttpCache;
+import com.keenwrite.util.DataTypeConverter;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import static com.keenwrite.Bootstrap.APP_TITLE_ABBR;
+import static com.keenwrite.dom.DocumentParser.sanitize;
+import static com.keenwrite.events.StatusEvent.clue;
+import static com.keenwrite.util.ProtocolScheme.getProtocol;
+import static java.lang.String.format;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+/**
+ * Responsible for downloading the remote images of an exported document
+ * into the caches directory. When an image was downloaded by a previous
+ * export, the server is asked whether it changed, so unchanged images are
+ * not downloaded again.
+ * <p>
+ * Each image is requested once per instance, so that processors sharing an
+ * instance (e.g., {@link IncrementalProcessor} and {@link XhtmlProcessor})
+ * do not ask the server twice while exporting the same document. Call
+ * {@link #clear()} after the export, so that the next export asks again.
+ * </p>
+ */
+final class ImageDownloader {
+  /**
+   * Number of images downloaded at the same time.
+   */
+  private static final int DOWNLOAD_THREADS = 8;
+
+  private static final ExecutorService sDownloader =
+    newFixedThreadPool( DOWNLOAD_THREADS, runnable -> {
+      final var thread = new Thread( runnable, "export-images" );
+      thread.setDaemon( true );
+      return thread;
+    } );
+
+  private static final FileIndex sIndex = FileIndex.getDefault();
+
+  private final ProcessorContext mContext;
+
+  /**
+   * Maps remote URLs to their downloads since the last {@link #clear()}.
+   */
+  private final Map<String, CompletableFuture<Path>> mDownloads =
+    new ConcurrentHashMap<>();
+
+  /**
+   * Creates a downloader that saves images into the context's caches
+   * directory.
+   *
+   * @param context Provides the caches directory and auto-remove setting.
+   */
+  ImageDownloader( final ProcessorContext context ) {
+    assert context != null;
+
+    mContext = context;
+  }
+
+  /**
+   * Starts downloading the given remote images concurrently, using a
+   * bounded number of threads so that servers are not flooded with
+   * requests. Sources that are not remote are ignored.
+   *
+   * @param sources The {@code src} attributes of the document's images.
+   * @return The downloads, keyed by remote URL.
+   */
+  Map<String, CompletableFuture<Path>> download(
+    final Collection<String> sources ) {
+    final var downloads = new HashMap<String, CompletableFuture<Path>>();
+
+    for( final var src : sources ) {
+      if( getProtocol( src ).isRemote() ) {
+        downloads.put( src, mDownloads.computeIfAbsent(
+          src, k -> supplyAsync( () -> {
+            try {
+              return downloadImage( src );
+            } catch( final Exception ex ) {
+              throw new CompletionException( ex );
+            }
+          }, sDownloader ) )
+        );
+      }
+    }
+
+    return downloads;
+  }
+
+  /**
+   * Downloads the given remote images, waiting for all of them.
+   *
+   * @param sources The remote image URLs.
+   * @return The downloaded files, in no particular order.
+   * @throws Exception An image could not be downloaded.
+   */
+  List<Path> downloadAll( final Collection<String> sources )
+    throws Exception {
+    final var files = new ArrayList<Path>( sources.size() );
+
+    for( final var download : download( sources ).values() ) {
+      files.add( download.get() );
+    }
+
+    return files;
+  }
+
+  /**
+   * Forgets the images downloaded so far, so that the next export asks the
+   * server whether they changed.
+   */
+  void clear() {
+    mDownloads.clear();
+  }
+
+  /**
+   * Hashes the URL so that the number of files doesn't eat up disk space
+   * over time. If the server cannot be reached, the file downloaded by a
+   * previous export is used.
+   *
+   * @param src The source file's URL to download.
+   * @return A {@link Path} to the local file containing the URL's contents.
+   * @throws Exception Could not download or save the file.
+   */
+  private Path downloadImage( final String src ) throws Exception {
+    final var cachesPath = mContext.getCachesPath();
+    final var hash = DataTypeConverter.toHex( DataTypeConverter.hash( src ) );
+    final var name = APP_TITLE_ABBR + hash.toLowerCase();
+    final var cached = findDownload( cachesPath, name );
+
+    clue( "Main.status.image.xhtml.image.download", src );
+
+    final HttpResponse<byte[]> response;
+
+    try {
+      response = HttpCache.request( src, cached );
+    } catch( final IOException ex ) {
+      if( cached == null ) {
+        throw ex;
+      }
+
+      clue( ex );
+      return cached;
+    }
+
+    final var status = response.statusCode();
+    final Path imageFile;
+
+    if( status == HTTP_NOT_MODIFIED && cached != null ) {
+      imageFile = cached;
+    }
+    else if( status == HTTP_OK ) {
+      final var mediaType = getMediaType( response );
+      final var ext = MediaTypeExtension.valueFrom( mediaType ).getExtension();
+
+      imageFile = cachesPath.resolve( name + '.' + ext );
+      HttpCache.store( imageFile, response );
+
+      // The media type changed, so the previous file is obsolete.
+      if( cached != null && !cached.equals( imageFile ) ) {
+        Files.deleteIfExists( cached );
+      }
+
+      if( mediaType.isSvg() ) {
+        sanitize( imageFile );
+      }
+    }
+    else {
+      throw new IOException( format( "%s [HTTP %d]", src, status ) );
+    }
+
+    // Preserve image files if auto-remove is turned off.
+    if( mContext.getAutoRemove() ) {
+      imageFile.toFile().deleteOnExit();
+      HttpCache.getValidator( imageFile ).toFile().deleteOnExit();
+    }
+
+    return imageFile;
+  }
+
+  /**
+   * Returns the file downloaded by a previous export, whose extension
+   * depends on the media type that the server sent.
+   *
+   * @param dir  The directory containing downloaded files.
+   * @param name The file name, without extension.
+   * @return The downloaded file, or {@code null} if not downloaded.
+   */
+  private static Path findDownload( final Path dir, final String name ) {
+    for( final var type : MediaTypeExtension.values() ) {
+      final var file = dir.resolve( name + '.' + type.getExtension() );
+
+      if( sIndex.isReadable( file ) ) {
+        return file;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the media type from the transport protocol's Content-Type,
+   * falling back to the magic header bytes if the type was not sent.
+   */
+  private static MediaType getMediaType( final HttpResponse<byte[]> response ) {
+    final var header = response.headers().firstValue( "Content-Type" );
+    final var mediaType = MediaType.valueFrom( header.orElse( null ) );
+    final var body = response.body();
+
+    return mediaType.isUndefined() && body.length > 0
+      ? MediaTypeSniffer.getMediaType( body )
+      : mediaType;
+  }
+}
@@ -0,0 +1,334 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors;
+
+import com.keenwrite.dom.DocumentConverter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static com.keenwrite.Bootstrap.APP_VERSION;
+import static com.keenwrite.events.StatusEvent.clue;
+import static com.keenwrite.processors.XhtmlProcessor.interpolateMetadata;
+import static com.keenwrite.util.ProtocolScheme.getProtocol;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.time.temporal.ChronoUnit.SECONDS;
+import static org.apache.commons.io.FilenameUtils.getExtension;
+
+/**
+ * Responsible for skipping an export whose inputs have not changed since
+ * the last time it was exported. The successor processors (e.g., for
+ * downloading images and typesetting) run only when the document changed;
+ * otherwise, the previously exported file is copied to the target.
+ * <p>
+ * Exports are identified by a digest of the HTML document (after variables
+ * have been interpolated), the export settings, the metadata (after
+ * variables have been interpolated), the theme files, the font files, and
+ * the image files that the document includes. The files
+ * exported for each target are kept in the caches directory, alongside a
+ * manifest that maps each target to the digest of its last export.
+ * </p>
+ * <p>
+ * Theme and image files are compared by their contents, so that a fresh
+ * checkout of unchanged files is not exported again. Font files are
+ * compared by size and modification time, because the fonts directory may
+ * be the system's fonts directory. Remote images are revalidated with the
+ * server before comparing their downloaded contents, so an image that changed
+ * on the server is exported again. The downloads are shared with the
+ * {@link XhtmlProcessor} that follows, so each image is revalidated once
+ * per export.
+ * </p>
+ * <p>
+ * The unit of reuse is the whole document, not its chapters: there is no
+ * manifest of chapters, so changing any part of the document, in any file,
+ * exports the entire document again.
+ * </p>
+ */
+public final class IncrementalProcessor extends ExecutorProcessor<String> {
+  private static final String DIRECTORY = "exports";
+  private static final String MANIFEST = "manifest.properties";
+
+  private final Processor<String> mExporter;
+  private final ProcessorContext mContext;
+  private final ImageDownloader mDownloader;
+
+  /**
+   * Creates a processor that only exports changed documents.
+   *
+   * @param exporter Writes the exported file, which is called when the
+   *                 document has changed; its result is returned.
+   * @param context  Provides the target file and export settings.
+   */
+  public IncrementalProcessor(
+    final Processor<String> exporter, final ProcessorContext context ) {
+    this( exporter, context, new ImageDownloader( context ) );
+  }
+
+  /**
+   * Creates a processor that only exports changed documents, sharing its
+   * remote image downloads with the exporter.
+   *
+   * @param exporter   Writes the exported file.
+   * @param context    Provides the target file and export settings.
+   * @param downloader Revalidates remote images, not {@code null}.
+   */
+  IncrementalProcessor(
+    final Processor<String> exporter,
+    final ProcessorContext context,
+    final ImageDownloader downloader ) {
+    assert exporter != null;
+    assert context != null;
+    assert downloader != null;
+
+    mExporter = exporter;
+    mContext = context;
+    mDownloader = downloader;
+  }
+
+  /**
+   * Exports the given document, unless it was previously exported.
+   *
+   * @param html The document to export.
+   * @return The result from exporting the document, or {@code null} if the
+   * previously exported file was reused.
+   */
+  @Override
+  public String apply( final String html ) {
+    final var target = mContext.getTargetPath().toAbsolutePath();
+    String digest = null;
+
+    try {
+      digest = digest( html );
+
+      if( restore( target, digest ) ) {
+        mDownloader.clear();
+        clue( "Main.status.export.unchanged", target );
+        return null;
+      }
+
+      clue( "Main.status.export.changed", target );
+    } catch( final Exception ex ) {
+      clue( ex );
+    }
+
+    // File systems may store modification times in whole seconds.
+    final var began = FileTime.from( Instant.now().truncatedTo( SECONDS ) );
+    final String result;
+
+    try {
+      result = mExporter.apply( html );
+    } finally {
+      mDownloader.clear();
+    }
+
+    // Exporters report failures without throwing, so check the target file.
+    if( digest != null && isWritten( target, began ) ) {
+      try {
+        store( target, digest );
+      } catch( final IOException ex ) {
+        clue( ex );
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Copies the file previously exported for the given digest to the target,
+   * unless the target already has the same contents.
+   *
+   * @return {@code true} if the target contains the previous export.
+   */
+  private boolean restore( final Path target, final String digest )
+    throws IOException {
+    final var artifact = getArtifact( target, digest );
+
+    if( !Files.isRegularFile( artifact ) ) {
+      return false;
+    }
+
+    if( !Files.isRegularFile( target ) ||
+      Files.mismatch( artifact, target ) != -1 ) {
+      Files.copy( artifact, target, REPLACE_EXISTING );
+    }
+
+    return true;
+  }
+
+  /**
+   * Keeps a copy of the exported file, replacing the target's previous copy.
+   */
+  private void store( final Path target, final String digest )
+    throws IOException {
+    final var manifest = readManifest();
+    final var key = target.toString();
+    final var previous = manifest.getProperty( key );
+    final var artifact = getArtifact( target, digest );
+
+    Files.createDirectories( artifact.getParent() );
+    Files.copy( target, artifact, REPLACE_EXISTING );
+
+    if( previous != null && !previous.equals( digest ) ) {
+      Files.deleteIfExists( getArtifact( target, previous ) );
+    }
+
+    manifest.setProperty( key, digest );
+    writeManifest( manifest );
+  }
+
+  /**
+   * Computes a digest of every input that influences the exported file.
+   */
+  private String digest( final String html ) throws Exception {
+    final var digest = MessageDigest.getInstance( "SHA-256" );
+    final var context = mContext;
+
+    update( digest, html );
+    update( digest, APP_VERSION );
+    update( digest, context.getExportFormat() );
+    update( digest, context.getCurlQuotes() );
+    update( digest, context.getLocale() );
+    update( digest, new TreeMap<>( interpolateMetadata( context ) ) );
+
+    for( final var file : list( context.getThemesDir() ) ) {
+      updateContent( digest, file );
+    }
+
+    for( final var file : list( context.getFontsDir() ) ) {
+      updateMetadata( digest, file );
+    }
+
+    final var images = DocumentConverter
+      .parse( html )
+      .select( "img[src]" )
+      .eachAttr( "src" );
+
+    final var remote = new ArrayList<String>();
+
+    for( final var src : images ) {
+      if( getProtocol( src ).isRemote() ) {
+        remote.add( src );
+      }
+      else {
+        final var image = XhtmlProcessor.locateImage( context, src );
+
+        if( image.isPresent() ) {
+          updateContent( digest, image.get() );
+        }
+      }
+    }
+
+    // Revalidate remote images, so that a changed image exports again.
+    for( final var file : sort( mDownloader.downloadAll( remote ) ) ) {
+      updateContent( digest, file );
+    }
+
+    return HexFormat.of().formatHex( digest.digest() );
+  }
+
+  private static void update( final MessageDigest digest, final Object o ) {
+    digest.update( String.valueOf( o ).getBytes( UTF_8 ) );
+    digest.update( (byte) 0 );
+  }
+
+  private static void updateContent(
+    final MessageDigest digest, final Path file ) throws IOException {
+    update( digest, file );
+
+    try( final var in = Files.newInputStream( file ) ) {
+      final var buffer = new byte[ 65536 ];
+      int length;
+
+      while( (length = in.read( buffer )) != -1 ) {
+        digest.update( buffer, 0, length );
+      }
+    }
+
+    digest.update( (byte) 0 );
+  }
+
+  private static void updateMetadata(
+    final MessageDigest digest, final Path file ) throws IOException {
+    update( digest, file );
+    update( digest, Files.size( file ) );
+    update( digest, Files.getLastModifiedTime( file ).toMillis() );
+  }
+
+  /**
+   * Returns the regular files within the given directory, in a consistent
+   * order, or an empty list if the directory does not exist.
+   */
+  private static List<Path> list( final Path dir ) throws IOException {
+    if( dir == null || !Files.isDirectory( dir ) ) {
+      return List.of();
+    }
+
+    try( final var paths = Files.walk( dir ) ) {
+      return paths.filter( Files::isRegularFile ).sorted().toList();
+    }
+  }
+
+  private static List<Path> sort( final List<Path> files ) {
+    return files.stream().sorted().toList();
+  }
+
+  private static boolean isWritten( final Path target, final FileTime began ) {
+    try {
+      return Files.getLastModifiedTime( target ).compareTo( began ) >= 0;
+    } catch( final IOException ex ) {
+      return false;
+    }
+  }
+
+  private Path getArtifact( final Path target, final String digest ) {
+    final var extension = getExtension( target.getFileName().toString() );
+
+    return getDirectory().resolve(
+      extension.isBlank() ? digest : digest + '.' + extension );
+  }
+
+  private Properties readManifest() throws IOException {
+    final var manifest = new Properties();
+    final var file = getDirectory().resolve( MANIFEST );
+
+    if( Files.isRegularFile( file ) ) {
+      try( final Reader reader = Files.newBufferedReader( file, UTF_8 ) ) {
+        manifest.load( reader );
+      }
+    }
+
+    return manifest;
+  }
+
+  private void writeManifest( final Properties manifest ) throws IOException {
+    final var dir = getDirectory();
+    final var temp = Files.createTempFile( dir, MANIFEST, ".tmp" );
+
+    try {
+      try( final Writer writer = Files.newBufferedWriter( temp, UTF_8 ) ) {
+        manifest.store( writer, null );
+      }
+
+      final var file = dir.resolve( MANIFEST );
+      Files.move( temp, file, ATOMIC_MOVE, REPLACE_EXISTING );
+    } finally {
+      Files.deleteIfExists( temp );
+    }
+  }
+
+  private Path getDirectory() {
+    return mContext.getCachesPath().resolve( DIRECTORY );
+  }
+}
@@ -6,6 +6,7 @@ package com.keenwrite.processors;
 
 import com.keenwrite.ExportFormat;
 import com.keenwrite.collections.InterpolatingMap;
+import com.keenwrite.collections.Interpolator;
 import com.keenwrite.constants.Constants;
 import com.keenwrite.editors.common.Caret;
 import com.keenwrite.io.FileType;
@@ -22,6 +23,7 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.function.LongSupplier;
 import java.util.function.Supplier;
 
 import static com.keenwrite.Bootstrap.USER_CACHE_DIR;
@@ -37,8 +39,20 @@ import static com.keenwrite.predicates.PredicateFactory.createFileTypePredicate;
  */
 public final class ProcessorContext {
 
+  /**
+   * Indicates that the definitions have no version, so values derived from
+   * them must be recomputed each time they are used.
+   */
+  public static final long UNVERSIONED = -1;
+
   private final Mutator mMutator;
 
+  /**
+   * Retains resolved definitions so that only those affected by a change
+   * are interpolated again.
+   */
+  private final Interpolator mInterpolator = new Interpolator();
+
   /**
    * Determines the file type from the path extension. This should only be
    * called when it is known that the file type won't be a definition file
@@ -93,6 +107,7 @@ public final class ProcessorContext {
     private Supplier<Locale> mLocale = () -> Locale.ENGLISH;
 
     private Supplier<Map<String, String>> mDefinitions = HashMap::new;
+    private LongSupplier mDefinitionsVersion = () -> UNVERSIONED;
     private Supplier<Map<String, String>> mMetadata = HashMap::new;
     private Supplier<Caret> mCaret = () -> Caret.builder().build();
 
@@ -204,6 +219,18 @@ public final class ProcessorContext {
       mDefinitions = supplier;
     }
 
+    /**
+     * Sets the source for a value that changes whenever the definitions
+     * change. Without a version, values derived from the definitions cannot
+     * be cached safely.
+     *
+     * @param supplier Defines how to retrieve the definitions version.
+     */
+    public void setDefinitionsVersion( final LongSupplier supplier ) {
+      assert supplier != null;
+      mDefinitionsVersion = supplier;
+    }
+
     public void setMetadata( final Supplier<Map<String, String>> metadata ) {
       assert metadata != null;
       mMetadata = metadata.get() == null ? HashMap::new : metadata;
@@ -311,15 +338,43 @@ public final class ProcessorContext {
     return mMutator.mDefinitions.get();
   }
 
+  /**
+   * Returns a value that changes whenever the definitions change.
+   *
+   * @return A non-negative version, or {@link #UNVERSIONED} if the
+   * definitions are not versioned.
+   */
+  public long getDefinitionsVersion() {
+    return mMutator.mDefinitionsVersion.getAsLong();
+  }
+
+  /**
+   * Returns the text that marks the start of a definition key.
+   *
+   * @return The opening sigil (e.g., <code>{{</code>).
+   */
+  public String getSigilBegan() {
+    return mMutator.mSigilBegan.get();
+  }
+
+  /**
+   * Returns the text that marks the end of a definition key.
+   *
+   * @return The closing sigil (e.g., <code>}}</code>).
+   */
+  public String getSigilEnded() {
+    return mMutator.mSigilEnded.get();
+  }
+
   /**
    * Returns the variable map of definitions, with interpolation.
    *
    * @return A map to help dereference variables.
    */
   public InterpolatingMap getInterpolatedDefinitions() {
-    return new InterpolatingMap(
+    return mInterpolator.interpolate(
       createDefinitionKeyOperator(), getDefinitions()
-    ).interpolate();
+    );
   }
 
   public Map<String, String> getMetadata() {
@@ -440,9 +495,6 @@ public final class ProcessorContext {
   }
 
   private SigilKeyOperator createDefinitionKeyOperator() {
-    final var began = mMutator.mSigilBegan.get();
-    final var ended = mMutator.mSigilEnded.get();
-
-    return new SigilKeyOperator( began, ended );
+    return new SigilKeyOperator( getSigilBegan(), getSigilEnded() );
   }
 }
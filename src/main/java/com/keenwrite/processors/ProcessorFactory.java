@@ -127,10 +127,21 @@ public final class ProcessorFactory {
     return new XhtmlProcessor( successor, context );
   }
 
+  /**
+   * Instantiates processors that typeset an HTML document into a PDF file,
+   * which are skipped when the document has not changed since it was last
+   * typeset. Both processors share the remote image downloads, so each
+   * image is revalidated once per export.
+   *
+   * @return An instance of {@link Processor} that exports a PDF file.
+   */
   private static Processor<String> createPdfProcessor(
     final ProcessorContext context ) {
+    final var downloader = new ImageDownloader( context );
     final var pdfp = new PdfProcessor( context );
-    return createXhtmlProcessor( pdfp, context );
+    final var xhtml = new XhtmlProcessor( pdfp, context, downloader );
+    final var chain = new ExecutorProcessor<>( xhtml );
+    return new IncrementalProcessor( chain, context, downloader );
   }
 
   private static Processor<String> createPreformattedProcessor(
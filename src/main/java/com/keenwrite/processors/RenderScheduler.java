@@ -0,0 +1,263 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static com.keenwrite.events.StatusEvent.clue;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+
+/**
+ * Responsible for running render requests such that only the most recent
+ * request for any given key is processed. When requests arrive faster than
+ * they can be rendered (e.g., fast typing in a long document), superseded
+ * requests are dropped before they start and an in-flight render for the
+ * same key is asked to stop at its next processor boundary.
+ * <p>
+ * A render is only stopped while the preview has been out of date for less
+ * than a threshold. Otherwise, renders slower than the time between requests
+ * would always be stopped, and the preview would not change until the
+ * requests stopped arriving. Past the threshold, the running render
+ * finishes and the latest request runs after it.
+ * </p>
+ * <p>
+ * Requests run on a single thread, in the order that their keys were first
+ * queued, so that the processors never run concurrently.
+ * </p>
+ *
+ * @param <K> The type of key that identifies the request source (an editor).
+ */
+public final class RenderScheduler<K> {
+  /**
+   * How long the preview may be out of date before a running render is
+   * allowed to finish, rather than being stopped for a newer request.
+   */
+  private static final Duration PATIENCE = Duration.ofMillis( 250 );
+
+  private final ExecutorService mExecutor = newSingleThreadExecutor();
+
+  /**
+   * Guards the pending and active requests.
+   */
+  private final Object mLock = new Object();
+
+  /**
+   * At most one request waiting to run for each key.
+   */
+  private final Map<K, Request> mPending = new LinkedHashMap<>();
+
+  /**
+   * The request currently running for a key, if any.
+   */
+  private final Map<K, Request> mActive = new HashMap<>();
+
+  private final AtomicLong mSubmitted = new AtomicLong();
+  private final AtomicLong mDropped = new AtomicLong();
+  private final AtomicLong mCancelled = new AtomicLong();
+
+  /**
+   * Set while a drain loop is queued or running on the executor.
+   */
+  private boolean mDraining;
+
+  /**
+   * See {@link #PATIENCE}, in nanoseconds.
+   */
+  private final long mPatience;
+
+  /**
+   * Creates a scheduler that stops running renders until the preview has
+   * been out of date for a quarter of a second.
+   */
+  public RenderScheduler() {
+    this( PATIENCE );
+  }
+
+  /**
+   * Creates a scheduler that stops running renders until the preview has
+   * been out of date for the given duration.
+   *
+   * @param patience How long to wait for a render that is superseded.
+   */
+  RenderScheduler( final Duration patience ) {
+    mPatience = patience.toNanos();
+  }
+
+  /**
+   * Queues a render request for the given key. Any request for the same key
+   * that has not yet started is discarded; any request for the same key
+   * that is running will be signalled to stop, unless the preview has been
+   * out of date for too long.
+   *
+   * @param key The source of the request (e.g., a text editor).
+   * @param job The work to perform, which must periodically poll the
+   *            given {@link BooleanSupplier} and abandon its work (by
+   *            throwing {@link CancellationException}) once it returns
+   *            {@code true}.
+   */
+  public void submit( final K key, final Consumer<BooleanSupplier> job ) {
+    final var now = System.nanoTime();
+
+    mSubmitted.incrementAndGet();
+
+    synchronized( mLock ) {
+      // The time of the oldest request that the preview does not yet show.
+      var since = now;
+      final var pending = mPending.get( key );
+
+      if( pending != null ) {
+        since = pending.mSince;
+        mDropped.incrementAndGet();
+      }
+
+      final var active = mActive.get( key );
+
+      if( active != null && now - active.mSince < mPatience ) {
+        active.cancel();
+
+        if( active.mSince - since < 0 ) {
+          since = active.mSince;
+        }
+      }
+
+      mPending.put( key, new Request( key, job, since ) );
+
+      if( !mDraining ) {
+        mDraining = true;
+        mExecutor.execute( this::drain );
+      }
+    }
+  }
+
+  /**
+   * Returns the number of requests waiting to run, which will never exceed
+   * the number of distinct keys.
+   *
+   * @return The number of pending requests.
+   */
+  public int getQueueDepth() {
+    synchronized( mLock ) {
+      return mPending.size();
+    }
+  }
+
+  /**
+   * Returns the total number of requests submitted.
+   *
+   * @return The number of calls to {@link #submit(Object, Consumer)}.
+   */
+  public long getSubmittedCount() {
+    return mSubmitted.get();
+  }
+
+  /**
+   * Returns the number of requests that were superseded before running.
+   *
+   * @return The number of requests discarded without being started.
+   */
+  public long getDroppedCount() {
+    return mDropped.get();
+  }
+
+  /**
+   * Returns the number of requests that were abandoned while running.
+   *
+   * @return The number of requests stopped at a processor boundary.
+   */
+  public long getCancelledCount() {
+    return mCancelled.get();
+  }
+
+  /**
+   * Stops accepting new work; requests that are queued will not run.
+   */
+  public void shutdown() {
+    synchronized( mLock ) {
+      mPending.clear();
+      mActive.values().forEach( Request::cancel );
+    }
+
+    mExecutor.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+      "queued=%d, submitted=%d, dropped=%d, cancelled=%d",
+      getQueueDepth(),
+      getSubmittedCount(),
+      getDroppedCount(),
+      getCancelledCount()
+    );
+  }
+
+  /**
+   * Runs pending requests until none remain.
+   */
+  private void drain() {
+    while( true ) {
+      final Request request;
+
+      synchronized( mLock ) {
+        final var iterator = mPending.values().iterator();
+
+        if( !iterator.hasNext() ) {
+          mDraining = false;
+          return;
+        }
+
+        request = iterator.next();
+        iterator.remove();
+        mActive.put( request.mKey, request );
+      }
+
+      try {
+        request.run();
+      } catch( final CancellationException ex ) {
+        mCancelled.incrementAndGet();
+      } catch( final Exception ex ) {
+        clue( ex );
+      } finally {
+        synchronized( mLock ) {
+          mActive.remove( request.mKey, request );
+        }
+      }
+    }
+  }
+
+  /**
+   * Associates a job with its key and cancellation state.
+   */
+  private final class Request {
+    private final K mKey;
+    private final Consumer<BooleanSupplier> mJob;
+
+    /**
+     * When the oldest request replaced by this request was submitted.
+     */
+    private final long mSince;
+    private volatile boolean mCancelled;
+
+    private Request(
+      final K key, final Consumer<BooleanSupplier> job, final long since ) {
+      mKey = key;
+      mJob = job;
+      mSince = since;
+    }
+
+    private void cancel() {
+      mCancelled = true;
+    }
+
+    private void run() {
+      mJob.accept( () -> mCancelled );
+    }
+  }
+}
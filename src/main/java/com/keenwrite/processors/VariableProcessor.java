@@ -6,7 +6,9 @@ import java.util.Map;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 
+import static com.keenwrite.processors.ProcessorContext.UNVERSIONED;
 import static com.keenwrite.processors.text.TextReplacementFactory.replace;
+import static java.util.Collections.unmodifiableMap;
 
 /**
  * Processes interpolated string definitions in the document and inserts
@@ -19,6 +21,12 @@ public class VariableProcessor
   private final ProcessorContext mContext;
   private final UnaryOperator<String> mSigilOperator;
 
+  /**
+   * Retains the most recently derived definitions so that they are only
+   * interpolated and wrapped in sigils after the definitions change.
+   */
+  private volatile Snapshot mSnapshot;
+
   /**
    * Constructs a processor capable of interpolating string definitions.
    *
@@ -52,7 +60,7 @@ public class VariableProcessor
    * @return A map of variable names to values, with keys wrapped in sigils.
    */
   protected Map<String, String> getDefinitions() {
-    return entoken( mContext.getInterpolatedDefinitions() );
+    return getSnapshot().definitions();
   }
 
   /**
@@ -89,7 +97,40 @@ public class VariableProcessor
   public String apply( final String text ) {
     assert text != null;
 
-    return replace( text, getDefinitions() );
+    final var snapshot = getSnapshot();
+
+    return replace( text, snapshot.definitions(), snapshot.version() );
+  }
+
+  /**
+   * Returns the definitions derived from the current version of the
+   * definitions, deriving them anew when the version or sigils differ from
+   * those of the previous call.
+   *
+   * @return The definitions to use for variable substitution.
+   */
+  private Snapshot getSnapshot() {
+    final var version = mContext.getDefinitionsVersion();
+    final var began = mContext.getSigilBegan();
+    final var ended = mContext.getSigilEnded();
+    final var snapshot = mSnapshot;
+
+    if( version != UNVERSIONED &&
+        snapshot != null &&
+        snapshot.version() == version &&
+        snapshot.began().equals( began ) &&
+        snapshot.ended().equals( ended ) ) {
+      return snapshot;
+    }
+
+    final var definitions = unmodifiableMap(
+      entoken( mContext.getInterpolatedDefinitions() )
+    );
+    final var result = new Snapshot( version, began, ended, definitions );
+
+    mSnapshot = result;
+
+    return result;
   }
 
   /**
@@ -109,4 +150,18 @@ public class VariableProcessor
 
     return result;
   }
+
+  /**
+   * Associates derived definitions with the state they were derived from.
+   *
+   * @param version     The definitions version, possibly unversioned.
+   * @param began       The opening sigil at the time of derivation.
+   * @param ended       The closing sigil at the time of derivation.
+   * @param definitions The interpolated definitions, wrapped in sigils.
+   */
+  private record Snapshot(
+    long version,
+    String began,
+    String ended,
+    Map<String, String> definitions ) {}
 }
@@ -2,30 +2,24 @@
 package com.keenwrite.processors;
 
 import com.keenwrite.dom.DocumentParser;
-import com.keenwrite.io.MediaTypeExtension;
+import com.keenwrite.io.FileIndex;
 import com.keenwrite.ui.heuristics.WordCounter;
-import com.keenwrite.util.DataTypeConverter;
 import com.whitemagicsoftware.keenquotes.parser.Contractions;
 import com.whitemagicsoftware.keenquotes.parser.Curler;
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 
 import java.io.FileNotFoundException;
 import java.nio.file.Path;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
-import static com.keenwrite.Bootstrap.APP_TITLE_ABBR;
 import static com.keenwrite.dom.DocumentParser.*;
 import static com.keenwrite.events.StatusEvent.clue;
-import static com.keenwrite.io.downloads.DownloadManager.open;
 import static com.keenwrite.util.ProtocolScheme.getProtocol;
 import static com.whitemagicsoftware.keenquotes.lex.FilterType.FILTER_XML;
 import static java.lang.String.format;
 import static java.lang.String.valueOf;
-import static java.nio.file.Files.copy;
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 /**
  * Responsible for making an XHTML document complete by wrapping it with html
@@ -36,14 +30,38 @@ public final class XhtmlProcessor extends ExecutorProcessor<String> {
   private static final Curler sTypographer =
     new Curler( createContractions(), FILTER_XML, true );
 
+  /**
+   * Retains where images were found until their directories change.
+   */
+  private static final FileIndex sIndex = FileIndex.getDefault();
+
   private final ProcessorContext mContext;
+  private final ImageDownloader mDownloader;
 
   public XhtmlProcessor(
     final Processor<String> successor, final ProcessorContext context ) {
+    this( successor, context, new ImageDownloader( context ) );
+  }
+
+  /**
+   * Creates a processor that shares its remote image downloads with
+   * another processor, such as {@link IncrementalProcessor}.
+   *
+   * @param successor  Receives the XHTML document.
+   * @param context    Provides the export settings.
+   * @param downloader Downloads remote images, not {@code null}.
+   */
+  XhtmlProcessor(
+    final Processor<String> successor,
+    final ProcessorContext context,
+    final ImageDownloader downloader ) {
     super( successor );
 
     assert context != null;
+    assert downloader != null;
+
     mContext = context;
+    mDownloader = downloader;
   }
 
   /**
@@ -61,36 +79,44 @@ public final class XhtmlProcessor extends ExecutorProcessor<String> {
       final var doc = parse( html );
       setMetaData( doc );
 
+      final var images = new ArrayList<Node>();
+
       visit( doc, "//img", node -> {
+        final var attr = node.getAttributes().getNamedItem( "src" );
+
+        if( attr != null ) {
+          images.add( attr );
+        }
+      } );
+
+      // Start downloading every remote image before waiting for any.
+      final var downloads = downloadImages( images );
+
+      for( final var attr : images ) {
         try {
-          final var attrs = node.getAttributes();
-          final var attr = attrs.getNamedItem( "src" );
-
-          if( attr != null ) {
-            final var src = attr.getTextContent();
-            final Path location;
-            final Path imagesDir;
-
-            // Download into a cache directory, which can be written to without
-            // any possibility of overwriting local image files. Further, the
-            // filenames are hashed as a second layer of protection.
-            if( getProtocol( src ).isRemote() ) {
-              location = downloadImage( src );
-              imagesDir = getCachesPath();
-            }
-            else {
-              location = resolveImage( src );
-              imagesDir = getImagesPath();
-            }
-
-            final var relative = imagesDir.relativize( location );
-
-            attr.setTextContent( relative.toString() );
+          final var src = attr.getTextContent();
+          final Path location;
+          final Path imagesDir;
+
+          // Download into a cache directory, which can be written to without
+          // any possibility of overwriting local image files. Further, the
+          // filenames are hashed as a second layer of protection.
+          if( getProtocol( src ).isRemote() ) {
+            location = downloads.get( src ).get();
+            imagesDir = getCachesPath();
           }
+          else {
+            location = resolveImage( src );
+            imagesDir = getImagesPath();
+          }
+
+          final var relative = imagesDir.relativize( location );
+
+          attr.setTextContent( relative.toString() );
         } catch( final Exception ex ) {
           clue( ex );
         }
-      } );
+      }
 
       final var document = DocumentParser.toString( doc );
       final var curl = mContext.getCurlQuotes();
@@ -98,6 +124,8 @@ public final class XhtmlProcessor extends ExecutorProcessor<String> {
       return curl ? sTypographer.apply( document ) : document;
     } catch( final Exception ex ) {
       clue( ex );
+    } finally {
+      mDownloader.clear();
     }
 
     return html;
@@ -130,11 +158,26 @@ public final class XhtmlProcessor extends ExecutorProcessor<String> {
    * @return A map of metadata key/value pairs.
    */
   private Map<String, String> createMetaDataMap( final Document doc ) {
+    final var result = interpolateMetadata( mContext );
+
+    result.put( "count", wordCount( doc ) );
+
+    return result;
+  }
+
+  /**
+   * Returns the document metadata with variables interpolated, omitting
+   * empty values. These are the values written to the document's head.
+   *
+   * @param context Provides the metadata and definitions.
+   * @return The interpolated metadata key/value pairs, in metadata order.
+   */
+  static Map<String, String> interpolateMetadata(
+    final ProcessorContext context ) {
     final var result = new LinkedHashMap<String, String>();
-    final var metadata = getMetadata();
-    final var map = mContext.getInterpolatedDefinitions();
+    final var map = context.getInterpolatedDefinitions();
 
-    metadata.forEach(
+    context.getMetadata().forEach(
       ( key, value ) -> {
         final var interpolated = map.interpolate( value );
 
@@ -143,97 +186,94 @@ public final class XhtmlProcessor extends ExecutorProcessor<String> {
         }
       }
     );
-    result.put( "count", wordCount( doc ) );
 
     return result;
   }
 
   /**
-   * The metadata is in list form because the user interface for entering the
-   * key-value pairs is a table, which requires a generic {@link List} rather
-   * than a generic {@link Map}.
+   * Starts downloading the remote images, see {@link ImageDownloader}.
    *
-   * @return The document metadata.
+   * @param images The {@code src} attributes of the document's images.
+   * @return The downloads, keyed by remote URL.
    */
-  private Map<String, String> getMetadata() {
-    return mContext.getMetadata();
-  }
+  private Map<String, CompletableFuture<Path>> downloadImages(
+    final List<Node> images ) {
+    final var sources = new ArrayList<String>( images.size() );
 
-  /**
-   * Hashes the URL so that the number of files doesn't eat up disk space
-   * over time. For static resources, a feature could be added to prevent
-   * downloading the URL if the hashed filename already exists.
-   *
-   * @param src The source file's URL to download.
-   * @return A {@link Path} to the local file containing the URL's contents.
-   * @throws Exception Could not download or save the file.
-   */
-  private Path downloadImage( final String src ) throws Exception {
-    final Path imageFile;
-    final var cachesPath = getCachesPath();
-
-    clue( "Main.status.image.xhtml.image.download", src );
-
-    try( final var response = open( src ) ) {
-      final var mediaType = response.getMediaType();
+    for( final var attr : images ) {
+      sources.add( attr.getTextContent() );
+    }
 
-      final var ext = MediaTypeExtension.valueFrom( mediaType ).getExtension();
-      final var hash = DataTypeConverter.toHex( DataTypeConverter.hash( src ) );
-      final var id = hash.toLowerCase();
+    return mDownloader.download( sources );
+  }
 
-      imageFile = cachesPath.resolve( APP_TITLE_ABBR + id + '.' + ext );
+  private Path resolveImage( final String src ) throws Exception {
+    clue( "Main.status.image.xhtml.image.resolve", src );
 
-      // Preserve image files if auto-remove is turned off.
-      if( autoRemove() ) {
-        imageFile.toFile().deleteOnExit();
-      }
+    final var resolved = locateImage( mContext, src );
 
-      try( final var image = response.getInputStream() ) {
-        copy( image, imageFile, REPLACE_EXISTING );
-      }
+    if( resolved.isEmpty() ) {
+      final var filename = getDocumentDir().resolve( src ).toString();
+      clue( "Main.status.image.xhtml.image.missing", filename );
 
-      if( mediaType.isSvg() ) {
-        sanitize( imageFile );
-      }
+      throw new FileNotFoundException( filename );
     }
 
+    final var imageFile = resolved.get();
+    clue( "Main.status.image.xhtml.image.found", imageFile.toString() );
+
     return imageFile;
   }
 
-  private Path resolveImage( final String src ) throws Exception {
-    var imagePath = getImagesPath();
-    var found = false;
-
-    Path imageFile = null;
-
-    clue( "Main.status.image.xhtml.image.resolve", src );
+  /**
+   * Finds the local image file that an exported document will include.
+   *
+   * @param context Provides the images directory, document directory, and
+   *                the order to try image file name extensions.
+   * @param src     The image source attribute value, not a remote URL.
+   * @return The image file, or empty if not found.
+   */
+  static Optional<Path> locateImage(
+    final ProcessorContext context, final String src ) {
+    final var imagePath = context.getImagesDir();
+    final var documentDir = context.getBaseDir();
+    final var order = new ArrayList<String>();
+
+    // The first extension is empty, which tries the file name as given.
+    context.getImageOrder().forEach( order::add );
+
+    return sIndex.resolve(
+      new Lookup( imagePath, documentDir, order, src ),
+      () -> resolveImage( imagePath, documentDir, order, src )
+    );
+  }
 
-    for( final var extension : getImageOrder() ) {
+  /**
+   * Searches the images directory for the image by extension, then the
+   * document directory for the image by name.
+   *
+   * @return The image file, or empty if not found.
+   */
+  private static Optional<Path> resolveImage(
+    final Path imagePath,
+    final Path documentDir,
+    final List<String> order,
+    final String src ) {
+    for( final var extension : order ) {
       final var filename = format(
         "%s%s%s", src, extension.isBlank() ? "" : ".", extension );
-      imageFile = imagePath.resolve( filename );
+      final var imageFile = imagePath.resolve( filename );
 
-      if( imageFile.toFile().exists() ) {
-        found = true;
-        break;
+      if( sIndex.isReadable( imageFile ) ) {
+        return Optional.of( imageFile );
       }
     }
 
-    if( !found ) {
-      imagePath = getDocumentDir();
-      imageFile = imagePath.resolve( src );
-
-      if( !imageFile.toFile().exists() ) {
-        final var filename = imageFile.toString();
-        clue( "Main.status.image.xhtml.image.missing", filename );
-
-        throw new FileNotFoundException( filename );
-      }
-    }
+    final var imageFile = documentDir.resolve( src );
 
-    clue( "Main.status.image.xhtml.image.found", imageFile.toString() );
-
-    return imageFile;
+    return sIndex.isReadable( imageFile )
+      ? Optional.of( imageFile )
+      : Optional.empty();
   }
 
   private Path getImagesPath() {
@@ -244,18 +284,6 @@ public final class XhtmlProcessor extends ExecutorProcessor<String> {
     return mContext.getCachesPath();
   }
 
-  /**
-   * By including an "empty" extension, the first element returned
-   * will be the empty string. Thus, the first extension to try is the
-   * file's default extension. Subsequent iterations will try to find
-   * a file that has a name matching one of the preferred extensions.
-   *
-   * @return A list of extensions, including an empty string at the start.
-   */
-  private Iterable<String> getImageOrder() {
-    return mContext.getImageOrder();
-  }
-
   /**
    * Returns the absolute path to the document being edited, which can be used
    * to find files included using relative paths.
@@ -270,10 +298,6 @@ public final class XhtmlProcessor extends ExecutorProcessor<String> {
     return mContext.getLocale();
   }
 
-  private boolean autoRemove() {
-    return mContext.getAutoRemove();
-  }
-
   private String wordCount( final Document doc ) {
     final var sb = new StringBuilder( 65536 * 10 );
 
@@ -294,4 +318,11 @@ public final class XhtmlProcessor extends ExecutorProcessor<String> {
   private static Contractions createContractions() {
     return new Contractions.Builder().build();
   }
+
+  /**
+   * Identifies an image search, which includes every value that influences
+   * where the image is found.
+   */
+  private record Lookup(
+    Path imagesDir, Path documentDir, List<String> order, String src ) {}
 }
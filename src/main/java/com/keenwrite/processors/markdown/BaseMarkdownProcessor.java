@@ -13,7 +13,7 @@ import com.vladsch.flexmark.ext.superscript.SuperscriptExtension;
 import com.vladsch.flexmark.ext.tables.TablesExtension;
 import com.vladsch.flexmark.html.HtmlRenderer;
 import com.vladsch.flexmark.parser.Parser;
-import com.vladsch.flexmark.util.ast.IParse;
+import com.vladsch.flexmark.util.ast.Document;
 import com.vladsch.flexmark.util.ast.IRender;
 import com.vladsch.flexmark.util.ast.Node;
 import com.vladsch.flexmark.util.data.MutableDataSet;
@@ -29,9 +29,20 @@ import java.util.List;
  */
 public class BaseMarkdownProcessor extends ExecutorProcessor<String> {
 
-  private final IParse mParser;
+  private final Parser mParser;
   private final IRender mRenderer;
 
+  /**
+   * Renders unchanged blocks from a cache, or {@code null} to render the
+   * entire document every time.
+   */
+  private final IncrementalRenderer mIncrementalRenderer;
+
+  /**
+   * Set when the next processor requires well-formed HTML.
+   */
+  private final boolean mWellFormed;
+
   public BaseMarkdownProcessor(
     final Processor<String> successor, final ProcessorContext context ) {
     super( successor );
@@ -48,6 +59,10 @@ public class BaseMarkdownProcessor extends ExecutorProcessor<String> {
       .builder( options )
       .extensions( extensions )
       .build();
+    mIncrementalRenderer = isIncremental( context )
+      ? new IncrementalRenderer( options, extensions, context )
+      : null;
+    mWellFormed = isWellFormed( context );
   }
 
   /**
@@ -70,6 +85,32 @@ public class BaseMarkdownProcessor extends ExecutorProcessor<String> {
     return extensions;
   }
 
+  /**
+   * Answers whether only the blocks that changed since the previous call to
+   * {@link #apply(String)} should be converted to HTML. Subclasses may
+   * enable this when the rendered HTML for a block depends solely on its
+   * text, the definitions, and the document's link references.
+   *
+   * @param context The context that subclasses use to decide.
+   * @return {@code true} to render documents incrementally.
+   */
+  boolean isIncremental( final ProcessorContext context ) {
+    return false;
+  }
+
+  /**
+   * Answers whether the HTML must be balanced before it is passed to the
+   * next processor. Subclasses may disable this when the HTML is given to
+   * a lenient parser (such as the preview), which would otherwise parse
+   * and serialize the same document twice.
+   *
+   * @param context The context that subclasses use to decide.
+   * @return {@code true} to ensure the HTML is well-formed.
+   */
+  boolean isWellFormed( final ProcessorContext context ) {
+    return true;
+  }
+
   /**
    * Converts the given Markdown string into HTML, without the doctype, html,
    * head, and body tags.
@@ -79,7 +120,14 @@ public class BaseMarkdownProcessor extends ExecutorProcessor<String> {
    */
   @Override
   public String apply( final String markdown ) {
-    return toXhtml( toHtml( parse( markdown ) ) );
+    final var document = parse( markdown );
+
+    if( mIncrementalRenderer != null ) {
+      return mIncrementalRenderer.render( document );
+    }
+
+    final var html = toHtml( document );
+    return mWellFormed ? toXhtml( html ) : html;
   }
 
   /**
@@ -121,16 +169,16 @@ public class BaseMarkdownProcessor extends ExecutorProcessor<String> {
    * @param markdown The Markdown to parse.
    * @return The root node of the Markdown tree.
    */
-  private Node parse( final String markdown ) {
+  private Document parse( final String markdown ) {
     return getParser().parse( markdown );
   }
 
   /**
    * Creates the Markdown document processor.
    *
-   * @return An instance of {@link IParse} for building abstract syntax trees.
+   * @return An instance of {@link Parser} for building abstract syntax trees.
    */
-  private IParse getParser() {
+  private Parser getParser() {
     return mParser;
   }
 
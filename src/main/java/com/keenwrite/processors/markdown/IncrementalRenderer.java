@@ -0,0 +1,538 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.markdown;
+
+import com.keenwrite.dom.DocumentConverter;
+import com.keenwrite.editors.common.Caret;
+import com.keenwrite.processors.ProcessorContext;
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.Paragraph;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.html.renderer.HeaderIdGenerator;
+import com.vladsch.flexmark.html.renderer.HeaderIdGeneratorFactory;
+import com.vladsch.flexmark.html.renderer.HtmlIdGenerator;
+import com.vladsch.flexmark.html.renderer.LinkResolverContext;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.IRender;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.misc.Extension;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.keenwrite.processors.ProcessorContext.UNVERSIONED;
+
+/**
+ * Responsible for rendering a Markdown document into XHTML one top-level
+ * block at a time. The text before and after the region that changed since
+ * the previous render is unchanged, so blocks lying wholly within it reuse
+ * their HTML from the previous render, found by offset rather than by
+ * copying and hashing their text. A stamp that covers the definitions and
+ * link references discards all blocks when either changes.
+ * <p>
+ * Blocks near the caret, blocks containing headings, and blocks without
+ * source text are always rendered afresh because their HTML depends on more
+ * than their own text. Blocks that an edit moved, rather than shifted, are
+ * also rendered afresh.
+ * </p>
+ * <p>
+ * Rendering remains proportional to the document's length, not the edit's:
+ * every call receives a fully parsed document, so that reference links,
+ * heading identifiers, and the document outline resolve as they would for
+ * a full render. Besides that parse, each call copies the document's text
+ * to find the changed region, generates heading identifiers, and visits
+ * every top-level block, but converts only the changed blocks.
+ * </p>
+ * <p>
+ * <strong>Warning:</strong> This class is not thread-safe.
+ * </p>
+ */
+final class IncrementalRenderer {
+  private static final String HTML_OPEN = "<html><head></head><body>";
+  private static final String HTML_CLOSE = "</body></html>";
+
+  /**
+   * Elements that never have a closing tag, used when determining whether
+   * a fragment of HTML leaves any elements open.
+   */
+  private static final Set<String> VOID_ELEMENTS = Set.of(
+    "area", "base", "br", "col", "embed", "hr", "img", "input", "link",
+    "meta", "param", "source", "track", "wbr"
+  );
+
+  private final DataHolder mOptions;
+  private final ProcessorContext mContext;
+  private final IRender mRenderer;
+
+  /**
+   * Heading identifiers generated for the entire document being rendered,
+   * which prevents regenerating them for every block.
+   */
+  private HtmlIdGenerator mIds = HtmlIdGenerator.NULL;
+
+  /**
+   * Text of the previously rendered document, used to find the region that
+   * the next edit changed.
+   */
+  private String mText = "";
+
+  /**
+   * Rendering environment of the previously rendered document.
+   */
+  private int mStamp;
+
+  /**
+   * Hash of the previously rendered document's link reference definitions.
+   */
+  private int mReferencesHash;
+
+  /**
+   * Start offsets of the previously rendered document's link reference
+   * definitions.
+   */
+  private Set<Integer> mReferences = Set.of();
+
+  /**
+   * Maps start offsets of previously rendered blocks to their HTML.
+   */
+  private Map<Integer, Block> mBlocks = new HashMap<>();
+
+  /**
+   * Maps a balanced run of rendered HTML to its XHTML equivalent.
+   */
+  private Map<String, String> mSegments = new HashMap<>();
+
+  /**
+   * Number of blocks converted to HTML by the most recent render.
+   */
+  private int mRendered;
+
+  /**
+   * Creates a renderer that caches XHTML fragments between calls.
+   *
+   * @param options    The options used to render entire documents.
+   * @param extensions The extensions used to render entire documents.
+   * @param context    Provides the caret position and definitions.
+   */
+  IncrementalRenderer(
+    final DataHolder options,
+    final List<Extension> extensions,
+    final ProcessorContext context ) {
+    final var fragmentOptions = new MutableDataSet( options );
+
+    // Rendering a node other than the document disables links unless this
+    // option is set, which inverts the default link rendering behaviour.
+    fragmentOptions.set( HtmlRenderer.DO_NOT_RENDER_LINKS, true );
+
+    mOptions = options;
+    mContext = context;
+    mRenderer = HtmlRenderer
+      .builder( fragmentOptions )
+      .extensions( extensions )
+      .htmlIdGeneratorFactory( new DocumentIdGeneratorFactory() )
+      .build();
+  }
+
+  /**
+   * Converts the given document into XHTML, reusing the XHTML of unchanged
+   * blocks from the previous call.
+   *
+   * @param document The parsed Markdown document to render.
+   * @return The XHTML representation of the Markdown document.
+   */
+  String render( final Document document ) {
+    final var ids = new HeaderIdGenerator( mOptions );
+    ids.generateIds( document );
+    mIds = ids;
+    mRendered = 0;
+
+    final var text = document.getChars().toString();
+    final var edit = Edit.between( mText, text );
+    final var stamp = stamp( document, edit );
+    final var previous = stamp == mStamp ? mBlocks : Map.<Integer, Block>of();
+    final var caret = mContext.getCaret().get();
+    final var blocks = new HashMap<Integer, Block>( mBlocks.size() );
+    final var segments = new HashMap<String, String>( mSegments.size() );
+    final var pieces = new ArrayList<String>();
+    final var result = new StringBuilder( 65536 ).append( HTML_OPEN );
+    var depth = 0;
+
+    for( var node = document.getFirstChild();
+         node != null;
+         node = node.getNext() ) {
+      final Fragment fragment;
+
+      final var source = node.getChars();
+
+      // Blocks without source text (e.g., fenced div markers) cannot be told
+      // apart by their text, so they are rendered afresh; doing so is cheap.
+      if( source.isEmpty() ||
+          isNearCaret( node, caret ) ||
+          hasHeading( node ) ) {
+        fragment = toFragment( node );
+      }
+      else {
+        final var began = node.getStartOffset();
+        final var length = node.getEndOffset() - began;
+        final var offset = edit.previous( began, began + length );
+        final var cached = offset < 0 ? null : previous.get( offset );
+
+        fragment = cached == null || cached.length() != length
+          ? toFragment( node )
+          : cached.fragment();
+        blocks.put( began, new Block( length, fragment ) );
+      }
+
+      pieces.add( fragment.html() );
+      depth += fragment.depth();
+
+      // Only convert to XHTML once all elements opened by preceding blocks
+      // have been closed (e.g., by fenced divs), otherwise the XHTML parser
+      // would close them prematurely.
+      if( depth <= 0 ) {
+        result.append( toXhtml( pieces, segments ) );
+        pieces.clear();
+        depth = 0;
+      }
+    }
+
+    if( !pieces.isEmpty() ) {
+      result.append( toXhtml( pieces, segments ) );
+    }
+
+    // Retain only what the current document uses.
+    mText = text;
+    mStamp = stamp;
+    mBlocks = blocks;
+    mSegments = segments;
+
+    return result.append( HTML_CLOSE ).toString();
+  }
+
+  /**
+   * Converts a balanced run of HTML into XHTML, reusing prior conversions.
+   *
+   * @param pieces   The HTML fragments that comprise a balanced run.
+   * @param segments Receives the conversion for use by the next render.
+   * @return The XHTML equivalent of the given HTML fragments.
+   */
+  private String toXhtml(
+    final List<String> pieces, final Map<String, String> segments ) {
+    final var html = pieces.size() == 1
+      ? pieces.get( 0 )
+      : String.join( "", pieces );
+
+    var xhtml = mSegments.get( html );
+
+    if( xhtml == null ) {
+      xhtml = DocumentConverter.parse( html ).body().html();
+    }
+
+    segments.put( html, xhtml );
+    return xhtml;
+  }
+
+  /**
+   * Answers how many blocks the most recent render converted to HTML, which
+   * excludes the blocks reused from the render before it.
+   *
+   * @return The number of blocks converted by {@link #render(Document)}.
+   */
+  int getRenderedCount() {
+    return mRendered;
+  }
+
+  private Fragment toFragment( final Node node ) {
+    mRendered++;
+
+    final var html = mRenderer.render( node );
+    return new Fragment( html, depth( html ) );
+  }
+
+  /**
+   * Computes a value that changes whenever something outside a block changes
+   * that could affect how the block is rendered.
+   *
+   * @param document The document having link references.
+   * @param edit     The region changed since the previous render.
+   * @return A value that identifies the rendering environment.
+   */
+  private int stamp( final Document document, final Edit edit ) {
+    final var hash = hashReferences( document, edit );
+
+    // Hashing the definitions is only necessary when they are not versioned.
+    final var version = mContext.getDefinitionsVersion();
+    final Object definitions = version == UNVERSIONED
+      ? mContext.getDefinitions()
+      : version;
+
+    return Objects.hash(
+      hash,
+      definitions,
+      mContext.getImagesDir(),
+      mContext.getImageServer()
+    );
+  }
+
+  /**
+   * Hashes the document's link reference definitions, unless they are the
+   * same definitions as in the previous render, which happens when each
+   * definition lies outside the changed region and was in effect before.
+   *
+   * @param document The document having link references.
+   * @param edit     The region changed since the previous render.
+   * @return A value that changes when any link reference changes.
+   */
+  private int hashReferences( final Document document, final Edit edit ) {
+    final var references = Parser.REFERENCES.get( document ).values();
+    final var offsets = new HashSet<Integer>( references.size() );
+    var unchanged = references.size() == mReferences.size();
+
+    for( final var reference : references ) {
+      final var began = reference.getStartOffset();
+      final var offset = edit.previous( began, reference.getEndOffset() );
+
+      unchanged = unchanged && mReferences.contains( offset );
+      offsets.add( began );
+    }
+
+    mReferences = offsets;
+
+    if( !unchanged ) {
+      var hash = 1;
+
+      for( final var reference : references ) {
+        hash = 31 * hash + reference.getChars().toString().hashCode();
+      }
+
+      mReferencesHash = hash;
+    }
+
+    return mReferencesHash;
+  }
+
+  /**
+   * Answers whether the {@link Caret} is within or immediately before the
+   * given node, in which case the node may be assigned the caret identifier.
+   *
+   * @param node  The top-level node to check.
+   * @param caret The current caret position.
+   * @return {@code true} when the node's HTML may depend on the caret.
+   */
+  private static boolean isNearCaret( final Node node, final Caret caret ) {
+    final var prev = node.getPrevious();
+    final var began = prev == null ? node.getStartOffset() : prev.getEndOffset();
+
+    return caret.isBetweenText( began, node.getEndOffset() + 1 );
+  }
+
+  /**
+   * Answers whether the given node is or contains a heading, whose identifier
+   * depends on the other headings in the document.
+   *
+   * @param node The top-level node to check.
+   * @return {@code true} when the node's HTML may depend on other headings.
+   */
+  private static boolean hasHeading( final Node node ) {
+    if( node instanceof Heading ) {
+      return true;
+    }
+
+    if( node instanceof Paragraph || !node.hasChildren() ) {
+      return false;
+    }
+
+    for( final var descendant : node.getDescendants() ) {
+      if( descendant instanceof Heading ) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the number of elements opened, less the number of elements
+   * closed, by the given HTML fragment.
+   *
+   * @param html The HTML fragment to scan for tags.
+   * @return Zero if the fragment is balanced, a positive number if elements
+   * are left open.
+   */
+  static int depth( final String html ) {
+    final var length = html.length();
+    var depth = 0;
+    var i = html.indexOf( '<' );
+
+    while( i >= 0 && i + 1 < length ) {
+      final var next = html.charAt( i + 1 );
+      final var closing = next == '/';
+      var j = closing ? i + 2 : i + 1;
+
+      if( next == '!' || next == '?' ) {
+        // Skip comments, doctypes, and processing instructions.
+        final var end = html.startsWith( "<!--", i )
+          ? html.indexOf( "-->", i + 4 )
+          : html.indexOf( '>', i );
+
+        i = end < 0 ? -1 : html.indexOf( '<', end );
+        continue;
+      }
+
+      final var nameBegan = j;
+
+      while( j < length && Character.isLetterOrDigit( html.charAt( j ) ) ) {
+        j++;
+      }
+
+      if( j == nameBegan ) {
+        // A lone '<' is text, not a tag.
+        i = html.indexOf( '<', j );
+        continue;
+      }
+
+      final var name = html.substring( nameBegan, j ).toLowerCase();
+      char quote = 0;
+      char prev = 0;
+
+      // Find the end of the tag, ignoring '>' within attribute values.
+      while( j < length ) {
+        final var c = html.charAt( j );
+
+        if( quote != 0 ) {
+          if( c == quote ) {
+            quote = 0;
+          }
+        }
+        else if( c == '"' || c == '\'' ) {
+          quote = c;
+        }
+        else if( c == '>' ) {
+          break;
+        }
+
+        prev = c;
+        j++;
+      }
+
+      if( closing ) {
+        depth--;
+      }
+      else if( prev != '/' && !VOID_ELEMENTS.contains( name ) ) {
+        depth++;
+      }
+
+      i = html.indexOf( '<', j );
+    }
+
+    return depth;
+  }
+
+  /**
+   * The region of a document that changed since the previous render, in
+   * the current document's offsets.
+   *
+   * @param began Offset of the first changed character.
+   * @param ended Offset after the last changed character.
+   * @param delta Number of characters inserted, negative when deleted.
+   */
+  private record Edit( int began, int ended, int delta ) {
+    /**
+     * Finds the region where two texts differ by comparing their common
+     * prefix and suffix.
+     *
+     * @param prev The previously rendered text.
+     * @param text The text to render.
+     * @return The region of the given text that differs from the previous.
+     */
+    static Edit between( final String prev, final String text ) {
+      final var prevLength = prev.length();
+      final var textLength = text.length();
+      final var limit = Math.min( prevLength, textLength );
+      var prefix = 0;
+      var suffix = 0;
+
+      while( prefix < limit &&
+        prev.charAt( prefix ) == text.charAt( prefix ) ) {
+        prefix++;
+      }
+
+      while( suffix < limit - prefix &&
+        prev.charAt( prevLength - suffix - 1 ) ==
+          text.charAt( textLength - suffix - 1 ) ) {
+        suffix++;
+      }
+
+      return new Edit(
+        prefix, textLength - suffix, textLength - prevLength );
+    }
+
+    /**
+     * Returns the offset that a span of unchanged text had in the previous
+     * document.
+     *
+     * @param start Offset of the span in the current document.
+     * @param end   Offset after the span in the current document.
+     * @return The span's previous offset, or -1 if the span overlaps the
+     * changed region.
+     */
+    int previous( final int start, final int end ) {
+      return end <= began ? start : start >= ended ? start - delta : -1;
+    }
+  }
+
+  /**
+   * Rendered HTML for a block at a known offset.
+   *
+   * @param length   The number of characters in the block's source text.
+   * @param fragment The block's rendered HTML.
+   */
+  private record Block( int length, Fragment fragment ) {}
+
+  /**
+   * Rendered HTML for a single block.
+   *
+   * @param html  The block's HTML, which may be unbalanced.
+   * @param depth The number of elements left open by the HTML.
+   */
+  private record Fragment( String html, int depth ) {}
+
+  private final class DocumentIdGeneratorFactory
+    implements HeaderIdGeneratorFactory {
+    @Override
+    public HtmlIdGenerator create( final LinkResolverContext context ) {
+      return create();
+    }
+
+    @Override
+    public HtmlIdGenerator create() {
+      return new DocumentIdGenerator();
+    }
+  }
+
+  /**
+   * Provides the heading identifiers that were generated for the entire
+   * document, rather than generating them anew for each block.
+   */
+  private final class DocumentIdGenerator implements HtmlIdGenerator {
+    @Override
+    public void generateIds( final Document document ) {}
+
+    @Override
+    public String getId( final Node node ) {
+      return mIds.getId( node );
+    }
+
+    @Override
+    public String getId( final CharSequence text ) {
+      return mIds.getId( text );
+    }
+  }
+}
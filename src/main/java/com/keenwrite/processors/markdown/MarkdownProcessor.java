@@ -92,4 +92,30 @@ public final class MarkdownProcessor extends BaseMarkdownProcessor {
     result.add( DocumentOutlineExtension.create( processor ) );
     return result;
   }
+
+  /**
+   * Incremental rendering is limited to the preview because exports are
+   * rendered once. R Markdown is excluded because inline R statements
+   * may depend on the results of statements in other blocks.
+   *
+   * @param context Provides the export format and source file type.
+   * @return {@code true} to render only those blocks that have changed.
+   */
+  @Override
+  boolean isIncremental( final ProcessorContext context ) {
+    return context.isExportFormat( ExportFormat.NONE ) &&
+      MediaType.valueFrom( context.getSourcePath() ) != TEXT_R_MARKDOWN;
+  }
+
+  /**
+   * The preview parses the HTML leniently, so balancing the HTML beforehand
+   * is only needed when exporting.
+   *
+   * @param context Provides the export format.
+   * @return {@code false} when the HTML is destined for the preview.
+   */
+  @Override
+  boolean isWellFormed( final ProcessorContext context ) {
+    return !context.isExportFormat( ExportFormat.NONE );
+  }
 }
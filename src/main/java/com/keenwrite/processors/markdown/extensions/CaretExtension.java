@@ -11,6 +11,7 @@ import com.vladsch.flexmark.html.IndependentAttributeProviderFactory;
 import com.vladsch.flexmark.html.renderer.AttributablePart;
 import com.vladsch.flexmark.html.renderer.LinkResolverContext;
 import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.DataKey;
 import com.vladsch.flexmark.util.html.AttributeImpl;
 import com.vladsch.flexmark.util.html.MutableAttributes;
 import org.jetbrains.annotations.NotNull;
@@ -44,13 +45,21 @@ public class CaretExtension extends HtmlRendererAdapter {
       IdAttributeProvider.createFactory( mCaret ) );
   }
 
+  /**
+   * Tracks whether the caret identifier was added to a document. This is
+   * stored with the document, rather than the attribute provider, so that
+   * only one element receives the identifier even when the document's
+   * blocks are rendered individually.
+   */
+  private static final DataKey<Boolean> CARET_ADDED =
+    new DataKey<>( "CARET_ADDED", false );
+
   /**
    * Responsible for creating the id attribute. This class is instantiated
    * once: for the HTML element containing the {@link Constants#CARET_ID}.
    */
   public static class IdAttributeProvider implements AttributeProvider {
     private final Supplier<Caret> mCaret;
-    private boolean mAdded;
 
     public IdAttributeProvider( final Supplier<Caret> caret ) {
       mCaret = caret;
@@ -71,8 +80,10 @@ public class CaretExtension extends HtmlRendererAdapter {
     public void setAttributes( @NotNull Node curr,
                                @NotNull AttributablePart part,
                                @NotNull MutableAttributes attributes ) {
+      final var document = curr.getDocument();
+
       // Optimization: if a caret is inserted, don't try to find another.
-      if( mAdded ) {
+      if( CARET_ADDED.get( document ) ) {
         return;
       }
 
@@ -111,7 +122,7 @@ public class CaretExtension extends HtmlRendererAdapter {
         attributes.addValue( AttributeImpl.of( "id", CARET_ID ) );
 
         // We're done until the user moves the caret (micro-optimization)
-        mAdded = true;
+        document.set( CARET_ADDED, true );
       }
     }
   }
@@ -2,6 +2,7 @@
 package com.keenwrite.processors.markdown.extensions;
 
 import com.keenwrite.ExportFormat;
+import com.keenwrite.io.FileIndex;
 import com.keenwrite.processors.ProcessorContext;
 import com.vladsch.flexmark.ast.Image;
 import com.vladsch.flexmark.html.IndependentLinkResolverFactory;
@@ -11,8 +12,9 @@ import com.vladsch.flexmark.html.renderer.ResolvedLink;
 import com.vladsch.flexmark.util.ast.Node;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.File;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import static com.keenwrite.events.StatusEvent.clue;
@@ -25,6 +27,7 @@ import static com.vladsch.flexmark.html.renderer.LinkStatus.VALID;
  * This allows images to be located virtually anywhere.
  */
 public class ImageLinkExtension extends HtmlRendererAdapter {
+  private static final FileIndex sIndex = FileIndex.getDefault();
 
   private final ProcessorContext mContext;
 
@@ -93,87 +96,35 @@ public class ImageLinkExtension extends HtmlRendererAdapter {
         : resolveImageFile( link, node, url );
     }
 
+    /**
+     * Finds the image file using the shared {@link FileIndex}, which retains
+     * the result until a file changes in a directory that was searched.
+     */
     private ResolvedLink resolveImageFile(
-      final ResolvedLink link,
-      final Node node,
-      final String url ) {
-      final var userPath = new File( url );
-
-      // If the user specified a fully qualified path name, use it verbatim.
-      return readable( userPath )
-        ? valid( link, url )
-        : resolveUnqualifiedImageFile( link, node, url );
-    }
-
-    private ResolvedLink resolveUnqualifiedImageFile(
       final ResolvedLink link,
       final Node node,
       final String url ) {
       final var baseDir = getBaseDir();
-      final var fqfn = baseDir.resolve( Path.of( url ) );
-
-      // If the image can be found relative to the base directory, then
-      // use the link as is when resolving the path.
-      return readable( fqfn.toFile() )
-        ? valid( link, url )
-        : resolveExtensionlessImageFile( link, node, url );
-    }
-
-    private ResolvedLink resolveExtensionlessImageFile(
-      final ResolvedLink link,
-      final Node node,
-      final String url
-    ) {
-      final var imagePath = new File( url );
-      final var file = resolveImageExtension( imagePath );
-
-      return file.isPresent() && readable( file.get() )
-        ? valid( link, file.get().toString() )
-        : resolveRelativeImageFile( link, node, url );
-    }
-
-    private ResolvedLink resolveRelativeImageFile(
-      final ResolvedLink link,
-      final Node node,
-      final String url ) {
-      final var baseDir = getBaseDir();
-
-      try {
-        // Compute the path to the image file. The base directory should
-        // be an absolute path to the file being edited, without an extension.
-        final var imagesDir = getImageDir();
-        final var baseImagesDir = baseDir.resolve( imagesDir );
-        final var imagePath = baseImagesDir.resolve( url );
-        final var file = resolveImageExtension( imagePath.toFile() );
-
-        if( file.isPresent() ) {
-          final var resolved = imagesDir.resolve( file.get().toPath() );
-          final var relative = baseDir.relativize( resolved );
-          return valid( link, relative.toString() );
-        }
+      final var imagesDir = getImageDir();
+      final var order = getImageOrder();
+      final Resolution resolution = sIndex.resolve(
+        new Lookup( baseDir, imagesDir, order, url ),
+        () -> resolve( baseDir, imagesDir, order, url )
+      );
+
+      if( resolution.url() != null ) {
+        return valid( link, resolution.url() );
+      }
 
+      if( resolution.missing() != null ) {
         clue( "Main.status.error.file.missing.near",
-              imagePath + ".*", node.getLineNumber()
+              resolution.missing() + ".*", node.getLineNumber()
         );
-      } catch( final Exception ex ) {
-        clue( ex );
       }
 
       return link;
     }
 
-    private Optional<File> resolveImageExtension( final File imagePath ) {
-      for( final var ext : getImageOrder() ) {
-        final var file = new File( imagePath.toString() + '.' + ext );
-
-        if( readable( file ) ) {
-          return Optional.of( file );
-        }
-      }
-
-      return Optional.empty();
-    }
-
     private ResolvedLink valid( final ResolvedLink link, final String url ) {
       return link.withStatus( VALID ).withUrl( url );
     }
@@ -182,8 +133,10 @@ public class ImageLinkExtension extends HtmlRendererAdapter {
       return mContext.getImagesDir();
     }
 
-    private Iterable<String> getImageOrder() {
-      return mContext.getImageOrder();
+    private List<String> getImageOrder() {
+      final var order = new ArrayList<String>();
+      mContext.getImageOrder().forEach( order::add );
+      return order;
     }
 
     private Path getBaseDir() {
@@ -191,7 +144,79 @@ public class ImageLinkExtension extends HtmlRendererAdapter {
     }
   }
 
-  private static boolean readable( final File file ) {
-    return file.isFile() && file.canRead();
+  /**
+   * Searches for a local image file: verbatim, relative to the edited
+   * file's dir (baseDir), by extension, then by extension within the images
+   * dir relative to the baseDir.
+   *
+   * @return The URL to use for the image, or the path that was searched
+   * last if no image was found.
+   */
+  private static Resolution resolve(
+    final Path baseDir,
+    final Path imagesDir,
+    final List<String> order,
+    final String url ) {
+    try {
+      // If the user specified a fully qualified path name, use it verbatim.
+      // If the image can be found relative to the base directory, then
+      // use the link as is when resolving the path.
+      if( sIndex.isReadable( url ) ||
+          sIndex.isReadable( baseDir.resolve( Path.of( url ) ) ) ) {
+        return new Resolution( url, null );
+      }
+
+      final var file = resolveImageExtension( Path.of( url ), order );
+
+      if( file.isPresent() ) {
+        return new Resolution( file.get().toString(), null );
+      }
+
+      // Compute the path to the image file. The base directory should
+      // be an absolute path to the file being edited, without an extension.
+      final var baseImagesDir = baseDir.resolve( imagesDir );
+      final var imagePath = baseImagesDir.resolve( url );
+      final var image = resolveImageExtension( imagePath, order );
+
+      if( image.isPresent() ) {
+        final var resolved = imagesDir.resolve( image.get() );
+        final var relative = baseDir.relativize( resolved );
+        return new Resolution( relative.toString(), null );
+      }
+
+      return new Resolution( null, imagePath.toString() );
+    } catch( final Exception ex ) {
+      clue( ex );
+    }
+
+    return new Resolution( null, null );
+  }
+
+  private static Optional<Path> resolveImageExtension(
+    final Path imagePath, final List<String> order ) {
+    for( final var ext : order ) {
+      final var file = Path.of( imagePath.toString() + '.' + ext );
+
+      if( sIndex.isReadable( file ) ) {
+        return Optional.of( file );
+      }
+    }
+
+    return Optional.empty();
   }
+
+  /**
+   * Identifies an image search, which includes every value that influences
+   * where the image is found.
+   */
+  private record Lookup(
+    Path baseDir, Path imagesDir, List<String> order, String url ) {}
+
+  /**
+   * The outcome of an image search.
+   *
+   * @param url     The URL to use for the image, or {@code null} if missing.
+   * @param missing The path searched last when the image is missing.
+   */
+  private record Resolution( String url, String missing ) {}
 }
@@ -9,6 +9,13 @@ import com.vladsch.flexmark.html.HtmlWriter;
 class ClosingDivBlock extends DivBlock {
   @Override
   void export( final HtmlWriter html ) {
-    html.closeTag( HTML_DIV );
+    // When blocks are rendered individually, the opening div was written
+    // using a different writer, so there is no open tag to validate against.
+    if( html.getOpenTags().isEmpty() ) {
+      html.raw( "</" ).raw( HTML_DIV ).raw( ">" );
+    }
+    else {
+      html.closeTag( HTML_DIV );
+    }
   }
 }
@@ -5,7 +5,6 @@ import com.keenwrite.collections.BoundedCache;
 
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
-import java.util.Map;
 
 import static com.keenwrite.Messages.get;
 import static com.keenwrite.events.StatusEvent.clue;
@@ -17,10 +16,16 @@ import static java.lang.Math.min;
  */
 public final class Engine {
   /**
-   * Inline R expressions that have already been evaluated.
+   * Maximum number of characters of expressions and results to retain.
    */
-  private static final Map<String, String> sCache =
-    new BoundedCache<>( 512 );
+  private static final long CACHE_CHARS = 1 << 20;
+
+  /**
+   * Inline R expressions that have already been evaluated, weighed by the
+   * length of the expression and its result.
+   */
+  private static final BoundedCache<String, String> sCache =
+    new BoundedCache<>( CACHE_CHARS, ( k, v ) -> k.length() + v.length() );
 
   /**
    * Engine for evaluating R expressions.
@@ -1,15 +1,27 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.processors.text;
 
+import com.keenwrite.processors.ProcessorContext;
+import org.ahocorasick.trie.Trie;
+
 import java.util.Map;
 
+import static com.keenwrite.processors.ProcessorContext.UNVERSIONED;
 import static org.ahocorasick.trie.Trie.builder;
 
 /**
- * Replaces text using an Aho-Corasick algorithm.
+ * Replaces text using an Aho-Corasick algorithm. Building the trie takes
+ * longer than searching a typical document, so the most recently built trie
+ * is reused until the map of keys changes.
  */
 public class AhoCorasickReplacer extends AbstractTextReplacer {
 
+  /**
+   * The most recently built trie, which is never modified after being built
+   * and is therefore safe to search from multiple threads without locking.
+   */
+  private volatile Automaton mAutomaton;
+
   /**
    * Default (empty) constructor.
    */
@@ -17,32 +29,75 @@ public class AhoCorasickReplacer extends AbstractTextReplacer {
 
   @Override
   public String replace( final String text, final Map<String, String> map ) {
+    return replace( text, map, UNVERSIONED );
+  }
+
+  @Override
+  public String replace(
+    final String text, final Map<String, String> map, final long version ) {
     assert text != null;
     assert map != null;
 
     // Create a buffer sufficiently large that re-allocations are minimized.
     final var sb = new StringBuilder( (int) (text.length() * 1.25) );
-
-    // Definition names cannot overlap.
-    final var builder = builder().ignoreOverlaps();
-    final var keySet = keys( map );
-
-    if( keySet != null ) {
-      builder.addKeywords( keys( map ) );
-    }
+    final var trie = getTrie( map, version );
 
     int index = 0;
 
     // Replace all instances with dereferenced variables.
-    for( final var emit : builder.build().parseText( text ) ) {
+    for( final var emit : trie.parseText( text ) ) {
       sb.append( text, index, emit.getStart() );
       sb.append( map.get( emit.getKeyword() ) );
       index = emit.getEnd() + 1;
     }
 
     // Add the remainder of the string (contains no more matches).
-    sb.append( text.substring( index ) );
+    sb.append( text, index, text.length() );
 
     return sb.toString();
   }
+
+  /**
+   * Returns a trie of the map's keys, building a new trie only when the map
+   * differs from the map used to build the previous trie. When versioned,
+   * the same map instance and version means the keys are unchanged, which
+   * avoids hashing the entire map.
+   *
+   * @param map     The keys to find in the text.
+   * @param version The map version, or {@link ProcessorContext#UNVERSIONED}
+   *                if unknown.
+   * @return A trie for finding the map's keys.
+   */
+  private Trie getTrie( final Map<String, String> map, final long version ) {
+    final var automaton = mAutomaton;
+    final var hash = version == UNVERSIONED ? map.hashCode() : 0;
+
+    if( automaton != null && automaton.version() == version &&
+        (version == UNVERSIONED
+          ? automaton.hash() == hash
+          : automaton.map() == map) ) {
+      return automaton.trie();
+    }
+
+    // Definition names cannot overlap.
+    final var trie = builder()
+      .ignoreOverlaps()
+      .addKeywords( map.keySet() )
+      .build();
+
+    mAutomaton = new Automaton( version, hash, map, trie );
+
+    return trie;
+  }
+
+  /**
+   * Associates a trie with the map it was built from.
+   *
+   * @param version The map version when the trie was built.
+   * @param hash    The map hash code, when the map is not versioned.
+   * @param map     The map of keys used to build the trie.
+   * @param trie    The search structure for the map's keys.
+   */
+  private record Automaton(
+    long version, int hash, Map<String, String> map, Trie trie ) {}
 }
@@ -41,4 +41,24 @@ public final class TextReplacementFactory {
 
     return getTextReplacer( haystack.length() ).replace( haystack, needles );
   }
+
+  /**
+   * Performs a replacement using the given map, allowing the text replacer
+   * to reuse its search structures while the map's version is unchanged.
+   *
+   * @param haystack The text containing zero or more variables to replace.
+   * @param needles  The map of variables to their dereferenced values.
+   * @param version  Changes whenever the contents of the needles change.
+   * @return The text with all variables replaced.
+   */
+  public static String replace(
+    final String haystack,
+    final Map<String, String> needles,
+    final long version ) {
+    assert haystack != null;
+    assert needles != null;
+
+    return getTextReplacer( haystack.length() )
+      .replace( haystack, needles, version );
+  }
 }
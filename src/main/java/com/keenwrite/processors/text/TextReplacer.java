@@ -1,6 +1,8 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.processors.text;
 
+import com.keenwrite.processors.ProcessorContext;
+
 import java.util.Map;
 
 /**
@@ -18,4 +20,20 @@ public interface TextReplacer {
    * @return The given text with all keys replaced with corresponding values.
    */
   String replace( String text, Map<String, String> map );
+
+  /**
+   * Searches through the given text for any of the keys given in the map and
+   * replaces them with their corresponding values. Implementations may reuse
+   * structures built from the map for as long as the version is unchanged.
+   *
+   * @param text    The text that contains zero or more keys.
+   * @param map     The set of keys mapped to replacement values.
+   * @param version Changes whenever the map's contents change, or
+   *                {@link ProcessorContext#UNVERSIONED} if unknown.
+   * @return The given text with all keys replaced with corresponding values.
+   */
+  default String replace(
+    final String text, final Map<String, String> map, final long version ) {
+    return replace( text, map );
+  }
 }
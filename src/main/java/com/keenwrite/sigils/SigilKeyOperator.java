@@ -1,6 +1,7 @@
 /* Copyright 2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.sigils;
 
+import java.util.Objects;
 import java.util.function.UnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -38,4 +39,17 @@ public class SigilKeyOperator implements UnaryOperator<String> {
   public Matcher match( final String text ) {
     return mPattern.matcher( text );
   }
+
+  @Override
+  public boolean equals( final Object o ) {
+    if( this == o ) { return true; }
+    if( o == null || getClass() != o.getClass() ) { return false; }
+    final SigilKeyOperator that = (SigilKeyOperator) o;
+    return mBegan.equals( that.mBegan ) && mEnded.equals( that.mEnded );
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash( mBegan, mEnded );
+  }
 }
@@ -0,0 +1,591 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.spelling.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Responsible for storing a lexicon in a binary format that loads quickly.
+ * Along with the words and their frequencies, the format contains the
+ * deletes that SymSpell derives from every word, which would otherwise be
+ * recomputed each time the lexicon is loaded. All data are kept in primitive
+ * arrays that may be memory-mapped, so very little heap space is used.
+ * <p>
+ * As with the reference SymSpell implementation, deletes are stored by their
+ * hash code. Hash collisions produce extra candidate words, which are then
+ * eliminated by calculating the edit distance.
+ * </p>
+ * <p>
+ * Instances are immutable and safe to use from multiple threads.
+ * </p>
+ */
+public final class CompiledLexicon {
+  /**
+   * Identifies the file format ("KWLX").
+   */
+  private static final int MAGIC = 0x4B574C58;
+
+  /**
+   * Incremented whenever the file format changes.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * Maximum edit distance of precomputed deletes.
+   */
+  static final int MAX_EDIT_DISTANCE = 2;
+
+  /**
+   * Length of the word prefix from which deletes are generated.
+   */
+  static final int PREFIX_LENGTH = 7;
+
+  /**
+   * Size of the header, in bytes, which keeps the frequencies aligned.
+   */
+  private static final int HEADER_SIZE = 48;
+
+  private final long mChecksum;
+  private final int mWordCount;
+  private final int mMaxWordLength;
+  private final int mTableMask;
+  private final int mDeleteCount;
+
+  /**
+   * Retains the (possibly memory-mapped) buffer backing every view.
+   */
+  private final ByteBuffer mBuffer;
+
+  private final LongBuffer mFrequencies;
+  private final IntBuffer mOffsets;
+  private final IntBuffer mTable;
+  private final IntBuffer mDeleteHashes;
+  private final IntBuffer mDeleteStarts;
+  private final IntBuffer mReferences;
+  private final CharBuffer mChars;
+
+  private CompiledLexicon( final ByteBuffer buffer ) {
+    final var layout = new Layout( buffer );
+
+    mBuffer = buffer;
+    mChecksum = buffer.getLong( 8 );
+    mWordCount = layout.mWordCount;
+    mMaxWordLength = buffer.getInt( 24 );
+    mTableMask = layout.mTableSize - 1;
+    mDeleteCount = layout.mDeleteCount;
+
+    mFrequencies = layout.slice( buffer, 0 ).asLongBuffer();
+    mOffsets = layout.slice( buffer, 1 ).asIntBuffer();
+    mTable = layout.slice( buffer, 2 ).asIntBuffer();
+    mDeleteHashes = layout.slice( buffer, 3 ).asIntBuffer();
+    mDeleteStarts = layout.slice( buffer, 4 ).asIntBuffer();
+    mReferences = layout.slice( buffer, 5 ).asIntBuffer();
+    mChars = layout.slice( buffer, 6 ).asCharBuffer();
+  }
+
+  /**
+   * Converts the given word-frequency pairs into the compiled format, held
+   * in memory.
+   *
+   * @param lexicon  The words and frequencies to compile.
+   * @param checksum Identifies the source of the lexicon, so that a stale
+   *                 compiled lexicon can be detected.
+   * @return The compiled lexicon.
+   */
+  public static CompiledLexicon compile(
+    final WordFrequencies lexicon, final long checksum ) {
+    assert lexicon != null;
+
+    final var count = lexicon.size();
+    final var words = new String[ count ];
+    final var frequencies = new long[ count ];
+    var chars = 0;
+    var maxLength = 0;
+
+    for( var i = 0; i < count; i++ ) {
+      final var word = lexicon.getWord( i );
+
+      words[ i ] = word;
+      frequencies[ i ] = lexicon.getFrequency( i );
+      chars += word.length();
+      maxLength = Math.max( maxLength, word.length() );
+    }
+
+    final var pairs = deletes( words );
+    final var tableSize = tableSize( count );
+
+    // Count distinct hashes; pairs are sorted and free of duplicates.
+    var deleteCount = 0;
+
+    for( var i = 0; i < pairs.length; i++ ) {
+      if( i == 0 || toHash( pairs[ i ] ) != toHash( pairs[ i - 1 ] ) ) {
+        deleteCount++;
+      }
+    }
+
+    final var layout = new Layout(
+      count, chars, tableSize, deleteCount, pairs.length );
+    final var buffer = ByteBuffer.allocate( layout.size() );
+
+    buffer.putInt( 0, MAGIC );
+    buffer.putInt( 4, VERSION );
+    buffer.putLong( 8, checksum );
+    buffer.putInt( 16, count );
+    buffer.putInt( 20, chars );
+    buffer.putInt( 24, maxLength );
+    buffer.putInt( 28, tableSize );
+    buffer.putInt( 32, deleteCount );
+    buffer.putInt( 36, pairs.length );
+    buffer.putInt( 40, MAX_EDIT_DISTANCE );
+    buffer.putInt( 44, PREFIX_LENGTH );
+
+    layout.slice( buffer, 0 ).asLongBuffer().put( frequencies );
+
+    final var offsets = layout.slice( buffer, 1 ).asIntBuffer();
+    final var table = layout.slice( buffer, 2 ).asIntBuffer();
+    final var text = layout.slice( buffer, 6 ).asCharBuffer();
+    final var mask = tableSize - 1;
+
+    for( var i = 0; i < count; i++ ) {
+      offsets.put( i, text.position() );
+      text.put( words[ i ] );
+
+      var slot = hash( words[ i ] ) & mask;
+
+      while( table.get( slot ) != 0 ) {
+        slot = (slot + 1) & mask;
+      }
+
+      // Zero marks an empty slot, so word indexes are offset by one.
+      table.put( slot, i + 1 );
+    }
+
+    offsets.put( count, text.position() );
+
+    final var hashes = layout.slice( buffer, 3 ).asIntBuffer();
+    final var starts = layout.slice( buffer, 4 ).asIntBuffer();
+    final var references = layout.slice( buffer, 5 ).asIntBuffer();
+
+    for( var i = 0; i < pairs.length; i++ ) {
+      final var hash = toHash( pairs[ i ] );
+
+      if( i == 0 || hash != toHash( pairs[ i - 1 ] ) ) {
+        hashes.put( hash );
+        starts.put( i );
+      }
+
+      references.put( i, (int) pairs[ i ] );
+    }
+
+    starts.put( pairs.length );
+
+    return new CompiledLexicon( buffer );
+  }
+
+  /**
+   * Memory-maps a lexicon previously written using {@link #write(Path)}.
+   *
+   * @param path The file containing a compiled lexicon.
+   * @return The compiled lexicon backed by the given file.
+   * @throws IOException The file could not be read or is not a compiled
+   *                     lexicon of the current version.
+   */
+  public static CompiledLexicon open( final Path path ) throws IOException {
+    assert path != null;
+
+    try( final var channel = FileChannel.open( path, READ ) ) {
+      final var size = channel.size();
+
+      if( size < HEADER_SIZE || size > Integer.MAX_VALUE ) {
+        throw new IOException( "Invalid lexicon: " + path );
+      }
+
+      final var buffer = channel.map( READ_ONLY, 0, size );
+
+      if( buffer.getInt( 0 ) != MAGIC ||
+        buffer.getInt( 4 ) != VERSION ||
+        buffer.getInt( 40 ) != MAX_EDIT_DISTANCE ||
+        buffer.getInt( 44 ) != PREFIX_LENGTH ||
+        new Layout( buffer ).size() != size ) {
+        throw new IOException( "Incompatible lexicon: " + path );
+      }
+
+      return new CompiledLexicon( buffer );
+    }
+  }
+
+  /**
+   * Writes this lexicon to the given file, replacing it atomically so that
+   * a partially written file is never read.
+   *
+   * @param path The file to create or replace.
+   * @throws IOException The file could not be written.
+   */
+  public void write( final Path path ) throws IOException {
+    assert path != null;
+
+    final var parent = path.toAbsolutePath().getParent();
+    createDirectories( parent );
+
+    final var name = path.getFileName().toString();
+    final var temp = createTempFile( parent, name, ".tmp" );
+
+    try {
+      try( final var channel = FileChannel.open( temp, WRITE ) ) {
+        final var buffer = mBuffer.duplicate().clear();
+
+        while( buffer.hasRemaining() ) {
+          channel.write( buffer );
+        }
+      }
+
+      move( temp, path, REPLACE_EXISTING, ATOMIC_MOVE );
+    } finally {
+      deleteIfExists( temp );
+    }
+  }
+
+  /**
+   * Returns the value used to detect whether the source of this lexicon
+   * has changed.
+   *
+   * @return The checksum given when the lexicon was compiled.
+   */
+  public long getChecksum() {
+    return mChecksum;
+  }
+
+  /**
+   * Returns the number of words in the lexicon.
+   *
+   * @return The word count.
+   */
+  public int size() {
+    return mWordCount;
+  }
+
+  /**
+   * Returns the length of the longest word in the lexicon.
+   *
+   * @return The maximum word length, in characters.
+   */
+  int getMaxWordLength() {
+    return mMaxWordLength;
+  }
+
+  /**
+   * Returns the index of the given word.
+   *
+   * @param word The word to find.
+   * @return The word's index, or {@code -1} if not in the lexicon.
+   */
+  int find( final CharSequence word ) {
+    var slot = hash( word ) & mTableMask;
+    int entry;
+
+    while( (entry = mTable.get( slot )) != 0 ) {
+      if( equals( entry - 1, word ) ) {
+        return entry - 1;
+      }
+
+      slot = (slot + 1) & mTableMask;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns the word at the given index.
+   *
+   * @param index A value from {@link #find(CharSequence)} or
+   *              {@link #getReference(int)}.
+   * @return The word stored at the given index.
+   */
+  String getWord( final int index ) {
+    final var began = mOffsets.get( index );
+    final var chars = new char[ mOffsets.get( index + 1 ) - began ];
+
+    mChars.get( began, chars );
+    return new String( chars );
+  }
+
+  /**
+   * Returns the length of the word at the given index without creating
+   * a new string.
+   *
+   * @param index The word's index.
+   * @return The number of characters in the word.
+   */
+  int getLength( final int index ) {
+    return mOffsets.get( index + 1 ) - mOffsets.get( index );
+  }
+
+  /**
+   * Returns the frequency of the word at the given index.
+   *
+   * @param index The word's index.
+   * @return The number of times the word occurs in the source corpus.
+   */
+  long getFrequency( final int index ) {
+    return mFrequencies.get( index );
+  }
+
+  /**
+   * Returns the position of the words that have the given delete. Use
+   * {@link #getReferencesBegan(int)} and {@link #getReferencesEnded(int)} to
+   * iterate over the word indexes for the delete.
+   *
+   * @param delete A word prefix having zero or more characters removed.
+   * @return The delete's position, or {@code -1} if no words have the delete.
+   */
+  int findDelete( final CharSequence delete ) {
+    final var hash = hash( delete );
+    var low = 0;
+    var high = mDeleteCount - 1;
+
+    while( low <= high ) {
+      final var mid = (low + high) >>> 1;
+      final var value = mDeleteHashes.get( mid );
+
+      if( value < hash ) {
+        low = mid + 1;
+      }
+      else if( value > hash ) {
+        high = mid - 1;
+      }
+      else {
+        return mid;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns the first reference for a delete.
+   *
+   * @param delete A value from {@link #findDelete(CharSequence)}.
+   * @return The first reference (inclusive).
+   */
+  int getReferencesBegan( final int delete ) {
+    return mDeleteStarts.get( delete );
+  }
+
+  /**
+   * Returns the reference after the last reference for a delete.
+   *
+   * @param delete A value from {@link #findDelete(CharSequence)}.
+   * @return The last reference (exclusive).
+   */
+  int getReferencesEnded( final int delete ) {
+    return mDeleteStarts.get( delete + 1 );
+  }
+
+  /**
+   * Returns the index of a word having a delete.
+   *
+   * @param reference A value between the beginning (inclusive) and ending
+   *                  (exclusive) references for a delete.
+   * @return The word's index.
+   */
+  int getReference( final int reference ) {
+    return mReferences.get( reference );
+  }
+
+  private boolean equals( final int index, final CharSequence word ) {
+    final var began = mOffsets.get( index );
+    final var length = word.length();
+
+    if( mOffsets.get( index + 1 ) - began != length ) {
+      return false;
+    }
+
+    for( var i = 0; i < length; i++ ) {
+      if( mChars.get( began + i ) != word.charAt( i ) ) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Computes the deletes for every word, as pairs of the delete's hash code
+   * (high bits) and the word's index (low bits), sorted by hash code.
+   *
+   * @param words The words having deletes to compute.
+   * @return The sorted, distinct delete-word pairs.
+   */
+  private static long[] deletes( final String[] words ) {
+    final var deletes = new HashSet<String>();
+    var pairs = new long[ words.length * 16 ];
+    var count = 0;
+
+    for( var i = 0; i < words.length; i++ ) {
+      deletes.clear();
+      edits( words[ i ], deletes );
+
+      if( count + deletes.size() > pairs.length ) {
+        pairs = Arrays.copyOf( pairs, (count + deletes.size()) * 3 / 2 );
+      }
+
+      for( final var delete : deletes ) {
+        pairs[ count++ ] = (long) hash( delete ) << 32 | i;
+      }
+    }
+
+    Arrays.sort( pairs, 0, count );
+
+    // Distinct deletes for one word may share a hash code.
+    var distinct = 0;
+
+    for( var i = 0; i < count; i++ ) {
+      if( i == 0 || pairs[ i ] != pairs[ i - 1 ] ) {
+        pairs[ distinct++ ] = pairs[ i ];
+      }
+    }
+
+    return Arrays.copyOf( pairs, distinct );
+  }
+
+  /**
+   * Adds the deletes for the prefix of the given word.
+   *
+   * @param word    The word having a prefix to delete characters from.
+   * @param deletes Receives the deletes.
+   */
+  private static void edits( final String word, final Set<String> deletes ) {
+    if( word.length() <= MAX_EDIT_DISTANCE ) {
+      deletes.add( "" );
+    }
+
+    final var prefix = word.length() > PREFIX_LENGTH
+      ? word.substring( 0, PREFIX_LENGTH )
+      : word;
+
+    deletes.add( prefix );
+    edits( prefix, 0, deletes );
+  }
+
+  private static void edits(
+    final String word, int distance, final Set<String> deletes ) {
+    distance++;
+
+    if( word.length() > 1 ) {
+      for( var i = 0; i < word.length(); i++ ) {
+        final var delete = word.substring( 0, i ) + word.substring( i + 1 );
+
+        if( deletes.add( delete ) && distance < MAX_EDIT_DISTANCE ) {
+          edits( delete, distance, deletes );
+        }
+      }
+    }
+  }
+
+  private static int toHash( final long pair ) {
+    return (int) (pair >>> 32);
+  }
+
+  /**
+   * Computes a 32-bit FNV-1a hash code, which must not change between
+   * versions of the file format.
+   *
+   * @param s The characters to hash.
+   * @return The hash code for the given characters.
+   */
+  static int hash( final CharSequence s ) {
+    var hash = 0x811C9DC5;
+
+    for( var i = 0; i < s.length(); i++ ) {
+      hash ^= s.charAt( i );
+      hash *= 0x01000193;
+    }
+
+    return hash;
+  }
+
+  /**
+   * Returns a power of two having at most 50% occupancy.
+   */
+  private static int tableSize( final int count ) {
+    return Math.max( 2, Integer.highestOneBit( Math.max( 1, count ) ) << 2 );
+  }
+
+  /**
+   * Computes the offsets to each section of the file.
+   */
+  private static final class Layout {
+    private final int mWordCount;
+    private final int mTableSize;
+    private final int mDeleteCount;
+    private final int[] mOffsets = new int[ 8 ];
+
+    private Layout( final ByteBuffer buffer ) {
+      this(
+        buffer.getInt( 16 ),
+        buffer.getInt( 20 ),
+        buffer.getInt( 28 ),
+        buffer.getInt( 32 ),
+        buffer.getInt( 36 )
+      );
+    }
+
+    private Layout(
+      final int words,
+      final int chars,
+      final int tableSize,
+      final int deletes,
+      final int references ) {
+      mWordCount = words;
+      mTableSize = tableSize;
+      mDeleteCount = deletes;
+
+      final var sizes = new long[]{
+        (long) Long.BYTES * words,
+        (long) Integer.BYTES * (words + 1),
+        (long) Integer.BYTES * tableSize,
+        (long) Integer.BYTES * deletes,
+        (long) Integer.BYTES * (deletes + 1),
+        (long) Integer.BYTES * references,
+        (long) Character.BYTES * chars,
+      };
+
+      long offset = HEADER_SIZE;
+      mOffsets[ 0 ] = HEADER_SIZE;
+
+      for( var i = 0; i < sizes.length; i++ ) {
+        offset += sizes[ i ];
+
+        // Corrupt headers could otherwise overflow the section offsets.
+        mOffsets[ i + 1 ] = (int) Math.min( offset, Integer.MAX_VALUE );
+      }
+    }
+
+    private int size() {
+      return mOffsets[ mOffsets.length - 1 ];
+    }
+
+    private ByteBuffer slice( final ByteBuffer buffer, final int section ) {
+      final var began = mOffsets[ section ];
+      return buffer.slice( began, mOffsets[ section + 1 ] - began );
+    }
+  }
+}
@@ -5,15 +5,20 @@ import com.keenwrite.events.spelling.LexiconLoadedEvent;
 import com.keenwrite.exceptions.MissingFileException;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.nio.file.Path;
 import java.util.Locale;
+import java.util.zip.CRC32;
 
+import static com.keenwrite.Bootstrap.USER_DATA_DIR;
 import static com.keenwrite.constants.Constants.LEXICONS_DIRECTORY;
 import static com.keenwrite.events.StatusEvent.clue;
 import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.exists;
 
 /**
  * Responsible for loading a set of single words, asynchronously.
@@ -33,76 +38,139 @@ public final class Lexicon {
    * Load the lexicon into memory then fire an event indicating that the
    * word-frequency pairs are available to use for spellchecking. This
    * happens asynchronously so that the UI can load faster.
+   * <p>
+   * The first time a lexicon is read, it is compiled into a binary format
+   * and saved in the user's data directory. Subsequent reads memory-map the
+   * compiled lexicon, provided that the lexicon's text has not changed.
+   * </p>
    *
    * @param locale The locale having a corresponding lexicon to load.
    */
   public static void read( final Locale locale ) {
     assert locale != null;
 
-    new Thread( read( toResourcePath( locale ) ) ).start();
+    new Thread( read( toResourcePath( locale ), toCachePath( locale ) ) )
+      .start();
   }
 
-  private static Runnable read( final String path ) {
+  private static Runnable read( final String path, final Path cache ) {
     return () -> {
       try( final var resource = openResource( path ) ) {
-        read( resource );
+        final var bytes = resource.readAllBytes();
+        final var checksum = checksum( bytes );
+        var lexicon = open( cache, checksum );
+
+        if( lexicon == null ) {
+          lexicon = compile( bytes, checksum, cache );
+        }
+
+        // Indicate that loading the lexicon is finished.
+        status( "loaded", lexicon.size() );
+        LexiconLoadedEvent.fire( lexicon );
       } catch( final Exception ex ) {
         clue( ex );
       }
     };
   }
 
-  private static void read( final InputStream resource ) {
-    try( final var input = new InputStreamReader( resource, UTF_8 );
-         final var reader = new BufferedReader( input ) ) {
-      read( reader );
-    } catch( final Exception ex ) {
-      clue( ex );
+  /**
+   * Memory-maps the compiled lexicon, if it is current.
+   *
+   * @param cache    The compiled lexicon file.
+   * @param checksum The checksum of the lexicon's text.
+   * @return The compiled lexicon, or {@code null} if it must be compiled.
+   */
+  private static CompiledLexicon open( final Path cache, final long checksum ) {
+    if( exists( cache ) ) {
+      try {
+        final var lexicon = CompiledLexicon.open( cache );
+
+        if( lexicon.getChecksum() == checksum ) {
+          return lexicon;
+        }
+      } catch( final IOException ignored ) {
+        // An incompatible or corrupt file is replaced by recompiling.
+      }
     }
+
+    return null;
   }
 
-  private static void read( final BufferedReader reader ) {
+  /**
+   * Parses and compiles the lexicon, then writes it for subsequent reads.
+   * If the compiled lexicon cannot be written, the in-memory version is used.
+   *
+   * @param bytes    The lexicon's text.
+   * @param checksum The checksum of the lexicon's text.
+   * @param cache    The compiled lexicon file to create.
+   * @return The compiled lexicon.
+   */
+  private static CompiledLexicon compile(
+    final byte[] bytes, final long checksum, final Path cache )
+    throws IOException {
+    final var lexicon = CompiledLexicon.compile( read( bytes ), checksum );
+
     try {
-      long count = 0;
-      final var lexicon = new HashMap<String, Long>( LEXICON_CAPACITY );
-      String line;
+      lexicon.write( cache );
+      return CompiledLexicon.open( cache );
+    } catch( final IOException ex ) {
+      clue( ex );
+      return lexicon;
+    }
+  }
 
-      while( (line = reader.readLine()) != null ) {
-        final var index = line.indexOf( DELIMITER );
-        final var word = line.substring( 0, index == -1 ? 0 : index );
-        final var frequency = parse( line.substring( index + 1 ) );
+  private static WordFrequencies read( final byte[] bytes )
+    throws IOException {
+    try( final var input = new ByteArrayInputStream( bytes );
+         final var reader = new InputStreamReader( input, UTF_8 );
+         final var buffer = new BufferedReader( reader ) ) {
+      return read( buffer );
+    }
+  }
 
-        lexicon.put( word, frequency );
+  private static WordFrequencies read( final BufferedReader reader )
+    throws IOException {
+    long count = 0;
+    final var lexicon = new WordFrequencies( LEXICON_CAPACITY );
+    String line;
 
-        // Slower machines may benefit users by showing a loading message.
-        if( ++count % 25_000 == 0 ) {
-          status( "loading", count );
-        }
-      }
+    while( (line = reader.readLine()) != null ) {
+      final var index = line.indexOf( DELIMITER );
+      final var word = line.substring( 0, index == -1 ? 0 : index );
+      final var frequency = parse( line.substring( index + 1 ) );
 
-      // Indicate that loading the lexicon is finished.
-      status( "loaded", count );
-      LexiconLoadedEvent.fire( lexicon );
-    } catch( final Exception ex ) {
-      clue( ex );
+      lexicon.put( word, frequency );
+
+      // Slower machines may benefit users by showing a loading message.
+      if( ++count % 25_000 == 0 ) {
+        status( "loading", count );
+      }
     }
+
+    return lexicon;
+  }
+
+  private static long checksum( final byte[] bytes ) {
+    final var crc = new CRC32();
+    crc.update( bytes );
+    return crc.getValue();
   }
 
   /**
-   * Prevents autoboxing and uses cached values when possible. A return value
-   * of 0L means that the word will receive the lowest priority. If there's
-   * an error (i.e., data corruption) parsing the number, the spell checker
-   * will still work, but be suboptimal for all erroneous entries.
+   * Parses a frequency without autoboxing. A return value of 0 means that
+   * the word will receive the lowest priority. If there's an error (i.e.,
+   * data corruption) parsing the number, the spell checker will still work,
+   * but be suboptimal for all erroneous entries.
    *
-   * @param number The numeric value to parse into a long object.
-   * @return The parsed value, or 0L if the number couldn't be parsed.
+   * @param number The numeric value to parse into a long.
+   * @return The parsed value, or 0 if the number couldn't be parsed.
    */
-  private static Long parse( final String number ) {
+  private static long parse( final String number ) {
     try {
-      return Long.valueOf( number );
+      return Long.parseLong( number );
     } catch( final NumberFormatException ex ) {
       clue( ex );
-      return 0L;
+      return 0;
     }
   }
 
@@ -128,6 +196,19 @@ public final class Lexicon {
     return format( "/%s/%s.txt", LEXICONS_DIRECTORY, language );
   }
 
+  /**
+   * Returns the path to the compiled lexicon for the given {@link Locale}.
+   *
+   * @param locale The {@link Locale} to convert to a file name.
+   * @return The fully qualified path to a compiled lexicon.
+   */
+  private static Path toCachePath( final Locale locale ) {
+    final var language = locale.getLanguage();
+    return USER_DATA_DIR
+      .resolve( LEXICONS_DIRECTORY )
+      .resolve( format( "%s.bin", language ) );
+  }
+
   private static void status( final String s, final long count ) {
     clue( "Main.status.lexicon." + s, count );
   }
@@ -3,63 +3,68 @@ package com.keenwrite.spelling.impl;
 
 import com.keenwrite.spelling.api.SpellCheckListener;
 import com.keenwrite.spelling.api.SpellChecker;
-import io.gitlab.rxp90.jsymspell.SymSpell;
-import io.gitlab.rxp90.jsymspell.SymSpellBuilder;
 import io.gitlab.rxp90.jsymspell.Verbosity;
+import io.gitlab.rxp90.jsymspell.api.DamerauLevenshteinOSA;
+import io.gitlab.rxp90.jsymspell.api.StringDistance;
 import io.gitlab.rxp90.jsymspell.api.SuggestItem;
-import io.gitlab.rxp90.jsymspell.exceptions.NotInitializedException;
 
 import java.text.BreakIterator;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 
+import static com.keenwrite.spelling.impl.CompiledLexicon.MAX_EDIT_DISTANCE;
+import static com.keenwrite.spelling.impl.CompiledLexicon.PREFIX_LENGTH;
 import static io.gitlab.rxp90.jsymspell.Verbosity.ALL;
 import static io.gitlab.rxp90.jsymspell.Verbosity.CLOSEST;
+import static io.gitlab.rxp90.jsymspell.Verbosity.TOP;
 import static java.lang.Character.isLetter;
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 /**
- * Responsible for spell checking using {@link SymSpell}.
+ * Responsible for spell checking using the symmetric delete (SymSpell)
+ * algorithm. The deletes are precomputed by {@link CompiledLexicon}, so
+ * this class performs lookups only.
  */
 public class SymSpellSpeller implements SpellChecker {
+  private static final StringDistance DISTANCE = new DamerauLevenshteinOSA();
+
   private final BreakIterator mBreakIterator = BreakIterator.getWordInstance();
-  private final SymSpell mSymSpell;
+  private final CompiledLexicon mLexicon;
 
   /**
-   * Creates a new spellchecker for a lexicon of words in the specified file.
+   * Creates a new spellchecker for a lexicon of words.
    *
-   * @param lexicon The word-frequency map.
+   * @param lexicon The words, frequencies, and deletes.
    * @return An instance of {@link SpellChecker} that can check if a word
-   * is correct and suggest alternatives, or {@link PermissiveSpeller} if the
-   * lexicon cannot be loaded.
+   * is correct and suggest alternatives.
    */
-  public static SpellChecker forLexicon( final Map<String, Long> lexicon )
-    throws NotInitializedException {
+  public static SpellChecker forLexicon( final CompiledLexicon lexicon ) {
     assert lexicon != null;
-    assert !lexicon.isEmpty();
-
-    final var symSpell = new SymSpellBuilder()
-      .setUnigramLexicon( lexicon )
-      .build();
+    assert lexicon.size() > 0;
 
-    return new SymSpellSpeller( symSpell );
+    return new SymSpellSpeller( lexicon );
   }
 
   /**
    * Prevent direct instantiation so that only the {@link SpellChecker}
    * interface is available.
    *
-   * @param symSpell The implementation-specific spell checker.
+   * @param lexicon The words, frequencies, and deletes.
    */
-  private SymSpellSpeller( final SymSpell symSpell ) {
-    assert symSpell != null;
+  private SymSpellSpeller( final CompiledLexicon lexicon ) {
+    assert lexicon != null;
 
-    mSymSpell = symSpell;
+    mLexicon = lexicon;
   }
 
   /**
-   * This expensive operation is only called for viable words, not for
-   * single punctuation characters or whitespace.
+   * This operation is only called for viable words, not for single
+   * punctuation characters or whitespace.
    *
    * @param lexeme The word to check for correctness.
    * @return {@code false} if the word is not in the lexicon.
@@ -69,8 +74,7 @@ public class SymSpellSpeller implements SpellChecker {
     assert lexeme != null;
     assert !lexeme.isEmpty();
 
-    final var words = lookup( lexeme, CLOSEST );
-    return !words.isEmpty() && lexeme.equals( words.get( 0 ).getSuggestion() );
+    return mLexicon.find( lexeme ) >= 0;
   }
 
   @Override
@@ -136,7 +140,7 @@ public class SymSpellSpeller implements SpellChecker {
 
   /**
    * Returns a list of {@link SuggestItem} instances that provide alternative
-   * spellings for the given lexeme.
+   * spellings for the given lexeme, ordered by edit distance then frequency.
    *
    * @param lexeme A word to look up in the lexicon.
    * @param v      Influences the number of results returned.
@@ -146,6 +150,222 @@ public class SymSpellSpeller implements SpellChecker {
     assert lexeme != null;
     assert v != null;
 
-    return mSymSpell.lookup( lexeme, v );
+    final var lexicon = mLexicon;
+    final var suggestions = new ArrayList<SuggestItem>();
+    final var lexemeLength = lexeme.length();
+
+    if( lexemeLength - MAX_EDIT_DISTANCE > lexicon.getMaxWordLength() ) {
+      return suggestions;
+    }
+
+    final var index = lexicon.find( lexeme );
+
+    if( index >= 0 ) {
+      suggestions.add(
+        new SuggestItem( lexeme, 0, lexicon.getFrequency( index ) )
+      );
+
+      if( v != ALL ) {
+        return suggestions;
+      }
+    }
+
+    final var deletes = new HashSet<String>();
+    final var considered = new BitSet();
+    final var candidates = new ArrayList<String>();
+    final var prefixLength = min( lexemeLength, PREFIX_LENGTH );
+    var maxDistance = MAX_EDIT_DISTANCE;
+
+    candidates.add( lexeme.substring( 0, prefixLength ) );
+
+    for( var c = 0; c < candidates.size(); c++ ) {
+      final var candidate = candidates.get( c );
+      final var candidateLength = candidate.length();
+      final var lengthDiff = prefixLength - candidateLength;
+
+      if( lengthDiff > maxDistance ) {
+        if( v == ALL ) {
+          continue;
+        }
+
+        break;
+      }
+
+      final var delete = lexicon.findDelete( candidate );
+      final var began = delete < 0 ? 0 : lexicon.getReferencesBegan( delete );
+      final var ended = delete < 0 ? 0 : lexicon.getReferencesEnded( delete );
+
+      for( var r = began; r < ended; r++ ) {
+        final var word = lexicon.getReference( r );
+        final var length = lexicon.getLength( word );
+
+        if( abs( length - lexemeLength ) > maxDistance ||
+          length < candidateLength ) {
+          continue;
+        }
+
+        final var suggestion = lexicon.getWord( word );
+
+        if( suggestion.equals( lexeme ) ||
+          (length == candidateLength && !suggestion.equals( candidate )) ) {
+          continue;
+        }
+
+        final var suggestionPrefixLength = min( length, PREFIX_LENGTH );
+
+        if( suggestionPrefixLength > prefixLength &&
+          suggestionPrefixLength - candidateLength > maxDistance ) {
+          continue;
+        }
+
+        final int distance;
+
+        if( candidateLength == 0 ) {
+          distance = max( lexemeLength, length );
+
+          if( distance > maxDistance || isConsidered( considered, word ) ) {
+            continue;
+          }
+        }
+        else if( length == 1 ) {
+          distance = lexeme.indexOf( suggestion.charAt( 0 ) ) < 0
+            ? lexemeLength
+            : lexemeLength - 1;
+
+          if( distance > maxDistance || isConsidered( considered, word ) ) {
+            continue;
+          }
+        }
+        else {
+          if( isSuffixMismatch( candidateLength, lexeme, suggestion ) ||
+            (v != ALL && !isDeleteInPrefix( candidate, suggestion )) ||
+            isConsidered( considered, word ) ) {
+            continue;
+          }
+
+          distance = DISTANCE.distanceWithEarlyStop(
+            lexeme, suggestion, maxDistance );
+
+          if( distance < 0 ) {
+            continue;
+          }
+        }
+
+        if( distance <= maxDistance ) {
+          final var frequency = lexicon.getFrequency( word );
+          final var item = new SuggestItem( suggestion, distance, frequency );
+
+          if( !suggestions.isEmpty() ) {
+            if( v == CLOSEST && distance < maxDistance ) {
+              suggestions.clear();
+            }
+            else if( v == TOP ) {
+              if( distance < maxDistance || frequency >
+                suggestions.get( 0 ).getFrequencyOfSuggestionInDict() ) {
+                maxDistance = distance;
+                suggestions.set( 0, item );
+              }
+
+              continue;
+            }
+          }
+
+          if( v != ALL ) {
+            maxDistance = distance;
+          }
+
+          suggestions.add( item );
+        }
+      }
+
+      // Add the deletes of the candidate, within the edit distance.
+      if( lengthDiff < MAX_EDIT_DISTANCE && candidateLength <= PREFIX_LENGTH ) {
+        if( v != ALL && lengthDiff >= maxDistance ) {
+          continue;
+        }
+
+        for( var i = 0; i < candidateLength; i++ ) {
+          final var edit =
+            candidate.substring( 0, i ) + candidate.substring( i + 1 );
+
+          if( deletes.add( edit ) ) {
+            candidates.add( edit );
+          }
+        }
+      }
+    }
+
+    if( suggestions.size() > 1 ) {
+      Collections.sort( suggestions );
+    }
+
+    return suggestions;
+  }
+
+  /**
+   * Marks the word at the given index as considered.
+   *
+   * @return {@code true} if the word was already considered.
+   */
+  private static boolean isConsidered( final BitSet considered, final int i ) {
+    final var result = considered.get( i );
+    considered.set( i );
+    return result;
+  }
+
+  /**
+   * When the candidate was derived by removing the maximum number of
+   * characters from a full-length prefix, the characters following the
+   * prefix must match (allowing a transposition) for the suggestion to be
+   * within the edit distance.
+   *
+   * @return {@code true} if the suggestion can be skipped.
+   */
+  private static boolean isSuffixMismatch(
+    final int candidateLength, final String lexeme, final String suggestion ) {
+    if( PREFIX_LENGTH - MAX_EDIT_DISTANCE != candidateLength ) {
+      return false;
+    }
+
+    final var lexemeLength = lexeme.length();
+    final var length = suggestion.length();
+    final var min = min( lexemeLength, length ) - PREFIX_LENGTH;
+
+    return (min > 1 &&
+      !lexeme.substring( lexemeLength + 1 - min )
+             .equals( suggestion.substring( length + 1 - min ) )) ||
+      (min > 0 &&
+        lexeme.charAt( lexemeLength - min ) !=
+          suggestion.charAt( length - min ) &&
+        (lexeme.charAt( lexemeLength - min - 1 ) !=
+          suggestion.charAt( length - min ) ||
+          lexeme.charAt( lexemeLength - min ) !=
+            suggestion.charAt( length - min - 1 )));
+  }
+
+  /**
+   * Answers whether the characters of the delete appear, in order, within
+   * the prefix of the suggestion.
+   *
+   * @return {@code true} if the delete could have come from the suggestion.
+   */
+  private static boolean isDeleteInPrefix(
+    final String delete, final String suggestion ) {
+    final var length = min( suggestion.length(), PREFIX_LENGTH );
+    var j = 0;
+
+    for( var i = 0; i < delete.length(); i++ ) {
+      final var c = delete.charAt( i );
+
+      while( j < length && c != suggestion.charAt( j ) ) {
+        j++;
+      }
+
+      if( j == length ) {
+        return false;
+      }
+    }
+
+    return true;
   }
 }
@@ -0,0 +1,153 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.spelling.impl;
+
+import java.util.Arrays;
+
+/**
+ * Responsible for mapping words to their frequencies without boxing. Words
+ * and frequencies are kept in parallel arrays, in insertion order, and an
+ * open-addressing table of array indexes finds words that are added again.
+ * This uses a fraction of the memory of a {@code HashMap<String, Long>},
+ * which needs an entry object and a {@link Long} for every word.
+ * <p>
+ * <strong>Warning:</strong> This class is not thread-safe.
+ * </p>
+ */
+public final class WordFrequencies {
+  private String[] mWords;
+  private long[] mFrequencies;
+
+  /**
+   * Open-addressing hash table of word indexes, offset by one so that zero
+   * marks an empty slot.
+   */
+  private int[] mTable;
+  private int mSize;
+
+  /**
+   * Creates an empty table that can hold the given number of words before
+   * growing.
+   *
+   * @param capacity The expected number of words.
+   */
+  public WordFrequencies( final int capacity ) {
+    final var words = Math.max( 16, capacity );
+
+    mWords = new String[ words ];
+    mFrequencies = new long[ words ];
+    mTable = new int[ tableSize( words ) ];
+  }
+
+  /**
+   * Associates the given frequency with the given word, replacing the
+   * frequency of a word that was already added.
+   *
+   * @param word      The word to add.
+   * @param frequency The word's frequency.
+   */
+  public void put( final String word, final long frequency ) {
+    assert word != null;
+
+    final var slot = find( word );
+    final var index = mTable[ slot ] - 1;
+
+    if( index >= 0 ) {
+      mFrequencies[ index ] = frequency;
+      return;
+    }
+
+    if( mSize == mWords.length ) {
+      grow();
+      put( word, frequency );
+      return;
+    }
+
+    mWords[ mSize ] = word;
+    mFrequencies[ mSize ] = frequency;
+    mTable[ slot ] = ++mSize;
+  }
+
+  /**
+   * Returns the word at the given index, in the order that words were added.
+   *
+   * @param index A value from zero (inclusive) to {@link #size()}
+   *              (exclusive).
+   * @return The word at the given index.
+   */
+  public String getWord( final int index ) {
+    return mWords[ index ];
+  }
+
+  /**
+   * Returns the frequency of the word at the given index.
+   *
+   * @param index A value from zero (inclusive) to {@link #size()}
+   *              (exclusive).
+   * @return The frequency at the given index.
+   */
+  public long getFrequency( final int index ) {
+    return mFrequencies[ index ];
+  }
+
+  /**
+   * Returns the number of distinct words added.
+   *
+   * @return The number of words.
+   */
+  public int size() {
+    return mSize;
+  }
+
+  /**
+   * Returns the slot containing the given word, or the empty slot where the
+   * word would be inserted.
+   */
+  private int find( final String word ) {
+    final var mask = mTable.length - 1;
+    var slot = mix( word.hashCode() ) & mask;
+    int entry;
+
+    while( (entry = mTable[ slot ]) != 0 &&
+      !word.equals( mWords[ entry - 1 ] ) ) {
+      slot = (slot + 1) & mask;
+    }
+
+    return slot;
+  }
+
+  private void grow() {
+    final var capacity = mWords.length << 1;
+
+    mWords = Arrays.copyOf( mWords, capacity );
+    mFrequencies = Arrays.copyOf( mFrequencies, capacity );
+    mTable = new int[ tableSize( capacity ) ];
+
+    final var mask = mTable.length - 1;
+
+    for( var i = 0; i < mSize; i++ ) {
+      var slot = mix( mWords[ i ].hashCode() ) & mask;
+
+      while( mTable[ slot ] != 0 ) {
+        slot = (slot + 1) & mask;
+      }
+
+      mTable[ slot ] = i + 1;
+    }
+  }
+
+  /**
+   * Spreads the bits of {@link String#hashCode()}, which clusters for short
+   * words, across the table.
+   */
+  private static int mix( final int hash ) {
+    final var h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Returns a power of two having at most 50% occupancy.
+   */
+  private static int tableSize( final int capacity ) {
+    return Integer.highestOneBit( capacity ) << 2;
+  }
+}
@@ -4,10 +4,12 @@ package com.keenwrite.typesetting;
 import com.keenwrite.io.CommandNotFoundException;
 import com.keenwrite.io.StreamGobbler;
 import com.keenwrite.io.SysFile;
+import com.keenwrite.typesetting.containerization.ContainerSession;
 import com.keenwrite.typesetting.containerization.Podman;
 import org.apache.commons.io.FilenameUtils;
 
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.LinkedList;
 import java.util.concurrent.Callable;
 
@@ -31,8 +33,14 @@ public final class GuestTypesetter extends Typesetter
   private static final boolean READONLY = true;
   private static final boolean READWRITE = false;
 
-  private static final String TYPESETTER_VERSION =
-    TYPESETTER_EXE + " --version > /dev/null";
+  /**
+   * Duration to retain whether the container is ready, because asking the
+   * container manager is slow.
+   */
+  private static final long READY_TTL = Duration.ofMinutes( 1 ).toNanos();
+
+  private static volatile boolean sReady;
+  private static volatile long sReadyChecked = System.nanoTime() - READY_TTL;
 
   public GuestTypesetter( final Mutator mutator ) {
     super( mutator );
@@ -74,12 +82,16 @@ public final class GuestTypesetter extends Typesetter
     args.add( format( "--result='%s'", removeExtension( targetFile ) ) );
     args.add( format( "%s/%s", SOURCE, sourceFile ) );
 
-    final var listener = new PaginationListener();
+    final var listener = new TypesetListener();
     final var command = String.join( " ", args );
 
-    manager.run( in -> StreamGobbler.gobble( in, listener ), command );
+    final var session = ContainerSession.getDefault();
+    final var exitCode = session.exec(
+      manager, in -> StreamGobbler.gobble( in, listener ), command );
 
-    return true;
+    listener.finish();
+
+    return exitCode == 0;
   }
 
   /**
@@ -104,23 +116,29 @@ public final class GuestTypesetter extends Typesetter
   }
 
   /**
+   * Answers whether the container image has been pulled. The image is not
+   * run, so that a container is only started by the first export, which
+   * keeps the container running for subsequent exports. The answer is
+   * retained briefly, because asking the container manager is slow.
+   *
    * @return {@code true} indicates that the containerized typesetter is
    * installed, properly configured, and ready to typeset documents.
    */
   static boolean isReady() {
-    if( MANAGER.canRun() ) {
-      final var exitCode = new StringBuilder();
-      final var manager = new Podman();
+    final var now = System.nanoTime();
 
+    if( now - sReadyChecked >= READY_TTL ) {
+      sReady = isInstalled();
+      sReadyChecked = now;
+    }
+
+    return sReady;
+  }
+
+  private static boolean isInstalled() {
+    if( MANAGER.canRun() ) {
       try {
-        // Running blocks until the command completes.
-        manager.run(
-          input -> gobble( input, s -> exitCode.append( s.trim() ) ),
-          TYPESETTER_VERSION + "; echo $?"
-        );
-
-        // If the typesetter ran with an exit code of 0, it is available.
-        return exitCode.indexOf( "0" ) == 0;
+        return Podman.exists( input -> gobble( input, s -> { } ) );
       } catch( final CommandNotFoundException ignored ) { }
     }
 
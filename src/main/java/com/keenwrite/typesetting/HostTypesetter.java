@@ -9,16 +9,19 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.keenwrite.constants.Constants.DEFAULT_DIRECTORY;
 import static com.keenwrite.events.StatusEvent.clue;
 import static java.lang.ProcessBuilder.Redirect.DISCARD;
 import static java.lang.System.getProperty;
 import static java.nio.file.Files.*;
-import static java.util.Arrays.asList;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.apache.commons.io.FilenameUtils.removeExtension;
 
@@ -31,17 +34,157 @@ public final class HostTypesetter extends Typesetter
   implements Callable<Boolean> {
   private static final SysFile TYPESETTER = new SysFile( TYPESETTER_EXE );
 
+  /**
+   * Duration to retain the result of searching the PATH for the typesetter,
+   * which scans every directory in the PATH.
+   */
+  private static final long READY_TTL = Duration.ofMinutes( 1 ).toNanos();
+
+  private static volatile boolean sReady;
+  private static volatile long sReadyChecked = System.nanoTime() - READY_TTL;
+
+  /**
+   * Creates the typesetter's cache in the background, see
+   * {@link #createCache()}.
+   */
+  private static final AtomicReference<CompletableFuture<Boolean>> sCache =
+    new AtomicReference<>();
+
   HostTypesetter( final Mutator mutator ) {
     super( mutator );
   }
 
   /**
-   * Answers whether the typesetting software is installed locally.
+   * Answers whether the typesetting software is installed locally. The
+   * answer is retained briefly, because finding the software is slow.
    *
    * @return {@code true} if the typesetting software is installed on the host.
    */
   public static boolean isReady() {
-    return TYPESETTER.canRun();
+    final var now = System.nanoTime();
+
+    if( now - sReadyChecked >= READY_TTL ) {
+      sReady = TYPESETTER.canRun();
+      sReadyChecked = now;
+    }
+
+    return sReady;
+  }
+
+  /**
+   * Creates the typesetter's file database and formats in the background, if
+   * the typesetter has never been run. This is the only place that the cache
+   * is created: the export action calls this before the user chooses how to
+   * export, and typesetting waits for it. The cache outlives the
+   * application, so this does nothing once any export has succeeded; it does
+   * not shorten later exports. This only runs once per session, unless
+   * creating the cache failed.
+   *
+   * @return Completes with {@code true} if the cache is populated.
+   */
+  static CompletableFuture<Boolean> createCache() {
+    return sCache.updateAndGet(
+      cache -> cache == null || isFailed( cache )
+        ? supplyAsync( HostTypesetter::initialize, runnable -> {
+          final var thread = new Thread( runnable, "typesetter-cache" );
+          thread.setDaemon( true );
+          thread.start();
+        } )
+        : cache
+    );
+  }
+
+  private static boolean isFailed( final CompletableFuture<Boolean> cache ) {
+    return cache.isDone() && !cache.getNow( false );
+  }
+
+  /**
+   * Creates the typesetter's file database and formats, unless the cache
+   * directory has been populated by a previous run.
+   *
+   * @return {@code true} if the cache directory is populated.
+   */
+  @SuppressWarnings( "SpellCheckingInspection" )
+  private static boolean initialize() {
+    try {
+      final var cacheDir = getCacheDir();
+
+      if( isEmpty( cacheDir ) ) {
+        clue( "Main.status.typeset.cache", cacheDir );
+
+        run( List.of( TYPESETTER_EXE, "--generate" ) );
+        run( List.of( TYPESETTER_EXE, "--script", "context", "--make" ) );
+      }
+
+      return !isEmpty( cacheDir );
+    } catch( final Exception ex ) {
+      clue( ex );
+      return false;
+    }
+  }
+
+  /**
+   * Runs the typesetter without capturing its output.
+   *
+   * @param args The executable and its arguments.
+   * @return The process exit code.
+   */
+  private static int run( final List<String> args )
+    throws IOException, InterruptedException {
+    final var builder = new ProcessBuilder( args );
+    builder.directory( DEFAULT_DIRECTORY.toFile() );
+    builder.environment().put( "TEXMFCACHE", getCacheDir().toString() );
+    builder.redirectError( DISCARD );
+    builder.redirectOutput( DISCARD );
+
+    return builder.start().waitFor();
+  }
+
+  /**
+   * Waits for the typesetter's cache to be created, creating it if no
+   * export action started creating it (e.g., when run from the command-line).
+   *
+   * @return {@code true} if the cache is populated.
+   */
+  private static boolean awaitCache() {
+    try {
+      return createCache().join();
+    } catch( final Exception ex ) {
+      clue( ex );
+      return false;
+    }
+  }
+
+  /**
+   * Returns the location of the cache directory.
+   *
+   * @return A fully qualified path to the location to store temporary
+   * files between typesetting runs.
+   */
+  @SuppressWarnings( "SpellCheckingInspection" )
+  private static Path getCacheDir() {
+    final var temp = getProperty( "java.io.tmpdir" );
+    return Path.of( temp, "luatex-cache" );
+  }
+
+  /**
+   * Answers whether the given directory is empty. The typesetting software
+   * creates a non-empty directory by default. The return value from this
+   * method is a proxy to answering whether the typesetter has been run for
+   * the first time or not.
+   *
+   * @param path The directory to check for emptiness.
+   * @return {@code true} if the directory is empty.
+   */
+  private static boolean isEmpty( final Path path ) {
+    try( final var stream = newDirectoryStream( path ) ) {
+      return !stream.iterator().hasNext();
+    } catch( final NoSuchFileException | FileNotFoundException ex ) {
+      // A missing directory means it doesn't exist, ergo is empty.
+      return true;
+    } catch( final IOException ex ) {
+      throw new RuntimeException( ex );
+    }
   }
 
   /**
@@ -56,51 +199,21 @@ public final class HostTypesetter extends Typesetter
      */
     private final Path mDirectory;
 
+    /**
+     * Prepares the arguments to typeset the document, which requires the
+     * cache directory to have been created, see {@link #awaitCache()}. The
+     * theme entry point must be named 'main.tex'.
+     */
     private TypesetTask() {
       final var parentDir = getTargetPath().getParent();
       mDirectory = parentDir == null ? DEFAULT_DIRECTORY : parentDir;
-    }
-
-    /**
-     * Initializes ConTeXt, which means creating the cache directory if it
-     * doesn't already exist. The theme entry point must be named 'main.tex'.
-     *
-     * @return {@code true} if the cache directory exists.
-     */
-    private boolean reinitialize() {
-      final var cacheExists = !isEmpty( getCacheDir().toPath() );
 
-      // Ensure invoking multiple times will load the correct arguments.
-      mArgs.clear();
       mArgs.add( TYPESETTER_EXE );
+      mArgs.addAll( options() );
 
-      if( cacheExists ) {
-        mArgs.addAll( options() );
-
-        final var sb = new StringBuilder( 128 );
-        mArgs.forEach( arg -> sb.append( arg ).append( " " ) );
-        clue( sb.toString() );
-      }
-      else {
-        mArgs.add( "--generate" );
-      }
-
-      return cacheExists;
-    }
-
-    /**
-     * Setting {@code TEXMFCACHE} when run on a fresh system fails on the first
-     * try. If the cache directory doesn't exist, attempt to create it, then
-     * call ConTeXt to generate the PDF. This is brittle because if the
-     * directory is empty, or not populated with cached data, a false positive
-     * will be returned, resulting in no PDF being created.
-     *
-     * @return {@code true} if the document was typeset successfully.
-     * @throws IOException          If the process could not be started.
-     * @throws InterruptedException If the process was killed.
-     */
-    private boolean typeset() throws IOException, InterruptedException {
-      return reinitialize() ? call() : call() && reinitialize() && call();
+      final var sb = new StringBuilder( 128 );
+      mArgs.forEach( arg -> sb.append( arg ).append( " " ) );
+      clue( sb.toString() );
     }
 
     @Override
@@ -115,14 +228,16 @@ public final class HostTypesetter extends Typesetter
       builder.redirectError( DISCARD );
 
       final var process = builder.start();
-      final var listener = new PaginationListener();
+      final var listener = new TypesetListener();
 
-      // Slurp page numbers in a separate thread while typesetting.
+      // Slurp progress in a separate thread while typesetting.
       StreamGobbler.gobble( process.getInputStream(), line -> {
         listener.accept( line );
         stdout.add( line );
       } );
 
+      listener.finish();
+
       // Even though the process has completed, there may be incomplete I/O.
       process.waitFor();
 
@@ -158,10 +273,8 @@ public final class HostTypesetter extends Typesetter
         }
       }
 
-      // Exit value for a successful invocation of the typesetter. This value
-      // is returned when creating the cache on the first run as well as
-      // creating PDFs on subsequent runs (after the cache has been created).
-      // Users don't care about exit codes, only whether the PDF was generated.
+      // Exit value for a successful invocation of the typesetter. Users
+      // don't care about exit codes, only whether the PDF was generated.
       return exit == 0;
     }
 
@@ -173,57 +286,41 @@ public final class HostTypesetter extends Typesetter
     /**
      * Fires a status message for each line in the given file. The file format
      * is somewhat machine-readable, but no effort beyond line splitting is
-     * made to parse the text.
+     * made to parse the text. The file is read one line at a time because
+     * the logs from large documents can be large.
      *
      * @param path Path to the file containing error messages.
      */
     private void log( final Path path ) throws IOException {
       if( exists( path ) ) {
-        log( readAllLines( path ) );
+        try( final var reader = newBufferedReader( path ) ) {
+          String line;
+
+          while( (line = reader.readLine()) != null ) {
+            log( line );
+          }
+        }
       }
     }
 
     private void log( final List<String> lines ) {
-      final var splits = new ArrayList<String>( lines.size() * 2 );
-
-      for( final var line : lines ) {
-        splits.addAll( asList( line.split( "\\\\n" ) ) );
-      }
-
-      clue( splits );
+      lines.forEach( this::log );
     }
 
     /**
-     * Returns the location of the cache directory.
-     *
-     * @return A fully qualified path to the location to store temporary
-     * files between typesetting runs.
+     * Fires a status message for each line within the given line, which
+     * may contain escaped newline characters (a backslash followed by n).
      */
-    @SuppressWarnings( "SpellCheckingInspection" )
-    private java.io.File getCacheDir() {
-      final var temp = getProperty( "java.io.tmpdir" );
-      final var cache = Path.of( temp, "luatex-cache" );
-      return cache.toFile();
-    }
+    private void log( final String line ) {
+      int began = 0;
+      int ended;
 
-    /**
-     * Answers whether the given directory is empty. The typesetting software
-     * creates a non-empty directory by default. The return value from this
-     * method is a proxy to answering whether the typesetter has been run for
-     * the first time or not.
-     *
-     * @param path The directory to check for emptiness.
-     * @return {@code true} if the directory is empty.
-     */
-    private boolean isEmpty( final Path path ) {
-      try( final var stream = newDirectoryStream( path ) ) {
-        return !stream.iterator().hasNext();
-      } catch( final NoSuchFileException | FileNotFoundException ex ) {
-        // A missing directory means it doesn't exist, ergo is empty.
-        return true;
-      } catch( final IOException ex ) {
-        throw new RuntimeException( ex );
+      while( (ended = line.indexOf( "\\n", began )) >= 0 ) {
+        clue( List.of( line.substring( began, ended ) ) );
+        began = ended + 2;
       }
+
+      clue( List.of( line.substring( began ) ) );
     }
   }
 
@@ -240,7 +337,12 @@ public final class HostTypesetter extends Typesetter
   @Override
   public Boolean call()
     throws IOException, InterruptedException, TypesetterNotFoundException {
+    // Setting TEXMFCACHE on a fresh system fails unless the cache exists.
+    if( !awaitCache() ) {
+      return false;
+    }
+
     final var task = new HostTypesetter.TypesetTask();
-    return task.typeset();
+    return task.call();
   }
 }
@@ -0,0 +1,153 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.typesetting;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+import static com.keenwrite.events.TypesetEvent.*;
+import static com.keenwrite.events.TypesetEvent.Type.MISSING_FONT;
+import static com.keenwrite.events.TypesetEvent.Type.OVERFULL_BOX;
+
+/**
+ * Responsible for parsing the output from the typesetting engine, one line
+ * at a time, and publishing the progress as events. This provides assurance
+ * that typesetting is executing, as well as the problems found while
+ * typesetting, without retaining the output.
+ *
+ * <p>
+ * Example lines written to standard output:
+ * </p>
+ * <pre>{@code
+ * mtx-context     | run 1: luatex --fmt=cont-en ...
+ * pages           > flushing realpage 15, userpage 15, subpage 15
+ * pages           > flushing realpage 16, userpage 16, subpage 16
+ * Overfull \hbox (4.2pt too wide) in paragraph at lines 12--14
+ * fonts           > defining > font with asked name 'pagella' is not found
+ * mtx-context     | run 2: luatex --fmt=cont-en ...
+ * pages           > flushing realpage 1, userpage 1, subpage 1
+ * pages           > flushing realpage 2, userpage 2, subpage 2
+ * }</pre>
+ * <p>
+ * Lines are matched by their prefixes and numbers are parsed in place, so
+ * that no regular expressions run against every line. When the run number
+ * is not written, a new pass is detected by the page number decreasing.
+ * Call {@link #finish()} after the last line to report the final pass.
+ * </p>
+ */
+class TypesetListener implements Consumer<String> {
+  private static final String PREFIX_RUN = "mtx-context";
+  private static final String PREFIX_PAGES = "pages";
+  private static final String PREFIX_FONTS = "fonts";
+  private static final String PREFIX_OVERFULL = "Overfull \\";
+  private static final String TOKEN_RUN = "| run ";
+  private static final String TOKEN_PAGE = "realpage ";
+  private static final String TOKEN_NOT_FOUND = "not found";
+
+  private int mPass;
+  private int mPage;
+  private int mPageTotal;
+  private long mPassBegan;
+
+  public TypesetListener() { }
+
+  @Override
+  public void accept( final String line ) {
+    if( line.startsWith( PREFIX_PAGES ) ) {
+      final var page = parseInt( line, TOKEN_PAGE );
+
+      if( page > 0 ) {
+        // A page number less than the previous page number means that the
+        // typesetting engine has started another pass.
+        if( mPass == 0 || page < mPage ) {
+          beginPass( mPass + 1 );
+        }
+
+        mPage = page;
+        firePage( mPass, mPage, mPageTotal );
+      }
+    }
+    else if( line.startsWith( PREFIX_RUN ) ) {
+      final var pass = parseInt( line, TOKEN_RUN );
+
+      if( pass > 0 ) {
+        beginPass( pass );
+      }
+    }
+    else if( line.startsWith( PREFIX_OVERFULL ) ) {
+      fireWarning( OVERFULL_BOX, mPass, mPage, line.strip() );
+    }
+    else if( line.startsWith( PREFIX_FONTS ) &&
+      line.contains( TOKEN_NOT_FOUND ) ) {
+      fireWarning( MISSING_FONT, mPass, mPage, quoted( line ) );
+    }
+  }
+
+  /**
+   * Reports that the last pass has finished. Call after the typesetting
+   * engine has written its last line.
+   */
+  public void finish() {
+    endPass();
+    mPass = 0;
+  }
+
+  private void beginPass( final int pass ) {
+    endPass();
+
+    mPass = pass;
+    mPassBegan = System.nanoTime();
+    mPage = 0;
+    firePassBegan( mPass );
+  }
+
+  private void endPass() {
+    if( mPass > 0 ) {
+      final var elapsed = Duration.ofNanos( System.nanoTime() - mPassBegan );
+
+      if( mPage > 0 ) {
+        mPageTotal = mPage;
+      }
+
+      firePassEnded( mPass, mPage, elapsed );
+    }
+  }
+
+  /**
+   * Parses the unsigned integer that immediately follows the given token.
+   *
+   * @return The parsed number, or 0 if there is no number after the token.
+   */
+  private static int parseInt( final String line, final String token ) {
+    final var index = line.indexOf( token );
+    int number = 0;
+
+    if( index >= 0 ) {
+      final var length = line.length();
+
+      for( int i = index + token.length(); i < length; i++ ) {
+        final var digit = line.charAt( i ) - '0';
+
+        if( digit < 0 || digit > 9 || number > Integer.MAX_VALUE / 10 ) {
+          break;
+        }
+
+        number = number * 10 + digit;
+      }
+    }
+
+    return number;
+  }
+
+  /**
+   * Returns the first quoted name in the given line, which is the name of
+   * the font that was not found, or the whole line if nothing is quoted.
+   */
+  private static String quoted( final String line ) {
+    final var began = line.indexOf( '\'' );
+    final var ended = began < 0 ? -1 : line.indexOf( '\'', began + 1 );
+
+    return ended > began + 1
+      ? line.substring( began + 1, ended )
+      : line.strip();
+  }
+}
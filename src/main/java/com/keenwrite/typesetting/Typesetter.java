@@ -230,10 +230,27 @@ public class Typesetter {
     return mMutator.isAutoRemove();
   }
 
+  /**
+   * Answers whether a typesetter is available.
+   *
+   * @return {@code true} if documents can be typeset.
+   */
   public static boolean canRun() {
     return hostCanRun() || guestCanRun();
   }
 
+  /**
+   * Creates the host typesetter's cache in the background, if the typesetter
+   * is installed on the host and has never been run. Call this when an
+   * export is requested, so that the cache is created while the user chooses
+   * how to export the document. This does nothing once the cache exists.
+   */
+  public static void prepareCache() {
+    if( hostCanRun() ) {
+      HostTypesetter.createCache();
+    }
+  }
+
   private static boolean hostCanRun() {
     return HostTypesetter.isReady();
   }
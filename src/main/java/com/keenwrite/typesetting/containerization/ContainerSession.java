@@ -0,0 +1,247 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.typesetting.containerization;
+
+import com.keenwrite.io.CommandNotFoundException;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import static com.keenwrite.events.StatusEvent.clue;
+import static com.keenwrite.io.StreamGobbler.gobble;
+
+/**
+ * Responsible for keeping a typesetting container running for the duration
+ * of the application, so that each command runs within the same container
+ * rather than starting a new container. The container is killed when the
+ * application exits.
+ * <p>
+ * If the application does not exit normally (e.g., it crashes or is
+ * killed), the container keeps running. Each container is named after the
+ * process that started it, including the process's start time so that a
+ * reused process ID is not mistaken for the same process. Before launching
+ * its first container, a session removes containers whose process is no
+ * longer running. Containers belonging to other running instances of the
+ * application are left alone.
+ * </p>
+ * <p>
+ * Directories cannot be mounted into a running container. When a command
+ * needs different mount points than those of the running container (e.g.,
+ * after exporting a document from another directory), the container is
+ * replaced. Commands running in the container finish before it is replaced.
+ * </p>
+ */
+public final class ContainerSession {
+  /**
+   * Exit code from the container manager when it could not run the command,
+   * such as when the container was stopped outside of the application.
+   */
+  private static final int MANAGER_FAILED = 125;
+
+  private static final String NAME_PREFIX = "keenwrite-typesetter-";
+
+  /**
+   * Matches container names, capturing the process ID and start time.
+   */
+  private static final Pattern NAME = Pattern.compile(
+    Pattern.quote( NAME_PREFIX ) + "(\\d+)-(\\d+)" );
+
+  private final String mName = toName( ProcessHandle.current() );
+
+  /**
+   * Prevents replacing the container while commands are running in it.
+   */
+  private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+
+  /**
+   * Mount points of the running container, {@code null} if not running.
+   */
+  private List<String> mMountPoints;
+
+  /**
+   * Launched the running container, used to kill it.
+   */
+  private Podman mManager;
+
+  private boolean mHooked;
+
+  ContainerSession() { }
+
+  /**
+   * Returns the session that is shared throughout the application.
+   *
+   * @return The shared session.
+   */
+  public static ContainerSession getDefault() {
+    return Shared.SESSION;
+  }
+
+  /**
+   * Runs a command within the running container, starting the container if
+   * it is not running or if it does not have the given manager's mount
+   * points.
+   *
+   * @param manager   Provides the mount points needed by the command.
+   * @param processor Processes the command output (in a separate thread).
+   * @param args      The command and arguments to run in the container.
+   * @return The exit code from running the command.
+   * @throws CommandNotFoundException Container manager couldn't be found.
+   */
+  public int exec(
+    final Podman manager,
+    final StreamProcessor processor,
+    final String... args ) throws CommandNotFoundException {
+    final var mountPoints = manager.getMountPoints();
+    var exitCode = execLaunched( manager, mountPoints, processor, args );
+
+    if( exitCode == MANAGER_FAILED ) {
+      // The container may have been stopped outside the application.
+      synchronized( this ) {
+        if( mountPoints.equals( mMountPoints ) ) {
+          mMountPoints = null;
+        }
+      }
+
+      exitCode = execLaunched( manager, mountPoints, processor, args );
+    }
+
+    return exitCode;
+  }
+
+  private int execLaunched(
+    final Podman manager,
+    final List<String> mountPoints,
+    final StreamProcessor processor,
+    final String... args ) throws CommandNotFoundException {
+    final var read = mLock.readLock();
+    read.lock();
+
+    if( !isLaunched( mountPoints ) ) {
+      read.unlock();
+
+      final var write = mLock.writeLock();
+      write.lock();
+
+      try {
+        if( !isLaunched( mountPoints ) ) {
+          launch( manager, mountPoints );
+        }
+
+        // Downgrade to prevent replacing the container while it is in use.
+        read.lock();
+      } finally {
+        write.unlock();
+      }
+    }
+
+    try {
+      return manager.exec( processor, mName, args );
+    } finally {
+      read.unlock();
+    }
+  }
+
+  private synchronized boolean isLaunched( final List<String> mountPoints ) {
+    return mountPoints.equals( mMountPoints );
+  }
+
+  private synchronized void launch(
+    final Podman manager, final List<String> mountPoints )
+    throws CommandNotFoundException {
+    kill();
+
+    if( !mHooked ) {
+      final var hook = new Thread( this::kill, "container-session" );
+      Runtime.getRuntime().addShutdownHook( hook );
+      mHooked = true;
+
+      removeOrphans( manager );
+    }
+
+    if( manager.launch( in -> gobble( in, s -> { } ), mName ) == 0 ) {
+      mMountPoints = mountPoints;
+      mManager = manager;
+    }
+  }
+
+  /**
+   * Kills the running container, if any. This does not wait for commands
+   * running in the container, so that the application can exit promptly.
+   */
+  private synchronized void kill() {
+    if( mMountPoints != null ) {
+      mMountPoints = null;
+
+      try {
+        mManager.kill( in -> gobble( in, s -> { } ), mName );
+      } catch( final CommandNotFoundException ex ) {
+        clue( ex );
+      }
+    }
+  }
+
+  /**
+   * Removes containers left behind by sessions whose process is no longer
+   * running, such as after the application crashed.
+   */
+  private void removeOrphans( final Podman manager )
+    throws CommandNotFoundException {
+    for( final var name : manager.list() ) {
+      if( !name.equals( mName ) && isOrphan( name ) ) {
+        manager.remove( in -> gobble( in, s -> { } ), name );
+      }
+    }
+  }
+
+  /**
+   * Answers whether the given container was started by a process that is
+   * no longer running. Containers not named by a session are kept.
+   *
+   * @param name The container name.
+   * @return {@code true} if the container can be removed.
+   */
+  static boolean isOrphan( final String name ) {
+    final var matcher = NAME.matcher( name );
+
+    if( !matcher.matches() ) {
+      return false;
+    }
+
+    try {
+      final var pid = Long.parseLong( matcher.group( 1 ) );
+
+      return ProcessHandle
+        .of( pid )
+        .filter( ProcessHandle::isAlive )
+        .map( process -> !toName( process ).equals( name ) )
+        .orElse( true );
+    } catch( final NumberFormatException ex ) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the container name for the given process.
+   *
+   * @param process The process that owns the container.
+   * @return A name unique to the process, even if its ID is reused.
+   */
+  static String toName( final ProcessHandle process ) {
+    final var began = process
+      .info()
+      .startInstant()
+      .map( Instant::toEpochMilli )
+      .orElse( 0L );
+
+    return NAME_PREFIX + process.pid() + '-' + began;
+  }
+
+  /**
+   * Lazily creates the shared session.
+   */
+  private static final class Shared {
+    private static final ContainerSession SESSION = new ContainerSession();
+  }
+}
@@ -7,11 +7,14 @@ import com.keenwrite.io.SysFile;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
 
 import static com.keenwrite.Bootstrap.CONTAINER_VERSION;
+import static com.keenwrite.io.StreamGobbler.gobble;
 import static java.lang.String.format;
 import static java.lang.System.arraycopy;
 import static java.util.Arrays.copyOf;
@@ -19,12 +22,18 @@ import static java.util.Arrays.copyOf;
 /**
  * Provides facilities for interacting with a container environment.
  */
-public final class Podman implements ContainerManager {
+public class Podman implements ContainerManager {
   public static final SysFile MANAGER = new SysFile( "podman" );
   public static final String CONTAINER_SHORTNAME = "typesetter";
   public static final String CONTAINER_NAME =
     format( "%s:%s", CONTAINER_SHORTNAME, CONTAINER_VERSION );
 
+  /**
+   * Marks containers started by {@link #launch(StreamProcessor, String)},
+   * so that containers left behind by a crashed session can be found.
+   */
+  static final String CONTAINER_LABEL = "com.keenwrite.typesetter";
+
   private final List<String> mMountPoints = new LinkedList<>();
 
   public Podman() { }
@@ -96,6 +105,151 @@ public final class Podman implements ContainerManager {
     return podman( processor, command );
   }
 
+  /**
+   * Starts a container in the background that keeps running until it is
+   * killed, having this instance's mount points. Runs:
+   * <p>
+   * <code>podman run --detach --rm --replace --name NAME --label LABEL
+   * IMAGE</code>
+   * </p>
+   * <p>
+   * Any container having the same name is replaced. The label lets
+   * {@link #list()} find the container if this session ends without
+   * killing it.
+   * </p>
+   *
+   * @param processor Processes the command output (in a separate thread).
+   * @param name      The name for the container, used to run commands.
+   * @return The exit code from running the container manager.
+   * @throws CommandNotFoundException Container manager couldn't be found.
+   * @see #exec(StreamProcessor, String, String...)
+   * @see #kill(StreamProcessor, String)
+   */
+  public int launch( final StreamProcessor processor, final String name )
+    throws CommandNotFoundException {
+    final var options = new LinkedList<String>();
+    options.add( "run" );
+    options.add( "--detach" );
+    options.add( "--rm" );
+    options.add( "--replace" );
+    options.add( "--name" );
+    options.add( name );
+    options.add( "--label" );
+    options.add( CONTAINER_LABEL );
+    options.add( "--network=host" );
+    options.addAll( mMountPoints );
+    options.add( CONTAINER_NAME );
+    options.add( "tail" );
+    options.add( "-f" );
+    options.add( "/dev/null" );
+
+    return podman( processor, toArray( options ) );
+  }
+
+  /**
+   * Runs:
+   * <p>
+   * <code>podman exec -t NAME /bin/sh -lc</code>
+   * </p>
+   * followed by the given arguments, within a container started by
+   * {@link #launch(StreamProcessor, String)}.
+   *
+   * @param processor Processes the command output (in a separate thread).
+   * @param name      The name of the running container.
+   * @param args      The command and arguments to run in the container.
+   * @return The exit code from running the command, or 125 if the container
+   * manager failed (e.g., the container is not running).
+   * @throws CommandNotFoundException Container manager couldn't be found.
+   */
+  public int exec(
+    final StreamProcessor processor,
+    final String name,
+    final String... args ) throws CommandNotFoundException {
+    // A terminal keeps the command from buffering its output, as with run.
+    final var options = new String[]{"exec", "-t", name, "/bin/sh", "-lc"};
+
+    return podman( processor, toArray( options, args ) );
+  }
+
+  /**
+   * Stops a container started by {@link #launch(StreamProcessor, String)},
+   * which removes the container.
+   *
+   * @param processor Processes the command output (in a separate thread).
+   * @param name      The name of the running container.
+   * @throws CommandNotFoundException Container manager couldn't be found.
+   */
+  public void kill( final StreamProcessor processor, final String name )
+    throws CommandNotFoundException {
+    podman( processor, "kill", name );
+  }
+
+  /**
+   * Returns the names of every container started by
+   * {@link #launch(StreamProcessor, String)}, running or not, including
+   * containers started by other sessions. Runs:
+   * <p>
+   * <code>podman ps --all --filter label=LABEL --format {{.Names}}</code>
+   * </p>
+   *
+   * @return The container names, which may be empty.
+   * @throws CommandNotFoundException Container manager couldn't be found.
+   */
+  public List<String> list() throws CommandNotFoundException {
+    final var names = Collections.synchronizedList( new ArrayList<String>() );
+
+    podman(
+      in -> gobble( in, names::add ),
+      "ps", "--all",
+      "--filter", "label=" + CONTAINER_LABEL,
+      "--format", "{{.Names}}"
+    );
+
+    return names
+      .stream()
+      .map( String::strip )
+      .filter( name -> !name.isEmpty() )
+      .toList();
+  }
+
+  /**
+   * Stops and removes a container, whether it is running or not. Runs:
+   * <p>
+   * <code>podman rm --force NAME</code>
+   * </p>
+   *
+   * @param processor Processes the command output (in a separate thread).
+   * @param name      The name of the container to remove.
+   * @throws CommandNotFoundException Container manager couldn't be found.
+   */
+  public void remove( final StreamProcessor processor, final String name )
+    throws CommandNotFoundException {
+    podman( processor, "rm", "--force", name );
+  }
+
+  /**
+   * Answers whether the typesetting image has been pulled, without starting
+   * a container.
+   *
+   * @param processor Processes the command output (in a separate thread).
+   * @return {@code true} if the image is available to run.
+   * @throws CommandNotFoundException Container manager couldn't be found.
+   */
+  public static boolean exists( final StreamProcessor processor )
+    throws CommandNotFoundException {
+    return podman( processor, "image", "exists", CONTAINER_NAME ) == 0;
+  }
+
+  /**
+   * Returns the command-line arguments for this instance's mount points,
+   * which identify the directories that a container can access.
+   *
+   * @return The mount points added using {@link #mount(Path, String, boolean)}.
+   */
+  List<String> getMountPoints() {
+    return List.copyOf( mMountPoints );
+  }
+
   /**
    * Generates a command-line argument representing a mount point between
    * the host and guest systems.
@@ -293,6 +293,8 @@ public final class GuiCommands {
     mCanTypeset = mCanTypeset || Typesetter.canRun();
 
     if( mCanTypeset ) {
+      Typesetter.prepareCache();
+
       // If the typesetter is installed, allow the user to select a theme. If
       // the themes aren't installed, a status message will appear.
       if( ExportDialog.choose( getWindow(), themes, settings, dir ) ) {
@@ -2,6 +2,7 @@
 package com.keenwrite.ui.controls;
 
 import com.keenwrite.events.StatusEvent;
+import com.keenwrite.events.TypesetEvent;
 import org.controlsfx.control.StatusBar;
 import org.greenrobot.eventbus.Subscribe;
 
@@ -27,8 +28,20 @@ public class EventedStatusBar extends StatusBar {
    */
   @Subscribe
   public void handle( final StatusEvent event ) {
-    final var m = event.toString();
+    show( event.toString() );
+  }
+
+  /**
+   * Called when the typesetting engine reports progress or a problem.
+   *
+   * @param event The event containing the typesetting progress.
+   */
+  @Subscribe
+  public void handle( final TypesetEvent event ) {
+    show( event.toString() );
+  }
 
+  private void show( final String m ) {
     // Don't burden the repaint thread if there's no status bar change.
     if( !getText().equals( m ) ) {
       final var i = m.indexOf( '\n' );
@@ -0,0 +1,88 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link BoundedCache} evicts by weight and counts accesses.
+ */
+public class BoundedCacheTest {
+  @Test
+  public void test_Put_OverCapacity_LeastRecentlyUsedEvicted() {
+    final var cache = new BoundedCache<String, String>(
+      10, ( k, v ) -> v.length() );
+
+    cache.put( "a", "aaaa" );
+    cache.put( "b", "bbbb" );
+    assertEquals( "aaaa", cache.get( "a" ) );
+
+    // Evicts "b" because "a" was used more recently.
+    cache.put( "c", "cccc" );
+
+    assertNull( cache.get( "b" ) );
+    assertEquals( "aaaa", cache.get( "a" ) );
+    assertEquals( "cccc", cache.get( "c" ) );
+    assertEquals( 8, cache.getWeight() );
+    assertEquals( 3, cache.getHitCount() );
+    assertEquals( 1, cache.getMissCount() );
+    assertEquals( 1, cache.getEvictionCount() );
+
+    // Heavier than the capacity, so never cached.
+    cache.put( "d", "ddddddddddd" );
+    assertNull( cache.get( "d" ) );
+    assertEquals( 1, cache.getRejectionCount() );
+    assertEquals( 2, cache.size() );
+  }
+
+  @Test
+  public void test_ComputeIfAbsent_Admission_FrequentEntriesRetained() {
+    final var cache = new BoundedCache<Integer, String>(
+      2, ( k, v ) -> 1, true );
+
+    for( var i = 0; i < 5; i++ ) {
+      cache.computeIfAbsent( 1, String::valueOf );
+      cache.computeIfAbsent( 2, String::valueOf );
+    }
+
+    // Seen once, so less frequent than either entry that it would evict.
+    assertEquals( "3", cache.computeIfAbsent( 3, String::valueOf ) );
+    assertNull( cache.get( 3 ) );
+    assertEquals( "1", cache.get( 1 ) );
+    assertEquals( "2", cache.get( 2 ) );
+  }
+
+  @Test
+  public void test_ComputeIfAbsent_Concurrent_WeightBounded()
+    throws Exception {
+    final var cache = new BoundedCache<Integer, Integer>( 100 );
+    final var executor = Executors.newFixedThreadPool( 8 );
+    final var tasks = new ArrayList<Future<?>>();
+
+    for( var t = 0; t < 8; t++ ) {
+      tasks.add( executor.submit( () -> {
+        for( var i = 0; i < 10_000; i++ ) {
+          final var key = i % 250;
+          assertEquals( key, cache.computeIfAbsent( key, k -> k ) );
+        }
+      } ) );
+    }
+
+    executor.shutdown();
+    assertTrue( executor.awaitTermination( 1, TimeUnit.MINUTES ) );
+
+    // Rethrows assertion failures from the tasks.
+    for( final var task : tasks ) {
+      task.get();
+    }
+
+    assertEquals( 100, cache.size() );
+    assertEquals( 100, cache.getWeight() );
+  }
+}
@@ -0,0 +1,126 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.collections;
+
+import com.keenwrite.sigils.SigilKeyOperator;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that {@link Interpolator} resolves nested references and resolves
+ * them again after the definitions change.
+ */
+public class InterpolatorTest {
+  private static final SigilKeyOperator OPERATOR =
+    new SigilKeyOperator( "{{", "}}" );
+
+  @Test
+  public void test_Interpolate_NestedReferences_AllResolved() {
+    final var definitions = Map.of(
+      "name", "{{first}} {{last}}",
+      "first", "Charles",
+      "last", "Dodgson",
+      "title", "{{name}}, {{missing}}"
+    );
+
+    final var map = new Interpolator().interpolate( OPERATOR, definitions );
+
+    assertEquals( "Charles Dodgson", map.get( "name" ) );
+    assertEquals( "Charles Dodgson, {{missing}}", map.get( "title" ) );
+  }
+
+  @Test
+  public void test_Interpolate_DefinitionChanged_DependentsResolved() {
+    final var interpolator = new Interpolator();
+    final var definitions = new HashMap<>( Map.of(
+      "a", "{{b}}-{{c}}",
+      "b", "{{d}}",
+      "c", "c",
+      "e", "e"
+    ) );
+
+    assertEquals( "{{d}}-c", interpolator.interpolate( OPERATOR, definitions )
+      .get( "a" ) );
+
+    definitions.put( "d", "d" );
+    definitions.put( "c", "{{e}}" );
+    var map = interpolator.interpolate( OPERATOR, definitions );
+    assertEquals( "d-e", map.get( "a" ) );
+
+    definitions.put( "e", "f" );
+    definitions.remove( "d" );
+    map = interpolator.interpolate( OPERATOR, definitions );
+    assertEquals( "{{d}}-f", map.get( "a" ) );
+    assertEquals( 4, map.size() );
+
+    map = interpolator.interpolate(
+      new SigilKeyOperator( "$", "$" ), Map.of( "a", "$b$", "b", "b" ) );
+    assertEquals( Map.of( "a", "b", "b", "b" ), map );
+  }
+
+  @Test
+  public void test_Interpolate_Cycle_Terminates() {
+    final var definitions = Map.of(
+      "a", "{{b}}",
+      "b", "{{a}}",
+      "c", "{{c}}"
+    );
+
+    final var map = new Interpolator().interpolate( OPERATOR, definitions );
+
+    assertEquals( "{{c}}", map.get( "c" ) );
+    assertEquals( 3, map.size() );
+  }
+
+  @Test
+  public void test_Interpolate_CycleEitherOrder_Unexpanded() {
+    // Swapping the names swaps which key of the cycle is resolved first.
+    assertCycleUnexpanded( "a", "b" );
+    assertCycleUnexpanded( "b", "a" );
+  }
+
+  @Test
+  public void test_Interpolate_CycleClosedLater_Unexpanded() {
+    final var interpolator = new Interpolator();
+    final var definitions = new HashMap<>( Map.of(
+      "a", "{{b}} {{name}}",
+      "b", "{{name}}",
+      "name", "Alice"
+    ) );
+
+    assertEquals( "Alice Alice", interpolator.interpolate(
+      OPERATOR, definitions ).get( "a" ) );
+
+    definitions.put( "b", "{{a}}" );
+    var map = interpolator.interpolate( OPERATOR, definitions );
+    assertEquals( "{{b}} Alice", map.get( "a" ) );
+    assertEquals( "{{a}}", map.get( "b" ) );
+
+    definitions.put( "b", "Bob" );
+    map = interpolator.interpolate( OPERATOR, definitions );
+    assertEquals( "Bob Alice", map.get( "a" ) );
+  }
+
+  /**
+   * Asserts that neither key of a cycle is expanded, while references to
+   * keys outside the cycle are.
+   */
+  private static void assertCycleUnexpanded(
+    final String first, final String second ) {
+    final var definitions = Map.of(
+      first, "{{%s}} {{name}}".formatted( second ),
+      second, "{{%s}}!".formatted( first ),
+      "name", "Alice",
+      "title", "{{%s}}".formatted( first )
+    );
+
+    final var map = new Interpolator().interpolate( OPERATOR, definitions );
+
+    assertEquals( "{{%s}} Alice".formatted( second ), map.get( first ) );
+    assertEquals( "{{%s}}!".formatted( first ), map.get( second ) );
+    assertEquals( "{{%s}}".formatted( first ), map.get( "title" ) );
+  }
+}
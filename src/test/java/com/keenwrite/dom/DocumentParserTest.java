@@ -0,0 +1,37 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.dom;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that {@link DocumentParser} can be used from many threads at once.
+ */
+class DocumentParserTest {
+  @Test
+  void test_ParseVisitSerialize_Concurrent_ResultsIntact() {
+    final var mismatches = IntStream
+      .range( 0, 2_000 )
+      .parallel()
+      .filter( i -> {
+        final var xml = "<html><body><p id='" + i + "'>" + i +
+          "</p><img src='" + i + ".png'/></body></html>";
+        final var doc = DocumentParser.parse( xml );
+        final var src = new StringBuilder();
+
+        DocumentParser.visit(
+          doc, "//img/@src", node -> src.append( node.getTextContent() ) );
+
+        final var text = DocumentParser.toString( doc );
+
+        return !(i + ".png").contentEquals( src ) ||
+          !text.contains( "<p id=\"" + i + "\">" + i + "</p>" );
+      } )
+      .count();
+
+    assertEquals( 0, mismatches );
+  }
+}
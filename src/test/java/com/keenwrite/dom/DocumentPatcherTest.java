@@ -0,0 +1,65 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.dom;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Element;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.keenwrite.dom.DocumentParser.parse;
+import static com.keenwrite.dom.DocumentPatcher.Result.*;
+import static com.keenwrite.dom.DocumentPatcher.patch;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link DocumentPatcher} replaces only the changed blocks.
+ */
+public class DocumentPatcherTest {
+  private static final String HEAD = "<html><head><title>t</title></head>";
+
+  @Test
+  public void test_Patch_ChangedBlock_OnlyBlockReplaced() {
+    final var target = parse(
+      HEAD + "<body><div><h1>A</h1><p>B</p><p>C</p></div></body></html>" );
+    final var source = parse(
+      HEAD + "<body><div><h1>A</h1><p>X</p><p>C</p></div></body></html>" );
+    final var heading = target.getElementsByTagName( "h1" ).item( 0 );
+    final var paragraph = target.getElementsByTagName( "p" ).item( 0 );
+
+    assertEquals( PATCHED, patch( target, source, e -> fail() ) );
+    assertTrue( target.isEqualNode( source ) );
+    assertSame( heading, target.getElementsByTagName( "h1" ).item( 0 ) );
+    assertSame( paragraph, target.getElementsByTagName( "p" ).item( 0 ) );
+    assertEquals( "X", paragraph.getTextContent() );
+  }
+
+  @Test
+  public void test_Patch_InsertedBlock_FollowingSiblingInvalidated() {
+    final var target = parse(
+      HEAD + "<body><h1>A</h1><p>C</p><p>D</p></body></html>" );
+    final var source = parse(
+      HEAD + "<body><h1>A</h1><p>B</p><p>C</p><p>D</p></body></html>" );
+    final var invalidated = new ArrayList<String>();
+
+    final var result = patch(
+      target, source, e -> invalidated.add( e.getTextContent() ) );
+
+    assertEquals( PATCHED, result );
+    assertTrue( target.isEqualNode( source ) );
+    assertEquals( List.of( "C" ), invalidated );
+  }
+
+  @Test
+  public void test_Patch_SameOrDifferentHead_NotPatched() {
+    final var body = "<body><p>A</p></body></html>";
+    final var target = parse( HEAD + body );
+    final Element[] none = new Element[ 1 ];
+
+    assertEquals( UNCHANGED, patch(
+      target, parse( HEAD + body ), e -> none[ 0 ] = e ) );
+    assertEquals( INCOMPATIBLE, patch(
+      target, parse( "<html><head></head>" + body ), e -> none[ 0 ] = e ) );
+    assertNull( none[ 0 ] );
+  }
+}
@@ -0,0 +1,74 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link FileIndex} reflects files created after a directory
+ * was indexed.
+ */
+class FileIndexTest {
+  @Test
+  @Timeout( value = 10, unit = SECONDS )
+  void test_IsReadable_FileCreated_Found( @TempDir final Path dir )
+    throws IOException, InterruptedException {
+    final var service = new FileWatchService();
+    final var thread = new Thread( service );
+    final var index = new FileIndex( service );
+    final var image = dir.resolve( "images" ).resolve( "logo.png" );
+    final var resolutions = new AtomicInteger();
+
+    thread.setDaemon( true );
+    thread.start();
+
+    assertFalse( index.isReadable( image ) );
+    assertFalse( index.isReadable( dir.resolve( "missing.png" ) ) );
+    assertEquals( "a", index.resolve( "key", () -> {
+      resolutions.incrementAndGet();
+      return "a";
+    } ) );
+    assertEquals( "a", index.resolve( "key", () -> "b" ) );
+    assertEquals( 1, resolutions.get() );
+
+    Files.createDirectories( image.getParent() );
+    Files.writeString( image, "png" );
+
+    while( !index.isReadable( image ) ) {
+      Thread.sleep( 50 );
+    }
+
+    assertEquals( "b", index.resolve( "key", () -> "b" ) );
+    service.stop();
+  }
+
+  @Test
+  void test_Resolve_DirectoryUnwatched_NotCached( @TempDir final Path dir )
+    throws IOException {
+    final var service = new FileWatchService() {
+      @Override
+      public void watch( final Path directory ) throws IOException {
+        throw new IOException( "User limit of inotify watches reached" );
+      }
+    };
+    final var index = new FileIndex( service );
+    final var image = dir.resolve( "logo.png" );
+
+    assertFalse( index.resolve( "key", () -> index.isReadable( image ) ) );
+
+    Files.writeString( image, "png" );
+
+    // No event will arrive, so the earlier result must not have been kept.
+    assertTrue( index.resolve( "key", () -> index.isReadable( image ) ) );
+    service.stop();
+  }
+}
@@ -0,0 +1,144 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link DiagramCache} requests diagrams from a local stand-in
+ * server only when they are not cached or are stale.
+ */
+public class DiagramCacheTest {
+  private static final String SVG = "<svg xmlns='http://www.w3.org/2000/svg'/>";
+  private static final String ETAG = "\"v1\"";
+
+  @Test
+  public void test_Fetch_Cached_ServerRequestedOnce( @TempDir final Path dir )
+    throws Exception {
+    final var requests = new AtomicInteger();
+    final var revalidations = new AtomicInteger();
+    final var server = HttpServer.create( new InetSocketAddress( 0 ), 0 );
+
+    server.createContext( "/", exchange -> {
+      requests.incrementAndGet();
+
+      if( ETAG.equals(
+        exchange.getRequestHeaders().getFirst( "If-None-Match" ) ) ) {
+        revalidations.incrementAndGet();
+        exchange.sendResponseHeaders( 304, -1 );
+      }
+      else {
+        final var body = SVG.getBytes( UTF_8 );
+        exchange.getResponseHeaders().add( "ETag", ETAG );
+        exchange.sendResponseHeaders( 200, body.length );
+        exchange.getResponseBody().write( body );
+      }
+
+      exchange.close();
+    } );
+    server.start();
+
+    try {
+      final var host = "http://localhost:" + server.getAddress().getPort();
+      final var url = DiagramUrlGenerator.toUrl( host, "graphviz", "a->b" );
+      final var other = DiagramUrlGenerator.toUrl( host, "graphviz", "b->c" );
+      final var cache = new DiagramCache( () -> dir, () -> host );
+
+      assertTrue( cache.isDiagram( url ) );
+      assertFalse( cache.isDiagram( host + "/image.png" ) );
+
+      cache.fetchAll( List.of( url, other, host + "/image.png" ) ).join();
+      assertEquals( 2, requests.get() );
+
+      final var file = cache.fetch( url );
+      assertEquals( SVG, Files.readString( file, UTF_8 ) );
+      assertEquals( 2, requests.get() );
+
+      // A new instance reuses the files; a stale file is revalidated.
+      Files.setLastModifiedTime(
+        file, FileTime.from( Instant.now().minus( 60, DAYS ) ) );
+
+      final var restored = new DiagramCache( () -> dir, () -> host )
+        .fetch( url );
+      assertEquals( file, restored );
+      assertEquals( 3, requests.get() );
+      assertEquals( 1, revalidations.get() );
+      assertEquals( SVG, Files.readString( restored, UTF_8 ) );
+    } finally {
+      server.stop( 0 );
+    }
+  }
+
+  /**
+   * Tests that images from other servers are not treated as diagrams and
+   * that diagrams having the same path on different servers are kept apart.
+   */
+  @Test
+  public void test_Fetch_SamePathOnTwoHosts_CachedSeparately(
+    @TempDir final Path dir ) throws Exception {
+    final var a = start( "<svg id='a'/>" );
+    final var b = start( "<svg id='b'/>" );
+
+    try {
+      final var hostA = "http://localhost:" + a.getAddress().getPort();
+      final var hostB = "http://localhost:" + b.getAddress().getPort();
+      final var server = new AtomicReference<>( hostA );
+      final var cache = new DiagramCache( () -> dir, server::get );
+      final var urlA = DiagramUrlGenerator.toUrl( hostA, "graphviz", "a->b" );
+      final var urlB = DiagramUrlGenerator.toUrl( hostB, "graphviz", "a->b" );
+
+      // Paths resembling diagrams on other servers are ordinary images.
+      assertFalse( cache.isDiagram( urlB ) );
+      assertFalse( cache.isDiagram( "https://example.com/icons/svg/logo" ) );
+      assertFalse( cache.isDiagram( hostA + "x/graphviz/svg/abc" ) );
+      assertFalse( cache.isDiagram( hostA + "/x/graphviz/svg/abc" ) );
+      assertThrows(
+        IllegalArgumentException.class,
+        () -> cache.fetch( "https://example.com/icons/svg/logo" ) );
+
+      final var fileA = cache.fetch( urlA );
+      server.set( hostB );
+      final var fileB = cache.fetch( urlB );
+
+      assertNotEquals( fileA, fileB );
+      assertEquals( "<svg id='a'/>", Files.readString( fileA, UTF_8 ) );
+      assertEquals( "<svg id='b'/>", Files.readString( fileB, UTF_8 ) );
+
+      try( final var files = Files.list( dir.resolve( "diagrams" ) ) ) {
+        assertEquals( 2, files.count() );
+      }
+    } finally {
+      a.stop( 0 );
+      b.stop( 0 );
+    }
+  }
+
+  private static HttpServer start( final String svg ) throws IOException {
+    final var server = HttpServer.create( new InetSocketAddress( 0 ), 0 );
+
+    server.createContext( "/", exchange -> {
+      final var body = svg.getBytes( UTF_8 );
+      exchange.sendResponseHeaders( 200, body.length );
+      exchange.getResponseBody().write( body );
+      exchange.close();
+    } );
+    server.start();
+
+    return server;
+  }
+}
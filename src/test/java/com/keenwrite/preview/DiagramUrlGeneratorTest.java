@@ -1,10 +1,19 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.preview;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.zip.Inflater;
 
 import static com.keenwrite.constants.Constants.DIAGRAM_SERVER_NAME;
 import static com.keenwrite.preview.DiagramUrlGenerator.toUrl;
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Base64.getUrlDecoder;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Responsible for testing that images sent to the diagram server will render.
@@ -25,8 +34,7 @@ class DiagramUrlGeneratorTest {
         Kroki [color = "greenyellow"];
         "Block diagrams" [color = "pink"];
         "very easy!" [color = "orange"];
-      }
-      """,
+      }""",
     "https://kroki.io/blockdiag/svg/eJxdzDEKQjEQhOHeU4zpPYFoYesRxGJ9bwghMSsbUYJ4d10UCZbDfPynolOek0Q8FsDeNCestoisNLmy-Qg7R3Blcm5hPcr0ITdaB6X15fv-_YdJixo2CNHI2lmK3sPRA__RwV5SzV80ZAegJjXSyfMFptc71w=="
   };
   // @formatter:on
@@ -37,7 +45,7 @@ class DiagramUrlGeneratorTest {
   @Test
   public void test_Generation_TextDiagram_UrlEncoded() {
     // Use a map of pairs if this test needs more complexity.
-    for( int i = 0; i < DIAGRAMS.length / 3; i += 3 ) {
+    for( int i = 0; i < DIAGRAMS.length; i += 3 ) {
       final var name = DIAGRAMS[ i ];
       final var text = DIAGRAMS[ i + 1 ];
       final var expected = DIAGRAMS[ i + 2 ];
@@ -46,4 +54,55 @@ class DiagramUrlGeneratorTest {
       assertEquals( expected, actual );
     }
   }
+
+  /**
+   * Test that diagrams of any size are encoded without losing content.
+   */
+  @ParameterizedTest
+  @ValueSource( ints = {1024, 64 * 1024, 1024 * 1024} )
+  public void test_ToUrl_LargeDiagram_NotTruncated( final int size )
+    throws Exception {
+    final var text = diagram( size );
+    final var url = toUrl( "kroki.io", "graphviz", text );
+    final var prefix = "https://kroki.io/graphviz/svg/";
+
+    assertTrue( url.startsWith( prefix ) );
+    assertTrue( new DiagramCache( () -> null, () -> "kroki.io" )
+                  .isDiagram( url ) );
+    assertEquals( text, inflate( url.substring( prefix.length() ) ) );
+  }
+
+  /**
+   * Creates a diagram that compresses poorly, so that large diagrams
+   * compress to more than 32 KB.
+   */
+  private static String diagram( final int size ) {
+    final var random = new Random( size );
+    final var sb = new StringBuilder( size + 32 ).append( "digraph {\n" );
+
+    while( sb.length() < size ) {
+      sb.append( 'n' ).append( random.nextInt( 1_000_000 ) )
+        .append( " -> n" ).append( random.nextInt( 1_000_000 ) )
+        .append( ";\n" );
+    }
+
+    return sb.append( '}' ).toString();
+  }
+
+  private static String inflate( final String encoded ) throws Exception {
+    final var inflater = new Inflater();
+    final var output = new ByteArrayOutputStream();
+    final var buffer = new byte[ 8192 ];
+
+    inflater.setInput( getUrlDecoder().decode( encoded ) );
+
+    while( !inflater.finished() ) {
+      final var count = inflater.inflate( buffer );
+      assertFalse( count == 0 && inflater.needsInput() );
+      output.write( buffer, 0, count );
+    }
+
+    inflater.end();
+    return output.toString( UTF_8 );
+  }
 }
@@ -0,0 +1,157 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import javafx.beans.property.SimpleDoubleProperty;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static com.keenwrite.preview.SvgRasterizer.BROKEN_IMAGE_PLACEHOLDER;
+import static com.keenwrite.preview.SvgRasterizer.rasterize;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link MathRenderer} typesets each formula once per size, no
+ * matter how many threads request it.
+ */
+class MathRendererTest {
+  private final SimpleDoubleProperty mSize = new SimpleDoubleProperty( 2 );
+
+  @AfterEach
+  void tearDown() {
+    MathRenderer.bindSize( new SimpleDoubleProperty( 2 ) );
+  }
+
+  @Test
+  void test_ToString_SameFormula_TypesetOnce() {
+    MathRenderer.bindSize( mSize );
+
+    final var count = MathRenderer.getTypesetCount();
+    final var svg = MathRenderer.toString( "x^2 + y^2 = z^2" );
+
+    assertTrue( svg.contains( "<svg" ) );
+    assertSame( svg, MathRenderer.toString( "x^2 + y^2 = z^2" ) );
+    assertEquals( count + 1, MathRenderer.getTypesetCount() );
+  }
+
+  @Test
+  void test_ToString_DifferentSize_TypesetAgain() {
+    MathRenderer.bindSize( mSize );
+
+    final var count = MathRenderer.getTypesetCount();
+    final var small = MathRenderer.toString( "\\sqrt{a + b}" );
+
+    mSize.set( 4 );
+
+    final var large = MathRenderer.toString( "\\sqrt{a + b}" );
+
+    assertNotEquals( small, large );
+    assertEquals( count + 2, MathRenderer.getTypesetCount() );
+
+    // Both sizes remain cached.
+    mSize.set( 2 );
+    assertSame( small, MathRenderer.toString( "\\sqrt{a + b}" ) );
+    assertEquals( count + 2, MathRenderer.getTypesetCount() );
+  }
+
+  @Test
+  void test_TypesetAll_ConcurrentRequests_TypesetOnce() throws Exception {
+    MathRenderer.bindSize( mSize );
+
+    final var equations = new ArrayList<String>();
+
+    for( int i = 0; i < 24; i++ ) {
+      equations.add( "\\frac{%d}{n_{%d}}".formatted( i, i ) );
+    }
+
+    // Duplicates in a document are typeset once.
+    equations.addAll( equations.subList( 0, 8 ) );
+
+    final var count = MathRenderer.getTypesetCount();
+    final var batch = MathRenderer.typesetAll( equations );
+
+    // Image loaders request the same formulas while the batch runs.
+    final var loaders = Executors.newFixedThreadPool( 4 );
+    final var tasks = new ArrayList<Callable<String>>();
+
+    for( final var equation : equations ) {
+      tasks.add( () -> MathRenderer.toString( equation ) );
+    }
+
+    try {
+      for( final var future : loaders.invokeAll( tasks ) ) {
+        assertTrue( future.get( 60, SECONDS ).contains( "<svg" ) );
+      }
+    } finally {
+      loaders.shutdown();
+    }
+
+    batch.get( 60, SECONDS );
+
+    assertTrue( batch.isDone() );
+    assertEquals( count + 24, MathRenderer.getTypesetCount() );
+  }
+
+  /**
+   * The preview rasterizes copies of a formula's parsed document, so copies
+   * must rasterize the same as the SVG markup, from any number of threads.
+   */
+  @Test
+  void test_ToDocument_RasterizedConcurrently_MatchesMarkup()
+    throws Exception {
+    MathRenderer.bindSize( mSize );
+
+    final var equations = List.of(
+      "\\frac{a}{b}", "\\sqrt{x^2 + 1}", "\\sum_{i=0}^{n} i^2", "e^{i\\pi}"
+    );
+    final var expected = new ArrayList<BufferedImage>();
+
+    for( final var equation : equations ) {
+      final var image = rasterize( MathRenderer.toString( equation ) );
+
+      assertNotSame( BROKEN_IMAGE_PLACEHOLDER, image, equation );
+      assertNotSame(
+        MathRenderer.toDocument( equation ),
+        MathRenderer.toDocument( equation )
+      );
+      expected.add( image );
+    }
+
+    final var rasterizers = Executors.newFixedThreadPool( 4 );
+    final var tasks = new ArrayList<Callable<BufferedImage>>();
+
+    for( int i = 0; i < 8; i++ ) {
+      for( final var equation : equations ) {
+        tasks.add( () -> rasterize( MathRenderer.toDocument( equation ) ) );
+      }
+    }
+
+    try {
+      final var futures = rasterizers.invokeAll( tasks );
+
+      for( int i = 0; i < futures.size(); i++ ) {
+        final var e = expected.get( i % equations.size() );
+        final var a = futures.get( i ).get( 60, SECONDS );
+
+        assertEquals( e.getWidth(), a.getWidth() );
+        assertEquals( e.getHeight(), a.getHeight() );
+        assertArrayEquals( pixels( e ), pixels( a ) );
+      }
+    } finally {
+      rasterizers.shutdown();
+    }
+  }
+
+  private static int[] pixels( final BufferedImage image ) {
+    final var w = image.getWidth();
+    final var h = image.getHeight();
+
+    return image.getRGB( 0, 0, w, h, null, 0, w );
+  }
+}
@@ -0,0 +1,75 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import com.keenwrite.dom.DocumentParser;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Element;
+import org.xhtmlrenderer.render.BlockBox;
+import org.xhtmlrenderer.render.Box;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that a {@link PlaceholderReplacedElement} shared by several elements
+ * tracks every box that contains it.
+ */
+class PlaceholderReplacedElementTest {
+  @Test
+  void test_IsWithin_RepeatedImage_AnyBoxNearLoads() {
+    final var doc = DocumentParser.parse( "<body><img/><img/></body>" );
+    final var images = doc.getElementsByTagName( "img" );
+    final var root = new BlockBox();
+    final var visible = box( root, 100 );
+    final var hidden = box( root, 5000 );
+
+    visible.setElement( (Element) images.item( 0 ) );
+    hidden.setElement( (Element) images.item( 1 ) );
+
+    final var placeholder = new PlaceholderReplacedElement(
+      new CompletableFuture<>(), () -> {}, 10, 10 );
+
+    // Never laid out, so the image is loaded to be safe.
+    assertTrue( placeholder.isWithin( root, 0, 500 ) );
+
+    // The last box added is off-screen, but the first box is visible.
+    placeholder.addBox( visible );
+    placeholder.addBox( hidden );
+    assertTrue( placeholder.isWithin( root, 0, 500 ) );
+    assertFalse( placeholder.isWithin( root, 1000, 2000 ) );
+    assertEquals( 2, placeholder.getBoxes( root ).size() );
+
+    // Removing one element keeps the placeholder for the other element.
+    assertFalse( placeholder.removeBoxes( visible.getElement() ) );
+    assertFalse( placeholder.isWithin( root, 0, 500 ) );
+    assertTrue( placeholder.removeBoxes( hidden.getElement() ) );
+  }
+
+  @Test
+  void test_GetBoxes_PreviousLayout_Forgotten() {
+    final var previous = new BlockBox();
+    final var current = new BlockBox();
+    final var placeholder = new PlaceholderReplacedElement(
+      new CompletableFuture<>(), () -> {}, 10, 10 );
+
+    placeholder.addBox( box( previous, 100 ) );
+    placeholder.addBox( box( current, 200 ) );
+
+    final var boxes = placeholder.getBoxes( current );
+
+    assertEquals( 1, boxes.size() );
+    assertEquals( 200, boxes.get( 0 ).getAbsY() );
+  }
+
+  private static Box box( final Box parent, final int y ) {
+    final var box = new BlockBox();
+
+    box.setAbsY( y );
+    box.setHeight( 10 );
+    box.setParent( parent );
+    parent.addChild( box );
+
+    return box;
+  }
+}
@@ -0,0 +1,87 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link RasterCache} persists images between instances.
+ */
+public class RasterCacheTest {
+  @Test
+  public void test_Get_NewInstance_ImageRestored( @TempDir final Path dir ) {
+    final var key = RasterCache.key( "x^2".getBytes( UTF_8 ), "tex", 2.0 );
+    final var image = new BufferedImage( 3, 2, TYPE_INT_ARGB );
+    image.setRGB( 1, 1, 0xFF00FF00 );
+
+    new RasterCache( () -> dir, Runnable::run ).put( key, image );
+
+    final var cache = new RasterCache( () -> dir, Runnable::run );
+    final var restored = cache.get( key );
+
+    assertNotNull( restored );
+    assertEquals( 3, restored.getWidth() );
+    assertEquals( 0xFF00FF00, restored.getRGB( 1, 1 ) );
+
+    final var other = RasterCache.key( "x^2".getBytes( UTF_8 ), "tex", 3.0 );
+    assertNotEquals( key, other );
+    assertNull( cache.get( other ) );
+  }
+
+  @Test
+  public void test_Get_MemoryHit_DiskNotTouched( @TempDir final Path dir )
+    throws Exception {
+    final var cache = new RasterCache( () -> dir, Runnable::run );
+    final var keys = new ArrayList<String>();
+    final var old = FileTime.from( Instant.now().minus( 7, DAYS ) );
+
+    for( int i = 0; i < 32; i++ ) {
+      final var key = RasterCache.key( new byte[]{(byte) i}, "svg" );
+
+      cache.put( key, new BufferedImage( 2, 2, TYPE_INT_ARGB ) );
+      Files.setLastModifiedTime( file( dir, key ), old );
+      keys.add( key );
+    }
+
+    // Images found in memory leave their files alone.
+    for( int i = 0; i < 31; i++ ) {
+      assertNotNull( cache.get( keys.get( i ) ) );
+      assertNotNull( cache.get( keys.get( i ) ) );
+    }
+
+    for( final var key : keys ) {
+      assertEquals( old, Files.getLastModifiedTime( file( dir, key ) ) );
+    }
+
+    // Using enough images marks their files as used, as a batch.
+    assertNotNull( cache.get( keys.get( 31 ) ) );
+
+    for( final var key : keys ) {
+      assertNotEquals( old, Files.getLastModifiedTime( file( dir, key ) ) );
+    }
+
+    // Reading an image from disk marks its file as used. The cache is not
+    // warmed, so that the image is not already in memory.
+    Files.setLastModifiedTime( file( dir, keys.get( 0 ) ), old );
+    assertNotNull(
+      new RasterCache( () -> dir, task -> {} ).get( keys.get( 0 ) ) );
+    assertNotEquals(
+      old, Files.getLastModifiedTime( file( dir, keys.get( 0 ) ) ) );
+  }
+
+  private static Path file( final Path dir, final String key ) {
+    return dir.resolve( "rasters" ).resolve( key + ".png" );
+  }
+}
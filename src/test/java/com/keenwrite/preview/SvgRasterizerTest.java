@@ -0,0 +1,155 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static com.keenwrite.preview.SvgRasterizer.BROKEN_IMAGE_PLACEHOLDER;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link SvgRasterizer} produces the same images when rasterizing
+ * concurrently as when rasterizing one image at a time.
+ */
+class SvgRasterizerTest {
+  private static final int IMAGES = 48;
+  private static final int THREADS = 8;
+  private static final int WIDTH = 120;
+
+  @Test
+  void test_Rasterize_ConcurrentThreads_MatchesSerial(
+    @TempDir final Path dir ) throws Exception {
+    final var uris = createImages( dir );
+    final var expected = new ArrayList<BufferedImage>();
+
+    for( final var uri : uris ) {
+      final var image = SvgRasterizer.rasterize( uri, WIDTH );
+
+      assertNotSame( BROKEN_IMAGE_PLACEHOLDER, image, uri.toString() );
+      expected.add( image );
+    }
+
+    // Every thread rasterizes every image, in a different order, so that
+    // each thread's document factory and bridge context are reused.
+    final var executor = Executors.newFixedThreadPool( THREADS );
+    final var tasks = new ArrayList<Callable<List<BufferedImage>>>();
+
+    for( int t = 0; t < THREADS; t++ ) {
+      final var offset = t * IMAGES / THREADS;
+
+      tasks.add( () -> {
+        final var images = new BufferedImage[ IMAGES ];
+
+        for( int i = 0; i < IMAGES; i++ ) {
+          final var index = (i + offset) % IMAGES;
+          images[ index ] = SvgRasterizer.rasterize( uris.get( index ), WIDTH );
+        }
+
+        return List.of( images );
+      } );
+    }
+
+    try {
+      for( final var future : executor.invokeAll( tasks ) ) {
+        assertImagesEqual( uris, expected, future.get( 60, SECONDS ) );
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void test_RasterizeAll_Batch_MatchesSerial( @TempDir final Path dir )
+    throws Exception {
+    final var uris = createImages( dir );
+    final var expected = new ArrayList<BufferedImage>();
+
+    for( final var uri : uris ) {
+      expected.add( SvgRasterizer.rasterize( uri, WIDTH ) );
+    }
+
+    final var executor = Executors.newFixedThreadPool( THREADS );
+
+    try {
+      final var images = SvgRasterizer.rasterizeAll( uris, WIDTH, executor );
+
+      assertEquals( uris, new ArrayList<>( images.keySet() ) );
+      assertImagesEqual( uris, expected, new ArrayList<>( images.values() ) );
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static void assertImagesEqual(
+    final List<URI> uris,
+    final List<BufferedImage> expected,
+    final List<BufferedImage> actual ) {
+    assertEquals( expected.size(), actual.size() );
+
+    for( int i = 0; i < expected.size(); i++ ) {
+      final var e = expected.get( i );
+      final var a = actual.get( i );
+      final var uri = uris.get( i ).toString();
+
+      assertEquals( e.getWidth(), a.getWidth(), uri );
+      assertEquals( e.getHeight(), a.getHeight(), uri );
+      assertArrayEquals( pixels( e ), pixels( a ), uri );
+    }
+  }
+
+  private static int[] pixels( final BufferedImage image ) {
+    final var w = image.getWidth();
+    final var h = image.getHeight();
+
+    return image.getRGB( 0, 0, w, h, null, 0, w );
+  }
+
+  /**
+   * Writes vector graphic files that differ in shape, colour, and size so
+   * that mixing up state between threads changes the resulting pixels.
+   */
+  private static List<URI> createImages( final Path dir ) throws Exception {
+    final var uris = new ArrayList<URI>();
+
+    for( int i = 0; i < IMAGES; i++ ) {
+      final var w = 40 + i * 3;
+      final var h = 30 + (i * 7) % 50;
+      final var svg = """
+        <svg xmlns='http://www.w3.org/2000/svg' width='%dpx' height='%dpx'>
+          <defs>
+            <linearGradient id='g%d'>
+              <stop offset='0' stop-color='#%06x'/>
+              <stop offset='1' stop-color='#%06x'/>
+            </linearGradient>
+          </defs>
+          <rect width='%d' height='%d' fill='url(#g%d)'/>
+          <circle cx='%d' cy='%d' r='%d' fill='#%06x' stroke='#000'/>
+          <path d='M0,%d L%d,0 L%d,%d Z' fill='none' stroke='#%06x'/>
+        </svg>
+        """.formatted(
+        w, h,
+        i, (i * 0x3A1F07) & 0xFFFFFF, (i * 0x0C52E9) & 0xFFFFFF,
+        w, h, i,
+        w / 2, h / 2, 4 + i % 11, (i * 0x51A3C1) & 0xFFFFFF,
+        h, w / 3 + i, w, h - i % 9, (i * 0x7E0413) & 0xFFFFFF
+      );
+
+      final var file = dir.resolve( "image-%02d.svg".formatted( i ) );
+      Files.writeString( file, svg, UTF_8 );
+      uris.add( file.toUri() );
+    }
+
+    return uris;
+  }
+}
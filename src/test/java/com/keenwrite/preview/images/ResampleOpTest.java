@@ -0,0 +1,121 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview.images;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.stream.Stream;
+
+import static java.awt.image.BufferedImage.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link ResampleOp} produces the same pixels as the original,
+ * single-pass implementation. The golden images were resampled from the
+ * same source images by that implementation, using {@link Lanczos3Filter}.
+ * <p>
+ * Sources cover one, three, and four channels, scaling up and down, and
+ * destinations both smaller and larger than the size at which resampling
+ * is split into parallel bands.
+ * </p>
+ */
+class ResampleOpTest {
+  /**
+   * Source and destination sizes: small images are resampled on the calling
+   * thread, large images in parallel bands.
+   */
+  private static final int[][] SIZES = {
+    {64, 48, 24, 18},
+    {12, 10, 40, 30},
+    {300, 200, 140, 120},
+    {40, 30, 160, 104},
+  };
+
+  @ParameterizedTest
+  @MethodSource( "goldenParameters" )
+  void test_Filter_Source_MatchesGolden(
+    final String name, final int type, final int[] size ) throws Exception {
+    final var source = source( type, size[ 0 ], size[ 1 ] );
+    final var op = new ResampleOp( new Lanczos3Filter(), size[ 2 ], size[ 3 ] );
+    final var actual = op.filter( source, null );
+    final var golden = golden( name, size );
+
+    assertEquals( golden.getWidth(), actual.getWidth() );
+    assertEquals( golden.getHeight(), actual.getHeight() );
+    assertEquals(
+      golden.getRaster().getNumBands(), actual.getRaster().getNumBands() );
+
+    final var expected = golden.getRaster();
+    final var raster = actual.getRaster();
+
+    for( int y = 0; y < actual.getHeight(); y++ ) {
+      for( int x = 0; x < actual.getWidth(); x++ ) {
+        for( int b = 0; b < raster.getNumBands(); b++ ) {
+          final var e = expected.getSample( x, y, b );
+          final var a = raster.getSample( x, y, b );
+
+          if( e != a ) {
+            fail( "%s: pixel (%d, %d) band %d: expected %d, was %d"
+                    .formatted( name, x, y, b, e, a ) );
+          }
+        }
+      }
+    }
+  }
+
+  private static Stream<Arguments> goldenParameters() {
+    final var arguments = new ArrayList<Arguments>();
+
+    for( final var size : SIZES ) {
+      arguments.add( Arguments.of( "gray", TYPE_BYTE_GRAY, size ) );
+      arguments.add( Arguments.of( "rgb", TYPE_3BYTE_BGR, size ) );
+      arguments.add( Arguments.of( "argb", TYPE_4BYTE_ABGR, size ) );
+    }
+
+    return arguments.stream();
+  }
+
+  /**
+   * Returns the file name of the golden image for the given source.
+   */
+  private static String goldenName( final String name, final int[] size ) {
+    return "resample-%s-%dx%d-%dx%d.png".formatted(
+      name, size[ 0 ], size[ 1 ], size[ 2 ], size[ 3 ] );
+  }
+
+  private static BufferedImage golden( final String name, final int[] size )
+    throws Exception {
+    final var file = goldenName( name, size );
+
+    try( final var in = ResampleOpTest.class.getResourceAsStream( file ) ) {
+      assertNotNull( in, file );
+      return ImageIO.read( in );
+    }
+  }
+
+  /**
+   * Creates a source image having smooth gradients and sharp edges, using
+   * integer arithmetic only so that it is identical on every platform.
+   */
+  private static BufferedImage source( final int type, final int w, final int h ) {
+    final var image = new BufferedImage( w, h, type );
+
+    for( int y = 0; y < h; y++ ) {
+      for( int x = 0; x < w; x++ ) {
+        final var checker = ((x / 3 + y / 3) & 1) == 0 ? 0 : 96;
+        final var a = 255 - (x * 160 / w);
+        final var r = y * 255 / h;
+        final var g = (checker + x * 159 / w) & 0xFF;
+        final var b = (x + y) % 7 == 0 ? 255 : (x * y) & 0x7F;
+
+        image.setRGB( x, y, a << 24 | r << 16 | g << 8 | b );
+      }
+    }
+
+    return image;
+  }
+}
@@ -0,0 +1,242 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.keenwrite.ExportFormat.APPLICATION_PDF;
+import static com.keenwrite.processors.ProcessorContext.Mutator;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that {@link IncrementalProcessor} exports a document again only when
+ * the document or the files it depends upon change.
+ */
+public class IncrementalProcessorTest {
+  private static final String DOCUMENT =
+    "<html><head></head><body><p>Text</p><img src=\"logo\"/></body></html>";
+
+  @Test
+  public void test_Apply_Unchanged_ExportedOnce( @TempDir final Path dir )
+    throws IOException {
+    final var themes = Files.createDirectories( dir.resolve( "themes" ) );
+    final var images = Files.createDirectories( dir.resolve( "images" ) );
+    final var target = dir.resolve( "book.pdf" );
+    final var theme = themes.resolve( "main.tex" );
+    final var image = images.resolve( "logo.png" );
+
+    Files.writeString( theme, "theme" );
+    Files.writeString( image, "image" );
+
+    final var context = ProcessorContext
+      .builder()
+      .with( Mutator::setSourcePath, dir.resolve( "book.md" ) )
+      .with( Mutator::setTargetPath, target )
+      .with( Mutator::setExportFormat, APPLICATION_PDF )
+      .with( Mutator::setThemesDir, () -> themes )
+      .with( Mutator::setImagesDir, images::toFile )
+      .with( Mutator::setCachesDir, () -> dir.resolve( "caches" ).toFile() )
+      .with( Mutator::setFontsDir, () -> dir.resolve( "fonts" ).toFile() )
+      .build();
+
+    final var exports = new AtomicInteger();
+    final Processor<String> exporter = html -> {
+      try {
+        Files.writeString( target, html + exports.incrementAndGet(), UTF_8 );
+      } catch( final IOException ex ) {
+        throw new UncheckedIOException( ex );
+      }
+
+      return null;
+    };
+
+    final var processor = new IncrementalProcessor( exporter, context );
+
+    processor.apply( DOCUMENT );
+    processor.apply( DOCUMENT );
+    assertEquals( 1, exports.get() );
+
+    // A deleted target is restored from the cache.
+    Files.delete( target );
+    processor.apply( DOCUMENT );
+    assertEquals( 1, exports.get() );
+    assertEquals( DOCUMENT + 1, Files.readString( target, UTF_8 ) );
+
+    processor.apply( DOCUMENT.replace( "Text", "Edit" ) );
+    assertEquals( 2, exports.get() );
+
+    Files.writeString( theme, "changed theme" );
+    processor.apply( DOCUMENT );
+    assertEquals( 3, exports.get() );
+
+    Files.writeString( image, "changed image" );
+    processor.apply( DOCUMENT );
+    assertEquals( 4, exports.get() );
+    processor.apply( DOCUMENT );
+    assertEquals( 4, exports.get() );
+  }
+
+  @Test
+  public void test_Apply_RemoteImageChanged_ExportedAgain(
+    @TempDir final Path dir ) throws IOException {
+    final var version = new AtomicInteger( 1 );
+    final var revalidations = new AtomicInteger();
+    final var server = HttpServer.create(
+      new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+
+    server.createContext( "/", exchange -> {
+      final var etag = "\"v" + version.get() + '"';
+
+      if( etag.equals(
+        exchange.getRequestHeaders().getFirst( "If-None-Match" ) ) ) {
+        revalidations.incrementAndGet();
+        exchange.sendResponseHeaders( 304, -1 );
+      }
+      else {
+        final var body = ("image " + version.get()).getBytes( UTF_8 );
+        exchange.getResponseHeaders().set( "Content-Type", "image/png" );
+        exchange.getResponseHeaders().set( "ETag", etag );
+        exchange.sendResponseHeaders( 200, body.length );
+        exchange.getResponseBody().write( body );
+      }
+
+      exchange.close();
+    } );
+    server.start();
+
+    try {
+      final var url = "http://127.0.0.1:%d/logo.png".formatted(
+        server.getAddress().getPort() );
+      final var document = DOCUMENT.replace( "logo", url );
+      final var exports = new AtomicInteger();
+      final var target = dir.resolve( "book.pdf" );
+      final var processor = new IncrementalProcessor(
+        createExporter( target, exports ), createContext( dir, target ) );
+
+      processor.apply( document );
+      processor.apply( document );
+      assertEquals( 1, exports.get() );
+      assertEquals( 1, revalidations.get() );
+
+      // The image changed on the server, but its URL did not.
+      version.incrementAndGet();
+      processor.apply( document );
+      assertEquals( 2, exports.get() );
+    } finally {
+      server.stop( 0 );
+    }
+  }
+
+  @Test
+  public void test_Apply_DocumentChanged_RemoteImageRequestedOnce(
+    @TempDir final Path dir ) throws IOException {
+    final var requests = new AtomicInteger();
+    final var server = HttpServer.create(
+      new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+
+    server.createContext( "/", exchange -> {
+      final var body = "image".getBytes( UTF_8 );
+
+      requests.incrementAndGet();
+      exchange.getResponseHeaders().set( "Content-Type", "image/png" );
+      exchange.getResponseHeaders().set( "ETag", "\"v1\"" );
+      exchange.sendResponseHeaders( 200, body.length );
+      exchange.getResponseBody().write( body );
+      exchange.close();
+    } );
+    server.start();
+
+    try {
+      final var url = "http://127.0.0.1:%d/logo.png".formatted(
+        server.getAddress().getPort() );
+      final var document = DOCUMENT.replace( "logo", url );
+      final var exports = new AtomicInteger();
+      final var target = dir.resolve( "book.pdf" );
+      final var context = createContext( dir, target );
+      final var downloader = new ImageDownloader( context );
+      final var xhtml = new XhtmlProcessor(
+        createExporter( target, exports ), context, downloader );
+      final var processor = new IncrementalProcessor(
+        new ExecutorProcessor<>( xhtml ), context, downloader );
+
+      processor.apply( document );
+      assertEquals( 1, exports.get() );
+      assertEquals( 1, requests.get() );
+
+      processor.apply( document.replace( "Text", "Edit" ) );
+      assertEquals( 2, exports.get() );
+      assertEquals( 2, requests.get() );
+    } finally {
+      server.stop( 0 );
+    }
+  }
+
+  @Test
+  public void test_Apply_MetadataDefinitionChanged_ExportedAgain(
+    @TempDir final Path dir ) {
+    final var definitions = new HashMap<>( Map.of( "book.title", "Alice" ) );
+    final var metadata = Map.of( "title", "{{book.title}}" );
+    final var exports = new AtomicInteger();
+    final var target = dir.resolve( "book.pdf" );
+    final var context = ProcessorContext
+      .builder()
+      .with( Mutator::setSourcePath, dir.resolve( "book.md" ) )
+      .with( Mutator::setTargetPath, target )
+      .with( Mutator::setExportFormat, APPLICATION_PDF )
+      .with( Mutator::setCachesDir, () -> dir.resolve( "caches" ).toFile() )
+      .with( Mutator::setDefinitions, () -> definitions )
+      .with( Mutator::setMetadata, () -> metadata )
+      .with( Mutator::setSigilBegan, () -> "{{" )
+      .with( Mutator::setSigilEnded, () -> "}}" )
+      .build();
+    final var processor = new IncrementalProcessor(
+      createExporter( target, exports ), context );
+
+    processor.apply( DOCUMENT );
+    processor.apply( DOCUMENT );
+    assertEquals( 1, exports.get() );
+
+    // Only the title page, written from the metadata, changes.
+    definitions.put( "book.title", "Bob" );
+    processor.apply( DOCUMENT );
+    assertEquals( 2, exports.get() );
+  }
+
+  private static ProcessorContext createContext(
+    final Path dir, final Path target ) {
+    return ProcessorContext
+      .builder()
+      .with( Mutator::setSourcePath, dir.resolve( "book.md" ) )
+      .with( Mutator::setTargetPath, target )
+      .with( Mutator::setExportFormat, APPLICATION_PDF )
+      .with( Mutator::setThemesDir, () -> dir.resolve( "themes" ) )
+      .with( Mutator::setImagesDir, () -> dir.resolve( "images" ).toFile() )
+      .with( Mutator::setCachesDir, () -> dir.resolve( "caches" ).toFile() )
+      .with( Mutator::setFontsDir, () -> dir.resolve( "fonts" ).toFile() )
+      .build();
+  }
+
+  private static Processor<String> createExporter(
+    final Path target, final AtomicInteger exports ) {
+    return html -> {
+      try {
+        Files.writeString( target, html + exports.incrementAndGet(), UTF_8 );
+      } catch( final IOException ex ) {
+        throw new UncheckedIOException( ex );
+      }
+
+      return null;
+    };
+  }
+}
@@ -0,0 +1,172 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the {@link RenderScheduler} class.
+ */
+public class RenderSchedulerTest {
+
+  /**
+   * Confirms that requests submitted while a render is running are coalesced
+   * so that only the most recent request for a key is processed.
+   */
+  @Test
+  public void test_Submit_RapidRequests_LatestWins() throws Exception {
+    final var scheduler = new RenderScheduler<String>();
+    final var started = new CountDownLatch( 1 );
+    final var release = new CountDownLatch( 1 );
+    final var finished = new CountDownLatch( 2 );
+    final List<Integer> rendered = new CopyOnWriteArrayList<>();
+
+    scheduler.submit( "editor", cancelled -> {
+      started.countDown();
+      await( release );
+      rendered.add( 0 );
+      finished.countDown();
+    } );
+
+    assertTrue( started.await( 5, SECONDS ) );
+
+    final var REQUESTS = 50;
+
+    for( int i = 1; i <= REQUESTS; i++ ) {
+      final var revision = i;
+
+      scheduler.submit( "editor", cancelled -> {
+        rendered.add( revision );
+        finished.countDown();
+      } );
+    }
+
+    assertEquals( 1, scheduler.getQueueDepth() );
+    assertEquals( REQUESTS - 1, scheduler.getDroppedCount() );
+
+    release.countDown();
+    assertTrue( finished.await( 5, SECONDS ) );
+
+    assertEquals( List.of( 0, REQUESTS ), rendered );
+    scheduler.shutdown();
+  }
+
+  /**
+   * Confirms that a running chain is abandoned at the next processor
+   * boundary once a newer request arrives for the same key.
+   */
+  @Test
+  public void test_Submit_InFlightChain_Cancelled() throws Exception {
+    final var scheduler = new RenderScheduler<String>();
+    final var started = new CountDownLatch( 1 );
+    final var release = new CountDownLatch( 1 );
+    final var finished = new CountDownLatch( 1 );
+    final List<String> links = new CopyOnWriteArrayList<>();
+
+    final var tail = new ExecutorProcessor<String>() {
+      @Override
+      public String apply( final String s ) {
+        links.add( "tail" );
+        return s;
+      }
+    };
+
+    final var head = new ExecutorProcessor<>( tail ) {
+      @Override
+      public String apply( final String s ) {
+        links.add( "head" );
+        started.countDown();
+        await( release );
+        return s;
+      }
+    };
+
+    final var chain = new ExecutorProcessor<>( head );
+
+    scheduler.submit( "editor", cancelled -> chain.apply( "a", cancelled ) );
+    assertTrue( started.await( 5, SECONDS ) );
+    scheduler.submit( "editor", cancelled -> finished.countDown() );
+    release.countDown();
+
+    assertTrue( finished.await( 5, SECONDS ) );
+    assertEquals( List.of( "head" ), links );
+    assertEquals( 1, scheduler.getCancelledCount() );
+    scheduler.shutdown();
+  }
+
+  /**
+   * Confirms that the preview still changes while requests keep arriving
+   * faster than they can be rendered.
+   */
+  @Test
+  public void test_Submit_SlowRenders_PreviewUpdated() throws Exception {
+    final var scheduler =
+      new RenderScheduler<String>( Duration.ofMillis( 100 ) );
+    final var finished = new CountDownLatch( 1 );
+    final List<Integer> rendered = new CopyOnWriteArrayList<>();
+    final var REQUESTS = 100;
+
+    for( int i = 1; i <= REQUESTS; i++ ) {
+      final var revision = i;
+
+      scheduler.submit( "editor", cancelled -> {
+        render( cancelled, 150 );
+        rendered.add( revision );
+
+        if( revision == REQUESTS ) {
+          finished.countDown();
+        }
+      } );
+
+      Thread.sleep( 20 );
+    }
+
+    // Renders completed while the requests were arriving.
+    final var typing = new ArrayList<>( rendered );
+    assertFalse( typing.isEmpty() );
+    assertTrue( scheduler.getCancelledCount() > 0 );
+
+    assertTrue( finished.await( 5, SECONDS ) );
+    assertEquals( REQUESTS, rendered.get( rendered.size() - 1 ) );
+    scheduler.shutdown();
+  }
+
+  /**
+   * Simulates a render that takes the given time, abandoning its work when
+   * cancelled.
+   */
+  private static void render(
+    final BooleanSupplier cancelled, final long millis ) {
+    final var end = System.nanoTime() + millis * 1_000_000;
+
+    while( System.nanoTime() < end ) {
+      if( cancelled.getAsBoolean() ) {
+        throw new CancellationException();
+      }
+
+      try {
+        Thread.sleep( 5 );
+      } catch( final InterruptedException ex ) {
+        throw new RuntimeException( ex );
+      }
+    }
+  }
+
+  private static void await( final CountDownLatch latch ) {
+    try {
+      assertTrue( latch.await( 5, SECONDS ) );
+    } catch( final InterruptedException ex ) {
+      throw new RuntimeException( ex );
+    }
+  }
+}
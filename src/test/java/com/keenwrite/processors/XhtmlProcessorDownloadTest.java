@@ -0,0 +1,255 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors;
+
+import com.keenwrite.editors.common.Caret;
+import com.keenwrite.io.downloads.HttpCache;
+import com.keenwrite.util.DataTypeConverter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.keenwrite.Bootstrap.APP_TITLE_ABBR;
+import static com.keenwrite.ExportFormat.XHTML_TEX;
+import static com.keenwrite.processors.ProcessorContext.builder;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Locale.ENGLISH;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link XhtmlProcessor} downloads remote images from a local
+ * stand-in server only when they changed since a previous export.
+ */
+class XhtmlProcessorDownloadTest {
+  private static final String ETAG = "\"v1\"";
+  private static final String SVG =
+    "<svg xmlns='http://www.w3.org/2000/svg'><rect width='1'/></svg>";
+
+  @Test
+  void test_Apply_NotModified_PreviousFileReused( @TempDir final Path dir )
+    throws Exception {
+    final var revalidations = new AtomicInteger();
+    final var server = start( exchange -> {
+      if( ETAG.equals(
+        exchange.getRequestHeaders().getFirst( "If-None-Match" ) ) ) {
+        revalidations.incrementAndGet();
+        exchange.sendResponseHeaders( 304, -1 );
+      }
+      else {
+        send( exchange, "image/svg+xml", SVG );
+      }
+    } );
+
+    try {
+      final var url = toUrl( server, "/image.svg" );
+      final var previous = dir.resolve( toName( url ) + ".svg" );
+
+      Files.writeString( previous, "<svg/>", UTF_8 );
+      Files.writeString( HttpCache.getValidator( previous ), ETAG, UTF_8 );
+
+      final var xhtml = export( dir, url );
+
+      assertEquals( 1, revalidations.get() );
+      assertTrue( xhtml.contains( previous.getFileName().toString() ) );
+      assertEquals( "<svg/>", Files.readString( previous, UTF_8 ) );
+    } finally {
+      server.stop( 0 );
+    }
+  }
+
+  @Test
+  void test_Apply_Offline_PreviousFileUsed( @TempDir final Path dir )
+    throws Exception {
+    final var server = start( exchange -> send( exchange, "image/png", "" ) );
+    final var url = toUrl( server, "/image.svg" );
+    final var missing = toUrl( server, "/missing.svg" );
+
+    // Nothing is listening on the port once the server stops.
+    server.stop( 0 );
+
+    final var previous = dir.resolve( toName( url ) + ".svg" );
+    Files.writeString( previous, SVG, UTF_8 );
+
+    final var xhtml = export( dir, url, missing );
+
+    assertTrue( xhtml.contains( previous.getFileName().toString() ) );
+    assertEquals( SVG, Files.readString( previous, UTF_8 ) );
+
+    // Without a previous file, the image is left as it was.
+    assertTrue( xhtml.contains( missing ) );
+  }
+
+  @Test
+  void test_Apply_MediaTypeChanged_PreviousFileDeleted(
+    @TempDir final Path dir ) throws Exception {
+    final var server = start(
+      exchange -> send( exchange, "image/svg+xml", SVG ) );
+
+    try {
+      final var url = toUrl( server, "/image" );
+      final var name = toName( url );
+      final var previous = dir.resolve( name + ".png" );
+
+      Files.write( previous, new byte[]{1, 2, 3} );
+      Files.writeString( HttpCache.getValidator( previous ), "\"v0\"", UTF_8 );
+
+      final var xhtml = export( dir, url );
+      final var current = dir.resolve( name + ".svg" );
+
+      assertTrue( xhtml.contains( current.getFileName().toString() ) );
+      assertTrue( Files.isRegularFile( current ) );
+      assertFalse( Files.exists( previous ) );
+      assertEquals(
+        ETAG, Files.readString( HttpCache.getValidator( current ), UTF_8 ) );
+    } finally {
+      server.stop( 0 );
+    }
+  }
+
+  @Test
+  void test_Apply_ConcurrentSvgDownloads_Sanitized( @TempDir final Path dir )
+    throws Exception {
+    final var IMAGES = 6;
+    final var arrived = new CountDownLatch( IMAGES );
+    final var svg = """
+      <?xml version="1.0" encoding="UTF-8"?>
+      <!-- Drawn by hand. -->
+      <svg xmlns="http://www.w3.org/2000/svg">
+        <rect width="1"/>
+      </svg>
+      """;
+
+    // Every response waits until all the requests arrive, so the images
+    // must be downloaded, and then sanitized, on separate threads.
+    final var server = start( exchange -> {
+      arrived.countDown();
+
+      try {
+        if( arrived.await( 10, SECONDS ) ) {
+          send( exchange, "image/svg+xml", svg );
+          return;
+        }
+      } catch( final InterruptedException ignored ) {
+      }
+
+      exchange.sendResponseHeaders( 503, -1 );
+    } );
+
+    try {
+      final var urls = new ArrayList<String>();
+
+      for( int i = 0; i < IMAGES; i++ ) {
+        urls.add( toUrl( server, "/image-" + i + ".svg" ) );
+      }
+
+      final var xhtml = export( dir, urls.toArray( new String[ 0 ] ) );
+
+      for( final var url : urls ) {
+        final var file = dir.resolve( toName( url ) + ".svg" );
+        final var sanitized = Files.readString( file, UTF_8 );
+
+        assertTrue( xhtml.contains( file.getFileName().toString() ) );
+        assertTrue( sanitized.contains( "<rect" ), sanitized );
+        assertFalse( sanitized.contains( "<!--" ), sanitized );
+        assertFalse( sanitized.contains( "<?xml" ), sanitized );
+      }
+    } finally {
+      server.stop( 0 );
+    }
+  }
+
+  /**
+   * Exports a document that includes the given images, downloading them
+   * into the given directory.
+   */
+  private static String export( final Path dir, final String... urls ) {
+    final var html = new StringBuilder( "<html><head></head><body>" );
+
+    for( final var url : urls ) {
+      html.append( "<p><img src=\"" ).append( url ).append( "\"/></p>" );
+    }
+
+    html.append( "</body></html>" );
+
+    final var processor =
+      new XhtmlProcessor( IdentityProcessor.IDENTITY, createContext( dir ) );
+
+    return processor.apply( html.toString() );
+  }
+
+  private static ProcessorContext createContext( final Path dir ) {
+    final var caret = Caret.builder().build();
+
+    return builder()
+      .with( ProcessorContext.Mutator::setExportFormat, XHTML_TEX )
+      .with( ProcessorContext.Mutator::setSourcePath, dir.resolve( "f.md" ) )
+      .with( ProcessorContext.Mutator::setDefinitions, HashMap::new )
+      .with( ProcessorContext.Mutator::setLocale, () -> ENGLISH )
+      .with( ProcessorContext.Mutator::setMetadata, HashMap::new )
+      .with( ProcessorContext.Mutator::setThemesDir, () -> dir )
+      .with( ProcessorContext.Mutator::setCaret, () -> caret )
+      .with( ProcessorContext.Mutator::setImagesDir, dir::toFile )
+      .with( ProcessorContext.Mutator::setCachesDir, dir::toFile )
+      .with( ProcessorContext.Mutator::setImageOrder, () -> "" )
+      .with( ProcessorContext.Mutator::setImageServer, () -> "" )
+      .with( ProcessorContext.Mutator::setSigilBegan, () -> "" )
+      .with( ProcessorContext.Mutator::setSigilEnded, () -> "" )
+      .with( ProcessorContext.Mutator::setRScript, () -> "" )
+      .with( ProcessorContext.Mutator::setRWorkingDir, () -> dir )
+      .with( ProcessorContext.Mutator::setCurlQuotes, () -> false )
+      .with( ProcessorContext.Mutator::setAutoRemove, () -> false )
+      .build();
+  }
+
+  /**
+   * Returns the name, without extension, of the file that a downloaded
+   * image is saved as.
+   */
+  private static String toName( final String url ) throws Exception {
+    final var hash = DataTypeConverter.toHex( DataTypeConverter.hash( url ) );
+
+    return APP_TITLE_ABBR + hash.toLowerCase();
+  }
+
+  private static String toUrl( final HttpServer server, final String path ) {
+    return "http://localhost:" + server.getAddress().getPort() + path;
+  }
+
+  private static HttpServer start( final HttpHandler handler )
+    throws IOException {
+    final var server = HttpServer.create( new InetSocketAddress( 0 ), 0 );
+
+    server.createContext( "/", exchange -> {
+      try( exchange ) {
+        handler.handle( exchange );
+      }
+    } );
+    server.setExecutor( newCachedThreadPool() );
+    server.start();
+
+    return server;
+  }
+
+  private static void send(
+    final HttpExchange exchange, final String type, final String content )
+    throws IOException {
+    final var body = content.getBytes( UTF_8 );
+
+    exchange.getResponseHeaders().add( "Content-Type", type );
+    exchange.getResponseHeaders().add( "ETag", ETAG );
+    exchange.sendResponseHeaders( 200, body.length == 0 ? -1 : body.length );
+    exchange.getResponseBody().write( body );
+  }
+}
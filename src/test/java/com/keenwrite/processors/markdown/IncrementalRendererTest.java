@@ -0,0 +1,198 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.markdown;
+
+import com.keenwrite.dom.DocumentConverter;
+import com.keenwrite.editors.common.Caret;
+import com.keenwrite.processors.ProcessorContext;
+import com.keenwrite.processors.markdown.extensions.CaretExtension;
+import com.keenwrite.processors.markdown.extensions.fences.FencedDivExtension;
+import com.vladsch.flexmark.ext.tables.TablesExtension;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.misc.Extension;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.keenwrite.ExportFormat.NONE;
+import static com.keenwrite.constants.Constants.CARET_ID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that the {@link IncrementalRenderer} produces equivalent XHTML to
+ * rendering the entire document.
+ */
+public class IncrementalRendererTest {
+  private static final String DOCUMENT = """
+    # Heading
+
+    Paragraph with a [reference][ref] and *emphasis*.
+
+    ::: poem
+    Roses are red,
+
+    violets are blue.
+    :::
+
+    ::: note
+    Roses are red,
+    :::
+
+    | a | b |
+    |---|---|
+    | 1 | 2 |
+
+    # Heading
+
+    <div class="raw">
+
+    Raw HTML spanning blocks.
+
+    </div>
+
+    [ref]: https://keenwrite.com "Title"
+    """;
+
+  /**
+   * Renders a document, edits it, then renders it again to confirm that
+   * cached blocks are reused without changing the output.
+   */
+  @Test
+  void test_Render_EditedDocument_MatchesFullRender() {
+    final var harness = new Harness();
+
+    for( final var text : List.of(
+      DOCUMENT,
+      DOCUMENT.replace( "violets", "Violets" ),
+      DOCUMENT.replace( "https://keenwrite.com", "https://example.com" ) ) ) {
+      harness.assertRendered( text );
+    }
+  }
+
+  /**
+   * Confirms that blocks before and after an edit, including blocks shifted
+   * by it, are reused rather than converted again.
+   */
+  @Test
+  void test_Render_ShiftingEdits_UnchangedBlocksReused() {
+    final var harness = new Harness();
+    final var paragraphs = new StringBuilder( 4096 ).append( "# Title\n\n" );
+
+    for( var i = 0; i < 50; i++ ) {
+      paragraphs.append( "Paragraph " ).append( i ).append( ".\n\n" );
+    }
+
+    final var text = paragraphs.toString();
+
+    harness.assertRendered( text );
+    assertEquals( 51, harness.getRenderedCount() );
+
+    // Renders the heading, which is always rendered, and the edited block.
+    // A deletion edits the following block, whose text begins the same.
+    for( final var edit : List.of(
+      text.replaceFirst( "\n\n", "\n\nInserted.\n\n" ),
+      text.replace( "Paragraph 25.", "Edited." ),
+      text.replace( "Paragraph 10.\n\n", "" ),
+      text + "Appended.\n" ) ) {
+      harness.assertRendered( text );
+      harness.assertRendered( edit );
+      assertEquals( 2, harness.getRenderedCount() );
+    }
+  }
+
+  /**
+   * Confirms that a link reference definition takes effect when an edit
+   * elsewhere turns its unchanged text from code into a definition.
+   */
+  @Test
+  void test_Render_CodeBecomesReference_LinkUpdated() {
+    final var harness = new Harness();
+    final var text = """
+      # Title
+
+      A [reference][ref].
+
+      [ref]: https://keenwrite.com
+
+      ```
+      [ref]: https://example.com
+      ```
+      """;
+
+    harness.assertRendered( text );
+    harness.assertRendered(
+      text.replace( "[ref]: https://keenwrite.com\n\n```", "" ) );
+  }
+
+  /**
+   * Renders documents both incrementally and in full for comparison.
+   */
+  private static final class Harness {
+    private final Parser mParser;
+    private final HtmlRenderer mRenderer;
+    private final IncrementalRenderer mIncremental;
+
+    private Harness() {
+      final var options = new MutableDataSet();
+      options.set( HtmlRenderer.GENERATE_HEADER_ID, true );
+      options.set( HtmlRenderer.RENDER_HEADER_ID, true );
+
+      final var context = createProcessorContext();
+      final List<Extension> extensions = List.of(
+        TablesExtension.create(),
+        FencedDivExtension.create(),
+        CaretExtension.create( context )
+      );
+
+      mParser = Parser.builder( options ).extensions( extensions ).build();
+      mRenderer = HtmlRenderer
+        .builder( options )
+        .extensions( extensions )
+        .build();
+      mIncremental = new IncrementalRenderer( options, extensions, context );
+    }
+
+    private void assertRendered( final String text ) {
+      final var expected = DocumentConverter
+        .parse( mRenderer.render( mParser.parse( text ) ) )
+        .html();
+      final var actual = mIncremental.render( mParser.parse( text ) );
+
+      assertEquals( normalize( expected ), normalize( actual ) );
+    }
+
+    private int getRenderedCount() {
+      return mIncremental.getRenderedCount();
+    }
+  }
+
+  /**
+   * Removes whitespace between elements, which does not affect rendering
+   * and differs when blocks are written by separate HTML writers.
+   */
+  private static String normalize( final String html ) {
+    return html.replaceAll( ">\\s+<", "><" );
+  }
+
+  /**
+   * Confirms that HTML fragments are balanced when all elements are closed.
+   */
+  @Test
+  void test_Depth_Fragments_ElementsCounted() {
+    assertEquals( 0, IncrementalRenderer.depth( "<p>a<br>b<img src='>'/></p>" ) );
+    assertEquals( 1, IncrementalRenderer.depth( "<div class=\"x\"><!-- </div> -->" ) );
+    assertEquals( -1, IncrementalRenderer.depth( "</div>" ) );
+    assertEquals( 0, IncrementalRenderer.depth( "<p>1 < 2</p>" ) );
+  }
+
+  private static ProcessorContext createProcessorContext() {
+    return ProcessorContext
+      .builder()
+      .with( ProcessorContext.Mutator::setSourcePath, Path.of( "test.md" ) )
+      .with( ProcessorContext.Mutator::setExportFormat, NONE )
+      .with( ProcessorContext.Mutator::setCaret, () -> Caret.builder().build() )
+      .build();
+  }
+}
@@ -0,0 +1,46 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.text;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.keenwrite.processors.ProcessorContext.UNVERSIONED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that {@link AhoCorasickReplacer} rebuilds its trie when the keys
+ * change.
+ */
+public class AhoCorasickReplacerTest {
+  private static final String TEXT = "{{a}} and {{b}} and {{c}}";
+
+  @Test
+  public void test_Replace_NewVersion_NewKeysReplaced() {
+    final var replacer = new AhoCorasickReplacer();
+    final var map = new HashMap<>( Map.of( "{{a}}", "1", "{{b}}", "2" ) );
+
+    assertEquals( "1 and 2 and {{c}}", replacer.replace( TEXT, map, 1 ) );
+
+    map.put( "{{c}}", "3" );
+    assertEquals( "1 and 2 and 3", replacer.replace( TEXT, map, 2 ) );
+
+    // Both the map and version match, so the keys are presumed unchanged.
+    map.put( "{{a}}", "4" );
+    assertEquals( "4 and 2 and 3", replacer.replace( TEXT, map, 2 ) );
+  }
+
+  @Test
+  public void test_Replace_Unversioned_NewKeysReplaced() {
+    final var replacer = new AhoCorasickReplacer();
+    final var map = new HashMap<>( Map.of( "{{a}}", "1" ) );
+
+    assertEquals( "1 and {{b}} and {{c}}", replacer.replace( TEXT, map ) );
+
+    map.put( "{{b}}", "2" );
+    assertEquals(
+      "1 and 2 and {{c}}", replacer.replace( TEXT, map, UNVERSIONED )
+    );
+  }
+}
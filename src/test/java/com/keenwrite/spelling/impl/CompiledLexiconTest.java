@@ -0,0 +1,144 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.spelling.impl;
+
+import io.gitlab.rxp90.jsymspell.SymSpellBuilder;
+import io.gitlab.rxp90.jsymspell.api.SuggestItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import static io.gitlab.rxp90.jsymspell.Verbosity.ALL;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the {@link CompiledLexicon} and {@link WordFrequencies} classes, as
+ * well as the {@link SymSpellSpeller} lookups that use them.
+ */
+public class CompiledLexiconTest {
+  private static final int WORDS = 20_000;
+
+  private static final String[][] CORRECTIONS = {
+    { "teh", "the" },
+    { "recieve", "receive" },
+    { "definately", "definitely" },
+    { "seperate", "separate" },
+    { "occured", "occurred" },
+    { "untill", "until" },
+    { "wierd", "weird" },
+    { "goverment", "government" },
+    { "beleive", "believe" },
+    { "thier", "their" },
+    { "adress", "address" },
+    { "becuase", "because" },
+  };
+
+  /**
+   * Tests that a compiled lexicon can be written then memory-mapped, and
+   * that the mapped lexicon contains the same words as the source.
+   */
+  @Test
+  public void test_Write_Open_WordsRetained( @TempDir final Path dir )
+    throws Exception {
+    final var source = load();
+    final var path = dir.resolve( "en.bin" );
+
+    CompiledLexicon.compile( source, 42 ).write( path );
+
+    final var lexicon = CompiledLexicon.open( path );
+
+    assertEquals( 42, lexicon.getChecksum() );
+    assertEquals( source.size(), lexicon.size() );
+
+    for( var i = 0; i < source.size(); i++ ) {
+      final var word = source.getWord( i );
+      final var index = lexicon.find( word );
+
+      assertTrue( index >= 0, word );
+      assertEquals( word, lexicon.getWord( index ) );
+      assertEquals( source.getFrequency( i ), lexicon.getFrequency( index ) );
+    }
+
+    assertEquals( -1, lexicon.find( "qzxjv" ) );
+  }
+
+  /**
+   * Tests that adding a word again replaces its frequency rather than
+   * adding a duplicate, including after the table has grown.
+   */
+  @Test
+  public void test_Put_ExistingWord_FrequencyReplaced() throws Exception {
+    final var source = load();
+    final var size = source.size();
+
+    for( var i = 0; i < size; i++ ) {
+      source.put( source.getWord( i ), i );
+    }
+
+    assertEquals( size, source.size() );
+
+    for( var i = 0; i < size; i++ ) {
+      assertEquals( i, source.getFrequency( i ), source.getWord( i ) );
+    }
+  }
+
+  /**
+   * Tests that common misspellings are corrected and that every suggestion
+   * made by the SymSpell library, which computes its deletes when loading,
+   * is also suggested using the compiled lexicon.
+   */
+  @Test
+  public void test_Suggestions_Misspellings_Corrected() throws Exception {
+    final var source = load();
+    final var speller =
+      SymSpellSpeller.forLexicon( CompiledLexicon.compile( source, 0 ) );
+    final var map = new HashMap<String, Long>();
+
+    for( var i = 0; i < source.size(); i++ ) {
+      map.put( source.getWord( i ), source.getFrequency( i ) );
+    }
+
+    final var library = new SymSpellBuilder()
+      .setUnigramLexicon( map )
+      .build();
+
+    for( final var correction : CORRECTIONS ) {
+      final var word = correction[ 0 ];
+      final var suggestions = speller.suggestions( word, 1000 );
+      final var expected = library
+        .lookup( word, ALL )
+        .stream()
+        .map( SuggestItem::getSuggestion )
+        .toList();
+
+      assertFalse( speller.inLexicon( word ), word );
+      assertTrue( speller.inLexicon( correction[ 1 ] ), word );
+      assertEquals( correction[ 1 ], suggestions.get( 0 ), word );
+      assertTrue( suggestions.containsAll( expected ), word );
+    }
+  }
+
+  private static WordFrequencies load() throws Exception {
+    final var lexicon = new WordFrequencies( WORDS );
+
+    try( final var in = CompiledLexiconTest.class.getResourceAsStream(
+      "/lexicons/en.txt" );
+         final var reader = new BufferedReader(
+           new InputStreamReader( in, UTF_8 ) ) ) {
+      String line;
+
+      while( (line = reader.readLine()) != null && lexicon.size() < WORDS ) {
+        final var tab = line.indexOf( '\t' );
+        lexicon.put(
+          line.substring( 0, tab ), Long.parseLong( line.substring( tab + 1 ) )
+        );
+      }
+    }
+
+    return lexicon;
+  }
+}
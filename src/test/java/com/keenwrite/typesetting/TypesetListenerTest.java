@@ -0,0 +1,79 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.typesetting;
+
+import com.keenwrite.events.TypesetEvent;
+import org.greenrobot.eventbus.Subscribe;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.keenwrite.events.Bus.register;
+import static com.keenwrite.events.Bus.unregister;
+import static com.keenwrite.events.TypesetEvent.Type.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that {@link TypesetListener} publishes the typesetting progress
+ * written by the typesetting engine.
+ */
+public class TypesetListenerTest {
+  private static final String[] LINES = {
+    "mtx-context     | run 1: luatex --fmt=cont-en",
+    "pages           > flushing realpage 1, userpage 1, subpage 1",
+    "Overfull \\hbox (4.2pt too wide) in paragraph at lines 12--14",
+    "pages           > flushing realpage 2, userpage 2, subpage 2",
+    "fonts           > defining > font with asked name 'pagella' is not found",
+    "mtx-context     | run 2: luatex --fmt=cont-en",
+    "pages           > flushing realpage 1, userpage 1, subpage 1",
+    "pages           > flushing realpage 2, userpage 2, subpage 2",
+    "pages           > flushing realpage 1, userpage 1, subpage 1",
+  };
+
+  private final List<TypesetEvent> mEvents = new ArrayList<>();
+
+  @Subscribe
+  public void handle( final TypesetEvent event ) {
+    mEvents.add( event );
+  }
+
+  @Test
+  public void test_Accept_EngineOutput_EventsPublished() {
+    final var listener = new TypesetListener();
+
+    register( this );
+
+    try {
+      for( final var line : LINES ) {
+        listener.accept( line );
+      }
+
+      listener.finish();
+    } finally {
+      unregister( this );
+    }
+
+    final var types = mEvents.stream().map( TypesetEvent::getType ).toList();
+
+    assertEquals(
+      List.of(
+        PASS_BEGAN, PAGE, OVERFULL_BOX, PAGE, MISSING_FONT, PASS_ENDED,
+        PASS_BEGAN, PAGE, PAGE, PASS_ENDED,
+        PASS_BEGAN, PAGE, PASS_ENDED
+      ),
+      types
+    );
+
+    assertEquals( "pagella", mEvents.get( 4 ).getDetail() );
+    assertEquals( 2, mEvents.get( 5 ).getPages() );
+
+    // The page count from the first pass is known during the second pass.
+    final var page = mEvents.get( 8 );
+    assertEquals( 2, page.getPass() );
+    assertEquals( 2, page.getPage() );
+    assertEquals( 2, page.getPages() );
+
+    // A decreasing page number without a run line starts another pass.
+    assertEquals( 3, mEvents.get( 10 ).getPass() );
+  }
+}
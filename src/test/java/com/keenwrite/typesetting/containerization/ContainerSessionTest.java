@@ -0,0 +1,249 @@
+/* Copyright 2023 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.typesetting.containerization;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link ContainerSession} reuses, replaces, and restarts its
+ * container, using a {@link Podman} that records commands instead of
+ * running them.
+ */
+class ContainerSessionTest {
+  private static final int MANAGER_FAILED = 125;
+
+  private final List<String> mCommands =
+    Collections.synchronizedList( new ArrayList<>() );
+
+  /**
+   * Containers that the fake container manager reports as existing.
+   */
+  private final List<String> mContainers = new ArrayList<>();
+
+  @Test
+  void test_Exec_SameMountPoints_ContainerReused( @TempDir final Path dir )
+    throws Exception {
+    final var session = new ContainerSession();
+
+    assertEquals( 0, session.exec( podman( dir ), in -> { }, "mtxrun" ) );
+    assertEquals( 0, session.exec( podman( dir ), in -> { }, "mtxrun" ) );
+
+    assertEquals( List.of( "launch", "exec", "exec" ), mCommands );
+  }
+
+  @Test
+  void test_Exec_DifferentMountPoints_ContainerReplaced(
+    @TempDir final Path dir ) throws Exception {
+    final var session = new ContainerSession();
+    final var other = dir.resolve( "other" ).toFile();
+
+    assertTrue( other.mkdir() );
+
+    session.exec( podman( dir ), in -> { }, "mtxrun" );
+    session.exec( podman( other.toPath() ), in -> { }, "mtxrun" );
+    session.exec( podman( other.toPath() ), in -> { }, "mtxrun" );
+
+    assertEquals(
+      List.of( "launch", "exec", "kill", "launch", "exec", "exec" ),
+      mCommands
+    );
+  }
+
+  @Test
+  void test_Exec_ManagerFailed_ContainerRestartedOnce(
+    @TempDir final Path dir ) throws Exception {
+    final var session = new ContainerSession();
+    final var failures = new AtomicInteger();
+
+    session.exec( podman( dir ), in -> { }, "mtxrun" );
+
+    // The container was stopped outside the application.
+    failures.set( 1 );
+    assertEquals(
+      0, session.exec( podman( dir, failures ), in -> { }, "mtxrun" ) );
+
+    // The command is not retried more than once.
+    failures.set( 2 );
+    assertEquals(
+      MANAGER_FAILED,
+      session.exec( podman( dir, failures ), in -> { }, "mtxrun" )
+    );
+
+    assertEquals(
+      List.of(
+        "launch", "exec",
+        "exec", "launch", "exec",
+        "exec", "launch", "exec"
+      ),
+      mCommands
+    );
+  }
+
+  @Test
+  void test_Exec_CommandRunning_ReplacementWaits( @TempDir final Path dir )
+    throws Exception {
+    final var session = new ContainerSession();
+    final var other = dir.resolve( "other" ).toFile();
+    final var started = new CountDownLatch( 1 );
+    final var finish = new CountDownLatch( 1 );
+    final var executor = Executors.newFixedThreadPool( 2 );
+
+    assertTrue( other.mkdir() );
+
+    try {
+      final var running = executor.submit( () -> session.exec(
+        podman( dir, started, finish ), in -> { }, "mtxrun" ) );
+
+      assertTrue( started.await( 10, SECONDS ) );
+
+      final var replacing = executor.submit( () -> session.exec(
+        podman( other.toPath() ), in -> { }, "mtxrun" ) );
+
+      // The container must not be replaced while the command runs.
+      Thread.sleep( 250 );
+      assertFalse( replacing.isDone() );
+      assertEquals( List.of( "launch", "exec" ), mCommands );
+
+      finish.countDown();
+
+      assertEquals( 0, running.get( 10, SECONDS ) );
+      assertEquals( 0, replacing.get( 10, SECONDS ) );
+    } finally {
+      finish.countDown();
+      executor.shutdown();
+    }
+
+    assertEquals(
+      List.of( "launch", "exec", "kill", "launch", "exec" ), mCommands );
+  }
+
+  @Test
+  void test_Exec_OrphanedContainers_RemovedOnFirstLaunch(
+    @TempDir final Path dir ) throws Exception {
+    final var ended = new ProcessBuilder( "true" ).start();
+    ended.waitFor();
+
+    final var orphan = ContainerSession.toName( ended.toHandle() );
+    final var parent = ProcessHandle.current().parent().orElseThrow();
+    final var running = ContainerSession.toName( parent );
+
+    // The process ID was reused by a process that started later.
+    final var reused = running.replaceFirst( "-\\d+$", "-1" );
+
+    mContainers.addAll( List.of( orphan, running, reused, "unrelated" ) );
+
+    final var session = new ContainerSession();
+
+    session.exec( podman( dir ), in -> { }, "mtxrun" );
+    session.exec( podman( dir ), in -> { }, "mtxrun" );
+
+    assertEquals(
+      List.of(
+        "remove " + orphan, "remove " + reused, "launch", "exec", "exec" ),
+      mCommands
+    );
+  }
+
+  private Podman podman( final Path dir ) {
+    return podman( dir, new AtomicInteger() );
+  }
+
+  /**
+   * Returns a {@link Podman} whose commands fail with the container manager's
+   * exit code until the given number of failures is exhausted.
+   */
+  private Podman podman( final Path dir, final AtomicInteger failures ) {
+    final var podman = new FakePodman() {
+      @Override
+      public int exec(
+        final StreamProcessor processor,
+        final String name,
+        final String... args ) {
+        super.exec( processor, name, args );
+        return failures.getAndUpdate( n -> Math.max( 0, n - 1 ) ) > 0
+          ? MANAGER_FAILED
+          : 0;
+      }
+    };
+
+    podman.mount( dir, "/root/source", true );
+    return podman;
+  }
+
+  /**
+   * Returns a {@link Podman} whose commands signal when they start, then
+   * block until allowed to finish.
+   */
+  private Podman podman(
+    final Path dir,
+    final CountDownLatch started,
+    final CountDownLatch finish ) {
+    final var podman = new FakePodman() {
+      @Override
+      public int exec(
+        final StreamProcessor processor,
+        final String name,
+        final String... args ) {
+        super.exec( processor, name, args );
+        started.countDown();
+
+        try {
+          assertTrue( finish.await( 10, SECONDS ) );
+        } catch( final InterruptedException ex ) {
+          throw new RuntimeException( ex );
+        }
+
+        return 0;
+      }
+    };
+
+    podman.mount( dir, "/root/source", true );
+    return podman;
+  }
+
+  /**
+   * Records the container commands in the order they are issued.
+   */
+  private class FakePodman extends Podman {
+    @Override
+    public int launch( final StreamProcessor processor, final String name ) {
+      mCommands.add( "launch" );
+      return 0;
+    }
+
+    @Override
+    public int exec(
+      final StreamProcessor processor,
+      final String name,
+      final String... args ) {
+      mCommands.add( "exec" );
+      return 0;
+    }
+
+    @Override
+    public void kill( final StreamProcessor processor, final String name ) {
+      mCommands.add( "kill" );
+    }
+
+    @Override
+    public List<String> list() {
+      return List.copyOf( mContainers );
+    }
+
+    @Override
+    public void remove( final StreamProcessor processor, final String name ) {
+      mCommands.add( "remove " + name );
+    }
+  }
+}